@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.IntDoubleProcedure;
+import org.apache.mahout.math.map.OpenIntDoubleHashMap;
+import org.apache.mahout.math.map.OpenLongObjectHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the generated open-addressing primitive maps, {@link OpenIntDoubleHashMap} (the storage behind
+ * {@code RandomAccessSparseVector}) and {@link OpenLongObjectHashMap}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CollectionsBenchmark {
+
+  @Param({"1000", "100000"})
+  private int numKeys;
+
+  private int[] intKeys;
+  private long[] longKeys;
+  private OpenIntDoubleHashMap intDoubleMap;
+  private OpenLongObjectHashMap<Object> longObjectMap;
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(1234L);
+    intKeys = new int[numKeys];
+    longKeys = new long[numKeys];
+    intDoubleMap = new OpenIntDoubleHashMap();
+    longObjectMap = new OpenLongObjectHashMap<Object>();
+    for (int i = 0; i < numKeys; i++) {
+      intKeys[i] = random.nextInt();
+      longKeys[i] = random.nextLong();
+      intDoubleMap.put(intKeys[i], random.nextDouble());
+      longObjectMap.put(longKeys[i], longKeys[i]);
+    }
+  }
+
+  @Benchmark
+  public OpenIntDoubleHashMap intDoublePut() {
+    OpenIntDoubleHashMap map = new OpenIntDoubleHashMap();
+    for (int key : intKeys) {
+      map.put(key, key);
+    }
+    return map;
+  }
+
+  @Benchmark
+  public double intDoubleGet() {
+    double sum = 0.0;
+    for (int key : intKeys) {
+      sum += intDoubleMap.get(key);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public void intDoubleForEachPair(final Blackhole blackhole) {
+    intDoubleMap.forEachPair(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int key, double value) {
+        blackhole.consume(value);
+        return true;
+      }
+    });
+  }
+
+  @Benchmark
+  public OpenLongObjectHashMap<Object> longObjectPut() {
+    OpenLongObjectHashMap<Object> map = new OpenLongObjectHashMap<Object>();
+    for (long key : longKeys) {
+      map.put(key, Boolean.TRUE);
+    }
+    return map;
+  }
+
+  @Benchmark
+  public void longObjectGet(Blackhole blackhole) {
+    for (long key : longKeys) {
+      blackhole.consume(longObjectMap.get(key));
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.SparseRowMatrix;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks matrix-matrix and matrix-vector multiplication for {@link DenseMatrix} and {@link SparseRowMatrix}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class MatrixBenchmark {
+
+  @Param({"dense", "sparseRow"})
+  private String type;
+
+  @Param({"100", "500"})
+  private int size;
+
+  /** fraction of non-zero entries used for the sparse matrices */
+  @Param({"0.01"})
+  private double density;
+
+  private Matrix a;
+  private Matrix b;
+  private Vector v;
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(1234L);
+    a = randomMatrix(random);
+    b = randomMatrix(random);
+    v = new DenseVector(size);
+    for (int i = 0; i < size; i++) {
+      v.setQuick(i, random.nextGaussian());
+    }
+  }
+
+  private Matrix randomMatrix(Random random) {
+    Matrix matrix;
+    if ("dense".equals(type)) {
+      matrix = new DenseMatrix(size, size);
+      for (int row = 0; row < size; row++) {
+        for (int column = 0; column < size; column++) {
+          matrix.setQuick(row, column, random.nextGaussian());
+        }
+      }
+    } else if ("sparseRow".equals(type)) {
+      matrix = new SparseRowMatrix(size, size);
+      int numNonZeros = (int) (density * size * size);
+      for (int i = 0; i < numNonZeros; i++) {
+        matrix.setQuick(random.nextInt(size), random.nextInt(size), random.nextGaussian());
+      }
+    } else {
+      throw new IllegalStateException("Unknown matrix type: " + type);
+    }
+    return matrix;
+  }
+
+  @Benchmark
+  public Matrix times() {
+    return a.times(b);
+  }
+
+  @Benchmark
+  public Matrix transposeThenTimes() {
+    return a.transpose().times(b);
+  }
+
+  @Benchmark
+  public Matrix transposeTimes() {
+    return a.transposeTimes(b);
+  }
+
+  @Benchmark
+  public Vector timesVector() {
+    return a.times(v);
+  }
+
+}
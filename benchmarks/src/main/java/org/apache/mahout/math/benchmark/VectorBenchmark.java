@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.benchmark;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.IntDoubleProcedure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the basic {@link Vector} operations for each of the concrete vector implementations. This replaces the
+ * timing loops of the integration module's {@code VectorBenchmarks} with properly warmed-up, forked runs; add
+ * {@code -prof gc} on the command line to see the allocation rate of each operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class VectorBenchmark {
+
+  @Param({"dense", "randomAccess", "sequentialAccess"})
+  private String type;
+
+  @Param({"10000"})
+  private int cardinality;
+
+  @Param({"100"})
+  private int numNonZeros;
+
+  private Vector x;
+  private Vector y;
+  private Vector target;
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(1234L);
+    x = randomVector(random);
+    y = randomVector(random);
+    target = newVector();
+  }
+
+  private Vector randomVector(Random random) {
+    Vector vector = newVector();
+    for (int i = 0; i < numNonZeros; i++) {
+      vector.setQuick(random.nextInt(cardinality), random.nextGaussian());
+    }
+    if ("sequentialAccess".equals(type)) {
+      // writes into a SequentialAccessSparseVector are only cheap once it is built; copy to trim
+      return new SequentialAccessSparseVector(vector);
+    }
+    return vector;
+  }
+
+  private Vector newVector() {
+    if ("dense".equals(type)) {
+      return new DenseVector(cardinality);
+    }
+    if ("randomAccess".equals(type)) {
+      return new RandomAccessSparseVector(cardinality, numNonZeros);
+    }
+    if ("sequentialAccess".equals(type)) {
+      return new SequentialAccessSparseVector(cardinality, numNonZeros);
+    }
+    throw new IllegalStateException("Unknown vector type: " + type);
+  }
+
+  @Benchmark
+  public double dot() {
+    return x.dot(y);
+  }
+
+  @Benchmark
+  public Vector plus() {
+    return x.plus(y);
+  }
+
+  @Benchmark
+  public Vector minus() {
+    return x.minus(y);
+  }
+
+  @Benchmark
+  public Vector assign() {
+    return target.assign(x);
+  }
+
+  @Benchmark
+  public Vector assignFunction() {
+    return target.assign(x, Functions.PLUS);
+  }
+
+  @Benchmark
+  public double aggregate() {
+    return x.aggregate(Functions.PLUS, Functions.ABS);
+  }
+
+  @Benchmark
+  public double aggregateWithOther() {
+    return x.aggregate(y, Functions.PLUS, Functions.MULT);
+  }
+
+  @Benchmark
+  public double getDistanceSquared() {
+    return x.getDistanceSquared(y);
+  }
+
+  @Benchmark
+  public double iterateNonZero() {
+    double sum = 0.0;
+    Iterator<Vector.Element> iterator = x.iterateNonZero();
+    while (iterator.hasNext()) {
+      Vector.Element element = iterator.next();
+      sum += element.index() * element.get();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public void forEachNonZero(final Blackhole blackhole) {
+    x.forEachNonZero(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        blackhole.consume(index * value);
+        return true;
+      }
+    });
+  }
+
+}
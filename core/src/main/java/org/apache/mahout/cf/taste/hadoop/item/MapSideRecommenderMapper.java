@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.hadoop.item;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import com.google.common.primitives.Floats;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.mahout.cf.taste.common.TopK;
+import org.apache.mahout.cf.taste.hadoop.RecommendedItemsWritable;
+import org.apache.mahout.cf.taste.hadoop.TasteHadoopUtils;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.HadoopUtil;
+import org.apache.mahout.common.iterator.FileLineIterable;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.math.VarLongWritable;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.apache.mahout.math.map.OpenIntLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Computes the recommendations for each user in one pass, joining the user's vector with the item similarity
+ * matrix in memory. The matrix is a {@link SimilarityMatrixFile} shipped to every task through the distributed
+ * cache and memory-mapped there, so nothing is shuffled.</p>
+ *
+ * <p>Predictions are those of {@link AggregateAndRecommendReducer}, from the same preferences as
+ * {@link UserVectorSplitterMapper} considers, and items are filtered as {@link ItemFilterAsVectorAndPrefsReducer}
+ * and the items file do. Items the user already has are never recommended.</p>
+ */
+public final class MapSideRecommenderMapper
+    extends Mapper<VarLongWritable,VectorWritable,VarLongWritable,RecommendedItemsWritable> {
+
+  private static final Logger log = LoggerFactory.getLogger(MapSideRecommenderMapper.class);
+
+  static final String FILTER_FILE = "filterFile";
+
+  private static final Comparator<RecommendedItem> BY_PREFERENCE_VALUE =
+      new Comparator<RecommendedItem>() {
+        @Override
+        public int compare(RecommendedItem one, RecommendedItem two) {
+          return Floats.compare(one.getValue(), two.getValue());
+        }
+      };
+
+  private SimilarityMatrixFile similarities;
+  private boolean booleanData;
+  private int recommendationsPerUser;
+  private int maxPrefsPerUserConsidered;
+  private FastIDSet usersToRecommendFor;
+  private FastIDSet itemsToRecommendFor;
+  private FastByIDMap<FastIDSet> itemsToFilterByUser;
+  private OpenIntLongHashMap indexItemIDMap;
+
+  /** slot in the arrays below of each item index touched for the current user */
+  private final OpenIntIntHashMap slots = new OpenIntIntHashMap();
+  private int[] itemIndexes = new int[64];
+  private double[] numerators = new double[64];
+  private double[] denominators = new double[64];
+  private int[] counts = new int[64];
+  private int numSlots;
+
+  @Override
+  protected void setup(Context context) throws IOException {
+    Configuration conf = context.getConfiguration();
+    similarities = SimilarityMatrixFile.open(localSimilarityMatrixFile(conf));
+    log.info("Mapped {} similarities of {} items", similarities.getNumEntries(), similarities.getNumRows());
+    booleanData = conf.getBoolean(RecommenderJob.BOOLEAN_DATA, false);
+    recommendationsPerUser = conf.getInt(AggregateAndRecommendReducer.NUM_RECOMMENDATIONS,
+        AggregateAndRecommendReducer.DEFAULT_NUM_RECOMMENDATIONS);
+    maxPrefsPerUserConsidered = conf.getInt(UserVectorSplitterMapper.MAX_PREFS_PER_USER_CONSIDERED,
+        UserVectorSplitterMapper.DEFAULT_MAX_PREFS_PER_USER_CONSIDERED);
+    indexItemIDMap = TasteHadoopUtils.readItemIDIndexMap(conf.get(AggregateAndRecommendReducer.ITEMID_INDEX_PATH),
+        conf);
+
+    String usersFile = conf.get(UserVectorSplitterMapper.USERS_FILE);
+    if (usersFile != null) {
+      usersToRecommendFor = readIDs(new Path(usersFile), conf);
+    }
+    String itemsFile = conf.get(AggregateAndRecommendReducer.ITEMS_FILE);
+    if (itemsFile != null) {
+      itemsToRecommendFor = readIDs(new Path(itemsFile), conf);
+    }
+    String filterFile = conf.get(FILTER_FILE);
+    if (filterFile != null) {
+      itemsToFilterByUser = readFilter(new Path(filterFile), conf);
+    }
+  }
+
+  /** the cached file as localized on this node, or where it is if tasks run locally */
+  private static File localSimilarityMatrixFile(Configuration conf) throws IOException {
+    Path[] localFiles = DistributedCache.getLocalCacheFiles(conf);
+    Path path = localFiles != null && localFiles.length > 0 ? localFiles[0] : HadoopUtil.cachedFile(conf);
+    return new File(path.toUri().getPath());
+  }
+
+  private static FastIDSet readIDs(Path path, Configuration conf) throws IOException {
+    FastIDSet ids = new FastIDSet();
+    for (String line : new FileLineIterable(HadoopUtil.openStream(path, conf))) {
+      try {
+        ids.add(Long.parseLong(line));
+      } catch (NumberFormatException nfe) {
+        log.warn("line ignored: {}", line);
+      }
+    }
+    return ids;
+  }
+
+  /** reads comma-separated userID,itemID pairs from a file or the files of a directory, as {@link ItemFilterMapper} */
+  private static FastByIDMap<FastIDSet> readFilter(Path path, Configuration conf) throws IOException {
+    FastByIDMap<FastIDSet> itemsByUser = new FastByIDMap<FastIDSet>();
+    FileSystem fs = path.getFileSystem(conf);
+    for (FileStatus status : fs.listStatus(path, PathFilters.logsCRCFilter())) {
+      for (String line : new FileLineIterable(fs.open(status.getPath()))) {
+        String[] tokens = TasteHadoopUtils.splitPrefTokens(line);
+        long userID = Long.parseLong(tokens[0]);
+        FastIDSet itemIDs = itemsByUser.get(userID);
+        if (itemIDs == null) {
+          itemIDs = new FastIDSet(2);
+          itemsByUser.put(userID, itemIDs);
+        }
+        itemIDs.add(Long.parseLong(tokens[1]));
+      }
+    }
+    return itemsByUser;
+  }
+
+  @Override
+  protected void map(VarLongWritable key, VectorWritable value, Context context)
+    throws IOException, InterruptedException {
+    long userID = key.get();
+    if (usersToRecommendFor != null && !usersToRecommendFor.contains(userID)) {
+      return;
+    }
+    Vector userVector = value.get();
+    float smallestConsidered = smallestConsideredValue(userVector);
+
+    Iterator<Vector.Element> prefs = userVector.iterateNonZero();
+    while (prefs.hasNext()) {
+      Vector.Element pref = prefs.next();
+      float prefValue = (float) pref.get();
+      if (Math.abs(prefValue) < smallestConsidered) {
+        continue;
+      }
+      int row = similarities.findRow(pref.index());
+      if (row < 0) {
+        continue;
+      }
+      long end = similarities.rowStart(row) + similarities.rowLength(row);
+      for (long entry = similarities.rowStart(row); entry < end; entry++) {
+        int slot = slotFor(similarities.columnIndex(entry));
+        float similarity = similarities.similarity(entry);
+        numerators[slot] += booleanData ? similarity : prefValue * similarity;
+        denominators[slot] += Math.abs(similarity);
+        counts[slot]++;
+      }
+    }
+
+    FastIDSet itemsToFilter = itemsToFilterByUser == null ? null : itemsToFilterByUser.get(userID);
+    TopK<RecommendedItem> topKItems = new TopK<RecommendedItem>(recommendationsPerUser, BY_PREFERENCE_VALUE);
+    for (int slot = 0; slot < numSlots; slot++) {
+      int itemIndex = itemIndexes[slot];
+      /* preference estimations must be based on at least 2 datapoints */
+      if (userVector.getQuick(itemIndex) != 0.0 || !booleanData && counts[slot] < 2) {
+        continue;
+      }
+      float prediction = (float) (booleanData ? numerators[slot] : numerators[slot] / denominators[slot]);
+      if (Float.isNaN(prediction)) {
+        continue;
+      }
+      long itemID = indexItemIDMap != null && !indexItemIDMap.isEmpty() ? indexItemIDMap.get(itemIndex) : itemIndex;
+      if ((itemsToRecommendFor == null || itemsToRecommendFor.contains(itemID))
+          && (itemsToFilter == null || !itemsToFilter.contains(itemID))) {
+        topKItems.offer(new GenericRecommendedItem(itemID, prediction));
+      }
+    }
+    clearSlots();
+
+    if (!topKItems.isEmpty()) {
+      context.write(key, new RecommendedItemsWritable(topKItems.retrieve()));
+    }
+  }
+
+  /** as {@link UserVectorSplitterMapper}, considers only the preferences of greatest absolute value */
+  private float smallestConsideredValue(Vector userVector) {
+    if (userVector.getNumNondefaultElements() <= maxPrefsPerUserConsidered) {
+      return 0.0f;
+    }
+    TopK<Float> topPrefValues = new TopK<Float>(maxPrefsPerUserConsidered, new Comparator<Float>() {
+      @Override
+      public int compare(Float one, Float two) {
+        return one.compareTo(two);
+      }
+    });
+    Iterator<Vector.Element> it = userVector.iterateNonZero();
+    while (it.hasNext()) {
+      topPrefValues.offer(Math.abs((float) it.next().get()));
+    }
+    return topPrefValues.smallestGreat();
+  }
+
+  private int slotFor(int itemIndex) {
+    if (slots.containsKey(itemIndex)) {
+      return slots.get(itemIndex);
+    }
+    if (numSlots == itemIndexes.length) {
+      int capacity = 2 * numSlots;
+      itemIndexes = Arrays.copyOf(itemIndexes, capacity);
+      numerators = Arrays.copyOf(numerators, capacity);
+      denominators = Arrays.copyOf(denominators, capacity);
+      counts = Arrays.copyOf(counts, capacity);
+    }
+    int slot = numSlots++;
+    slots.put(itemIndex, slot);
+    itemIndexes[slot] = itemIndex;
+    return slot;
+  }
+
+  private void clearSlots() {
+    Arrays.fill(numerators, 0, numSlots, 0.0);
+    Arrays.fill(denominators, 0, numSlots, 0.0);
+    Arrays.fill(counts, 0, numSlots, 0);
+    numSlots = 0;
+    slots.clear();
+  }
+
+}
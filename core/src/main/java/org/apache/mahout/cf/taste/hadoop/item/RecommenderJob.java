@@ -78,6 +78,9 @@ import java.util.regex.Pattern;
  * <li>--maxPrefsPerUserInItemSimilarity (integer): max number of preferences to consider per user in the item similarity computation phase,
  * users with more preferences will be sampled down (1000)</li>
  * <li>--threshold (double): discard item pairs with a similarity value below this</li>
+ * <li>--mapSideJoin (boolean): compute the recommendations in one map-only pass, with the similarity matrix
+ * memory-mapped in every task, instead of joining it with the preferences through several shuffles; the pruned
+ * similarity matrix must then fit in the memory of each node (false)</li>
  * </ol>
  * <p/>
  * <p>General command line options are documented in {@link AbstractJob}.</p>
@@ -118,6 +121,8 @@ public final class RecommenderJob extends AbstractJob {
     addOption("similarityClassname", "s", "Name of distributed similarity measures class to instantiate, " +
             "alternatively use one of the predefined similarities (" + VectorSimilarityMeasures.list() + ')', true);
     addOption("threshold", "tr", "discard item pairs with a similarity value below this", false);
+    addOption("mapSideJoin", "msj", "compute the recommendations in one map-only pass, broadcasting the similarity "
+            + "matrix to every task", Boolean.FALSE.toString());
 
     Map<String, List<String>> parsedArgs = parseArguments(args);
     if (parsedArgs == null) {
@@ -137,6 +142,7 @@ public final class RecommenderJob extends AbstractJob {
     String similarityClassname = getOption("similarityClassname");
     double threshold = parsedArgs.containsKey("threshold") ?
             Double.parseDouble(getOption("threshold")) : RowSimilarityJob.NO_THRESHOLD;
+    boolean mapSideJoin = Boolean.valueOf(getOption("mapSideJoin"));
 
 
     Path prepPath = getTempPath("preparePreferenceMatrix");
@@ -145,6 +151,7 @@ public final class RecommenderJob extends AbstractJob {
     Path prePartialMultiplyPath2 = getTempPath("prePartialMultiply2");
     Path explicitFilterPath = getTempPath("explicitFilterPath");
     Path partialMultiplyPath = getTempPath("partialMultiply");
+    Path similarityMatrixFilePath = getTempPath("similarityMatrixFile");
 
     AtomicInteger currentPhase = new AtomicInteger();
 
@@ -185,6 +192,37 @@ public final class RecommenderJob extends AbstractJob {
               "--tempDir", getTempPath().toString()});
     }
 
+    if (mapSideJoin) {
+      if (shouldRunNextPhase(parsedArgs, currentPhase)) {
+        SimilarityMatrixFile.write(similarityMatrixPath, similarityMatrixFilePath, getConf());
+      }
+      if (shouldRunNextPhase(parsedArgs, currentPhase)) {
+        Job mapSideRecommend = prepareJob(new Path(prepPath, PreparePreferenceMatrixJob.USER_VECTORS), outputPath,
+                SequenceFileInputFormat.class, MapSideRecommenderMapper.class, VarLongWritable.class,
+                RecommendedItemsWritable.class, TextOutputFormat.class);
+        Configuration mapSideRecommendConf = mapSideRecommend.getConfiguration();
+        HadoopUtil.cacheFiles(similarityMatrixFilePath, mapSideRecommendConf);
+        if (usersFile != null) {
+          mapSideRecommendConf.set(UserVectorSplitterMapper.USERS_FILE, usersFile);
+        }
+        if (itemsFile != null) {
+          mapSideRecommendConf.set(AggregateAndRecommendReducer.ITEMS_FILE, itemsFile);
+        }
+        if (filterFile != null) {
+          mapSideRecommendConf.set(MapSideRecommenderMapper.FILTER_FILE, filterFile);
+        }
+        mapSideRecommendConf.setInt(UserVectorSplitterMapper.MAX_PREFS_PER_USER_CONSIDERED, maxPrefsPerUser);
+        mapSideRecommendConf.set(AggregateAndRecommendReducer.ITEMID_INDEX_PATH,
+                new Path(prepPath, PreparePreferenceMatrixJob.ITEMID_INDEX).toString());
+        mapSideRecommendConf.setInt(AggregateAndRecommendReducer.NUM_RECOMMENDATIONS, numRecommendations);
+        mapSideRecommendConf.setBoolean(BOOLEAN_DATA, booleanData);
+        boolean succeeded = mapSideRecommend.waitForCompletion(true);
+        if (!succeeded) 
+          return -1;
+      }
+      return 0;
+    }
+
     //start the multiplication of the co-occurrence matrix by the user vectors
     if (shouldRunNextPhase(parsedArgs, currentPhase)) {
       Job prePartialMultiply1 = prepareJob(
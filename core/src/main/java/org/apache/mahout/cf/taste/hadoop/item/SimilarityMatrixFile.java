@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.hadoop.item;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.mahout.common.Pair;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirIterable;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+/**
+ * <p>The item similarity matrix computed by
+ * {@link org.apache.mahout.math.hadoop.similarity.cooccurrence.RowSimilarityJob} in a compact binary file, which
+ * tasks memory-map instead of reading, so that one copy in the page cache serves all tasks of a node.
+ * Self-similarities and zeros are left out.</p>
+ *
+ * <p>The file holds the entries of all rows, each as an int column index and a float similarity, followed by
+ * the row index table, sorted by row index: for each row its index, the position of its first entry and its
+ * number of entries. A fixed-size footer at the end locates the table, so that the file is written in one pass
+ * over the matrix, without holding it in memory.</p>
+ */
+final class SimilarityMatrixFile {
+
+  private static final int MAGIC = 0x4D53494D;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 2 * 4;
+  private static final int ENTRY_BYTES = 4 + 4;
+  private static final int ROW_BYTES = 4 + 8 + 4;
+  private static final int FOOTER_BYTES = 8 + 4 + 8 + 4;
+
+  /** entries per mapping; a mapping can hold at most 2GB */
+  private static final int SEGMENT_BITS = 27;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+  private final int[] rowIndexes;
+  private final long[] rowStarts;
+  private final int[] rowLengths;
+  private final ByteBuffer[] segments;
+  private final long numEntries;
+
+  private SimilarityMatrixFile(int[] rowIndexes, long[] rowStarts, int[] rowLengths, ByteBuffer[] segments,
+      long numEntries) {
+    this.rowIndexes = rowIndexes;
+    this.rowStarts = rowStarts;
+    this.rowLengths = rowLengths;
+    this.segments = segments;
+    this.numEntries = numEntries;
+  }
+
+  /**
+   * Writes the rows of a similarity matrix, stored as {@code IntWritable, VectorWritable} sequence files in a
+   * directory, to one file.
+   */
+  static void write(Path similarityMatrixPath, Path outputPath, Configuration conf) throws IOException {
+    FileSystem fs = outputPath.getFileSystem(conf);
+    DataOutputStream out = fs.create(outputPath);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      int numRows = 0;
+      /* row index in the upper, and order of writing in the lower half */
+      long[] rowsByIndex = new long[16];
+      long[] rowStarts = new long[16];
+      int[] rowLengths = new int[16];
+      long numEntries = 0L;
+      for (Pair<IntWritable,VectorWritable> record
+          : new SequenceFileDirIterable<IntWritable,VectorWritable>(similarityMatrixPath, PathType.LIST,
+              PathFilters.partFilter(), null, true, conf)) {
+        int rowIndex = record.getFirst().get();
+        int length = 0;
+        Iterator<Vector.Element> it = record.getSecond().get().iterateNonZero();
+        while (it.hasNext()) {
+          Vector.Element e = it.next();
+          float similarity = (float) e.get();
+          if (e.index() != rowIndex && similarity != 0.0f && !Float.isNaN(similarity)) {
+            out.writeInt(e.index());
+            out.writeFloat(similarity);
+            length++;
+          }
+        }
+        if (numRows == rowsByIndex.length) {
+          rowsByIndex = Arrays.copyOf(rowsByIndex, 2 * numRows);
+          rowStarts = Arrays.copyOf(rowStarts, 2 * numRows);
+          rowLengths = Arrays.copyOf(rowLengths, 2 * numRows);
+        }
+        rowsByIndex[numRows] = (long) rowIndex << 32 | numRows;
+        rowStarts[numRows] = numEntries;
+        rowLengths[numRows] = length;
+        numRows++;
+        numEntries += length;
+      }
+
+      Arrays.sort(rowsByIndex, 0, numRows);
+      long tablePosition = HEADER_BYTES + numEntries * ENTRY_BYTES;
+      int previousIndex = -1;
+      for (int i = 0; i < numRows; i++) {
+        int rowIndex = (int) (rowsByIndex[i] >>> 32);
+        if (rowIndex == previousIndex) {
+          throw new IllegalStateException("Found two rows with index " + rowIndex);
+        }
+        previousIndex = rowIndex;
+        int row = (int) rowsByIndex[i];
+        out.writeInt(rowIndex);
+        out.writeLong(rowStarts[row]);
+        out.writeInt(rowLengths[row]);
+      }
+      out.writeLong(tablePosition);
+      out.writeInt(numRows);
+      out.writeLong(numEntries);
+      out.writeInt(MAGIC);
+    } finally {
+      Closeables.closeQuietly(out);
+    }
+  }
+
+  /**
+   * Maps a file written by {@link #write(Path, Path, Configuration)}. Only the row index table is read onto the
+   * heap.
+   */
+  static SimilarityMatrixFile open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long fileLength = channel.size();
+      if (fileLength < HEADER_BYTES + FOOTER_BYTES) {
+        throw new IOException("Not a similarity matrix file: " + file);
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+      ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, fileLength - FOOTER_BYTES, FOOTER_BYTES);
+      if (header.getInt() != MAGIC || footer.getInt(FOOTER_BYTES - 4) != MAGIC) {
+        throw new IOException("Not a similarity matrix file: " + file);
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported similarity matrix file version " + version);
+      }
+      long tablePosition = footer.getLong();
+      int numRows = footer.getInt();
+      long numEntries = footer.getLong();
+
+      int[] rowIndexes = new int[numRows];
+      long[] rowStarts = new long[numRows];
+      int[] rowLengths = new int[numRows];
+      ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, tablePosition, (long) numRows * ROW_BYTES);
+      for (int i = 0; i < numRows; i++) {
+        rowIndexes[i] = table.getInt();
+        rowStarts[i] = table.getLong();
+        rowLengths[i] = table.getInt();
+      }
+
+      ByteBuffer[] segments = new ByteBuffer[(int) ((numEntries + SEGMENT_MASK) >>> SEGMENT_BITS)];
+      for (int segment = 0; segment < segments.length; segment++) {
+        long segmentLength = Math.min(SEGMENT_MASK + 1, numEntries - ((long) segment << SEGMENT_BITS));
+        segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY,
+            HEADER_BYTES + ENTRY_BYTES * ((long) segment << SEGMENT_BITS), ENTRY_BYTES * segmentLength);
+      }
+      return new SimilarityMatrixFile(rowIndexes, rowStarts, rowLengths, segments, numEntries);
+    } finally {
+      // mappings stay valid once the file is closed
+      Closeables.closeQuietly(raf);
+    }
+  }
+
+  int getNumRows() {
+    return rowIndexes.length;
+  }
+
+  long getNumEntries() {
+    return numEntries;
+  }
+
+  /**
+   * @return position of the row with the given index in the row table, or a negative number if it has no row
+   */
+  int findRow(int rowIndex) {
+    return Arrays.binarySearch(rowIndexes, rowIndex);
+  }
+
+  long rowStart(int row) {
+    return rowStarts[row];
+  }
+
+  int rowLength(int row) {
+    return rowLengths[row];
+  }
+
+  int columnIndex(long entry) {
+    return segments[(int) (entry >>> SEGMENT_BITS)].getInt((int) (entry & SEGMENT_MASK) * ENTRY_BYTES);
+  }
+
+  float similarity(long entry) {
+    return segments[(int) (entry >>> SEGMENT_BITS)].getFloat((int) (entry & SEGMENT_MASK) * ENTRY_BYTES + 4);
+  }
+
+}
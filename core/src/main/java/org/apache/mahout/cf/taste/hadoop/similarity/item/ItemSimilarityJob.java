@@ -40,10 +40,13 @@ import org.apache.mahout.cf.taste.hadoop.EntityEntityWritable;
 import org.apache.mahout.cf.taste.hadoop.TasteHadoopUtils;
 import org.apache.mahout.cf.taste.hadoop.preparation.PreparePreferenceMatrixJob;
 import org.apache.mahout.common.AbstractJob;
+import org.apache.mahout.common.ClassUtils;
 import org.apache.mahout.common.HadoopUtil;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.InMemoryRowSimilarity;
 import org.apache.mahout.math.hadoop.similarity.cooccurrence.RowSimilarityJob;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.VectorSimilarityMeasure;
 import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.VectorSimilarityMeasures;
 import org.apache.mahout.math.map.OpenIntLongHashMap;
 
@@ -72,6 +75,8 @@ import org.apache.mahout.math.map.OpenIntLongHashMap;
  * <li>--maxSimilaritiesPerItem (integer): Maximum number of similarities considered per item (100)</li>
  * <li>--maxCooccurrencesPerItem (integer): Maximum number of cooccurrences considered per item (100)</li>
  * <li>--booleanData (boolean): Treat input data as having no pref values (false)</li>
+ * <li>--inMemory (boolean): Compute the similarities in this JVM on all processors with
+ *  {@link InMemoryRowSimilarity} instead of with {@link RowSimilarityJob} (false)</li>
  * </ol>
  *
  * <p>General command line options are documented in {@link AbstractJob}.</p>
@@ -108,6 +113,8 @@ public final class ItemSimilarityJob extends AbstractJob {
         + "(default: " + DEFAULT_MIN_PREFS_PER_USER + ')', String.valueOf(DEFAULT_MIN_PREFS_PER_USER));
     addOption("booleanData", "b", "Treat input as without pref values", String.valueOf(Boolean.FALSE));
     addOption("threshold", "tr", "discard item pairs with a similarity value below this", false);
+    addOption("inMemory", "im", "compute similarities in this JVM on all processors instead of with MapReduce",
+        String.valueOf(Boolean.FALSE));
 
     Map<String,List<String>> parsedArgs = parseArguments(args);
     if (parsedArgs == null) {
@@ -119,6 +126,7 @@ public final class ItemSimilarityJob extends AbstractJob {
     int maxPrefsPerUser = Integer.parseInt(getOption("maxPrefsPerUser"));
     int minPrefsPerUser = Integer.parseInt(getOption("minPrefsPerUser"));
     boolean booleanData = Boolean.valueOf(getOption("booleanData"));
+    boolean inMemory = Boolean.valueOf(getOption("inMemory"));
 
     double threshold = hasOption("threshold") ?
         Double.parseDouble(getOption("threshold")) : RowSimilarityJob.NO_THRESHOLD;
@@ -142,15 +150,30 @@ public final class ItemSimilarityJob extends AbstractJob {
       int numberOfUsers = HadoopUtil.readInt(new Path(prepPath, PreparePreferenceMatrixJob.NUM_USERS),
           getConf());
 
-      ToolRunner.run(getConf(), new RowSimilarityJob(), new String[] {
-          "--input", new Path(prepPath, PreparePreferenceMatrixJob.RATING_MATRIX).toString(),
-          "--output", similarityMatrixPath.toString(),
-          "--numberOfColumns", String.valueOf(numberOfUsers),
-          "--similarityClassname", similarityClassName,
-          "--maxSimilaritiesPerRow", String.valueOf(maxSimilarItemsPerItem),
-          "--excludeSelfSimilarity", String.valueOf(Boolean.TRUE),
-          "--threshold", String.valueOf(threshold),
-          "--tempDir", getTempPath().toString() });
+      if (inMemory) {
+        String measureClassname;
+        try {
+          measureClassname = VectorSimilarityMeasures.valueOf(similarityClassName).getClassname();
+        } catch (IllegalArgumentException iae) {
+          measureClassname = similarityClassName;
+        }
+        VectorSimilarityMeasure similarity = ClassUtils.instantiateAs(measureClassname,
+            VectorSimilarityMeasure.class);
+        new InMemoryRowSimilarity(similarity, maxSimilarItemsPerItem, true, threshold,
+            Runtime.getRuntime().availableProcessors()).compute(
+            new Path(prepPath, PreparePreferenceMatrixJob.RATING_MATRIX), similarityMatrixPath, numberOfUsers,
+            getConf());
+      } else {
+        ToolRunner.run(getConf(), new RowSimilarityJob(), new String[] {
+            "--input", new Path(prepPath, PreparePreferenceMatrixJob.RATING_MATRIX).toString(),
+            "--output", similarityMatrixPath.toString(),
+            "--numberOfColumns", String.valueOf(numberOfUsers),
+            "--similarityClassname", similarityClassName,
+            "--maxSimilaritiesPerRow", String.valueOf(maxSimilarItemsPerItem),
+            "--excludeSelfSimilarity", String.valueOf(Boolean.TRUE),
+            "--threshold", String.valueOf(threshold),
+            "--tempDir", getTempPath().toString() });
+      }
     }
 
     if (shouldRunNextPhase(parsedArgs, currentPhase)) {
@@ -1,178 +1,471 @@
-/**
- * Licensed to the Apache Software Foundation (ASF) under one or more
- * contributor license agreements.  See the NOTICE file distributed with
- * this work for additional information regarding copyright ownership.
- * The ASF licenses this file to You under the Apache License, Version 2.0
- * (the "License"); you may not use this file except in compliance with
- * the License.  You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package org.apache.mahout.cf.taste.impl.common;
-
-import com.google.common.base.Preconditions;
-import org.apache.mahout.cf.taste.common.TasteException;
-
-import java.util.Iterator;
-
-/**
- * <p>
- * An efficient Map-like class which caches values for keys. Values are not "put" into a ;
- * instead the caller supplies the instance with an implementation of {@link Retriever} which can load the
- * value for a given key.
- * </p>
- *
- * <p>
- * The cache does not support {@code null} keys.
- * </p>
- *
- * <p>
- * Thanks to Amila Jayasooriya for helping evaluate performance of the rewrite of this class, as part of a
- * Google Summer of Code 2007 project.
- * </p>
- */
-public final class Cache<K,V> implements Retriever<K,V> {
-
-  private static final Object NULL = new Object();
-  
-  private final FastMap<K,V> cache;
-  private final Retriever<? super K,? extends V> retriever;
-  
-  /**
-   * <p>
-   * Creates a new cache based on the given {@link Retriever}.
-   * </p>
-   * 
-   * @param retriever
-   *          object which can retrieve values for keys
-   */
-  public Cache(Retriever<? super K,? extends V> retriever) {
-    this(retriever, FastMap.NO_MAX_SIZE);
-  }
-  
-  /**
-   * <p>
-   * Creates a new cache based on the given {@link Retriever} and with given maximum size.
-   * </p>
-   * 
-   * @param retriever
-   *          object which can retrieve values for keys
-   * @param maxEntries
-   *          maximum number of entries the cache will store before evicting some
-   */
-  public Cache(Retriever<? super K,? extends V> retriever, int maxEntries) {
-    Preconditions.checkArgument(retriever != null, "retriever is null");
-    Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be at least 1");
-    cache = new FastMap<K, V>(11, maxEntries);
-    this.retriever = retriever;
-  }
-  
-  /**
-   * <p>
-   * Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.
-   * </p>
-   * 
-   * @param key
-   *          cache key
-   * @return value for that key
-   * @throws TasteException
-   *           if an exception occurs while retrieving a new cached value
-   */
-  @Override
-  public V get(K key) throws TasteException {
-    V value;
-    synchronized (cache) {
-      value = cache.get(key);
-    }
-    if (value == null) {
-      return getAndCacheValue(key);
-    }
-    return value == NULL ? null : value;
-  }
-  
-  /**
-   * <p>
-   * Uncaches any existing value for a given key.
-   * </p>
-   * 
-   * @param key
-   *          cache key
-   */
-  public void remove(K key) {
-    synchronized (cache) {
-      cache.remove(key);
-    }
-  }
-
-  /**
-   * Clears all cache entries whose key matches the given predicate.
-   */
-  public void removeKeysMatching(MatchPredicate<K> predicate) {
-    synchronized (cache) {
-      Iterator<K> it = cache.keySet().iterator();
-      while (it.hasNext()) {
-        K key = it.next();
-        if (predicate.matches(key)) {
-          it.remove();
-        }
-      }
-    }
-  }
-
-  /**
-   * Clears all cache entries whose value matches the given predicate.
-   */
-  public void removeValueMatching(MatchPredicate<V> predicate) {
-    synchronized (cache) {
-      Iterator<V> it = cache.values().iterator();
-      while (it.hasNext()) {
-        V value = it.next();
-        if (predicate.matches(value)) {
-          it.remove();
-        }
-      }
-    }
-  }
-  
-  /**
-   * <p>
-   * Clears the cache.
-   * </p>
-   */
-  public void clear() {
-    synchronized (cache) {
-      cache.clear();
-    }
-  }
-  
-  private V getAndCacheValue(K key) throws TasteException {
-    V value = retriever.get(key);
-    if (value == null) {
-      value = (V) NULL;
-    }
-    synchronized (cache) {
-      cache.put(key, value);
-    }
-    return value;
-  }
-  
-  @Override
-  public String toString() {
-    return "Cache[retriever:" + retriever + ']';
-  }
-
-  /**
-   * Used by {#link #removeKeysMatching(Object)} to decide things that are matching.
-   */
-  public interface MatchPredicate<T> {
-    boolean matches(T thing);
-  }
-  
-}
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.TasteException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * An efficient Map-like class which caches values for keys. Values are not "put" into a ;
+ * instead the caller supplies the instance with an implementation of {@link Retriever} which can load the
+ * value for a given key.
+ * </p>
+ *
+ * <p>
+ * The keys are spread over several segments, each guarded by a lock of its own, so that threads looking up
+ * different keys rarely wait for each other. Each segment evicts its least recently used entry when it is full;
+ * the maximum size is divided evenly among the segments. A key which is not cached is loaded only once: threads
+ * asking for it while it is being loaded wait for that load instead of starting another. A load which fails is not
+ * cached, and its exception is thrown to the loading thread and every waiting one.
+ * </p>
+ *
+ * <p>
+ * The cache does not support {@code null} keys.
+ * </p>
+ *
+ * <p>
+ * Thanks to Amila Jayasooriya for helping evaluate performance of the rewrite of this class, as part of a
+ * Google Summer of Code 2007 project.
+ * </p>
+ */
+public final class Cache<K,V> implements Retriever<K,V> {
+
+  private static final Object NULL = new Object();
+  private static final int MAX_SEGMENTS = 16;
+
+  private final Segment<K>[] segments;
+  private final int segmentMask;
+  private final Retriever<? super K,? extends V> retriever;
+  
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever}.
+   * </p>
+   * 
+   * @param retriever
+   *          object which can retrieve values for keys
+   */
+  public Cache(Retriever<? super K,? extends V> retriever) {
+    this(retriever, FastMap.NO_MAX_SIZE);
+  }
+  
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever} and with given maximum size.
+   * </p>
+   * 
+   * @param retriever
+   *          object which can retrieve values for keys
+   * @param maxEntries
+   *          maximum number of entries the cache will store before evicting some
+   */
+  public Cache(Retriever<? super K,? extends V> retriever, int maxEntries) {
+    Preconditions.checkArgument(retriever != null, "retriever is null");
+    Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be at least 1");
+    int numSegments = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxEntries));
+    @SuppressWarnings("unchecked")
+    Segment<K>[] newSegments = (Segment<K>[]) new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      int segmentMaxEntries = maxEntries == FastMap.NO_MAX_SIZE
+          ? FastMap.NO_MAX_SIZE
+          : maxEntries / numSegments + (i < maxEntries % numSegments ? 1 : 0);
+      newSegments[i] = new Segment<K>(segmentMaxEntries);
+    }
+    segments = newSegments;
+    segmentMask = numSegments - 1;
+    this.retriever = retriever;
+  }
+  
+  /**
+   * <p>
+   * Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.
+   * </p>
+   * 
+   * @param key
+   *          cache key
+   * @return value for that key
+   * @throws TasteException
+   *           if an exception occurs while retrieving a new cached value
+   */
+  @Override
+  public V get(K key) throws TasteException {
+    Segment<K> segment = segmentFor(key);
+    Load load;
+    boolean loadsHere = false;
+    segment.lock();
+    try {
+      Object value = segment.entries.get(key);
+      if (value != null) {
+        segment.hitCount++;
+        return unmask(value);
+      }
+      segment.missCount++;
+      load = segment.loads.get(key);
+      if (load == null) {
+        load = new Load();
+        segment.loads.put(key, load);
+        loadsHere = true;
+      }
+    } finally {
+      segment.unlock();
+    }
+    if (loadsHere) {
+      load(segment, key, load);
+    }
+    return unmask(load.await());
+  }
+
+  /** @return the value which a stored entry stands for */
+  @SuppressWarnings("unchecked")
+  private V unmask(Object value) {
+    return value == NULL ? null : (V) value;
+  }
+
+  private void load(Segment<K> segment, K key, Load load) {
+    long start = System.nanoTime();
+    Object value = null;
+    Throwable failure = null;
+    try {
+      value = retriever.get(key);
+      if (value == null) {
+        value = NULL;
+      }
+    } catch (TasteException te) {
+      failure = te;
+    } catch (RuntimeException re) {
+      failure = re;
+    } catch (Error e) {
+      failure = e;
+    }
+    long loadTime = System.nanoTime() - start;
+    segment.lock();
+    try {
+      segment.loads.remove(key);
+      segment.totalLoadTime += loadTime;
+      if (failure == null) {
+        segment.loadSuccessCount++;
+        if (!load.invalidated) {
+          segment.entries.put(key, value);
+        }
+      } else {
+        segment.loadFailureCount++;
+      }
+    } finally {
+      segment.unlock();
+    }
+    load.complete(value, failure);
+  }
+  
+  /**
+   * <p>
+   * Uncaches any existing value for a given key.
+   * </p>
+   * 
+   * @param key
+   *          cache key
+   */
+  public void remove(K key) {
+    Segment<K> segment = segmentFor(key);
+    segment.lock();
+    try {
+      segment.entries.remove(key);
+      Load load = segment.loads.get(key);
+      if (load != null) {
+        load.invalidated = true;
+      }
+    } finally {
+      segment.unlock();
+    }
+  }
+
+  /**
+   * Clears all cache entries whose key matches the given predicate.
+   */
+  public void removeKeysMatching(MatchPredicate<K> predicate) {
+    for (Segment<K> segment : segments) {
+      segment.lock();
+      try {
+        Iterator<K> it = segment.entries.keySet().iterator();
+        while (it.hasNext()) {
+          K key = it.next();
+          if (predicate.matches(key)) {
+            it.remove();
+          }
+        }
+        for (Map.Entry<K,Load> entry : segment.loads.entrySet()) {
+          if (predicate.matches(entry.getKey())) {
+            entry.getValue().invalidated = true;
+          }
+        }
+      } finally {
+        segment.unlock();
+      }
+    }
+  }
+
+  /**
+   * Clears all cache entries whose value matches the given predicate.
+   */
+  public void removeValueMatching(MatchPredicate<V> predicate) {
+    for (Segment<K> segment : segments) {
+      segment.lock();
+      try {
+        Iterator<Object> it = segment.entries.values().iterator();
+        while (it.hasNext()) {
+          Object value = it.next();
+          if (predicate.matches(unmask(value))) {
+            it.remove();
+          }
+        }
+      } finally {
+        segment.unlock();
+      }
+    }
+  }
+  
+  /**
+   * <p>
+   * Clears the cache.
+   * </p>
+   */
+  public void clear() {
+    for (Segment<K> segment : segments) {
+      segment.lock();
+      try {
+        segment.entries.clear();
+        for (Load load : segment.loads.values()) {
+          load.invalidated = true;
+        }
+      } finally {
+        segment.unlock();
+      }
+    }
+  }
+
+  /**
+   * @return the number of values currently cached
+   */
+  public int size() {
+    int size = 0;
+    for (Segment<K> segment : segments) {
+      segment.lock();
+      try {
+        size += segment.entries.size();
+      } finally {
+        segment.unlock();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return counts of hits, misses, loads and evictions since the cache was created
+   */
+  public Stats getStats() {
+    long hitCount = 0;
+    long missCount = 0;
+    long loadSuccessCount = 0;
+    long loadFailureCount = 0;
+    long totalLoadTime = 0;
+    long evictionCount = 0;
+    for (Segment<K> segment : segments) {
+      segment.lock();
+      try {
+        hitCount += segment.hitCount;
+        missCount += segment.missCount;
+        loadSuccessCount += segment.loadSuccessCount;
+        loadFailureCount += segment.loadFailureCount;
+        totalLoadTime += segment.totalLoadTime;
+        evictionCount += segment.evictionCount;
+      } finally {
+        segment.unlock();
+      }
+    }
+    return new Stats(hitCount, missCount, loadSuccessCount, loadFailureCount, totalLoadTime, evictionCount);
+  }
+
+  private Segment<K> segmentFor(K key) {
+    // spread the bits of the hash code, as the low bits of many hash codes are poorly distributed
+    int hash = key.hashCode();
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return segments[hash & segmentMask];
+  }
+  
+  @Override
+  public String toString() {
+    return "Cache[retriever:" + retriever + ']';
+  }
+
+  /**
+   * Used by {#link #removeKeysMatching(Object)} to decide things that are matching.
+   */
+  public interface MatchPredicate<T> {
+    boolean matches(T thing);
+  }
+
+  /**
+   * Counts of the activity of a {@link Cache}. A lookup which waits for another thread to load the key counts as a
+   * miss, but not as a load.
+   */
+  public static final class Stats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+
+    Stats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount, long totalLoadTime,
+          long evictionCount) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.loadSuccessCount = loadSuccessCount;
+      this.loadFailureCount = loadFailureCount;
+      this.totalLoadTime = totalLoadTime;
+      this.evictionCount = evictionCount;
+    }
+
+    public long getHitCount() {
+      return hitCount;
+    }
+
+    public long getMissCount() {
+      return missCount;
+    }
+
+    /**
+     * @return the fraction of lookups which were hits, or 1 if there were no lookups
+     */
+    public double getHitRate() {
+      long requestCount = hitCount + missCount;
+      return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public long getLoadSuccessCount() {
+      return loadSuccessCount;
+    }
+
+    public long getLoadFailureCount() {
+      return loadFailureCount;
+    }
+
+    /**
+     * @return nanoseconds spent loading values, successfully or not
+     */
+    public long getTotalLoadTime() {
+      return totalLoadTime;
+    }
+
+    /**
+     * @return mean nanoseconds spent per load, or 0 if there were no loads
+     */
+    public double getAverageLoadPenalty() {
+      long loadCount = loadSuccessCount + loadFailureCount;
+      return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    public long getEvictionCount() {
+      return evictionCount;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats[hits:" + hitCount + ", misses:" + missCount + ", loads:" + loadSuccessCount
+          + ", failedLoads:" + loadFailureCount + ", totalLoadTime:" + totalLoadTime
+          + ", evictions:" + evictionCount + ']';
+    }
+  }
+
+  /** a part of the cache, guarded by its own lock; the counters are only accessed while holding it */
+  private static final class Segment<K> extends ReentrantLock {
+
+    private final Map<K,Object> entries;
+    private final Map<K,Load> loads;
+    private long hitCount;
+    private long missCount;
+    private long loadSuccessCount;
+    private long loadFailureCount;
+    private long totalLoadTime;
+    private long evictionCount;
+
+    Segment(final int maxEntries) {
+      entries = new LinkedHashMap<K,Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K,Object> eldest) {
+          if (size() > maxEntries) {
+            evictionCount++;
+            return true;
+          }
+          return false;
+        }
+      };
+      loads = new FastMap<K,Load>();
+    }
+  }
+
+  /** a value being loaded by one thread, which other threads can wait for */
+  private static final class Load {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    /** set, while holding the segment's lock, if the key was removed during the load */
+    private boolean invalidated;
+    private Object value;
+    private Throwable failure;
+
+    void complete(Object value, Throwable failure) {
+      this.value = value;
+      this.failure = failure;
+      done.countDown();
+    }
+
+    Object await() throws TasteException {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure instanceof TasteException) {
+        throw (TasteException) failure;
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      return value == NULL ? null : value;
+    }
+  }
+  
+}
@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>An immutable set of non-negative ints, stored in the manner of a "roaring" bitmap: values are grouped by their
+ * upper 16 bits, and each group keeps its lower 16 bits either as a sorted {@code char[]} when it is sparse, or as a
+ * 65536-bit bitmap when it holds more than 4096 values. Either way a group never takes more than 8KB.</p>
+ *
+ * <p>The point is {@link #intersectionSize(CompressedBitmap)}, which counts common values group by group: by
+ * population count of the AND of two bitmaps, by bit lookups of an array in a bitmap, or by merging two arrays.</p>
+ */
+public final class CompressedBitmap implements Serializable {
+
+  private static final int MAX_ARRAY_SIZE = 4096;
+  private static final int BITMAP_LONGS = 1 << 10;
+  /** when one array is this many times longer than the other, binary search beats merging */
+  private static final int SEARCH_RATIO = 32;
+
+  private static final CompressedBitmap EMPTY = new CompressedBitmap(new char[0], new char[0][], new long[0][], 0);
+
+  /** upper 16 bits of the values in each group, ascending */
+  private final char[] keys;
+  /** lower 16 bits of each group, sorted, or null where the group is a bitmap */
+  private final char[][] arrays;
+  /** bitmap of the lower 16 bits of each group, or null where the group is an array */
+  private final long[][] bitmaps;
+  private final int cardinality;
+
+  private CompressedBitmap(char[] keys, char[][] arrays, long[][] bitmaps, int cardinality) {
+    this.keys = keys;
+    this.arrays = arrays;
+    this.bitmaps = bitmaps;
+    this.cardinality = cardinality;
+  }
+
+  /**
+   * @param values non-negative values, sorted ascending and without duplicates
+   * @param length number of values of {@code values} to use
+   */
+  public static CompressedBitmap valueOf(int[] values, int length) {
+    Preconditions.checkArgument(length >= 0 && length <= values.length, "bad length: %s", length);
+    if (length == 0) {
+      return EMPTY;
+    }
+    Preconditions.checkArgument(values[0] >= 0, "negative value: %s", values[0]);
+    int numGroups = 1;
+    for (int i = 1; i < length; i++) {
+      Preconditions.checkArgument(values[i] > values[i - 1], "values not sorted or not distinct");
+      if (values[i] >>> 16 != values[i - 1] >>> 16) {
+        numGroups++;
+      }
+    }
+    char[] keys = new char[numGroups];
+    char[][] arrays = new char[numGroups][];
+    long[][] bitmaps = new long[numGroups][];
+    int start = 0;
+    for (int group = 0; group < numGroups; group++) {
+      int key = values[start] >>> 16;
+      int end = start + 1;
+      while (end < length && values[end] >>> 16 == key) {
+        end++;
+      }
+      keys[group] = (char) key;
+      int size = end - start;
+      if (size > MAX_ARRAY_SIZE) {
+        long[] bitmap = new long[BITMAP_LONGS];
+        for (int i = start; i < end; i++) {
+          int low = values[i] & 0xFFFF;
+          bitmap[low >>> 6] |= 1L << (low & 0x3F);
+        }
+        bitmaps[group] = bitmap;
+      } else {
+        char[] array = new char[size];
+        for (int i = start; i < end; i++) {
+          array[i - start] = (char) values[i];
+        }
+        arrays[group] = array;
+      }
+      start = end;
+    }
+    return new CompressedBitmap(keys, arrays, bitmaps, length);
+  }
+
+  public int cardinality() {
+    return cardinality;
+  }
+
+  public boolean contains(int value) {
+    if (value < 0) {
+      return false;
+    }
+    int group = Arrays.binarySearch(keys, (char) (value >>> 16));
+    if (group < 0) {
+      return false;
+    }
+    char low = (char) value;
+    long[] bitmap = bitmaps[group];
+    if (bitmap != null) {
+      return (bitmap[low >>> 6] & 1L << (low & 0x3F)) != 0L;
+    }
+    return Arrays.binarySearch(arrays[group], low) >= 0;
+  }
+
+  /**
+   * @return number of values in both this and the other set
+   */
+  public int intersectionSize(CompressedBitmap other) {
+    char[] otherKeys = other.keys;
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < keys.length && j < otherKeys.length) {
+      if (keys[i] < otherKeys[j]) {
+        i++;
+      } else if (keys[i] > otherKeys[j]) {
+        j++;
+      } else {
+        size += groupIntersectionSize(arrays[i], bitmaps[i], other.arrays[j], other.bitmaps[j]);
+        i++;
+        j++;
+      }
+    }
+    return size;
+  }
+
+  private static int groupIntersectionSize(char[] array1, long[] bitmap1, char[] array2, long[] bitmap2) {
+    if (bitmap1 != null) {
+      return bitmap2 != null ? bitmapIntersectionSize(bitmap1, bitmap2) : lookupIntersectionSize(array2, bitmap1);
+    }
+    if (bitmap2 != null) {
+      return lookupIntersectionSize(array1, bitmap2);
+    }
+    return array1.length < array2.length
+        ? arrayIntersectionSize(array1, array2)
+        : arrayIntersectionSize(array2, array1);
+  }
+
+  private static int bitmapIntersectionSize(long[] bitmap1, long[] bitmap2) {
+    int size = 0;
+    for (int i = 0; i < BITMAP_LONGS; i++) {
+      size += Long.bitCount(bitmap1[i] & bitmap2[i]);
+    }
+    return size;
+  }
+
+  private static int lookupIntersectionSize(char[] array, long[] bitmap) {
+    int size = 0;
+    for (char low : array) {
+      if ((bitmap[low >>> 6] & 1L << (low & 0x3F)) != 0L) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  /** @param shorter the array that is not longer than {@code longer} */
+  private static int arrayIntersectionSize(char[] shorter, char[] longer) {
+    int size = 0;
+    if (shorter.length * SEARCH_RATIO < longer.length) {
+      int from = 0;
+      for (char low : shorter) {
+        int found = Arrays.binarySearch(longer, from, longer.length, low);
+        if (found >= 0) {
+          size++;
+          from = found + 1;
+        } else {
+          from = -found - 1;
+        }
+      }
+      return size;
+    }
+    int i = 0;
+    int j = 0;
+    while (i < shorter.length && j < longer.length) {
+      if (shorter[i] < longer[j]) {
+        i++;
+      } else if (shorter[i] > longer[j]) {
+        j++;
+      } else {
+        size++;
+        i++;
+        j++;
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return "CompressedBitmap[groups:" + keys.length + ", cardinality:" + cardinality + ']';
+  }
+
+}
@@ -17,8 +17,10 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -40,11 +42,13 @@ import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.ParallelTasks;
 import org.apache.mahout.common.RandomUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 /**
  * <p>
@@ -54,6 +58,12 @@ import com.google.common.base.Preconditions;
  * preferences for a user and then finding the percentage of those 5 items included in the top 5
  * recommendations for that user.
  * </p>
+ *
+ * <p>
+ * Users are evaluated one at a time unless a number of threads is given to the constructor. With the default
+ * {@link GenericRelevantItemsDataSplitter} and {@link DataModelBuilder}, each user's recommender is built on a view
+ * of the {@link DataModel} which hides that user's relevant preferences, rather than on a copy of all the data.
+ * </p>
  */
 public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRStatsEvaluator {
   
@@ -70,15 +80,27 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
   
   private final Random random;
   private final RelevantItemsDataSplitter dataSplitter;
+  private final int numThreads;
 
   public GenericRecommenderIRStatsEvaluator() {
 	  this(new GenericRelevantItemsDataSplitter());
   }
   
   public GenericRecommenderIRStatsEvaluator(RelevantItemsDataSplitter dataSplitter) {
+    this(dataSplitter, 1);
+  }
+
+  /**
+   * @param numThreads number of users evaluated at once, such as the number of processors; above 1, the
+   *  {@link RecommenderBuilder}, {@link DataModelBuilder} and {@link RelevantItemsDataSplitter} must be safe to use
+   *  from this many threads
+   */
+  public GenericRecommenderIRStatsEvaluator(RelevantItemsDataSplitter dataSplitter, int numThreads) {
     Preconditions.checkNotNull(dataSplitter);
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
 	  random = RandomUtils.getRandom();
 	  this.dataSplitter = dataSplitter;
+    this.numThreads = numThreads;
   }
   
   @Override
@@ -96,127 +118,156 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     Preconditions.checkArgument(evaluationPercentage > 0.0 && evaluationPercentage <= 1.0,
       "Invalid evaluationPercentage: %s", evaluationPercentage);
 
-    int numItems = dataModel.getNumItems();
-    RunningAverage precision = new FullRunningAverage();
-    RunningAverage recall = new FullRunningAverage();
-    RunningAverage fallOut = new FullRunningAverage();
-    RunningAverage nDCG = new FullRunningAverage();
-    int numUsersRecommendedFor = 0;
-    int numUsersWithRecommendations = 0;
-
+    // Sample up front, so that which users are evaluated does not depend on thread scheduling
+    long[] userIDs = new long[dataModel.getNumUsers()];
+    int numUserIDs = 0;
     LongPrimitiveIterator it = dataModel.getUserIDs();
     while (it.hasNext()) {
-
       long userID = it.nextLong();
+      if (random.nextDouble() < evaluationPercentage) {
+        if (numUserIDs == userIDs.length) {
+          userIDs = Arrays.copyOf(userIDs, 2 * numUserIDs + 1);
+        }
+        userIDs[numUserIDs++] = userID;
+      }
+    }
+
+    int numTasks = Math.max(1, Math.min(numThreads, numUserIDs));
+    List<Callable<Statistics>> tasks = Lists.newArrayListWithCapacity(numTasks);
+    for (int task = 0; task < numTasks; task++) {
+      tasks.add(new EvaluationCallable(recommenderBuilder, dataModelBuilder, dataModel, rescorer, at,
+          relevanceThreshold, userIDs, numUserIDs, task, numTasks));
+    }
 
-      if (random.nextDouble() >= evaluationPercentage) {
-        // Skipped
-        continue;
+    Statistics total = new Statistics();
+    try {
+      for (Statistics statistics : ParallelTasks.invokeAll(tasks, numTasks, TasteException.class)) {
+        total.merge(statistics);
       }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    }
 
-      long start = System.currentTimeMillis();
+    log.info("Precision/recall/fall-out/nDCG/MAP: {} / {} / {} / {} / {}", new Object[] {
+        total.precision.getAverage(), total.recall.getAverage(), total.fallOut.getAverage(),
+        total.nDCG.getAverage(), total.averagePrecision.getAverage()
+    });
 
-      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+    double reach = (double) total.numUsersWithRecommendations / (double) total.numUsersRecommendedFor;
 
-      // List some most-preferred items that would count as (most) "relevant" results
-      double theRelevanceThreshold = Double.isNaN(relevanceThreshold) ? computeThreshold(prefs) : relevanceThreshold;
-      FastIDSet relevantItemIDs = dataSplitter.getRelevantItemsIDs(userID, at, theRelevanceThreshold, dataModel);
+    return new IRStatisticsImpl(
+        total.precision.getAverage(),
+        total.recall.getAverage(),
+        total.fallOut.getAverage(),
+        total.nDCG.getAverage(),
+        total.averagePrecision.getAverage(),
+        reach);
+  }
 
-      int numRelevantItems = relevantItemIDs.size();
-      if (numRelevantItems <= 0) {
-        continue;
-      }
+  private void evaluateUser(long userID,
+                            RecommenderBuilder recommenderBuilder,
+                            DataModelBuilder dataModelBuilder,
+                            DataModel dataModel,
+                            IDRescorer rescorer,
+                            int at,
+                            double relevanceThreshold,
+                            Statistics stats) throws TasteException {
 
-      FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(dataModel.getNumUsers());
-      LongPrimitiveIterator it2 = dataModel.getUserIDs();
-      while (it2.hasNext()) {
-        dataSplitter.processOtherUser(userID, relevantItemIDs, trainingUsers, it2.nextLong(), dataModel);
-      }
+    long start = System.currentTimeMillis();
 
-      DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
-          : dataModelBuilder.buildDataModel(trainingUsers);
-      try {
-        trainingModel.getPreferencesFromUser(userID);
-      } catch (NoSuchUserException nsee) {
-        continue; // Oops we excluded all prefs for the user -- just move on
-      }
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
 
-      int size = relevantItemIDs.size() + trainingModel.getItemIDsFromUser(userID).size();
-      if (size < 2 * at) {
-        // Really not enough prefs to meaningfully evaluate this user
-        continue;
-      }
+    // List some most-preferred items that would count as (most) "relevant" results
+    double theRelevanceThreshold = Double.isNaN(relevanceThreshold) ? computeThreshold(prefs) : relevanceThreshold;
+    FastIDSet relevantItemIDs = dataSplitter.getRelevantItemsIDs(userID, at, theRelevanceThreshold, dataModel);
 
-      Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+    int numRelevantItems = relevantItemIDs.size();
+    if (numRelevantItems <= 0) {
+      return;
+    }
 
-      int intersectionSize = 0;
-      List<RecommendedItem> recommendedItems = recommender.recommend(userID, at, rescorer);
-      for (RecommendedItem recommendedItem : recommendedItems) {
-        if (relevantItemIDs.contains(recommendedItem.getItemID())) {
-          intersectionSize++;
-        }
+    DataModel trainingModel;
+    if (dataModelBuilder == null && dataSplitter instanceof GenericRelevantItemsDataSplitter) {
+      // Same training data as the splitter would produce, without copying everyone else's
+      trainingModel = new MaskedDataModel(dataModel, userID, relevantItemIDs);
+    } else {
+      FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(dataModel.getNumUsers());
+      LongPrimitiveIterator it = dataModel.getUserIDs();
+      while (it.hasNext()) {
+        dataSplitter.processOtherUser(userID, relevantItemIDs, trainingUsers, it.nextLong(), dataModel);
       }
+      trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
+          : dataModelBuilder.buildDataModel(trainingUsers);
+    }
+    try {
+      trainingModel.getPreferencesFromUser(userID);
+    } catch (NoSuchUserException nsee) {
+      return; // Oops we excluded all prefs for the user -- just move on
+    }
 
-      int numRecommendedItems = recommendedItems.size();
+    int size = relevantItemIDs.size() + trainingModel.getItemIDsFromUser(userID).size();
+    if (size < 2 * at) {
+      // Really not enough prefs to meaningfully evaluate this user
+      return;
+    }
 
-      // Precision
-      if (numRecommendedItems > 0) {
-        precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
+    Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+
+    List<RecommendedItem> recommendedItems = recommender.recommend(userID, at, rescorer);
+    int numRecommendedItems = recommendedItems.size();
+
+    // nDCG and average precision, in one pass over the recommendations
+    // In computing, assume relevant IDs have relevance 1 and others 0
+    int intersectionSize = 0;
+    double cumulativeGain = 0.0;
+    double idealizedGain = 0.0;
+    double sumOfPrecisions = 0.0;
+    for (int i = 0; i < numRecommendedItems; i++) {
+      RecommendedItem item = recommendedItems.get(i);
+      double discount = i == 0 ? 1.0 : 1.0 / log2(i + 1);
+      if (relevantItemIDs.contains(item.getItemID())) {
+        intersectionSize++;
+        cumulativeGain += discount;
+        // precision at this rank, counted only at the ranks of relevant items
+        sumOfPrecisions += (double) intersectionSize / (double) (i + 1);
       }
+      // otherwise we're multiplying discount by relevance 0 so it doesn't do anything
 
-      // Recall
-      recall.addDatum((double) intersectionSize / (double) numRelevantItems);
-
-      // Fall-out
-      if (numRelevantItems < size) {
-        fallOut.addDatum((double) (numRecommendedItems - intersectionSize)
-                         / (double) (numItems - numRelevantItems));
+      // Ideally results would be ordered with all relevant ones first, so this theoretical
+      // ideal list starts with number of relevant items equal to the total number of relevant items
+      if (i < numRelevantItems) {
+        idealizedGain += discount;
       }
+    }
 
-      // nDCG
-      // In computing, assume relevant IDs have relevance 1 and others 0
-      double cumulativeGain = 0.0;
-      double idealizedGain = 0.0;
-      for (int i = 0; i < recommendedItems.size(); i++) {
-        RecommendedItem item = recommendedItems.get(i);
-        double discount = i == 0 ? 1.0 : 1.0 / log2(i + 1);
-        if (relevantItemIDs.contains(item.getItemID())) {
-          cumulativeGain += discount;
-        }
-        // otherwise we're multiplying discount by relevance 0 so it doesn't do anything
+    // Precision
+    if (numRecommendedItems > 0) {
+      stats.precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
+    }
 
-        // Ideally results would be ordered with all relevant ones first, so this theoretical
-        // ideal list starts with number of relevant items equal to the total number of relevant items
-        if (i < relevantItemIDs.size()) {
-          idealizedGain += discount;
-        }
-      }
-      nDCG.addDatum(cumulativeGain / idealizedGain);
-      
-      // Reach
-      numUsersRecommendedFor++;
-      if (numRecommendedItems > 0) {
-        numUsersWithRecommendations++;
-      }
+    // Recall
+    stats.recall.addDatum((double) intersectionSize / (double) numRelevantItems);
 
-      long end = System.currentTimeMillis();
+    // Fall-out
+    if (numRelevantItems < size) {
+      stats.fallOut.addDatum((double) (numRecommendedItems - intersectionSize)
+                             / (double) (dataModel.getNumItems() - numRelevantItems));
+    }
 
-      log.info("Evaluated with user {} in {}ms", userID, end - start);
-      log.info("Precision/recall/fall-out/nDCG: {} / {} / {} / {}", new Object[] {
-          precision.getAverage(), recall.getAverage(), fallOut.getAverage(), nDCG.getAverage()
-      });
+    stats.nDCG.addDatum(cumulativeGain / idealizedGain);
+    stats.averagePrecision.addDatum(sumOfPrecisions / Math.min(numRelevantItems, at));
+
+    // Reach
+    stats.numUsersRecommendedFor++;
+    if (numRecommendedItems > 0) {
+      stats.numUsersWithRecommendations++;
     }
 
-    double reach = (double) numUsersWithRecommendations / (double) numUsersRecommendedFor;
+    long end = System.currentTimeMillis();
 
-    return new IRStatisticsImpl(
-        precision.getAverage(),
-        recall.getAverage(),
-        fallOut.getAverage(),
-        nDCG.getAverage(),
-        reach);
+    log.info("Evaluated with user {} in {}ms", userID, end - start);
   }
-  
+
   private static double computeThreshold(PreferenceArray prefs) {
     if (prefs.length() < 2) {
       // Not enough data points -- return a threshold that allows everything
@@ -233,5 +284,91 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
   private static double log2(double value) {
     return Math.log(value) / LOG2;
   }
+
+  /**
+   * Evaluates every {@code numTasks}-th sampled user, starting at {@code offset}, into statistics of its own.
+   */
+  private final class EvaluationCallable implements Callable<Statistics> {
+
+    private final RecommenderBuilder recommenderBuilder;
+    private final DataModelBuilder dataModelBuilder;
+    private final DataModel dataModel;
+    private final IDRescorer rescorer;
+    private final int at;
+    private final double relevanceThreshold;
+    private final long[] userIDs;
+    private final int numUserIDs;
+    private final int offset;
+    private final int step;
+
+    private EvaluationCallable(RecommenderBuilder recommenderBuilder,
+                               DataModelBuilder dataModelBuilder,
+                               DataModel dataModel,
+                               IDRescorer rescorer,
+                               int at,
+                               double relevanceThreshold,
+                               long[] userIDs,
+                               int numUserIDs,
+                               int offset,
+                               int step) {
+      this.recommenderBuilder = recommenderBuilder;
+      this.dataModelBuilder = dataModelBuilder;
+      this.dataModel = dataModel;
+      this.rescorer = rescorer;
+      this.at = at;
+      this.relevanceThreshold = relevanceThreshold;
+      this.userIDs = userIDs;
+      this.numUserIDs = numUserIDs;
+      this.offset = offset;
+      this.step = step;
+    }
+
+    @Override
+    public Statistics call() throws TasteException {
+      Statistics stats = new Statistics();
+      for (int i = offset; i < numUserIDs; i += step) {
+        evaluateUser(userIDs[i], recommenderBuilder, dataModelBuilder, dataModel, rescorer, at, relevanceThreshold,
+            stats);
+      }
+      return stats;
+    }
+
+  }
+
+  /**
+   * Running averages over the users evaluated by one thread, merged at the end.
+   */
+  private static final class Statistics {
+
+    private RunningAverage precision = new FullRunningAverage();
+    private RunningAverage recall = new FullRunningAverage();
+    private RunningAverage fallOut = new FullRunningAverage();
+    private RunningAverage nDCG = new FullRunningAverage();
+    private RunningAverage averagePrecision = new FullRunningAverage();
+    private int numUsersRecommendedFor;
+    private int numUsersWithRecommendations;
+
+    private void merge(Statistics other) {
+      precision = merge(precision, other.precision);
+      recall = merge(recall, other.recall);
+      fallOut = merge(fallOut, other.fallOut);
+      nDCG = merge(nDCG, other.nDCG);
+      averagePrecision = merge(averagePrecision, other.averagePrecision);
+      numUsersRecommendedFor += other.numUsersRecommendedFor;
+      numUsersWithRecommendations += other.numUsersWithRecommendations;
+    }
+
+    private static RunningAverage merge(RunningAverage a, RunningAverage b) {
+      if (b.getCount() == 0) {
+        return a;
+      }
+      if (a.getCount() == 0) {
+        return b;
+      }
+      int count = a.getCount() + b.getCount();
+      return new FullRunningAverage(count, (a.getAverage() * a.getCount() + b.getAverage() * b.getCount()) / count);
+    }
+
+  }
   
 }
@@ -29,18 +29,21 @@ public final class IRStatisticsImpl implements IRStatistics, Serializable {
   private final double recall;
   private final double fallOut;
   private final double ndcg;
+  private final double map;
   private final double reach;
   
-  IRStatisticsImpl(double precision, double recall, double fallOut, double ndcg, double reach) {
+  IRStatisticsImpl(double precision, double recall, double fallOut, double ndcg, double map, double reach) {
     Preconditions.checkArgument(precision >= 0.0 && precision <= 1.0, "Illegal precision: " + precision);
     Preconditions.checkArgument(recall >= 0.0 && recall <= 1.0, "Illegal recall: " + recall);
     Preconditions.checkArgument(fallOut >= 0.0 && fallOut <= 1.0, "Illegal fallOut: " + fallOut);
     Preconditions.checkArgument(fallOut >= 0.0 && fallOut <= 1.0, "Illegal nDCG: " + ndcg);
+    Preconditions.checkArgument(map >= 0.0 && map <= 1.0, "Illegal MAP: " + map);
     Preconditions.checkArgument(reach >= 0.0 && reach <= 1.0, "Illegal reach: " + ndcg);
     this.precision = precision;
     this.recall = recall;
     this.fallOut = fallOut;
     this.ndcg = ndcg;
+    this.map = map;
     this.reach = reach;
   }
   
@@ -75,6 +78,16 @@ public final class IRStatisticsImpl implements IRStatistics, Serializable {
     return ndcg;
   }
 
+  /**
+   * <p>
+   * See <a href="http://en.wikipedia.org/wiki/Information_retrieval#Mean_average_precision">
+   * Mean Average Precision</a>, here of the recommendations up to the "at" value.
+   * </p>
+   */
+  public double getMeanAveragePrecision() {
+    return map;
+  }
+
   @Override
   public double getReach() {
 	  return reach;
@@ -83,7 +96,7 @@ public final class IRStatisticsImpl implements IRStatistics, Serializable {
   @Override
   public String toString() {
     return "IRStatisticsImpl[precision:" + precision + ",recall:" + recall + ",fallOut:"
-        + fallOut + ",nDCG:" + ndcg + ",reach:" + reach + ']';
+        + fallOut + ",nDCG:" + ndcg + ",MAP:" + map + ",reach:" + reach + ']';
   }
   
 }
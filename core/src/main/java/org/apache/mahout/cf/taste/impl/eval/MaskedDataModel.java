@@ -0,0 +1,315 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.AbstractLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * A read-only view of a {@link DataModel} without some of one user's preferences, as if they had been removed.
+ * It answers what a {@link org.apache.mahout.cf.taste.impl.model.GenericDataModel} rebuilt without those
+ * preferences would, except for {@link #getMinPreference()} and {@link #getMaxPreference()}, which are those of the
+ * underlying model. Only the evaluated user's data is copied, so creating one is cheap next to a rebuild.
+ * </p>
+ *
+ * <p>
+ * Users and items left without any preference disappear from the view. The underlying model must not change
+ * while the view is in use.
+ * </p>
+ */
+final class MaskedDataModel implements DataModel {
+
+  private final DataModel delegate;
+  private final long userID;
+  /** masked items which the user does have a preference for */
+  private final FastIDSet maskedItemIDs;
+  /** the user's remaining preferences, or null if none remain */
+  private final PreferenceArray userPrefs;
+  /** masked items which no other user has a preference for */
+  private final FastIDSet hiddenItemIDs;
+
+  /**
+   * @param maskedItemIDs items whose preferences from {@code userID} to hide
+   */
+  MaskedDataModel(DataModel delegate, long userID, FastIDSet maskedItemIDs) throws TasteException {
+    this.delegate = delegate;
+    this.userID = userID;
+    this.maskedItemIDs = new FastIDSet(maskedItemIDs.size());
+    this.hiddenItemIDs = new FastIDSet();
+
+    PreferenceArray allPrefs = delegate.getPreferencesFromUser(userID);
+    int size = allPrefs.length();
+    for (int i = 0; i < allPrefs.length(); i++) {
+      long itemID = allPrefs.getItemID(i);
+      if (maskedItemIDs.contains(itemID)) {
+        this.maskedItemIDs.add(itemID);
+        size--;
+        if (delegate.getNumUsersWithPreferenceFor(itemID) <= 1) {
+          hiddenItemIDs.add(itemID);
+        }
+      }
+    }
+    if (size == 0) {
+      userPrefs = null;
+    } else {
+      userPrefs = new GenericUserPreferenceArray(size);
+      userPrefs.setUserID(0, userID);
+      int j = 0;
+      for (int i = 0; i < allPrefs.length(); i++) {
+        long itemID = allPrefs.getItemID(i);
+        if (!maskedItemIDs.contains(itemID)) {
+          userPrefs.setItemID(j, itemID);
+          userPrefs.setValue(j, allPrefs.getValue(i));
+          j++;
+        }
+      }
+    }
+  }
+
+  private boolean isMasked(long theUserID, long itemID) {
+    return theUserID == userID && maskedItemIDs.contains(itemID);
+  }
+
+  private void checkUser(long theUserID) throws NoSuchUserException {
+    if (theUserID == userID && userPrefs == null) {
+      throw new NoSuchUserException(theUserID);
+    }
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    if (userPrefs == null) {
+      FastIDSet excluded = new FastIDSet(1);
+      excluded.add(userID);
+      return new ExcludingIterator(delegate.getUserIDs(), excluded);
+    }
+    return delegate.getUserIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long theUserID) throws TasteException {
+    if (theUserID == userID) {
+      checkUser(theUserID);
+      return userPrefs;
+    }
+    return delegate.getPreferencesFromUser(theUserID);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long theUserID) throws TasteException {
+    if (theUserID == userID) {
+      checkUser(theUserID);
+      FastIDSet itemIDs = new FastIDSet(userPrefs.length());
+      for (int i = 0; i < userPrefs.length(); i++) {
+        itemIDs.add(userPrefs.getItemID(i));
+      }
+      return itemIDs;
+    }
+    return delegate.getItemIDsFromUser(theUserID);
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return hiddenItemIDs.isEmpty() ? delegate.getItemIDs() : new ExcludingIterator(delegate.getItemIDs(), hiddenItemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    if (hiddenItemIDs.contains(itemID)) {
+      throw new NoSuchItemException(itemID);
+    }
+    PreferenceArray prefs = delegate.getPreferencesForItem(itemID);
+    if (!maskedItemIDs.contains(itemID)) {
+      return prefs;
+    }
+    PreferenceArray remaining = new GenericItemPreferenceArray(prefs.length() - 1);
+    remaining.setItemID(0, itemID);
+    int j = 0;
+    for (int i = 0; i < prefs.length(); i++) {
+      long theUserID = prefs.getUserID(i);
+      if (theUserID != userID) {
+        remaining.setUserID(j, theUserID);
+        remaining.setValue(j, prefs.getValue(i));
+        j++;
+      }
+    }
+    return remaining;
+  }
+
+  @Override
+  public Float getPreferenceValue(long theUserID, long itemID) throws TasteException {
+    checkUser(theUserID);
+    return isMasked(theUserID, itemID) ? null : delegate.getPreferenceValue(theUserID, itemID);
+  }
+
+  @Override
+  public Long getPreferenceTime(long theUserID, long itemID) throws TasteException {
+    checkUser(theUserID);
+    return isMasked(theUserID, itemID) ? null : delegate.getPreferenceTime(theUserID, itemID);
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return delegate.getNumItems() - hiddenItemIDs.size();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return userPrefs == null ? delegate.getNumUsers() - 1 : delegate.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    int count = delegate.getNumUsersWithPreferenceFor(itemID);
+    return maskedItemIDs.contains(itemID) ? Math.max(0, count - 1) : count;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    int count = delegate.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    boolean masked1 = maskedItemIDs.contains(itemID1);
+    boolean masked2 = maskedItemIDs.contains(itemID2);
+    if (masked1 && masked2) {
+      // the user had both, and is counted in the underlying model
+      return Math.max(0, count - 1);
+    }
+    if (masked1 || masked2) {
+      // the user still counts only if they kept a preference for the other item
+      long otherItemID = masked1 ? itemID2 : itemID1;
+      if (userPrefs != null && userPrefs.hasPrefWithItemID(otherItemID)) {
+        return Math.max(0, count - 1);
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return delegate.hasPreferenceValues();
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return delegate.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return delegate.getMinPreference();
+  }
+
+  /**
+   * Does nothing: the view is of a model which does not change while it is in use.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // do nothing
+  }
+
+  @Override
+  public String toString() {
+    return "MaskedDataModel[user:" + userID + ", masked:" + maskedItemIDs.size() + ']';
+  }
+
+  private static final class ExcludingIterator extends AbstractLongPrimitiveIterator {
+
+    private final LongPrimitiveIterator delegate;
+    private final FastIDSet excluded;
+    private boolean hasNext;
+    private long next;
+
+    private ExcludingIterator(LongPrimitiveIterator delegate, FastIDSet excluded) {
+      this.delegate = delegate;
+      this.excluded = excluded;
+      advance();
+    }
+
+    private void advance() {
+      hasNext = false;
+      while (delegate.hasNext()) {
+        long id = delegate.nextLong();
+        if (!excluded.contains(id)) {
+          next = id;
+          hasNext = true;
+          return;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return hasNext;
+    }
+
+    @Override
+    public long nextLong() {
+      if (!hasNext) {
+        throw new NoSuchElementException();
+      }
+      long result = next;
+      advance();
+      return result;
+    }
+
+    @Override
+    public long peek() {
+      if (!hasNext) {
+        throw new NoSuchElementException();
+      }
+      return next;
+    }
+
+    @Override
+    public void skip(int n) {
+      for (int i = 0; i < n && hasNext; i++) {
+        advance();
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
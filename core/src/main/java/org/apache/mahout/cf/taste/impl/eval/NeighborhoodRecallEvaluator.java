@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Measures how many of the users in an exact {@link UserNeighborhood}, like a
+ * {@link org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood}, an approximate one, like a
+ * {@link org.apache.mahout.cf.taste.impl.neighborhood.LocalitySensitiveHashUserNeighborhood}, finds too.
+ */
+public final class NeighborhoodRecallEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(NeighborhoodRecallEvaluator.class);
+
+  private NeighborhoodRecallEvaluator() { }
+
+  /**
+   * @param evaluationPercentage fraction of users whose neighborhoods are compared
+   * @return average, over users with a non-empty exact neighborhood, of the fraction of that neighborhood
+   *  which is also in the approximate neighborhood; NaN if there is no such user
+   */
+  public static double evaluate(UserNeighborhood approximate,
+                                UserNeighborhood exact,
+                                DataModel dataModel,
+                                double evaluationPercentage) throws TasteException {
+    Preconditions.checkArgument(approximate != null, "approximate is null");
+    Preconditions.checkArgument(exact != null, "exact is null");
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(evaluationPercentage > 0.0 && evaluationPercentage <= 1.0,
+      "Invalid evaluationPercentage: %s", evaluationPercentage);
+    RunningAverage recall = new FullRunningAverage();
+    LongPrimitiveIterator userIDs =
+        SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(), evaluationPercentage);
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      long[] exactNeighbors = exact.getUserNeighborhood(userID);
+      if (exactNeighbors.length == 0) {
+        continue;
+      }
+      FastIDSet approximateNeighbors = new FastIDSet(approximate.getUserNeighborhood(userID));
+      int found = 0;
+      for (long neighbor : exactNeighbors) {
+        if (approximateNeighbors.contains(neighbor)) {
+          found++;
+        }
+      }
+      recall.addDatum((double) found / (double) exactNeighbors.length);
+    }
+    log.info("Recall of {} against {}: {}", new Object[] {approximate, exact, recall.getAverage()});
+    return recall.getAverage();
+  }
+
+}
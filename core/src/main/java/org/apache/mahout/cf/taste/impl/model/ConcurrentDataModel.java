@@ -0,0 +1,534 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+
+/**
+ * <p>
+ * A mutable in-memory {@link DataModel} for data that changes all the time, such as a stream of clicks. Changes
+ * are applied as {@link Delta}s, alone through {@link #setPreference(long, long, float)} and
+ * {@link #removePreference(long, long)}, or many at once through {@link #apply(Iterable)}.
+ * </p>
+ *
+ * <p>
+ * The preferences of each user and of each item are kept in a {@link PreferenceArray}, sorted by item and by user
+ * ID respectively, which is never modified once it is published: a change copies the arrays of the user and the
+ * item it touches, and replaces them. {@link #apply(Iterable)} copies each array it touches once, however many
+ * of its deltas concern it. Readers take no lock, and always see each array either entirely before or entirely
+ * after a change; a reader looking at both the user and the item side may see one of them already changed and
+ * the other not yet. Writers are serialized.
+ * </p>
+ *
+ * <p>
+ * {@link #getMinPreference()} and {@link #getMaxPreference()} cover every value ever set, including values since
+ * changed or removed.
+ * </p>
+ */
+public final class ConcurrentDataModel extends AbstractDataModel {
+
+  private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+  private final Map<Long,Entry> users;
+  private final Map<Long,Entry> items;
+  private final ReentrantLock writeLock;
+
+  public ConcurrentDataModel() {
+    users = new ConcurrentHashMap<Long,Entry>();
+    items = new ConcurrentHashMap<Long,Entry>();
+    writeLock = new ReentrantLock();
+  }
+
+  /**
+   * Creates a model holding a copy of the preferences and their timestamps in another {@link DataModel}.
+   */
+  public ConcurrentDataModel(DataModel dataModel) throws TasteException {
+    this();
+    // one batch, so that every array is built once
+    List<Delta> deltas = Lists.newArrayList();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        long itemID = prefs.getItemID(i);
+        Long time = timestamp(dataModel, userID, itemID);
+        deltas.add(Delta.set(userID, itemID, prefs.getValue(i), time == null ? NO_TIMESTAMP : time));
+      }
+    }
+    apply(deltas);
+  }
+
+  /**
+   * Creates a model of preferences given in columns, one preference per index, with the preferences of each user
+   * next to each other and in order of user ID. Of several preferences of a user for one item, the last is kept.
+   * The arrays are read, not kept, so that each preference is held once more only while this runs.
+   *
+   * @param values preference values, or null if they are all 1
+   * @param timestamps times of the preferences, or null if there are none
+   * @param numPreferences number of preferences, from the start of the arrays
+   */
+  public ConcurrentDataModel(long[] userIDs, long[] itemIDs, float[] values, long[] timestamps, int numPreferences) {
+    this();
+    List<Entry> userEntries = Lists.newArrayList();
+    int start = 0;
+    while (start < numPreferences) {
+      long userID = userIDs[start];
+      int end = start + 1;
+      while (end < numPreferences && userIDs[end] == userID) {
+        end++;
+      }
+      Preconditions.checkArgument(end == numPreferences || userIDs[end] > userID, "user IDs are not in order");
+      Entry entry = userEntry(userID, itemIDs, values, timestamps, start, end);
+      users.put(userID, entry);
+      userEntries.add(entry);
+      start = end;
+    }
+
+    // count the users of each item, then fill the items' arrays in order of user ID
+    OpenLongIntHashMap itemIndexes = new OpenLongIntHashMap();
+    long[] indexedItemIDs = new long[16];
+    int[] counts = new int[16];
+    int numItems = 0;
+    for (Entry entry : userEntries) {
+      PreferenceArray prefs = entry.prefs;
+      for (int i = 0; i < prefs.length(); i++) {
+        long itemID = prefs.getItemID(i);
+        if (itemIndexes.containsKey(itemID)) {
+          counts[itemIndexes.get(itemID)]++;
+        } else {
+          if (numItems == counts.length) {
+            indexedItemIDs = Arrays.copyOf(indexedItemIDs, 2 * numItems);
+            counts = Arrays.copyOf(counts, 2 * numItems);
+          }
+          itemIndexes.put(itemID, numItems);
+          indexedItemIDs[numItems] = itemID;
+          counts[numItems] = 1;
+          numItems++;
+        }
+      }
+    }
+    PreferenceArray[] itemPrefs = new PreferenceArray[numItems];
+    long[][] itemTimestamps = new long[numItems][];
+    for (int item = 0; item < numItems; item++) {
+      itemPrefs[item] = new GenericItemPreferenceArray(counts[item]);
+      itemPrefs[item].setItemID(0, indexedItemIDs[item]);
+      itemTimestamps[item] = new long[counts[item]];
+      counts[item] = 0;
+    }
+    for (Entry entry : userEntries) {
+      PreferenceArray prefs = entry.prefs;
+      for (int i = 0; i < prefs.length(); i++) {
+        int item = itemIndexes.get(prefs.getItemID(i));
+        int position = counts[item]++;
+        itemPrefs[item].setUserID(position, prefs.getUserID(i));
+        itemPrefs[item].setValue(position, prefs.getValue(i));
+        itemTimestamps[item][position] = entry.timestamps[i];
+      }
+    }
+    for (int item = 0; item < numItems; item++) {
+      items.put(indexedItemIDs[item], new Entry(itemPrefs[item], itemTimestamps[item]));
+    }
+
+    if (numPreferences > 0) {
+      float min = Float.POSITIVE_INFINITY;
+      float max = Float.NEGATIVE_INFINITY;
+      for (Entry entry : userEntries) {
+        PreferenceArray prefs = entry.prefs;
+        for (int i = 0; i < prefs.length(); i++) {
+          min = Math.min(min, prefs.getValue(i));
+          max = Math.max(max, prefs.getValue(i));
+        }
+      }
+      setMinPreference(min);
+      setMaxPreference(max);
+    }
+  }
+
+  /** @return the entry of the preferences of one user from start to end, sorted by item ID */
+  private static Entry userEntry(long userID, long[] itemIDs, float[] values, long[] timestamps, int start, int end) {
+    long[] sortedIDs = Arrays.copyOfRange(itemIDs, start, end);
+    Arrays.sort(sortedIDs);
+    int length = 0;
+    for (int i = 0; i < sortedIDs.length; i++) {
+      if (i == 0 || sortedIDs[i] != sortedIDs[i - 1]) {
+        sortedIDs[length++] = sortedIDs[i];
+      }
+    }
+    PreferenceArray prefs = new GenericUserPreferenceArray(length);
+    prefs.setUserID(0, userID);
+    long[] times = new long[length];
+    for (int i = start; i < end; i++) {
+      float value = values == null ? 1.0f : values[i];
+      Preconditions.checkArgument(!Float.isNaN(value), "NaN value");
+      int position = Arrays.binarySearch(sortedIDs, 0, length, itemIDs[i]);
+      prefs.setItemID(position, itemIDs[i]);
+      prefs.setValue(position, value);
+      times[position] = timestamps == null ? NO_TIMESTAMP : timestamps[i];
+    }
+    return new Entry(prefs, times);
+  }
+
+  private static Long timestamp(DataModel dataModel, long userID, long itemID) throws TasteException {
+    try {
+      return dataModel.getPreferenceTime(userID, itemID);
+    } catch (NoSuchUserException nsue) {
+      return null;
+    } catch (NoSuchItemException nsie) {
+      return null;
+    }
+  }
+
+  /**
+   * Applies changes in order, so that of several changes of one preference the last one wins.
+   */
+  public void apply(Iterable<Delta> deltas) {
+    writeLock.lock();
+    try {
+      FastByIDMap<FastByIDMap<Delta>> byUser = new FastByIDMap<FastByIDMap<Delta>>();
+      FastByIDMap<FastByIDMap<Delta>> byItem = new FastByIDMap<FastByIDMap<Delta>>();
+      for (Delta delta : deltas) {
+        group(byUser, delta.userID, delta.itemID, delta);
+        group(byItem, delta.itemID, delta.userID, delta);
+        if (!delta.isRemoval()) {
+          updateMinMax(delta.value);
+        }
+      }
+      for (Map.Entry<Long,FastByIDMap<Delta>> changes : byUser.entrySet()) {
+        update(users, changes.getKey(), changes.getValue(), true);
+      }
+      for (Map.Entry<Long,FastByIDMap<Delta>> changes : byItem.entrySet()) {
+        update(items, changes.getKey(), changes.getValue(), false);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private static void group(FastByIDMap<FastByIDMap<Delta>> grouped, long id, long otherID, Delta delta) {
+    FastByIDMap<Delta> changes = grouped.get(id);
+    if (changes == null) {
+      changes = new FastByIDMap<Delta>(2);
+      grouped.put(id, changes);
+    }
+    changes.put(otherID, delta);
+  }
+
+  private void updateMinMax(float value) {
+    if (Float.isNaN(getMinPreference()) || value < getMinPreference()) {
+      setMinPreference(value);
+    }
+    if (Float.isNaN(getMaxPreference()) || value > getMaxPreference()) {
+      setMaxPreference(value);
+    }
+  }
+
+  /** replaces the entry of one user or item by a copy with the changes applied */
+  private static void update(Map<Long,Entry> entries, long id, FastByIDMap<Delta> changes, boolean byUser) {
+    Entry old = entries.get(id);
+    long[] changedIDs = new long[changes.size()];
+    int numChanged = 0;
+    LongPrimitiveIterator it = changes.keySetIterator();
+    while (it.hasNext()) {
+      changedIDs[numChanged++] = it.nextLong();
+    }
+    Arrays.sort(changedIDs);
+
+    int oldLength = old == null ? 0 : old.prefs.length();
+    long[] oldIDs = old == null ? null : old.prefs.getIDs();
+    long[] ids = new long[oldLength + numChanged];
+    float[] values = new float[ids.length];
+    long[] times = new long[ids.length];
+    int length = 0;
+    int i = 0;
+    int j = 0;
+    while (i < oldLength || j < numChanged) {
+      long oldID = i < oldLength ? oldIDs[i] : Long.MAX_VALUE;
+      if (j < numChanged && (i == oldLength || changedIDs[j] <= oldID)) {
+        long changedID = changedIDs[j++];
+        if (i < oldLength && changedID == oldID) {
+          i++;
+        }
+        Delta delta = changes.get(changedID);
+        if (!delta.isRemoval()) {
+          ids[length] = changedID;
+          values[length] = delta.value;
+          times[length] = delta.timestamp;
+          length++;
+        }
+      } else {
+        ids[length] = oldID;
+        values[length] = old.prefs.getValue(i);
+        times[length] = old.timestamps[i];
+        length++;
+        i++;
+      }
+    }
+
+    if (length == 0) {
+      entries.remove(id);
+      return;
+    }
+    PreferenceArray prefs;
+    if (byUser) {
+      prefs = new GenericUserPreferenceArray(length);
+      prefs.setUserID(0, id);
+      for (int n = 0; n < length; n++) {
+        prefs.setItemID(n, ids[n]);
+        prefs.setValue(n, values[n]);
+      }
+    } else {
+      prefs = new GenericItemPreferenceArray(length);
+      prefs.setItemID(0, id);
+      for (int n = 0; n < length; n++) {
+        prefs.setUserID(n, ids[n]);
+        prefs.setValue(n, values[n]);
+      }
+    }
+    entries.put(id, new Entry(prefs, length == times.length ? times : Arrays.copyOf(times, length)));
+  }
+
+  private static LongPrimitiveIterator sortedKeys(Map<Long,Entry> entries) {
+    long[] ids = new long[entries.size()];
+    int size = 0;
+    for (Long id : entries.keySet()) {
+      if (size == ids.length) {
+        // added to concurrently
+        ids = Arrays.copyOf(ids, 2 * size + 1);
+      }
+      ids[size++] = id;
+    }
+    ids = size == ids.length ? ids : Arrays.copyOf(ids, size);
+    Arrays.sort(ids);
+    return new LongPrimitiveArrayIterator(ids);
+  }
+
+  private Entry userEntry(long userID) throws NoSuchUserException {
+    Entry entry = users.get(userID);
+    if (entry == null) {
+      throw new NoSuchUserException(userID);
+    }
+    return entry;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return sortedKeys(users);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    return userEntry(userID).prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    return new FastIDSet(userEntry(userID).prefs.getIDs());
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return sortedKeys(items);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    Entry entry = items.get(itemID);
+    if (entry == null) {
+      throw new NoSuchItemException(itemID);
+    }
+    return entry.prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    Entry entry = userEntry(userID);
+    int index = Arrays.binarySearch(entry.prefs.getIDs(), itemID);
+    return index < 0 ? null : entry.prefs.getValue(index);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    Entry entry = userEntry(userID);
+    int index = Arrays.binarySearch(entry.prefs.getIDs(), itemID);
+    return index < 0 || entry.timestamps[index] == NO_TIMESTAMP ? null : entry.timestamps[index];
+  }
+
+  @Override
+  public int getNumItems() {
+    return items.size();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return users.size();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    Entry entry = items.get(itemID);
+    return entry == null ? 0 : entry.prefs.length();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    Entry entry1 = items.get(itemID1);
+    Entry entry2 = items.get(itemID2);
+    if (entry1 == null || entry2 == null) {
+      return 0;
+    }
+    long[] userIDs1 = entry1.prefs.getIDs();
+    long[] userIDs2 = entry2.prefs.getIDs();
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < userIDs1.length && j < userIDs2.length) {
+      if (userIDs1[i] < userIDs2[j]) {
+        i++;
+      } else if (userIDs1[i] > userIDs2[j]) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    apply(Collections.singletonList(Delta.set(userID, itemID, value)));
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    apply(Collections.singletonList(Delta.remove(userID, itemID)));
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing, changes are visible as soon as they are applied
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentDataModel[users:" + users.size() + ", items:" + items.size() + ']';
+  }
+
+  /** the preferences of one user or item, with the timestamp of each */
+  private static final class Entry implements Serializable {
+
+    private final PreferenceArray prefs;
+    private final long[] timestamps;
+
+    Entry(PreferenceArray prefs, long[] timestamps) {
+      this.prefs = prefs;
+      this.timestamps = timestamps;
+    }
+  }
+
+  /**
+   * A change of one preference: setting its value, with an optional timestamp, or removing it.
+   */
+  public static final class Delta {
+
+    private final long userID;
+    private final long itemID;
+    /** {@link Float#NaN} for a removal */
+    private final float value;
+    private final long timestamp;
+
+    private Delta(long userID, long itemID, float value, long timestamp) {
+      this.userID = userID;
+      this.itemID = itemID;
+      this.value = value;
+      this.timestamp = timestamp;
+    }
+
+    public static Delta set(long userID, long itemID, float value) {
+      return set(userID, itemID, value, NO_TIMESTAMP);
+    }
+
+    /**
+     * @param timestamp time of the preference, in milliseconds since the epoch
+     */
+    public static Delta set(long userID, long itemID, float value, long timestamp) {
+      Preconditions.checkArgument(!Float.isNaN(value), "NaN value");
+      return new Delta(userID, itemID, value, timestamp);
+    }
+
+    public static Delta remove(long userID, long itemID) {
+      return new Delta(userID, itemID, Float.NaN, NO_TIMESTAMP);
+    }
+
+    public long getUserID() {
+      return userID;
+    }
+
+    public long getItemID() {
+      return itemID;
+    }
+
+    public boolean isRemoval() {
+      return Float.isNaN(value);
+    }
+
+    /**
+     * @return the new value, or {@link Float#NaN} for a removal
+     */
+    public float getValue() {
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      return isRemoval()
+          ? "Delta[remove user:" + userID + ", item:" + itemID + ']'
+          : "Delta[user:" + userID + ", item:" + itemID + ", value:" + value + ']';
+    }
+  }
+
+}
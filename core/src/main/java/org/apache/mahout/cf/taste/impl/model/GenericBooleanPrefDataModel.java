@@ -39,6 +39,12 @@ import com.google.common.base.Preconditions;
  * A simple {@link DataModel} which uses given user data as its data source. This implementation
  * is mostly useful for small experiments and is not recommended for contexts where performance is important.
  * </p>
+ *
+ * <p>
+ * Co-occurrence counts of two items are answered from an {@link ItemUserBitmapIndex}, built the first time it is
+ * needed. The first such call indexes all items and other threads asking in the meantime wait for it; call
+ * {@link #getBitmapIndex()} up front to build the index before serving requests.
+ * </p>
  */
 public final class GenericBooleanPrefDataModel extends AbstractDataModel {
   
@@ -47,6 +53,7 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
   private final long[] itemIDs;
   private final FastByIDMap<FastIDSet> preferenceForItems;
   private final FastByIDMap<FastByIDMap<Long>> timestamps;
+  private volatile ItemUserBitmapIndex bitmapIndex;
   
   /**
    * <p>
@@ -267,17 +274,31 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
 
   @Override
   public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
-    FastIDSet userIDs1 = preferenceForItems.get(itemID1);
-    if (userIDs1 == null) {
-      return 0;
-    }
-    FastIDSet userIDs2 = preferenceForItems.get(itemID2);
-    if (userIDs2 == null) {
-      return 0;
+    return getBitmapIndex().getNumUsersWithPreferenceFor(itemID1, itemID2);
+  }
+
+  /**
+   * @return the index of users by item this model answers {@link #getNumUsersWithPreferenceFor(long, long)} with,
+   *  which similarities can share. It is built on the first call, while holding this model's lock, so that
+   *  concurrent first calls block until the one index is done.
+   */
+  public ItemUserBitmapIndex getBitmapIndex() {
+    ItemUserBitmapIndex index = bitmapIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = bitmapIndex;
+        if (index == null) {
+          try {
+            index = ItemUserBitmapIndex.build(this);
+          } catch (TasteException te) {
+            // can't happen, all data is in memory
+            throw new IllegalStateException(te);
+          }
+          bitmapIndex = index;
+        }
+      }
     }
-    return userIDs1.size() < userIDs2.size() ?
-        userIDs2.intersectionSize(userIDs1) :
-        userIDs1.intersectionSize(userIDs2);
+    return index;
   }
   
   @Override
@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.CompressedBitmap;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.ParallelTasks;
+
+/**
+ * <p>An in-memory inverted index from each item to the users with a preference for it, kept as a
+ * {@link CompressedBitmap} over dense user indices (the position of the user ID among all sorted user IDs).
+ * It answers {@link #getNumUsersWithPreferenceFor(long, long)} by intersecting two bitmaps, which is much
+ * cheaper than intersecting two {@link org.apache.mahout.cf.taste.impl.common.FastIDSet}s for the pairwise
+ * co-occurrence counts of similarities like {@link org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity}
+ * and {@link org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity}.</p>
+ *
+ * <p>Only the presence of preferences is indexed, not their values. The index is an immutable snapshot of the
+ * {@link DataModel} it was built from, and may be used by several threads at once.</p>
+ */
+public final class ItemUserBitmapIndex implements Serializable {
+
+  /** items per construction task */
+  private static final int BLOCK_SIZE = 256;
+
+  private final int numUsers;
+  private final FastByIDMap<CompressedBitmap> usersByItem;
+
+  private ItemUserBitmapIndex(int numUsers, FastByIDMap<CompressedBitmap> usersByItem) {
+    this.numUsers = numUsers;
+    this.usersByItem = usersByItem;
+  }
+
+  /**
+   * @return the index a {@link GenericBooleanPrefDataModel} keeps for itself, or else a newly built one
+   */
+  public static ItemUserBitmapIndex forDataModel(DataModel dataModel) throws TasteException {
+    if (dataModel instanceof GenericBooleanPrefDataModel) {
+      return ((GenericBooleanPrefDataModel) dataModel).getBitmapIndex();
+    }
+    return build(dataModel);
+  }
+
+  /**
+   * Builds the index of all preferences in a {@link DataModel}, indexing blocks of items in parallel, one
+   * thread per processor.
+   */
+  public static ItemUserBitmapIndex build(DataModel dataModel) throws TasteException {
+    return build(dataModel, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param numThreads number of threads building the index
+   */
+  public static ItemUserBitmapIndex build(final DataModel dataModel, int numThreads) throws TasteException {
+    final long[] userIDs = toArray(dataModel.getUserIDs(), dataModel.getNumUsers());
+    Arrays.sort(userIDs);
+    final long[] itemIDs = toArray(dataModel.getItemIDs(), dataModel.getNumItems());
+    final CompressedBitmap[] bitmaps = new CompressedBitmap[itemIDs.length];
+
+    List<Callable<Void>> blocks = Lists.newArrayList();
+    for (int start = 0; start < itemIDs.length; start += BLOCK_SIZE) {
+      final int from = start;
+      final int to = Math.min(start + BLOCK_SIZE, itemIDs.length);
+      blocks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws TasteException {
+          int[] userIndexes = new int[16];
+          for (int item = from; item < to; item++) {
+            PreferenceArray prefs = dataModel.getPreferencesForItem(itemIDs[item]);
+            int length = prefs.length();
+            if (userIndexes.length < length) {
+              userIndexes = new int[Math.max(length, 2 * userIndexes.length)];
+            }
+            for (int i = 0; i < length; i++) {
+              int userIndex = Arrays.binarySearch(userIDs, prefs.getUserID(i));
+              if (userIndex < 0) {
+                throw new IllegalStateException("Unknown user " + prefs.getUserID(i) + " for item " + itemIDs[item]);
+              }
+              userIndexes[i] = userIndex;
+            }
+            Arrays.sort(userIndexes, 0, length);
+            bitmaps[item] = CompressedBitmap.valueOf(userIndexes, length);
+          }
+          return null;
+        }
+      });
+    }
+
+    try {
+      ParallelTasks.invokeAll(blocks, numThreads, TasteException.class);
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    }
+
+    FastByIDMap<CompressedBitmap> usersByItem = new FastByIDMap<CompressedBitmap>(itemIDs.length);
+    for (int item = 0; item < itemIDs.length; item++) {
+      usersByItem.put(itemIDs[item], bitmaps[item]);
+    }
+    return new ItemUserBitmapIndex(userIDs.length, usersByItem);
+  }
+
+  private static long[] toArray(LongPrimitiveIterator it, int size) {
+    long[] ids = new long[size];
+    int i = 0;
+    while (it.hasNext()) {
+      ids[i++] = it.nextLong();
+    }
+    return i == size ? ids : Arrays.copyOf(ids, i);
+  }
+
+  public int getNumUsers() {
+    return numUsers;
+  }
+
+  public int getNumItems() {
+    return usersByItem.size();
+  }
+
+  /**
+   * @return true if the index has the item, that is if the item was in the {@link DataModel} it was built from
+   */
+  public boolean containsItem(long itemID) {
+    return usersByItem.containsKey(itemID);
+  }
+
+  /**
+   * @return number of users with a preference for the item, or 0 if the item is unknown
+   */
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    CompressedBitmap users = usersByItem.get(itemID);
+    return users == null ? 0 : users.cardinality();
+  }
+
+  /**
+   * @return number of users with a preference for both items, or 0 if either item is unknown
+   */
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    CompressedBitmap users1 = usersByItem.get(itemID1);
+    if (users1 == null) {
+      return 0;
+    }
+    CompressedBitmap users2 = usersByItem.get(itemID2);
+    if (users2 == null) {
+      return 0;
+    }
+    return users1.intersectionSize(users2);
+  }
+
+  @Override
+  public String toString() {
+    return "ItemUserBitmapIndex[users:" + numUsers + ", items:" + usersByItem.size() + ']';
+  }
+
+}
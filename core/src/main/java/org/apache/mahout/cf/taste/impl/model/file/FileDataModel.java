@@ -288,6 +288,14 @@ public class FileDataModel extends AbstractDataModel {
    * etc.
    */
   private Iterable<File> findUpdateFilesAfter(long minimumLastModified) {
+    return findUpdateFilesAfter(dataFile, minimumLastModified);
+  }
+
+  /**
+   * @return update files of the data file modified at or after the given time, in order of modification
+   * @see #findUpdateFilesAfter(long)
+   */
+  static Collection<File> findUpdateFilesAfter(File dataFile, long minimumLastModified) {
     String dataFileName = dataFile.getName();
     int period = dataFileName.indexOf('.');
     String startName = period < 0 ? dataFileName : dataFileName.substring(0, period);
@@ -0,0 +1,254 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.ConcurrentDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.iterator.FileLineIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link DataModel} reading the same data and update files as {@link FileDataModel}, which picks up new update
+ * files without reloading anything else. The data file and the update files present at construction are read once;
+ * after that, {@link #refresh(Collection)} reads only the update files which are new or were modified since they
+ * were last read, and applies their lines as changes to a {@link ConcurrentDataModel}. Readers are never blocked
+ * while this happens.
+ * </p>
+ *
+ * <p>
+ * Lines of update files are {@code userID,itemID[,preference[,timestamp]]} as in {@link FileDataModel}; a blank
+ * preference value without a timestamp, as in "123,456,", removes the preference. Lines without a preference value
+ * set it to 1.
+ * </p>
+ *
+ * <p>
+ * {@link #setPreference(long, long, float)}, {@link #removePreference(long, long)} and {@link #apply(Iterable)}
+ * change the data in memory only.
+ * </p>
+ */
+public final class IncrementalFileDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(IncrementalFileDataModel.class);
+
+  private static final char COMMENT_CHAR = '#';
+
+  private final File dataFile;
+  private final ConcurrentDataModel delegate;
+  private final ReentrantLock refreshLock;
+  /** last modification time of each update file read so far */
+  private final Map<String,Long> readUpdateFiles;
+
+  public IncrementalFileDataModel(File dataFile) throws IOException {
+    this.dataFile = dataFile.getAbsoluteFile();
+    this.refreshLock = new ReentrantLock();
+    this.readUpdateFiles = Maps.newHashMap();
+    // noted before reading, so that a file changing meanwhile is read again on refresh
+    for (File updateFile : FileDataModel.findUpdateFilesAfter(this.dataFile, Long.MIN_VALUE)) {
+      readUpdateFiles.put(updateFile.getName(), updateFile.lastModified());
+    }
+    try {
+      delegate = new ConcurrentDataModel(new FileDataModel(this.dataFile));
+    } catch (TasteException te) {
+      throw new IOException(te);
+    }
+  }
+
+  public File getDataFile() {
+    return dataFile;
+  }
+
+  /**
+   * Applies changes in memory, as {@link ConcurrentDataModel#apply(Iterable)}.
+   */
+  public void apply(Iterable<ConcurrentDataModel.Delta> deltas) {
+    delegate.apply(deltas);
+  }
+
+  private void readNewUpdateFiles() throws IOException {
+    for (File updateFile : FileDataModel.findUpdateFilesAfter(dataFile, Long.MIN_VALUE)) {
+      Long lastRead = readUpdateFiles.get(updateFile.getName());
+      long lastModified = updateFile.lastModified();
+      if (lastRead == null || lastRead != lastModified) {
+        log.info("Reading update file {}", updateFile);
+        delegate.apply(readDeltas(updateFile));
+        readUpdateFiles.put(updateFile.getName(), lastModified);
+      }
+    }
+  }
+
+  private static List<ConcurrentDataModel.Delta> readDeltas(File updateFile) throws IOException {
+    List<ConcurrentDataModel.Delta> deltas = Lists.newArrayList();
+    FileLineIterator lines = new FileLineIterator(updateFile, false);
+    try {
+      Splitter splitter = null;
+      while (lines.hasNext()) {
+        String line = lines.next();
+        if (line.isEmpty() || line.charAt(0) == COMMENT_CHAR) {
+          continue;
+        }
+        if (splitter == null) {
+          splitter = Splitter.on(FileDataModel.determineDelimiter(line));
+        }
+        deltas.add(parseDelta(splitter, line));
+      }
+    } finally {
+      Closeables.closeQuietly(lines);
+    }
+    return deltas;
+  }
+
+  private static ConcurrentDataModel.Delta parseDelta(Splitter splitter, String line) {
+    Iterator<String> tokens = splitter.split(line).iterator();
+    long userID = Long.parseLong(tokens.next());
+    long itemID = Long.parseLong(tokens.next());
+    String preferenceValueString = tokens.hasNext() ? tokens.next() : null;
+    String timestampString = tokens.hasNext() ? tokens.next() : null;
+    if (preferenceValueString != null && preferenceValueString.isEmpty() && timestampString == null) {
+      return ConcurrentDataModel.Delta.remove(userID, itemID);
+    }
+    float value = preferenceValueString == null || preferenceValueString.isEmpty()
+        ? 1.0f
+        : Float.parseFloat(preferenceValueString);
+    return timestampString == null
+        ? ConcurrentDataModel.Delta.set(userID, itemID, value)
+        : ConcurrentDataModel.Delta.set(userID, itemID, value, Long.parseLong(timestampString));
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    return delegate.getUserIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    return delegate.getPreferencesFromUser(userID);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    return delegate.getItemIDsFromUser(userID);
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return delegate.getItemIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    return delegate.getPreferencesForItem(itemID);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    return delegate.getPreferenceValue(userID, itemID);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    return delegate.getPreferenceTime(userID, itemID);
+  }
+
+  @Override
+  public int getNumItems() {
+    return delegate.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return delegate.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    return delegate.getNumUsersWithPreferenceFor(itemID);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    return delegate.getNumUsersWithPreferenceFor(itemID1, itemID2);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    delegate.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    delegate.removePreference(userID, itemID);
+  }
+
+  /**
+   * Reads the update files which are new or were modified since they were last read. Does nothing if another
+   * thread is doing so already.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (refreshLock.tryLock()) {
+      try {
+        readNewUpdateFiles();
+      } catch (IOException ioe) {
+        log.warn("Exception while reading update files", ioe);
+      } finally {
+        refreshLock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return delegate.hasPreferenceValues();
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return delegate.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return delegate.getMinPreference();
+  }
+
+  @Override
+  public String toString() {
+    return "IncrementalFileDataModel[dataFile:" + dataFile + ']';
+  }
+
+}
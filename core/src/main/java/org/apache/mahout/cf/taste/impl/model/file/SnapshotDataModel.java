@@ -0,0 +1,601 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.BooleanItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.BooleanUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A read-only {@link DataModel} backed by a binary snapshot file, which is memory-mapped rather than parsed.
+ * Write a snapshot once from any other {@link DataModel}, such as a {@link FileDataModel}, with
+ * {@link #writeSnapshot(DataModel, File)}; opening it afterwards only costs reading the user and item IDs.
+ * </p>
+ *
+ * <p>
+ * The snapshot stores the preferences twice, in compressed sparse row layout: once grouped by user, sorted by item
+ * ID within each user, and once grouped by item, sorted by user ID within each item. Each layout consists of the
+ * sorted IDs of the rows, the offsets at which their preferences start, and a column each of the other IDs, of the
+ * preference values (unless the data has none) and, for the user layout, of the timestamps (if the data has any).
+ * All numbers are big-endian. The IDs and offsets are read onto the heap; the preference columns stay in the mapped
+ * file and are paged in by the operating system as they are used.
+ * </p>
+ *
+ * <p>
+ * {@link #refresh(Collection)} re-opens the snapshot if the file has been modified. Like
+ * {@link org.apache.mahout.cf.taste.impl.model.GenericDataModel}, this model does not support
+ * {@link #setPreference(long, long, float)} or {@link #removePreference(long, long)}.
+ * </p>
+ */
+public final class SnapshotDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(SnapshotDataModel.class);
+
+  private static final int MAGIC = 0x4D534E50;
+  private static final int VERSION = 1;
+  private static final int HAS_PREFERENCE_VALUES = 0x01;
+  private static final int HAS_TIMESTAMPS = 0x02;
+  private static final int HEADER_BYTES = 5 * 4 + 8 + 2 * 4;
+  /** marks a preference without a timestamp in a snapshot with timestamps */
+  private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+  private final File snapshotFile;
+  private long lastModified;
+  private transient volatile Snapshot snapshot;
+
+  /**
+   * @param snapshotFile a file written by {@link #writeSnapshot(DataModel, File)}
+   * @throws FileNotFoundException if the file does not exist
+   * @throws IOException if the file can't be read or is not a snapshot
+   */
+  public SnapshotDataModel(File snapshotFile) throws IOException {
+    this.snapshotFile = Preconditions.checkNotNull(snapshotFile).getAbsoluteFile();
+    if (!snapshotFile.exists() || snapshotFile.isDirectory()) {
+      throw new FileNotFoundException(snapshotFile.toString());
+    }
+    reload();
+  }
+
+  public File getSnapshotFile() {
+    return snapshotFile;
+  }
+
+  private synchronized void reload() throws IOException {
+    log.info("Opening snapshot {}", snapshotFile);
+    lastModified = snapshotFile.lastModified();
+    snapshot = new Snapshot(snapshotFile);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    reload();
+  }
+
+  /**
+   * Writes the preferences of a {@link DataModel} as a snapshot, which can then be opened by
+   * {@link #SnapshotDataModel(File)}. An existing snapshot is replaced as a whole, by renaming a new file over it, so
+   * models which have it open keep reading the old preferences until refreshed.
+   */
+  public static void writeSnapshot(DataModel dataModel, File snapshotFile) throws IOException, TasteException {
+    long[] userIDs = sortedIDs(dataModel.getUserIDs(), dataModel.getNumUsers());
+    long[] itemIDs = sortedIDs(dataModel.getItemIDs(), dataModel.getNumItems());
+    boolean hasPreferenceValues = dataModel.hasPreferenceValues();
+
+    long numPreferences = 0;
+    boolean hasTimestamps = false;
+    for (long userID : userIDs) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      numPreferences += prefs.length();
+      for (int i = 0; i < prefs.length() && !hasTimestamps; i++) {
+        hasTimestamps = timestamp(dataModel, userID, prefs.getItemID(i)) != null;
+      }
+    }
+
+    log.info("Writing snapshot of {} users, {} items and {} preferences to {}",
+        new Object[] { userIDs.length, itemIDs.length, numPreferences, snapshotFile });
+    // written beside the old snapshot and renamed over it, so that models which have the old one mapped keep
+    // reading it rather than a file being rewritten under them
+    File tempFile =
+        File.createTempFile(snapshotFile.getName() + ".new", ".tmp", snapshotFile.getAbsoluteFile().getParentFile());
+    try {
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt((hasPreferenceValues ? HAS_PREFERENCE_VALUES : 0) | (hasTimestamps ? HAS_TIMESTAMPS : 0));
+        out.writeInt(userIDs.length);
+        out.writeInt(itemIDs.length);
+        out.writeLong(numPreferences);
+        out.writeFloat(dataModel.getMinPreference());
+        out.writeFloat(dataModel.getMaxPreference());
+        writeRows(dataModel, userIDs, true, hasPreferenceValues, hasTimestamps, out);
+        writeRows(dataModel, itemIDs, false, hasPreferenceValues, false, out);
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(snapshotFile)) {
+        throw new IOException("Unable to rename " + tempFile + " to " + snapshotFile);
+      }
+    } finally {
+      if (tempFile.exists() && !tempFile.delete()) {
+        log.warn("Unable to delete {}", tempFile);
+      }
+    }
+  }
+
+  private static long[] sortedIDs(LongPrimitiveIterator it, int size) {
+    long[] ids = new long[size];
+    int i = 0;
+    while (it.hasNext()) {
+      ids[i++] = it.nextLong();
+    }
+    Preconditions.checkState(i == size, "expected %s IDs but found %s", size, i);
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  /**
+   * Writes the layout grouped by user or by item. Each column is written in a pass of its own, re-reading the
+   * preferences of every row, so that no more than one row has to be held in memory.
+   */
+  private static void writeRows(DataModel dataModel, long[] rowIDs, boolean byUser, boolean hasPreferenceValues,
+      boolean hasTimestamps, DataOutputStream out) throws IOException, TasteException {
+    for (long rowID : rowIDs) {
+      out.writeLong(rowID);
+    }
+    long offset = 0;
+    out.writeLong(offset);
+    for (long rowID : rowIDs) {
+      offset += byUser
+          ? dataModel.getPreferencesFromUser(rowID).length()
+          : dataModel.getPreferencesForItem(rowID).length();
+      out.writeLong(offset);
+    }
+    for (long rowID : rowIDs) {
+      PreferenceArray prefs = sortedPreferences(dataModel, rowID, byUser);
+      for (int i = 0; i < prefs.length(); i++) {
+        out.writeLong(byUser ? prefs.getItemID(i) : prefs.getUserID(i));
+      }
+    }
+    if (hasPreferenceValues) {
+      for (long rowID : rowIDs) {
+        PreferenceArray prefs = sortedPreferences(dataModel, rowID, byUser);
+        for (int i = 0; i < prefs.length(); i++) {
+          out.writeFloat(prefs.getValue(i));
+        }
+      }
+    }
+    if (hasTimestamps) {
+      for (long rowID : rowIDs) {
+        PreferenceArray prefs = sortedPreferences(dataModel, rowID, byUser);
+        for (int i = 0; i < prefs.length(); i++) {
+          Long timestamp = timestamp(dataModel, rowID, prefs.getItemID(i));
+          out.writeLong(timestamp == null ? NO_TIMESTAMP : timestamp);
+        }
+      }
+    }
+  }
+
+  private static Long timestamp(DataModel dataModel, long userID, long itemID) throws TasteException {
+    try {
+      return dataModel.getPreferenceTime(userID, itemID);
+    } catch (NoSuchUserException nsue) {
+      // some models only know the users which have timestamps
+      return null;
+    }
+  }
+
+  private static PreferenceArray sortedPreferences(DataModel dataModel, long rowID, boolean byUser)
+    throws TasteException {
+    PreferenceArray prefs;
+    if (byUser) {
+      prefs = dataModel.getPreferencesFromUser(rowID).clone();
+      prefs.sortByItem();
+    } else {
+      prefs = dataModel.getPreferencesForItem(rowID).clone();
+      prefs.sortByUser();
+    }
+    return prefs;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(snapshot.userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    Snapshot current = snapshot;
+    int row = Arrays.binarySearch(current.userIDs, userID);
+    if (row < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    long start = current.userOffsets[row];
+    int length = (int) (current.userOffsets[row + 1] - start);
+    PreferenceArray prefs;
+    if (current.hasPreferenceValues) {
+      prefs = new GenericUserPreferenceArray(length);
+      for (int i = 0; i < length; i++) {
+        prefs.setValue(i, current.userValues.get(start + i));
+      }
+    } else {
+      prefs = new BooleanUserPreferenceArray(length);
+    }
+    prefs.setUserID(0, userID);
+    current.userItemIDs.get(start, prefs.getIDs(), length);
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws NoSuchUserException {
+    Snapshot current = snapshot;
+    int row = Arrays.binarySearch(current.userIDs, userID);
+    if (row < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    long start = current.userOffsets[row];
+    long end = current.userOffsets[row + 1];
+    FastIDSet itemIDs = new FastIDSet((int) (end - start));
+    for (long i = start; i < end; i++) {
+      itemIDs.add(current.userItemIDs.get(i));
+    }
+    return itemIDs;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(snapshot.itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    Snapshot current = snapshot;
+    int row = Arrays.binarySearch(current.itemIDs, itemID);
+    if (row < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    long start = current.itemOffsets[row];
+    int length = (int) (current.itemOffsets[row + 1] - start);
+    PreferenceArray prefs;
+    if (current.hasPreferenceValues) {
+      prefs = new GenericItemPreferenceArray(length);
+      for (int i = 0; i < length; i++) {
+        prefs.setValue(i, current.itemValues.get(start + i));
+      }
+    } else {
+      prefs = new BooleanItemPreferenceArray(length);
+    }
+    prefs.setItemID(0, itemID);
+    current.itemUserIDs.get(start, prefs.getIDs(), length);
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws NoSuchUserException {
+    Snapshot current = snapshot;
+    long position = current.findUserPreference(userID, itemID);
+    if (position < 0) {
+      return null;
+    }
+    return current.hasPreferenceValues ? current.userValues.get(position) : 1.0f;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws NoSuchUserException {
+    Snapshot current = snapshot;
+    if (current.userTimestamps == null) {
+      return null;
+    }
+    long position = current.findUserPreference(userID, itemID);
+    if (position < 0) {
+      return null;
+    }
+    long timestamp = current.userTimestamps.get(position);
+    return timestamp == NO_TIMESTAMP ? null : timestamp;
+  }
+
+  @Override
+  public int getNumItems() {
+    return snapshot.itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return snapshot.userIDs.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    Snapshot current = snapshot;
+    int row = Arrays.binarySearch(current.itemIDs, itemID);
+    return row < 0 ? 0 : (int) (current.itemOffsets[row + 1] - current.itemOffsets[row]);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    Snapshot current = snapshot;
+    int row1 = Arrays.binarySearch(current.itemIDs, itemID1);
+    int row2 = Arrays.binarySearch(current.itemIDs, itemID2);
+    if (row1 < 0 || row2 < 0) {
+      return 0;
+    }
+    // both rows are sorted by user ID
+    long i = current.itemOffsets[row1];
+    long end1 = current.itemOffsets[row1 + 1];
+    long j = current.itemOffsets[row2];
+    long end2 = current.itemOffsets[row2 + 1];
+    int count = 0;
+    while (i < end1 && j < end2) {
+      long userID1 = current.itemUserIDs.get(i);
+      long userID2 = current.itemUserIDs.get(j);
+      if (userID1 < userID2) {
+        i++;
+      } else if (userID1 > userID2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (snapshotFile.lastModified() > lastModified) {
+      log.debug("Snapshot has changed; reopening...");
+      try {
+        reload();
+      } catch (IOException ioe) {
+        log.warn("Unable to reopen snapshot; keeping the current one", ioe);
+      }
+    }
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return snapshot.hasPreferenceValues;
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return snapshot.maxPreference;
+  }
+
+  @Override
+  public float getMinPreference() {
+    return snapshot.minPreference;
+  }
+
+  @Override
+  public String toString() {
+    return "SnapshotDataModel[snapshotFile:" + snapshotFile + ']';
+  }
+
+  /** the contents of one snapshot file */
+  private static final class Snapshot {
+
+    private final boolean hasPreferenceValues;
+    private final float minPreference;
+    private final float maxPreference;
+    private final long[] userIDs;
+    private final long[] userOffsets;
+    private final LongColumn userItemIDs;
+    private final FloatColumn userValues;
+    private final LongColumn userTimestamps;
+    private final long[] itemIDs;
+    private final long[] itemOffsets;
+    private final LongColumn itemUserIDs;
+    private final FloatColumn itemValues;
+
+    Snapshot(File snapshotFile) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+      try {
+        FileChannel channel = file.getChannel();
+        if (channel.size() < HEADER_BYTES) {
+          throw new IOException("Not a snapshot: " + snapshotFile);
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        if (header.getInt() != MAGIC) {
+          throw new IOException("Not a snapshot: " + snapshotFile);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+          throw new IOException("Unsupported snapshot version " + version + ": " + snapshotFile);
+        }
+        int flags = header.getInt();
+        hasPreferenceValues = (flags & HAS_PREFERENCE_VALUES) != 0;
+        boolean hasTimestamps = (flags & HAS_TIMESTAMPS) != 0;
+        int numUsers = header.getInt();
+        int numItems = header.getInt();
+        long numPreferences = header.getLong();
+        minPreference = header.getFloat();
+        maxPreference = header.getFloat();
+
+        long position = HEADER_BYTES;
+        userIDs = readLongs(channel, position, numUsers);
+        position += 8L * numUsers;
+        userOffsets = readLongs(channel, position, numUsers + 1);
+        position += 8L * (numUsers + 1);
+        userItemIDs = new LongColumn(channel, position, numPreferences);
+        position += 8L * numPreferences;
+        if (hasPreferenceValues) {
+          userValues = new FloatColumn(channel, position, numPreferences);
+          position += 4L * numPreferences;
+        } else {
+          userValues = null;
+        }
+        if (hasTimestamps) {
+          userTimestamps = new LongColumn(channel, position, numPreferences);
+          position += 8L * numPreferences;
+        } else {
+          userTimestamps = null;
+        }
+
+        itemIDs = readLongs(channel, position, numItems);
+        position += 8L * numItems;
+        itemOffsets = readLongs(channel, position, numItems + 1);
+        position += 8L * (numItems + 1);
+        itemUserIDs = new LongColumn(channel, position, numPreferences);
+        position += 8L * numPreferences;
+        if (hasPreferenceValues) {
+          itemValues = new FloatColumn(channel, position, numPreferences);
+          position += 4L * numPreferences;
+        } else {
+          itemValues = null;
+        }
+        if (position != channel.size()) {
+          throw new IOException("Snapshot has " + channel.size() + " bytes, expected " + position + ": "
+              + snapshotFile);
+        }
+      } finally {
+        // the mappings stay valid after the file is closed
+        Closeables.closeQuietly(file);
+      }
+    }
+
+    /** @return the position of the preference in the user columns, or -1 if there is none */
+    long findUserPreference(long userID, long itemID) throws NoSuchUserException {
+      int row = Arrays.binarySearch(userIDs, userID);
+      if (row < 0) {
+        throw new NoSuchUserException(userID);
+      }
+      long low = userOffsets[row];
+      long high = userOffsets[row + 1] - 1;
+      while (low <= high) {
+        long middle = (low + high) >>> 1;
+        long middleItemID = userItemIDs.get(middle);
+        if (middleItemID < itemID) {
+          low = middle + 1;
+        } else if (middleItemID > itemID) {
+          high = middle - 1;
+        } else {
+          return middle;
+        }
+      }
+      return -1;
+    }
+
+    private static long[] readLongs(FileChannel channel, long position, int length) throws IOException {
+      long[] values = new long[length];
+      new LongColumn(channel, position, length).get(0, values, length);
+      return values;
+    }
+  }
+
+  /** a column of longs in a mapped file, split into several mappings since one can hold at most 2GB */
+  private static final class LongColumn {
+
+    private static final int SEGMENT_BITS = 27;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private final LongBuffer[] segments;
+
+    LongColumn(FileChannel channel, long position, long length) throws IOException {
+      segments = new LongBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+      for (int segment = 0; segment < segments.length; segment++) {
+        long segmentLength = Math.min(SEGMENT_MASK + 1, length - ((long) segment << SEGMENT_BITS));
+        segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY,
+            position + 8L * ((long) segment << SEGMENT_BITS), 8L * segmentLength).asLongBuffer();
+      }
+    }
+
+    long get(long index) {
+      return segments[(int) (index >>> SEGMENT_BITS)].get((int) (index & SEGMENT_MASK));
+    }
+
+    /** copies {@code length} values starting at {@code index} to the start of {@code destination} */
+    void get(long index, long[] destination, int length) {
+      int copied = 0;
+      while (copied < length) {
+        long from = index + copied;
+        LongBuffer segment = segments[(int) (from >>> SEGMENT_BITS)].duplicate();
+        segment.position((int) (from & SEGMENT_MASK));
+        int count = Math.min(length - copied, segment.remaining());
+        segment.get(destination, copied, count);
+        copied += count;
+      }
+    }
+  }
+
+  /** a column of floats in a mapped file, split into several mappings since one can hold at most 2GB */
+  private static final class FloatColumn {
+
+    private static final int SEGMENT_BITS = 28;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private final FloatBuffer[] segments;
+
+    FloatColumn(FileChannel channel, long position, long length) throws IOException {
+      segments = new FloatBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+      for (int segment = 0; segment < segments.length; segment++) {
+        long segmentLength = Math.min(SEGMENT_MASK + 1, length - ((long) segment << SEGMENT_BITS));
+        segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY,
+            position + 4L * ((long) segment << SEGMENT_BITS), 4L * segmentLength).asFloatBuffer();
+      }
+    }
+
+    float get(long index) {
+      return segments[(int) (index >>> SEGMENT_BITS)].get((int) (index & SEGMENT_MASK));
+    }
+  }
+
+}
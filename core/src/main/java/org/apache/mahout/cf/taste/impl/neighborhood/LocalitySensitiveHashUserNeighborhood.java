@@ -0,0 +1,387 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Computes an approximation of the neighborhood of {@link NearestNUserNeighborhood}: the nearest n users to a given
+ * user, by the given {@link UserSimilarity}, but among only those users which a locality-sensitive hash index puts
+ * into the same bucket as the user in at least one of its hash tables. Similar users are likely to share a bucket,
+ * so the similarity is computed against few users rather than all of them.
+ * </p>
+ *
+ * <p>
+ * The hash should suit the similarity: {@link HashFamily#MIN_HASH} for Jaccard-like similarities on boolean data
+ * such as {@link org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity},
+ * {@link HashFamily#SIM_HASH} for cosine similarity, and {@link HashFamily#CENTERED_SIM_HASH} for Pearson
+ * correlation. More hash tables find more of the true neighbors, at the cost of computing more similarities; more
+ * hashes per table make buckets smaller, and so have the opposite effect.
+ * </p>
+ *
+ * <p>
+ * The index is built from the {@link DataModel} on construction. {@link #refresh(Collection)} re-hashes only the
+ * users whose preferences changed, and {@link #refreshUser(long)} re-hashes one user.
+ * </p>
+ */
+public final class LocalitySensitiveHashUserNeighborhood implements UserNeighborhood {
+
+  private static final Logger log = LoggerFactory.getLogger(LocalitySensitiveHashUserNeighborhood.class);
+
+  public enum HashFamily {
+    /** min-wise hashing of the set of items a user has a preference for */
+    MIN_HASH,
+    /** signs of random projections of the user's preference values */
+    SIM_HASH,
+    /** signs of random projections of the user's preference values, less their mean */
+    CENTERED_SIM_HASH
+  }
+
+  private final int n;
+  private final double minSimilarity;
+  private final UserSimilarity userSimilarity;
+  private final DataModel dataModel;
+  private final HashFamily hashFamily;
+  private final int numTables;
+  private final int hashesPerTable;
+  private final long[] seeds;
+  /** for each table, users by bucket */
+  private final FastByIDMap<FastIDSet>[] tables;
+  private final FastByIDMap<IndexedUser> indexedUsers;
+  private final ReadWriteLock indexLock;
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * @param n neighborhood size; capped at the number of users in the data model
+   * @param minSimilarity minimal similarity required for neighbors
+   * @param numTables number of hash tables -- increase to find more of the nearest users, at the cost of performance
+   * @param hashesPerTable number of hashes making up the bucket of each table, at most 64 -- decrease to find more of
+   *  the nearest users, at the cost of performance
+   * @throws IllegalArgumentException
+   *           if {@code n}, {@code numTables} or {@code hashesPerTable} are out of range, or userSimilarity,
+   *           dataModel or hashFamily are {@code null}
+   */
+  public LocalitySensitiveHashUserNeighborhood(int n,
+                                               double minSimilarity,
+                                               UserSimilarity userSimilarity,
+                                               DataModel dataModel,
+                                               HashFamily hashFamily,
+                                               int numTables,
+                                               int hashesPerTable) throws TasteException {
+    Preconditions.checkArgument(n >= 1, "n must be at least 1");
+    Preconditions.checkArgument(userSimilarity != null, "userSimilarity is null");
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(hashFamily != null, "hashFamily is null");
+    Preconditions.checkArgument(numTables >= 1, "numTables must be at least 1");
+    Preconditions.checkArgument(hashesPerTable >= 1 && hashesPerTable <= 64, "hashesPerTable must be in [1,64]");
+    int numUsers = dataModel.getNumUsers();
+    this.n = n > numUsers ? numUsers : n;
+    this.minSimilarity = minSimilarity;
+    this.userSimilarity = userSimilarity;
+    this.dataModel = dataModel;
+    this.hashFamily = hashFamily;
+    this.numTables = numTables;
+    this.hashesPerTable = hashesPerTable;
+    Random random = RandomUtils.getRandom();
+    this.seeds = new long[numTables * hashesPerTable];
+    for (int i = 0; i < seeds.length; i++) {
+      seeds[i] = random.nextLong();
+    }
+    @SuppressWarnings("unchecked")
+    FastByIDMap<FastIDSet>[] theTables = (FastByIDMap<FastIDSet>[]) new FastByIDMap[numTables];
+    for (int t = 0; t < numTables; t++) {
+      theTables[t] = new FastByIDMap<FastIDSet>();
+    }
+    this.tables = theTables;
+    this.indexedUsers = new FastByIDMap<IndexedUser>(numUsers);
+    this.indexLock = new ReentrantReadWriteLock();
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        updateIndex();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    refreshHelper.addDependency(userSimilarity);
+    updateIndex();
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID) throws TasteException {
+    long[] buckets;
+    indexLock.readLock().lock();
+    try {
+      IndexedUser indexed = indexedUsers.get(userID);
+      buckets = indexed == null ? null : indexed.buckets;
+    } finally {
+      indexLock.readLock().unlock();
+    }
+    if (buckets == null) {
+      buckets = hash(dataModel.getPreferencesFromUser(userID));
+    }
+
+    FastIDSet candidates = new FastIDSet();
+    indexLock.readLock().lock();
+    try {
+      for (int t = 0; t < numTables; t++) {
+        FastIDSet bucket = tables[t].get(buckets[t]);
+        if (bucket != null) {
+          candidates.addAll(bucket);
+        }
+      }
+    } finally {
+      indexLock.readLock().unlock();
+    }
+    candidates.remove(userID);
+
+    TopItems.LongEstimator estimator = new NearestNUserNeighborhood.Estimator(userSimilarity, userID, minSimilarity);
+    return TopItems.getTopUsers(n, candidates.iterator(), null, estimator);
+  }
+
+  /**
+   * Re-hashes one user's preferences, or removes the user from the index if it is no longer in the
+   * {@link DataModel}.
+   */
+  public void refreshUser(long userID) throws TasteException {
+    PreferenceArray prefs;
+    try {
+      prefs = dataModel.getPreferencesFromUser(userID);
+    } catch (NoSuchUserException nsue) {
+      unindex(userID);
+      return;
+    }
+    index(userID, prefs);
+  }
+
+  private void updateIndex() throws TasteException {
+    int numChanged = 0;
+    FastIDSet seen = new FastIDSet(dataModel.getNumUsers());
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      seen.add(userID);
+      if (index(userID, dataModel.getPreferencesFromUser(userID))) {
+        numChanged++;
+      }
+    }
+    FastIDSet gone = new FastIDSet();
+    indexLock.readLock().lock();
+    try {
+      for (Map.Entry<Long,IndexedUser> entry : indexedUsers.entrySet()) {
+        if (!seen.contains(entry.getKey())) {
+          gone.add(entry.getKey());
+        }
+      }
+    } finally {
+      indexLock.readLock().unlock();
+    }
+    LongPrimitiveIterator goneIt = gone.iterator();
+    while (goneIt.hasNext()) {
+      unindex(goneIt.nextLong());
+    }
+    log.info("Re-hashed {} users, removed {}", numChanged, gone.size());
+  }
+
+  /**
+   * @return true if the user was hashed into new buckets
+   */
+  private boolean index(long userID, PreferenceArray prefs) {
+    long fingerprint = fingerprint(prefs);
+    IndexedUser previous;
+    indexLock.readLock().lock();
+    try {
+      previous = indexedUsers.get(userID);
+    } finally {
+      indexLock.readLock().unlock();
+    }
+    if (previous != null && previous.fingerprint == fingerprint) {
+      return false;
+    }
+    long[] buckets = hash(prefs);
+    indexLock.writeLock().lock();
+    try {
+      previous = indexedUsers.get(userID);
+      for (int t = 0; t < numTables; t++) {
+        if (previous != null) {
+          removeFromBucket(t, previous.buckets[t], userID);
+        }
+        FastIDSet bucket = tables[t].get(buckets[t]);
+        if (bucket == null) {
+          bucket = new FastIDSet();
+          tables[t].put(buckets[t], bucket);
+        }
+        bucket.add(userID);
+      }
+      indexedUsers.put(userID, new IndexedUser(fingerprint, buckets));
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+    return true;
+  }
+
+  private void unindex(long userID) {
+    indexLock.writeLock().lock();
+    try {
+      IndexedUser previous = indexedUsers.remove(userID);
+      if (previous != null) {
+        for (int t = 0; t < numTables; t++) {
+          removeFromBucket(t, previous.buckets[t], userID);
+        }
+      }
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+  }
+
+  private void removeFromBucket(int table, long bucketID, long userID) {
+    FastIDSet bucket = tables[table].get(bucketID);
+    if (bucket != null) {
+      bucket.remove(userID);
+      if (bucket.isEmpty()) {
+        tables[table].remove(bucketID);
+      }
+    }
+  }
+
+  /**
+   * @return the user's bucket in each table
+   */
+  private long[] hash(PreferenceArray prefs) {
+    int length = prefs.length();
+    int numHashes = seeds.length;
+    long[] buckets = new long[numTables];
+    if (hashFamily == HashFamily.MIN_HASH) {
+      long[] minima = new long[numHashes];
+      Arrays.fill(minima, Long.MAX_VALUE);
+      for (int i = 0; i < length; i++) {
+        long itemID = prefs.getItemID(i);
+        for (int h = 0; h < numHashes; h++) {
+          long hash = hash(itemID, seeds[h]);
+          if (hash < minima[h]) {
+            minima[h] = hash;
+          }
+        }
+      }
+      for (int t = 0; t < numTables; t++) {
+        long bucket = t;
+        for (int h = t * hashesPerTable; h < (t + 1) * hashesPerTable; h++) {
+          bucket = hash(bucket, minima[h]);
+        }
+        buckets[t] = bucket;
+      }
+    } else {
+      double mean = 0.0;
+      if (hashFamily == HashFamily.CENTERED_SIM_HASH) {
+        for (int i = 0; i < length; i++) {
+          mean += prefs.getValue(i);
+        }
+        mean /= length;
+      }
+      // projection of the preference values on random hyperplanes, whose components are +1 or -1
+      double[] projections = new double[numHashes];
+      for (int i = 0; i < length; i++) {
+        long itemID = prefs.getItemID(i);
+        double value = prefs.getValue(i) - mean;
+        for (int h = 0; h < numHashes; h++) {
+          projections[h] += hash(itemID, seeds[h]) < 0L ? -value : value;
+        }
+      }
+      for (int t = 0; t < numTables; t++) {
+        long bucket = 0L;
+        for (int h = 0; h < hashesPerTable; h++) {
+          if (projections[t * hashesPerTable + h] > 0.0) {
+            bucket |= 1L << h;
+          }
+        }
+        buckets[t] = bucket;
+      }
+    }
+    return buckets;
+  }
+
+  private static long fingerprint(PreferenceArray prefs) {
+    long fingerprint = prefs.length();
+    for (int i = 0; i < prefs.length(); i++) {
+      fingerprint = hash(fingerprint ^ prefs.getItemID(i), Float.floatToIntBits(prefs.getValue(i)));
+    }
+    return fingerprint;
+  }
+
+  /** a hash function of {@code value} for each {@code seed}, by MurmurHash3's 64-bit finalizer */
+  private static long hash(long value, long seed) {
+    long h = value + seed * 0x9E3779B97F4A7C15L;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "LocalitySensitiveHashUserNeighborhood[hashFamily:" + hashFamily + ", numTables:" + numTables
+        + ", hashesPerTable:" + hashesPerTable + ']';
+  }
+
+  private static final class IndexedUser {
+
+    /** hash of the preferences last hashed, to tell whether they changed */
+    private final long fingerprint;
+    private final long[] buckets;
+
+    private IndexedUser(long fingerprint, long[] buckets) {
+      this.fingerprint = fingerprint;
+      this.buckets = buckets;
+    }
+
+  }
+
+}
@@ -0,0 +1,311 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link Recommender} which refreshes by building a whole new generation of its components -- a new
+ * {@link DataModel}, and a new {@link Recommender} with its similarities, neighborhoods and caches on top of it --
+ * in a background thread, while the current generation keeps serving requests undisturbed. When the new
+ * generation is ready, it is warmed up with the users most recently served, so that a {@link CachingRecommender}
+ * or caching similarities in it are already full, and then swapped in at once. Warm-up asks for as many
+ * recommendations as the largest request since the previous rebuild, up to {@link #MAX_WARM_UP_HOW_MANY}.
+ * </p>
+ *
+ * <p>
+ * A generation which has been swapped out is released when the next rebuild starts, by which time the requests
+ * it was still serving have long finished: its {@link Recommender} and {@link DataModel} are closed if they are
+ * {@link Closeable}.
+ * </p>
+ *
+ * <p>
+ * {@link #refresh(Collection)} returns right away; {@link #rebuildInBackground()} does the same and returns a
+ * {@link Future} for the rebuild. If building the new generation fails, the current one is kept. Changes made
+ * through {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)} reach only the
+ * current generation, so should also be made where the {@link DataModel} factory reads its data.
+ * </p>
+ */
+public final class BackgroundRefreshingRecommender implements Recommender, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(BackgroundRefreshingRecommender.class);
+
+  private static final int DEFAULT_WARM_UP_USERS = 1000;
+  private static final int DEFAULT_HOW_MANY = 10;
+  static final int MAX_WARM_UP_HOW_MANY = 100;
+
+  private final Callable<? extends DataModel> dataModelFactory;
+  private final RecommenderBuilder recommenderBuilder;
+  /** ring of the user IDs most recently asked for recommendations */
+  private final AtomicLongArray recentUserIDs;
+  private final AtomicLong numRequests;
+  private final AtomicInteger maxHowMany;
+  private final ExecutorService rebuilder;
+  private final Object rebuildLock;
+  private Future<?> rebuild;
+  private volatile Recommender current;
+  /** the generation last swapped out, not yet released */
+  private Recommender retired;
+  private boolean closed;
+
+  /**
+   * Warms new generations up with the last 1000 users served.
+   */
+  public BackgroundRefreshingRecommender(Callable<? extends DataModel> dataModelFactory,
+                                         RecommenderBuilder recommenderBuilder) throws TasteException {
+    this(dataModelFactory, recommenderBuilder, DEFAULT_WARM_UP_USERS);
+  }
+
+  /**
+   * Builds the first generation before returning.
+   *
+   * @param dataModelFactory builds a new {@link DataModel}, with the latest data, for each generation
+   * @param recommenderBuilder builds each generation's {@link Recommender} on its {@link DataModel}
+   * @param warmUpUsers how many of the users most recently served to compute recommendations for in a new
+   *  generation before it is swapped in, or 0 for none
+   */
+  public BackgroundRefreshingRecommender(Callable<? extends DataModel> dataModelFactory,
+                                         RecommenderBuilder recommenderBuilder,
+                                         int warmUpUsers) throws TasteException {
+    Preconditions.checkArgument(dataModelFactory != null, "dataModelFactory is null");
+    Preconditions.checkArgument(recommenderBuilder != null, "recommenderBuilder is null");
+    Preconditions.checkArgument(warmUpUsers >= 0, "warmUpUsers must not be negative");
+    this.dataModelFactory = dataModelFactory;
+    this.recommenderBuilder = recommenderBuilder;
+    this.recentUserIDs = warmUpUsers == 0 ? null : new AtomicLongArray(warmUpUsers);
+    this.numRequests = new AtomicLong();
+    this.maxHowMany = new AtomicInteger(DEFAULT_HOW_MANY);
+    this.rebuilder = Executors.newSingleThreadExecutor(new DaemonThreadFactory("mahout-background-refresh"));
+    this.rebuildLock = new Object();
+    this.current = build();
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+    return recommend(userID, howMany, null);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+    noteRequest(userID, howMany);
+    return current.recommend(userID, howMany, rescorer);
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    return current.estimatePreference(userID, itemID);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    current.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    current.removePreference(userID, itemID);
+  }
+
+  /**
+   * @return the current generation's {@link DataModel}
+   */
+  @Override
+  public DataModel getDataModel() {
+    return current.getDataModel();
+  }
+
+  /**
+   * Starts building a new generation in the background, unless one is being built already, and returns.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    rebuildInBackground();
+  }
+
+  /**
+   * Starts building a new generation in the background, unless one is being built already.
+   *
+   * @return the rebuild, done when the new generation has been swapped in, or has failed
+   */
+  public Future<?> rebuildInBackground() {
+    synchronized (rebuildLock) {
+      if (rebuild == null || rebuild.isDone()) {
+        rebuild = rebuilder.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws TasteException {
+            try {
+              rebuild();
+            } catch (TasteException te) {
+              log.warn("Couldn't build a new generation; keeping the current one", te);
+              throw te;
+            } catch (RuntimeException re) {
+              log.warn("Couldn't build a new generation; keeping the current one", re);
+              throw re;
+            }
+            return null;
+          }
+        });
+      }
+      return rebuild;
+    }
+  }
+
+  private void rebuild() throws TasteException {
+    synchronized (rebuildLock) {
+      release(retired, current);
+      retired = null;
+    }
+    long start = System.currentTimeMillis();
+    Recommender next = build();
+    long built = System.currentTimeMillis();
+    int numWarmedUp;
+    try {
+      numWarmedUp = warmUp(next);
+    } catch (TasteException te) {
+      release(next, current);
+      throw te;
+    } catch (RuntimeException re) {
+      release(next, current);
+      throw re;
+    }
+    synchronized (rebuildLock) {
+      if (closed) {
+        release(next, null);
+        return;
+      }
+      retired = current;
+      current = next;
+    }
+    log.info("Swapped in a new generation, built in {}ms and warmed up with {} users in {}ms",
+             new Object[] {built - start, numWarmedUp, System.currentTimeMillis() - built});
+  }
+
+  private Recommender build() throws TasteException {
+    DataModel dataModel;
+    try {
+      dataModel = dataModelFactory.call();
+    } catch (TasteException te) {
+      throw te;
+    } catch (Exception e) {
+      throw new TasteException(e);
+    }
+    return recommenderBuilder.buildRecommender(dataModel);
+  }
+
+  private int warmUp(Recommender next) throws TasteException {
+    // the largest request since the last rebuild, so that one very large request does not weigh on every rebuild
+    int howMany = Math.min(maxHowMany.getAndSet(DEFAULT_HOW_MANY), MAX_WARM_UP_HOW_MANY);
+    int numWarmedUp = 0;
+    for (long userID : hotUserIDs()) {
+      try {
+        next.recommend(userID, howMany);
+        numWarmedUp++;
+      } catch (NoSuchUserException nsue) {
+        // no longer there
+      }
+    }
+    return numWarmedUp;
+  }
+
+  private void noteRequest(long userID, int howMany) {
+    if (recentUserIDs != null) {
+      long request = numRequests.getAndIncrement();
+      recentUserIDs.set((int) (request % recentUserIDs.length()), userID);
+    }
+    int max = maxHowMany.get();
+    while (howMany > max && !maxHowMany.compareAndSet(max, howMany)) {
+      max = maxHowMany.get();
+    }
+  }
+
+  private long[] hotUserIDs() {
+    if (recentUserIDs == null) {
+      return new long[0];
+    }
+    int numRecent = (int) Math.min(numRequests.get(), (long) recentUserIDs.length());
+    FastIDSet userIDs = new FastIDSet(numRecent);
+    for (int i = 0; i < numRecent; i++) {
+      userIDs.add(recentUserIDs.get(i));
+    }
+    return userIDs.toArray();
+  }
+
+  /**
+   * Stops the background thread, abandoning any rebuild in progress, and releases all generations.
+   */
+  @Override
+  public void close() {
+    rebuilder.shutdownNow();
+    synchronized (rebuildLock) {
+      closed = true;
+      release(retired, current);
+      retired = null;
+      release(current, null);
+    }
+  }
+
+  /**
+   * Closes a generation's {@link Recommender} and {@link DataModel} where they are {@link Closeable}, except for
+   * what it shares with the generation still in use, if any.
+   */
+  private static void release(Recommender generation, Recommender inUse) {
+    if (generation == null || generation == inUse) {
+      return;
+    }
+    DataModel dataModel = generation.getDataModel();
+    if (generation instanceof Closeable) {
+      Closeables.closeQuietly((Closeable) generation);
+    }
+    if (dataModel instanceof Closeable && dataModel != generation
+        && (inUse == null || dataModel != inUse.getDataModel())) {
+      Closeables.closeQuietly((Closeable) dataModel);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BackgroundRefreshingRecommender[recommender:" + current + ']';
+  }
+
+}
@@ -0,0 +1,374 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.BatchRecommender;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link Recommender} front for serving many concurrent requests, which coalesces them into micro-batches. A
+ * dispatcher thread collects the pending {@link #recommend(long, int, IDRescorer)} calls until
+ * {@code maxBatchSize} of them are waiting or the oldest has waited {@code maxBatchLatencyMillis}, and hands the
+ * batch to a pool of worker threads while the callers wait for their results.
+ * </p>
+ *
+ * <p>
+ * Requests with the same {@link IDRescorer} are served together: each distinct user once, with as many
+ * recommendations as the largest request wants. If the delegate is a {@link BatchRecommender} the whole group goes
+ * to {@link BatchRecommender#recommend(long[], int, IDRescorer)}, which lets it share the work its users have in
+ * common, such as fetching the same popular items. If the batch fails, each request is retried on its own so that
+ * one bad request, like one for an unknown user, doesn't fail the others.
+ * </p>
+ *
+ * <p>
+ * All other methods go straight to the delegate. {@link #close()} stops the threads and fails pending requests.
+ * </p>
+ */
+public final class BatchingRecommender implements BatchRecommender, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchingRecommender.class);
+
+  private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+  private static final long DEFAULT_MAX_BATCH_LATENCY_MILLIS = 5L;
+
+  private final Recommender delegate;
+  private final int maxBatchSize;
+  private final long maxBatchLatencyNanos;
+  private final BlockingQueue<Request> pending;
+  private final ExecutorService workers;
+  private final Thread dispatcher;
+  private volatile boolean closed;
+
+  public BatchingRecommender(Recommender delegate) {
+    this(delegate, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_LATENCY_MILLIS,
+         Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param delegate recommender computing the recommendations
+   * @param maxBatchSize most requests served in one batch
+   * @param maxBatchLatencyMillis longest time a request waits for others to batch with
+   * @param numThreads number of threads serving batches
+   */
+  public BatchingRecommender(Recommender delegate, int maxBatchSize, long maxBatchLatencyMillis, int numThreads) {
+    Preconditions.checkArgument(delegate != null, "delegate is null");
+    Preconditions.checkArgument(maxBatchSize >= 1, "maxBatchSize must be at least 1");
+    Preconditions.checkArgument(maxBatchLatencyMillis >= 0L, "maxBatchLatencyMillis must not be negative");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    this.delegate = delegate;
+    this.maxBatchSize = maxBatchSize;
+    this.maxBatchLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchLatencyMillis);
+    this.pending = new LinkedBlockingQueue<Request>();
+    this.workers = DaemonThreadFactory.newFixedThreadPool(numThreads, "mahout-batching-recommender");
+    this.dispatcher = new Thread(new Dispatcher(), "mahout-batching-recommender-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+    return recommend(userID, howMany, null);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    Preconditions.checkState(!closed, "closed");
+    Request request = new Request(userID, howMany, rescorer);
+    pending.add(request);
+    if (closed) {
+      // closed while adding, the dispatcher may never see it
+      failPending();
+    }
+    return request.get();
+  }
+
+  /**
+   * Serves the users right away on the calling thread, as one batch.
+   */
+  @Override
+  public List<List<RecommendedItem>> recommend(long[] userIDs, int howMany) throws TasteException {
+    return recommend(userIDs, howMany, null);
+  }
+
+  /**
+   * Serves the users right away on the calling thread, as one batch.
+   */
+  @Override
+  public List<List<RecommendedItem>> recommend(long[] userIDs, int howMany, IDRescorer rescorer)
+    throws TasteException {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    if (delegate instanceof BatchRecommender) {
+      return ((BatchRecommender) delegate).recommend(userIDs, howMany, rescorer);
+    }
+    List<List<RecommendedItem>> recommendations = Lists.newArrayListWithCapacity(userIDs.length);
+    for (long userID : userIDs) {
+      recommendations.add(delegate.recommend(userID, howMany, rescorer));
+    }
+    return recommendations;
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    return delegate.estimatePreference(userID, itemID);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    delegate.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    delegate.removePreference(userID, itemID);
+  }
+
+  @Override
+  public DataModel getDataModel() {
+    return delegate.getDataModel();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    delegate.refresh(alreadyRefreshed);
+  }
+
+  /**
+   * Stops the dispatcher and worker threads. Requests not yet served fail with a {@link TasteException}.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    dispatcher.interrupt();
+    workers.shutdown();
+    failPending();
+  }
+
+  private void failPending() {
+    Request request;
+    while ((request = pending.poll()) != null) {
+      request.fail(new TasteException("BatchingRecommender is closed"));
+    }
+  }
+
+  /** fails the requests of a batch which were not served when serving it broke off, so no caller waits forever */
+  private static void failUnserved(List<Request> batch, Throwable cause) {
+    for (Request request : batch) {
+      request.fail(cause);
+    }
+  }
+
+  /** serves one batch, grouped by rescorer */
+  private void serve(List<Request> batch) {
+    List<Request> remaining = batch;
+    while (!remaining.isEmpty()) {
+      IDRescorer rescorer = remaining.get(0).rescorer;
+      List<Request> group = Lists.newArrayList();
+      List<Request> others = Lists.newArrayList();
+      for (Request request : remaining) {
+        (request.rescorer == rescorer ? group : others).add(request);
+      }
+      serveGroup(group, rescorer);
+      remaining = others;
+    }
+  }
+
+  private void serveGroup(List<Request> group, IDRescorer rescorer) {
+    if (group.size() == 1) {
+      serveAlone(group.get(0));
+      return;
+    }
+    FastByIDMap<Integer> userIndexes = new FastByIDMap<Integer>(group.size());
+    long[] userIDs = new long[group.size()];
+    int numUsers = 0;
+    int howMany = 1;
+    for (Request request : group) {
+      if (!userIndexes.containsKey(request.userID)) {
+        userIndexes.put(request.userID, numUsers);
+        userIDs[numUsers++] = request.userID;
+      }
+      howMany = Math.max(howMany, request.howMany);
+    }
+    long[] distinctUserIDs = new long[numUsers];
+    System.arraycopy(userIDs, 0, distinctUserIDs, 0, numUsers);
+    List<List<RecommendedItem>> recommendations;
+    try {
+      recommendations = recommend(distinctUserIDs, howMany, rescorer);
+    } catch (TasteException te) {
+      log.debug("Batch of {} requests failed, serving them one at a time: {}", group.size(), te.toString());
+      recommendations = null;
+    } catch (RuntimeException re) {
+      log.debug("Batch of {} requests failed, serving them one at a time: {}", group.size(), re.toString());
+      recommendations = null;
+    }
+    for (Request request : group) {
+      if (recommendations == null) {
+        serveAlone(request);
+      } else {
+        List<RecommendedItem> userRecommendations = recommendations.get(userIndexes.get(request.userID));
+        int size = Math.min(request.howMany, userRecommendations.size());
+        request.set(Lists.newArrayList(userRecommendations.subList(0, size)));
+      }
+    }
+  }
+
+  private void serveAlone(Request request) {
+    try {
+      request.set(delegate.recommend(request.userID, request.howMany, request.rescorer));
+    } catch (TasteException te) {
+      request.fail(te);
+    } catch (RuntimeException re) {
+      request.fail(re);
+    } catch (Error e) {
+      request.fail(e);
+      throw e;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BatchingRecommender[recommender:" + delegate + ", maxBatchSize:" + maxBatchSize + ']';
+  }
+
+  private final class Dispatcher implements Runnable {
+    @Override
+    public void run() {
+      try {
+        while (!closed) {
+          Request first = pending.take();
+          final List<Request> batch = Lists.newArrayList();
+          batch.add(first);
+          long deadline = first.created + maxBatchLatencyNanos;
+          while (batch.size() < maxBatchSize) {
+            long wait = deadline - System.nanoTime();
+            Request next = wait > 0L ? pending.poll(wait, TimeUnit.NANOSECONDS) : pending.poll();
+            if (next == null) {
+              break;
+            }
+            batch.add(next);
+          }
+          try {
+            workers.execute(new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  serve(batch);
+                } catch (RuntimeException re) {
+                  failUnserved(batch, re);
+                  throw re;
+                } catch (Error e) {
+                  failUnserved(batch, e);
+                  throw e;
+                }
+              }
+            });
+          } catch (RejectedExecutionException ree) {
+            for (Request request : batch) {
+              request.fail(new TasteException("BatchingRecommender is closed"));
+            }
+          }
+        }
+      } catch (InterruptedException ie) {
+        // closed
+      }
+      failPending();
+    }
+  }
+
+  private static final class Request {
+
+    private final long userID;
+    private final int howMany;
+    private final IDRescorer rescorer;
+    private final long created;
+    private final AtomicBoolean completed;
+    private final CountDownLatch done;
+    private volatile List<RecommendedItem> result;
+    private volatile Throwable failure;
+
+    Request(long userID, int howMany, IDRescorer rescorer) {
+      this.userID = userID;
+      this.howMany = howMany;
+      this.rescorer = rescorer;
+      this.created = System.nanoTime();
+      this.completed = new AtomicBoolean();
+      this.done = new CountDownLatch(1);
+    }
+
+    void set(List<RecommendedItem> result) {
+      if (completed.compareAndSet(false, true)) {
+        this.result = result;
+        done.countDown();
+      }
+    }
+
+    void fail(Throwable failure) {
+      if (completed.compareAndSet(false, true)) {
+        this.failure = failure;
+        done.countDown();
+      }
+    }
+
+    List<RecommendedItem> get() throws TasteException {
+      try {
+        done.await();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new TasteException(ie);
+      }
+      Throwable cause = failure;
+      if (cause == null) {
+        return result;
+      }
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new TasteException(cause);
+    }
+  }
+
+}
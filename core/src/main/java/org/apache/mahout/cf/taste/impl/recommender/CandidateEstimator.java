@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.common.ParallelTasks;
+
+/**
+ * <p>
+ * Estimates preferences for many candidate items at once. When asked to, the candidates are cut into blocks of
+ * {@link #BLOCK_SIZE} items which are estimated on the shared pool of {@link ParallelTasks}, one thread per
+ * processor; fewer candidates than two blocks are estimated on the calling thread, as are candidates submitted from
+ * one of the pool's own threads. Each estimate is computed exactly as it would be one at a time, so the results do
+ * not depend on how the work was split.
+ * </p>
+ */
+final class CandidateEstimator {
+
+  static final int BLOCK_SIZE = 1024;
+
+  private CandidateEstimator() {
+  }
+
+  /**
+   * @param parallel whether the items may be estimated on several threads at once
+   * @return the estimate for each of the items, or {@link Double#NaN} for those the estimator throws
+   *  {@link NoSuchItemException} for
+   */
+  static double[] estimateAll(final long[] itemIDs, final TopItems.LongEstimator estimator, boolean parallel)
+    throws TasteException {
+    final double[] estimates = new double[itemIDs.length];
+    if (!parallel || ParallelTasks.NUM_SHARED_THREADS == 1 || itemIDs.length < 2 * BLOCK_SIZE || ParallelTasks.isSharedThread()) {
+      estimate(itemIDs, estimator, estimates, 0, itemIDs.length);
+      return estimates;
+    }
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int start = 0; start < itemIDs.length; start += BLOCK_SIZE) {
+      final int blockStart = start;
+      final int blockEnd = Math.min(itemIDs.length, start + BLOCK_SIZE);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws TasteException {
+          estimate(itemIDs, estimator, estimates, blockStart, blockEnd);
+          return null;
+        }
+      });
+    }
+    try {
+      ParallelTasks.invokeAllShared(tasks, TasteException.class);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    }
+    return estimates;
+  }
+
+  private static void estimate(long[] itemIDs, TopItems.LongEstimator estimator, double[] estimates,
+                               int start, int end) throws TasteException {
+    for (int i = start; i < end; i++) {
+      try {
+        estimates[i] = estimator.estimate(itemIDs[i]);
+      } catch (NoSuchItemException nsie) {
+        estimates[i] = Double.NaN;
+      }
+    }
+  }
+
+}
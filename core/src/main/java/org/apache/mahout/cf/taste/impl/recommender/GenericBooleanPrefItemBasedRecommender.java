@@ -17,7 +17,6 @@
 
 package org.apache.mahout.cf.taste.impl.recommender;
 
-import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
@@ -41,6 +40,12 @@ public final class GenericBooleanPrefItemBasedRecommender extends GenericItemBas
       mostSimilarItemsCandidateItemsStrategy) {
     super(dataModel, similarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy);
   }
+
+  public GenericBooleanPrefItemBasedRecommender(DataModel dataModel, ItemSimilarity similarity,
+      CandidateItemsStrategy candidateItemsStrategy, MostSimilarItemsCandidateItemsStrategy
+      mostSimilarItemsCandidateItemsStrategy, boolean parallelEstimation) {
+    super(dataModel, similarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy, parallelEstimation);
+  }
   
   /**
    * This computation is in a technical sense, wrong, since in the domain of "boolean preference users" where
@@ -49,9 +54,7 @@ public final class GenericBooleanPrefItemBasedRecommender extends GenericItemBas
    * sum of similarities.
    */
   @Override
-  protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID)
-    throws TasteException {
-    double[] similarities = getSimilarity().itemSimilarities(itemID, preferencesFromUser.getIDs());
+  protected float estimateFromSimilarities(PreferenceArray preferencesFromUser, double[] similarities) {
     boolean foundAPref = false;
     double totalSimilarity = 0.0;
     for (double theSimilarity : similarities) {
@@ -62,6 +65,11 @@ public final class GenericBooleanPrefItemBasedRecommender extends GenericItemBas
     }
     return foundAPref ? (float) totalSimilarity : Float.NaN;
   }
+
+  @Override
+  protected boolean estimatesFromSimilarities() {
+    return true;
+  }
   
   @Override
   public String toString() {
@@ -18,19 +18,24 @@
 package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.BatchRecommender;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
 import org.apache.mahout.cf.taste.recommender.MostSimilarItemsCandidateItemsStrategy;
@@ -42,6 +47,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 /**
  * <p>
@@ -65,14 +71,29 @@ import com.google.common.base.Preconditions;
  * {@link org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity} too, which computes
  * similarities in real-time, but will probably find this painfully slow for large amounts of data.
  * </p>
+ *
+ * <p>
+ * Candidate items are estimated one after another on the calling thread unless the recommender is constructed with
+ * {@code parallelEstimation} set, in which case they are estimated in blocks spread over all processors once there
+ * are enough candidates. The {@link ItemSimilarity} and any override of
+ * {@link #doEstimatePreference(long, PreferenceArray, long)} or {@link #estimateFromSimilarities} must then be
+ * thread-safe.
+ * </p>
+ *
+ * <p>
+ * {@link #recommend(long[], int, IDRescorer)} recommends to a batch of users, looking up the similarities of each
+ * candidate item once for all users of the batch.
+ * </p>
  */
-public class GenericItemBasedRecommender extends AbstractRecommender implements ItemBasedRecommender {
+public class GenericItemBasedRecommender extends AbstractRecommender
+    implements ItemBasedRecommender, BatchRecommender {
   
   private static final Logger log = LoggerFactory.getLogger(GenericItemBasedRecommender.class);
   
   private final ItemSimilarity similarity;
   private final MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy;
   private final RefreshHelper refreshHelper;
+  private final boolean parallelEstimation;
   private EstimatedPreferenceCapper capper;
 
   private static final boolean EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT = true;
@@ -81,12 +102,25 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
                                      ItemSimilarity similarity,
                                      CandidateItemsStrategy candidateItemsStrategy,
                                      MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy) {
+    this(dataModel, similarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy, false);
+  }
+
+  /**
+   * @param parallelEstimation whether candidate items may be estimated on several threads at once, which requires
+   *  the similarity to be thread-safe
+   */
+  public GenericItemBasedRecommender(DataModel dataModel,
+                                     ItemSimilarity similarity,
+                                     CandidateItemsStrategy candidateItemsStrategy,
+                                     MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy,
+                                     boolean parallelEstimation) {
     super(dataModel, candidateItemsStrategy);
     Preconditions.checkArgument(similarity != null, "similarity is null");
     this.similarity = similarity;
     Preconditions.checkArgument(mostSimilarItemsCandidateItemsStrategy != null,
         "mostSimilarItemsCandidateItemsStrategy is null");
     this.mostSimilarItemsCandidateItemsStrategy = mostSimilarItemsCandidateItemsStrategy;
+    this.parallelEstimation = parallelEstimation;
     this.refreshHelper = new RefreshHelper(new Callable<Void>() {
       @Override
       public Void call() {
@@ -125,16 +159,153 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
 
     FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
+    long[] candidateItemIDs = filteredItemIDs(possibleItemIDs, rescorer);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID, preferencesFromUser);
+    TopItems.LongEstimator estimator = new Estimator(userID, preferencesFromUser);
+    double[] estimates = CandidateEstimator.estimateAll(candidateItemIDs, estimator, parallelEstimation);
 
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
-      estimator);
+    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, candidateItemIDs, estimates, rescorer);
 
     log.debug("Recommendations are: {}", topItems);
     return topItems;
   }
   
+  @Override
+  public List<List<RecommendedItem>> recommend(long[] userIDs, int howMany) throws TasteException {
+    return recommend(userIDs, howMany, null);
+  }
+
+  /**
+   * <p>
+   * Recommends to several users at once. The similarities of each candidate item to the items of all users of the
+   * batch it is a candidate for are looked up in one {@link ItemSimilarity#itemSimilarities(long, long[])} call, so
+   * that an item which is a candidate for many of the users is fetched and compared once per batch rather than once
+   * per user. Subclasses are served one user at a time unless they opt in through
+   * {@link #estimatesFromSimilarities()}.
+   * </p>
+   */
+  @Override
+  public List<List<RecommendedItem>> recommend(long[] userIDs, int howMany, IDRescorer rescorer)
+    throws TasteException {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    int numUsers = userIDs.length;
+    List<List<RecommendedItem>> recommendations = Lists.newArrayListWithCapacity(numUsers);
+    if (!estimatesFromSimilarities()) {
+      for (long userID : userIDs) {
+        recommendations.add(recommend(userID, howMany, rescorer));
+      }
+      return recommendations;
+    }
+    log.debug("Recommending items for {} users", numUsers);
+
+    DataModel dataModel = getDataModel();
+    PreferenceArray[] preferencesFromUsers = new PreferenceArray[numUsers];
+    long[][] candidateItemIDs = new long[numUsers][];
+    double[][] estimates = new double[numUsers][];
+    final FastByIDMap<Demand> demands = new FastByIDMap<Demand>();
+    for (int user = 0; user < numUsers; user++) {
+      PreferenceArray preferencesFromUser = dataModel.getPreferencesFromUser(userIDs[user]);
+      preferencesFromUsers[user] = preferencesFromUser;
+      if (preferencesFromUser.length() == 0) {
+        continue;
+      }
+      long[] candidates = filteredItemIDs(getAllOtherItems(userIDs[user], preferencesFromUser), rescorer);
+      candidateItemIDs[user] = candidates;
+      estimates[user] = new double[candidates.length];
+      for (int position = 0; position < candidates.length; position++) {
+        Demand demand = demands.get(candidates[position]);
+        if (demand == null) {
+          demand = new Demand();
+          demands.put(candidates[position], demand);
+        }
+        demand.add(user, position);
+      }
+    }
+
+    long[] demandedItemIDs = new long[demands.size()];
+    int i = 0;
+    LongPrimitiveIterator it = demands.keySetIterator();
+    while (it.hasNext()) {
+      demandedItemIDs[i++] = it.nextLong();
+    }
+    final BatchEstimates batch = new BatchEstimates(userIDs, preferencesFromUsers, estimates);
+    // each item writes the estimates of all users it is a candidate for, the returned values are not needed
+    CandidateEstimator.estimateAll(demandedItemIDs, new TopItems.LongEstimator() {
+      @Override
+      public double estimate(long itemID) throws TasteException {
+        estimateForUsers(itemID, demands.get(itemID), batch);
+        return Double.NaN;
+      }
+    }, parallelEstimation);
+
+    for (int user = 0; user < numUsers; user++) {
+      if (candidateItemIDs[user] == null) {
+        recommendations.add(Collections.<RecommendedItem>emptyList());
+      } else {
+        recommendations.add(TopItems.getTopItems(howMany, candidateItemIDs[user], estimates[user], rescorer));
+      }
+    }
+    return recommendations;
+  }
+
+  private void estimateForUsers(long itemID, Demand demand, BatchEstimates batch) throws TasteException {
+    try {
+      if (demand.size == 1) {
+        int user = demand.users[0];
+        batch.estimates[user][demand.positions[0]] =
+            doEstimatePreference(batch.userIDs[user], batch.preferencesFromUsers[user], itemID);
+        return;
+      }
+      FastIDSet allPreferredItemIDs = new FastIDSet();
+      for (int n = 0; n < demand.size; n++) {
+        allPreferredItemIDs.addAll(batch.preferencesFromUsers[demand.users[n]].getIDs());
+      }
+      long[] preferredItemIDs = allPreferredItemIDs.toArray();
+      Arrays.sort(preferredItemIDs);
+      double[] allSimilarities = similarity.itemSimilarities(itemID, preferredItemIDs);
+      for (int n = 0; n < demand.size; n++) {
+        int user = demand.users[n];
+        PreferenceArray preferencesFromUser = batch.preferencesFromUsers[user];
+        int length = preferencesFromUser.length();
+        double[] similarities = new double[length];
+        for (int j = 0; j < length; j++) {
+          similarities[j] = allSimilarities[Arrays.binarySearch(preferredItemIDs, preferencesFromUser.getItemID(j))];
+        }
+        batch.estimates[user][demand.positions[n]] = estimateFromSimilarities(preferencesFromUser, similarities);
+      }
+    } catch (NoSuchItemException nsie) {
+      for (int n = 0; n < demand.size; n++) {
+        batch.estimates[demand.users[n]][demand.positions[n]] = Double.NaN;
+      }
+    }
+  }
+
+  /**
+   * @return true if every estimate is {@link #estimateFromSimilarities(PreferenceArray, double[])} applied to the
+   *  similarities of the item to the user's items, which lets {@link #recommend(long[], int, IDRescorer)} share
+   *  similarity lookups across a batch. Subclasses which do not override
+   *  {@link #doEstimatePreference(long, PreferenceArray, long)} may override this to return true.
+   */
+  protected boolean estimatesFromSimilarities() {
+    return getClass() == GenericItemBasedRecommender.class;
+  }
+
+  private static long[] filteredItemIDs(FastIDSet itemIDs, IDRescorer rescorer) {
+    if (rescorer == null) {
+      return itemIDs.toArray();
+    }
+    long[] filtered = new long[itemIDs.size()];
+    int size = 0;
+    LongPrimitiveIterator it = itemIDs.iterator();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      if (!rescorer.isFiltered(itemID)) {
+        filtered[size++] = itemID;
+      }
+    }
+    return size == filtered.length ? filtered : Arrays.copyOf(filtered, size);
+  }
+
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
@@ -163,13 +334,13 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long itemID, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
+    TopItems.LongEstimator estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
     return doMostSimilarItems(new long[] {itemID}, howMany, estimator);
   }
   
   @Override
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
+    TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
         EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -177,7 +348,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
+    TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
         EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -186,7 +357,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs,
                                                 int howMany,
                                                 boolean excludeItemIfNotSimilarToAll) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
+    TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
         excludeItemIfNotSimilarToAll);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -195,7 +366,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany,
                                                 Rescorer<LongPair> rescorer,
                                                 boolean excludeItemIfNotSimilarToAll) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
+    TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
         excludeItemIfNotSimilarToAll);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -205,7 +376,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
 
     DataModel model = getDataModel();
-    TopItems.Estimator<Long> estimator = new RecommendedBecauseEstimator(userID, itemID);
+    TopItems.LongEstimator estimator = new RecommendedBecauseEstimator(userID, itemID);
 
     PreferenceArray prefs = model.getPreferencesFromUser(userID);
     int size = prefs.length();
@@ -220,17 +391,26 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   
   private List<RecommendedItem> doMostSimilarItems(long[] itemIDs,
                                                    int howMany,
-                                                   TopItems.Estimator<Long> estimator) throws TasteException {
+                                                   TopItems.LongEstimator estimator) throws TasteException {
     FastIDSet possibleItemIDs = mostSimilarItemsCandidateItemsStrategy.getCandidateItems(itemIDs, getDataModel());
     return TopItems.getTopItems(howMany, possibleItemIDs.iterator(), null, estimator);
   }
   
   protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID)
     throws TasteException {
+    double[] similarities = similarity.itemSimilarities(itemID, preferencesFromUser.getIDs());
+    return estimateFromSimilarities(preferencesFromUser, similarities);
+  }
+
+  /**
+   * @param preferencesFromUser the preferences from the user
+   * @param similarities the similarity of the item to estimate to each of the items of {@code preferencesFromUser}
+   * @return the estimated preference for the item
+   */
+  protected float estimateFromSimilarities(PreferenceArray preferencesFromUser, double[] similarities) {
     double preference = 0.0;
     double totalSimilarity = 0.0;
     int count = 0;
-    double[] similarities = similarity.itemSimilarities(itemID, preferencesFromUser.getIDs());
     for (int i = 0; i < similarities.length; i++) {
       double theSimilarity = similarities[i];
       if (!Double.isNaN(theSimilarity)) {
@@ -274,7 +454,10 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  public static class MostSimilarEstimator implements TopItems.Estimator<Long> {
+  /**
+   * Estimates the similarity of items to one item, for boxed or primitive item IDs.
+   */
+  public static class MostSimilarEstimator implements TopItems.Estimator<Long>, TopItems.LongEstimator {
     
     private final long toItemID;
     private final ItemSimilarity similarity;
@@ -288,6 +471,11 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     
     @Override
     public double estimate(Long itemID) throws TasteException {
+      return estimate(itemID.longValue());
+    }
+
+    @Override
+    public double estimate(long itemID) throws TasteException {
       LongPair pair = new LongPair(toItemID, itemID);
       if (rescorer != null && rescorer.isFiltered(pair)) {
         return Double.NaN;
@@ -297,7 +485,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.LongEstimator {
     
     private final long userID;
     private final PreferenceArray preferencesFromUser;
@@ -308,12 +496,44 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       return doEstimatePreference(userID, preferencesFromUser, itemID);
     }
   }
   
-  private static final class MultiMostSimilarEstimator implements TopItems.Estimator<Long> {
+  /** the users of a batch an item is a candidate for, and its position among each one's candidates */
+  private static final class Demand {
+
+    private int[] users = new int[2];
+    private int[] positions = new int[2];
+    private int size;
+
+    void add(int user, int position) {
+      if (size == users.length) {
+        users = Arrays.copyOf(users, 2 * size);
+        positions = Arrays.copyOf(positions, 2 * size);
+      }
+      users[size] = user;
+      positions[size] = position;
+      size++;
+    }
+  }
+
+  private static final class BatchEstimates {
+
+    private final long[] userIDs;
+    private final PreferenceArray[] preferencesFromUsers;
+    /** estimates of each user's candidates, each written by the one thread estimating that candidate */
+    private final double[][] estimates;
+
+    BatchEstimates(long[] userIDs, PreferenceArray[] preferencesFromUsers, double[][] estimates) {
+      this.userIDs = userIDs;
+      this.preferencesFromUsers = preferencesFromUsers;
+      this.estimates = estimates;
+    }
+  }
+
+  private static final class MultiMostSimilarEstimator implements TopItems.LongEstimator {
     
     private final long[] toItemIDs;
     private final ItemSimilarity similarity;
@@ -329,7 +549,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       RunningAverage average = new FullRunningAverage();
       double[] similarities = similarity.itemSimilarities(itemID, toItemIDs);
       for (int i = 0; i < toItemIDs.length; i++) {
@@ -351,7 +571,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class RecommendedBecauseEstimator implements TopItems.Estimator<Long> {
+  private final class RecommendedBecauseEstimator implements TopItems.LongEstimator {
     
     private final long userID;
     private final long recommendedItemID;
@@ -362,7 +582,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       Float pref = getDataModel().getPreferenceValue(userID, itemID);
       if (pref == null) {
         return Float.NaN;
@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.impl.recommender;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -50,15 +51,25 @@ public final class TopItems {
                                                   LongPrimitiveIterator possibleItemIDs,
                                                   IDRescorer rescorer,
                                                   Estimator<Long> estimator) throws TasteException {
+    Preconditions.checkArgument(estimator != null, "argument is null");
+    return getTopItems(howMany, possibleItemIDs, rescorer, new BoxingEstimator(estimator));
+  }
+
+  /**
+   * Like {@link #getTopItems(int, LongPrimitiveIterator, IDRescorer, Estimator)}, but without boxing the item IDs.
+   * Candidates are kept in a primitive heap of at most {@code howMany} entries, so the only objects allocated are
+   * the returned items.
+   */
+  public static List<RecommendedItem> getTopItems(int howMany,
+                                                  LongPrimitiveIterator possibleItemIDs,
+                                                  IDRescorer rescorer,
+                                                  LongEstimator estimator) throws TasteException {
     Preconditions.checkArgument(possibleItemIDs != null, "argument is null");
     Preconditions.checkArgument(estimator != null, "argument is null");
 
-    Queue<RecommendedItem> topItems = new PriorityQueue<RecommendedItem>(howMany + 1,
-      Collections.reverseOrder(ByValueRecommendedItemComparator.getInstance()));
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
+    TopIDs topItems = new TopIDs(howMany);
     while (possibleItemIDs.hasNext()) {
-      long itemID = possibleItemIDs.next();
+      long itemID = possibleItemIDs.nextLong();
       if (rescorer == null || !rescorer.isFiltered(itemID)) {
         double preference;
         try {
@@ -67,37 +78,56 @@ public final class TopItems {
           continue;
         }
         double rescoredPref = rescorer == null ? preference : rescorer.rescore(itemID, preference);
-        if (!Double.isNaN(rescoredPref) && (!full || rescoredPref > lowestTopValue)) {
-          topItems.add(new GenericRecommendedItem(itemID, (float) rescoredPref));
-          if (full) {
-            topItems.poll();
-          } else if (topItems.size() > howMany) {
-            full = true;
-            topItems.poll();
-          }
-          lowestTopValue = topItems.peek().getValue();
+        if (!Double.isNaN(rescoredPref)) {
+          // compare the values as they will be returned
+          topItems.offer(itemID, (float) rescoredPref);
         }
       }
     }
-    int size = topItems.size();
-    if (size == 0) {
-      return Collections.emptyList();
+    return topItems.toRecommendedItems();
+  }
+
+  /**
+   * Like {@link #getTopItems(int, LongPrimitiveIterator, IDRescorer, LongEstimator)}, for items whose estimates
+   * have already been computed. The items must have been filtered with {@link IDRescorer#isFiltered(long)} before
+   * they were estimated; only {@link IDRescorer#rescore(long, double)} is applied here.
+   *
+   * @param itemIDs candidate items, none of them filtered by the rescorer
+   * @param estimates estimate for each candidate item, {@link Double#NaN} if there is none
+   */
+  public static List<RecommendedItem> getTopItems(int howMany,
+                                                  long[] itemIDs,
+                                                  double[] estimates,
+                                                  IDRescorer rescorer) {
+    Preconditions.checkArgument(itemIDs.length == estimates.length, "itemIDs and estimates differ in length");
+    TopIDs topItems = new TopIDs(howMany);
+    for (int i = 0; i < itemIDs.length; i++) {
+      long itemID = itemIDs[i];
+      double rescoredPref = rescorer == null ? estimates[i] : rescorer.rescore(itemID, estimates[i]);
+      if (!Double.isNaN(rescoredPref)) {
+        topItems.offer(itemID, (float) rescoredPref);
+      }
     }
-    List<RecommendedItem> result = Lists.newArrayListWithCapacity(size);
-    result.addAll(topItems);
-    Collections.sort(result, ByValueRecommendedItemComparator.getInstance());
-    return result;
+    return topItems.toRecommendedItems();
   }
-  
+
   public static long[] getTopUsers(int howMany,
                                    LongPrimitiveIterator allUserIDs,
                                    IDRescorer rescorer,
                                    Estimator<Long> estimator) throws TasteException {
-    Queue<SimilarUser> topUsers = new PriorityQueue<SimilarUser>(howMany + 1, Collections.reverseOrder());
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
+    return getTopUsers(howMany, allUserIDs, rescorer, new BoxingEstimator(estimator));
+  }
+
+  /**
+   * Like {@link #getTopUsers(int, LongPrimitiveIterator, IDRescorer, Estimator)}, but without boxing the user IDs.
+   */
+  public static long[] getTopUsers(int howMany,
+                                   LongPrimitiveIterator allUserIDs,
+                                   IDRescorer rescorer,
+                                   LongEstimator estimator) throws TasteException {
+    TopIDs topUsers = new TopIDs(howMany);
     while (allUserIDs.hasNext()) {
-      long userID = allUserIDs.next();
+      long userID = allUserIDs.nextLong();
       if (rescorer != null && rescorer.isFiltered(userID)) {
         continue;
       }
@@ -108,29 +138,16 @@ public final class TopItems {
         continue;
       }
       double rescoredSimilarity = rescorer == null ? similarity : rescorer.rescore(userID, similarity);
-      if (!Double.isNaN(rescoredSimilarity) && (!full || rescoredSimilarity > lowestTopValue)) {
-        topUsers.add(new SimilarUser(userID, rescoredSimilarity));
-        if (full) {
-          topUsers.poll();
-        } else if (topUsers.size() > howMany) {
-          full = true;
-          topUsers.poll();
-        }
-        lowestTopValue = topUsers.peek().getSimilarity();
+      if (!Double.isNaN(rescoredSimilarity)) {
+        topUsers.offer(userID, rescoredSimilarity);
       }
     }
     int size = topUsers.size();
     if (size == 0) {
       return NO_IDS;
     }
-    List<SimilarUser> sorted = Lists.newArrayListWithCapacity(size);
-    sorted.addAll(topUsers);
-    Collections.sort(sorted);
     long[] result = new long[size];
-    int i = 0;
-    for (SimilarUser similarUser : sorted) {
-      result[i++] = similarUser.getUserID();
-    }
+    topUsers.drainSorted(result, new double[size]);
     return result;
   }
   
@@ -208,5 +225,158 @@ public final class TopItems {
   public interface Estimator<T> {
     double estimate(T thing) throws TasteException;
   }
+
+  /**
+   * Like {@link Estimator}, for things identified by a {@code long} ID, which avoids boxing each ID.
+   */
+  public interface LongEstimator {
+    double estimate(long id) throws TasteException;
+  }
+
+  private static final class BoxingEstimator implements LongEstimator {
+
+    private final Estimator<Long> delegate;
+
+    private BoxingEstimator(Estimator<Long> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public double estimate(long id) throws TasteException {
+      return delegate.estimate(id);
+    }
+  }
+
+  /**
+   * Keeps the IDs with the highest values offered so far, at most a given number of them, in a min-heap of
+   * parallel primitive arrays. A value only replaces the lowest one kept if it is strictly higher, so among equal
+   * values the first ones offered are kept. The arrays grow as needed, up to the maximum size.
+   */
+  /**
+   * A min-heap of the IDs with the highest values offered to it, holding at most a given number of them in
+   * primitive arrays.
+   */
+  public static final class TopIDs {
+
+    private final int maxSize;
+    private long[] ids;
+    private double[] values;
+    private int size;
+
+    public TopIDs(int maxSize) {
+      this.maxSize = Math.max(0, maxSize);
+      int capacity = Math.min(this.maxSize, 16);
+      ids = new long[capacity];
+      values = new double[capacity];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @return true if the heap holds as many IDs as it keeps, so that only values above {@link #lowestValue()}
+     *  are still taken
+     */
+    public boolean isFull() {
+      return size == maxSize;
+    }
+
+    /**
+     * @return the lowest value held, or {@link Double#NaN} if the heap is empty
+     */
+    public double lowestValue() {
+      return size == 0 ? Double.NaN : values[0];
+    }
+
+    /**
+     * Keeps the ID if fewer than the maximum are held, or if its value is higher than the lowest held.
+     *
+     * @param value must not be {@link Double#NaN}
+     */
+    public void offer(long id, double value) {
+      if (size < maxSize) {
+        if (size == ids.length) {
+          int capacity = (int) Math.min(maxSize, 2L * size);
+          ids = Arrays.copyOf(ids, capacity);
+          values = Arrays.copyOf(values, capacity);
+        }
+        siftUp(size++, id, value);
+      } else if (size > 0 && value > values[0]) {
+        siftDown(0, id, value);
+      }
+    }
+
+    /**
+     * Empties the heap into a list, from the highest value to the lowest; equal values are ordered by ID.
+     */
+    public List<RecommendedItem> toRecommendedItems() {
+      int numItems = size;
+      if (numItems == 0) {
+        return Collections.emptyList();
+      }
+      long[] sortedIDs = new long[numItems];
+      double[] sortedValues = new double[numItems];
+      drainSorted(sortedIDs, sortedValues);
+      List<RecommendedItem> result = Lists.newArrayListWithCapacity(numItems);
+      for (int i = 0; i < numItems; i++) {
+        result.add(new GenericRecommendedItem(sortedIDs[i], (float) sortedValues[i]));
+      }
+      return result;
+    }
+
+    /**
+     * Empties the heap into the arrays, from the highest value to the lowest; equal values are ordered by ID.
+     */
+    void drainSorted(long[] sortedIDs, double[] sortedValues) {
+      while (size > 0) {
+        int last = --size;
+        sortedIDs[last] = ids[0];
+        sortedValues[last] = values[0];
+        if (last > 0) {
+          siftDown(0, ids[last], values[last]);
+        }
+      }
+    }
+
+    /** @return true if the first entry should be nearer the top of the min-heap than the second */
+    private static boolean isLower(double value, long id, double otherValue, long otherID) {
+      return value < otherValue || (value == otherValue && id > otherID);
+    }
+
+    private void siftUp(int position, long id, double value) {
+      while (position > 0) {
+        int parent = (position - 1) >>> 1;
+        if (!isLower(value, id, values[parent], ids[parent])) {
+          break;
+        }
+        ids[position] = ids[parent];
+        values[position] = values[parent];
+        position = parent;
+      }
+      ids[position] = id;
+      values[position] = value;
+    }
+
+    private void siftDown(int position, long id, double value) {
+      while (true) {
+        int child = 2 * position + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && isLower(values[child + 1], ids[child + 1], values[child], ids[child])) {
+          child++;
+        }
+        if (!isLower(values[child], ids[child], value, id)) {
+          break;
+        }
+        ids[position] = ids[child];
+        values[position] = values[child];
+        position = child;
+      }
+      ids[position] = id;
+      values[position] = value;
+    }
+  }
   
 }
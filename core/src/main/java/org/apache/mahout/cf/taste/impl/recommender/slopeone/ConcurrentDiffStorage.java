@@ -0,0 +1,634 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FixedRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.FixedRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.apache.mahout.common.ParallelTasks;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * An implementation of {@link DiffStorage} which, like {@link MemoryDiffStorage}, stores item-item diffs in memory,
+ * but is meant for many concurrent readers and writers, and for large data sets.
+ * </p>
+ *
+ * <p>
+ * Each item has a row of diffs against the items co-rated with it, kept as a count, a sum and (if standard deviation
+ * weighted) a sum of squares in primitive arrays sorted by item ID, rather than as {@link RunningAverage} objects.
+ * The rows are built in parallel, one item at a time, so no two threads ever write the same row. Readers lock only
+ * the stripe of rows holding the row they read, so {@link #addItemPref(long, long, float)} and friends block only
+ * the readers of the rows they change; a {@link #refresh(Collection)} builds new rows aside and blocks no-one.
+ * </p>
+ *
+ * <p>
+ * Each row keeps at most {@code maxDiffsPerItem} diffs, those against the items most often co-rated with it, so
+ * that memory grows linearly in the number of items. The diff between two items is read from the row of the item
+ * whose preference is estimated, so estimates are based on the items most often co-rated with it. As in
+ * {@link MemoryDiffStorage}, diffs from only one co-rating are dropped when rows are built.
+ * </p>
+ */
+public final class ConcurrentDiffStorage implements DiffStorage {
+
+  private static final Logger log = LoggerFactory.getLogger(ConcurrentDiffStorage.class);
+
+  /** items per construction task */
+  private static final int BLOCK_SIZE = 256;
+  private static final int NUM_STRIPES = 64;
+
+  private final DataModel dataModel;
+  private final boolean stdDevWeighted;
+  private final int maxDiffsPerItem;
+  private final int numThreads;
+  /** replaced, never modified, once published */
+  private volatile FastByIDMap<Row> rows;
+  private volatile FastIDSet allRecommendableItemIDs;
+  private final Object newRowLock;
+  private final ReadWriteLock[] stripes;
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * Builds diffs with one thread per processor.
+   *
+   * @see #ConcurrentDiffStorage(DataModel, Weighting, int, int)
+   */
+  public ConcurrentDiffStorage(DataModel dataModel,
+                               Weighting stdDevWeighted,
+                               int maxDiffsPerItem) throws TasteException {
+    this(dataModel, stdDevWeighted, maxDiffsPerItem, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param stdDevWeighted
+   *          see {@link SlopeOneRecommender}
+   * @param maxDiffsPerItem
+   *          maximum number of diffs to keep for each item, or {@link Integer#MAX_VALUE} to keep all
+   * @param numThreads
+   *          number of threads building the diffs
+   */
+  public ConcurrentDiffStorage(DataModel dataModel,
+                               Weighting stdDevWeighted,
+                               int maxDiffsPerItem,
+                               int numThreads) throws TasteException {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(dataModel.getNumItems() >= 1, "dataModel has no items");
+    Preconditions.checkArgument(maxDiffsPerItem > 0, "maxDiffsPerItem must be positive");
+    Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+    this.dataModel = dataModel;
+    this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
+    this.maxDiffsPerItem = maxDiffsPerItem;
+    this.numThreads = numThreads;
+    this.newRowLock = new Object();
+    this.stripes = new ReadWriteLock[NUM_STRIPES];
+    for (int i = 0; i < NUM_STRIPES; i++) {
+      stripes[i] = new ReentrantReadWriteLock();
+    }
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        buildAverageDiffs();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    buildAverageDiffs();
+  }
+
+  private ReadWriteLock stripeFor(long itemID) {
+    return stripes[(int) (itemID ^ (itemID >>> 32)) & (NUM_STRIPES - 1)];
+  }
+
+  @Override
+  public RunningAverage getDiff(long itemID1, long itemID2) {
+    // The diff is that of item 2's preferences minus item 1's, so is kept in item 2's row
+    Row row = rows.get(itemID2);
+    if (row == null) {
+      return null;
+    }
+    ReadWriteLock lock = stripeFor(itemID2);
+    lock.readLock().lock();
+    try {
+      return row.getDiff(itemID1, stdDevWeighted);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public RunningAverage[] getDiffs(long userID, long itemID, PreferenceArray prefs) {
+    int size = prefs.length();
+    RunningAverage[] result = new RunningAverage[size];
+    Row row = rows.get(itemID);
+    if (row == null) {
+      return result;
+    }
+    ReadWriteLock lock = stripeFor(itemID);
+    lock.readLock().lock();
+    try {
+      for (int i = 0; i < size; i++) {
+        result[i] = row.getDiff(prefs.getItemID(i), stdDevWeighted);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return result;
+  }
+
+  @Override
+  public RunningAverage getAverageItemPref(long itemID) {
+    Row row = rows.get(itemID);
+    if (row == null) {
+      return null;
+    }
+    ReadWriteLock lock = stripeFor(itemID);
+    lock.readLock().lock();
+    try {
+      return row.itemCount == 0 ? null : new FixedRunningAverage(row.itemSum / row.itemCount, row.itemCount);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void addItemPref(long userID, long itemIDA, float prefValue) throws TasteException {
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    int length = userPreferences.length();
+    FastByIDMap<Row> currentRows = rowsFor(itemIDA, userPreferences);
+    Row rowA = currentRows.get(itemIDA);
+    ReadWriteLock lockA = stripeFor(itemIDA);
+    lockA.writeLock().lock();
+    try {
+      for (int i = 0; i < length; i++) {
+        long itemIDB = userPreferences.getItemID(i);
+        if (itemIDB != itemIDA) {
+          rowA.addDiff(itemIDB, prefValue - userPreferences.getValue(i), maxDiffsPerItem);
+        }
+      }
+      rowA.itemCount++;
+      rowA.itemSum += prefValue;
+    } finally {
+      lockA.writeLock().unlock();
+    }
+    for (int i = 0; i < length; i++) {
+      long itemIDB = userPreferences.getItemID(i);
+      if (itemIDB != itemIDA) {
+        Row rowB = currentRows.get(itemIDB);
+        ReadWriteLock lockB = stripeFor(itemIDB);
+        lockB.writeLock().lock();
+        try {
+          rowB.addDiff(itemIDA, userPreferences.getValue(i) - prefValue, maxDiffsPerItem);
+        } finally {
+          lockB.writeLock().unlock();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void updateItemPref(long itemID, float prefDelta) {
+    if (stdDevWeighted) {
+      throw new UnsupportedOperationException("Can't update only when stdDevWeighted is set");
+    }
+    Row row = rows.get(itemID);
+    if (row == null) {
+      return;
+    }
+    long[] otherItemIDs;
+    ReadWriteLock lock = stripeFor(itemID);
+    lock.writeLock().lock();
+    try {
+      otherItemIDs = Arrays.copyOf(row.itemIDs, row.size);
+      for (int i = 0; i < row.size; i++) {
+        row.sums[i] += prefDelta;
+      }
+      row.itemSum += prefDelta;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    for (long otherItemID : otherItemIDs) {
+      Row otherRow = rows.get(otherItemID);
+      if (otherRow != null) {
+        ReadWriteLock otherLock = stripeFor(otherItemID);
+        otherLock.writeLock().lock();
+        try {
+          otherRow.changeDiff(itemID, -prefDelta);
+        } finally {
+          otherLock.writeLock().unlock();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void removeItemPref(long userID, long itemIDA, float prefValue) throws TasteException {
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    int length = userPreferences.length();
+    Row rowA = rows.get(itemIDA);
+    if (rowA != null) {
+      ReadWriteLock lockA = stripeFor(itemIDA);
+      lockA.writeLock().lock();
+      try {
+        for (int i = 0; i < length; i++) {
+          rowA.removeDiff(userPreferences.getItemID(i), prefValue - userPreferences.getValue(i));
+        }
+        if (rowA.itemCount > 0) {
+          rowA.itemCount--;
+          rowA.itemSum -= prefValue;
+        }
+      } finally {
+        lockA.writeLock().unlock();
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      long itemIDB = userPreferences.getItemID(i);
+      Row rowB = rows.get(itemIDB);
+      if (rowB != null) {
+        ReadWriteLock lockB = stripeFor(itemIDB);
+        lockB.writeLock().lock();
+        try {
+          rowB.removeDiff(itemIDA, userPreferences.getValue(i) - prefValue);
+        } finally {
+          lockB.writeLock().unlock();
+        }
+      }
+    }
+  }
+
+  @Override
+  public FastIDSet getRecommendableItemIDs(long userID) throws TasteException {
+    FastIDSet result = allRecommendableItemIDs.clone();
+    Iterator<Long> it = result.iterator();
+    while (it.hasNext()) {
+      if (dataModel.getPreferenceValue(userID, it.next()) != null) {
+        it.remove();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the rows, with one for the item and for each item the user has a preference for; rows missing are
+   *  all published in one copy of the map
+   */
+  private FastByIDMap<Row> rowsFor(long itemID, PreferenceArray userPreferences) {
+    FastByIDMap<Row> currentRows = rows;
+    if (hasRows(currentRows, itemID, userPreferences)) {
+      return currentRows;
+    }
+    synchronized (newRowLock) {
+      currentRows = rows;
+      if (!hasRows(currentRows, itemID, userPreferences)) {
+        FastByIDMap<Row> newRows = currentRows.clone();
+        addRowIfMissing(newRows, itemID);
+        int length = userPreferences.length();
+        for (int i = 0; i < length; i++) {
+          addRowIfMissing(newRows, userPreferences.getItemID(i));
+        }
+        rows = newRows;
+        currentRows = newRows;
+      }
+    }
+    return currentRows;
+  }
+
+  private static boolean hasRows(FastByIDMap<Row> currentRows, long itemID, PreferenceArray userPreferences) {
+    if (!currentRows.containsKey(itemID)) {
+      return false;
+    }
+    int length = userPreferences.length();
+    for (int i = 0; i < length; i++) {
+      if (!currentRows.containsKey(userPreferences.getItemID(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void addRowIfMissing(FastByIDMap<Row> newRows, long itemID) {
+    if (!newRows.containsKey(itemID)) {
+      newRows.put(itemID, new Row(0, stdDevWeighted));
+    }
+  }
+
+  private void buildAverageDiffs() throws TasteException {
+    log.info("Building average diffs...");
+    final long[] itemIDs = new long[dataModel.getNumItems()];
+    int numItems = 0;
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    while (it.hasNext()) {
+      itemIDs[numItems++] = it.nextLong();
+    }
+    final Row[] builtRows = new Row[numItems];
+
+    List<Callable<Void>> blocks = Lists.newArrayList();
+    for (int start = 0; start < numItems; start += BLOCK_SIZE) {
+      final int from = start;
+      final int to = Math.min(start + BLOCK_SIZE, numItems);
+      blocks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws TasteException {
+          for (int item = from; item < to; item++) {
+            builtRows[item] = buildRow(itemIDs[item]);
+          }
+          return null;
+        }
+      });
+    }
+
+    try {
+      ParallelTasks.invokeAll(blocks, numThreads, TasteException.class);
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    }
+
+    FastByIDMap<Row> newRows = new FastByIDMap<Row>(numItems);
+    FastIDSet recommendableItemIDs = new FastIDSet(numItems);
+    long numDiffs = 0L;
+    for (int item = 0; item < numItems; item++) {
+      Row row = builtRows[item];
+      newRows.put(itemIDs[item], row);
+      if (row.size > 0) {
+        recommendableItemIDs.add(itemIDs[item]);
+        numDiffs += row.size;
+      }
+    }
+    synchronized (newRowLock) {
+      rows = newRows;
+      allRecommendableItemIDs = recommendableItemIDs;
+    }
+    log.info("Built {} average diffs for {} items", numDiffs, numItems);
+  }
+
+  /**
+   * Accumulates, over all users with a preference for the item, the differences between their preference for it
+   * and for each of their other items.
+   */
+  private Row buildRow(long itemID) throws TasteException {
+    PreferenceArray itemPrefs = dataModel.getPreferencesForItem(itemID);
+    // slot of each other item, plus one, so that 0 means none
+    OpenLongIntHashMap slots = new OpenLongIntHashMap();
+    long[] otherItemIDs = new long[16];
+    int[] counts = new int[16];
+    double[] sums = new double[16];
+    double[] sumsOfSquares = stdDevWeighted ? new double[16] : null;
+    int numSlots = 0;
+    double itemSum = 0.0;
+
+    int numPrefs = itemPrefs.length();
+    for (int i = 0; i < numPrefs; i++) {
+      float value = itemPrefs.getValue(i);
+      itemSum += value;
+      PreferenceArray userPrefs = dataModel.getPreferencesFromUser(itemPrefs.getUserID(i));
+      int length = userPrefs.length();
+      for (int j = 0; j < length; j++) {
+        // This is a performance-critical block
+        long otherItemID = userPrefs.getItemID(j);
+        if (otherItemID == itemID) {
+          continue;
+        }
+        int s = slots.get(otherItemID) - 1;
+        if (s < 0) {
+          s = numSlots++;
+          if (s == otherItemIDs.length) {
+            int newLength = 2 * s;
+            otherItemIDs = Arrays.copyOf(otherItemIDs, newLength);
+            counts = Arrays.copyOf(counts, newLength);
+            sums = Arrays.copyOf(sums, newLength);
+            if (sumsOfSquares != null) {
+              sumsOfSquares = Arrays.copyOf(sumsOfSquares, newLength);
+            }
+          }
+          otherItemIDs[s] = otherItemID;
+          slots.put(otherItemID, s + 1);
+        }
+        double diff = value - userPrefs.getValue(j);
+        counts[s]++;
+        sums[s] += diff;
+        if (sumsOfSquares != null) {
+          sumsOfSquares[s] += diff * diff;
+        }
+      }
+    }
+
+    // Keep diffs from more than one co-rating, and of those the most co-rated, up to maxDiffsPerItem
+    int numKept = 0;
+    for (int s = 0; s < numSlots; s++) {
+      if (counts[s] > 1) {
+        numKept++;
+      }
+    }
+    int minCount = 2;
+    int numAtMinCount = Integer.MAX_VALUE;
+    if (numKept > maxDiffsPerItem) {
+      int[] keptCounts = new int[numKept];
+      int k = 0;
+      for (int s = 0; s < numSlots; s++) {
+        if (counts[s] > 1) {
+          keptCounts[k++] = counts[s];
+        }
+      }
+      Arrays.sort(keptCounts);
+      minCount = keptCounts[numKept - maxDiffsPerItem];
+      // how many of those with exactly minCount fit
+      numAtMinCount = maxDiffsPerItem;
+      for (int count : keptCounts) {
+        if (count > minCount) {
+          numAtMinCount--;
+        }
+      }
+      numKept = maxDiffsPerItem;
+    }
+
+    long[] keptItemIDs = new long[numKept];
+    int k = 0;
+    for (int s = 0; s < numSlots; s++) {
+      int count = counts[s];
+      if (count > minCount || count == minCount && numAtMinCount-- > 0) {
+        keptItemIDs[k++] = otherItemIDs[s];
+      }
+    }
+    Arrays.sort(keptItemIDs);
+
+    Row row = new Row(numKept, stdDevWeighted);
+    for (long otherItemID : keptItemIDs) {
+      int s = slots.get(otherItemID) - 1;
+      row.itemIDs[row.size] = otherItemID;
+      row.counts[row.size] = counts[s];
+      row.sums[row.size] = sums[s];
+      if (sumsOfSquares != null) {
+        row.sumsOfSquares[row.size] = sumsOfSquares[s];
+      }
+      row.size++;
+    }
+    row.itemCount = numPrefs;
+    row.itemSum = itemSum;
+    return row;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentDiffStorage[maxDiffsPerItem:" + maxDiffsPerItem + ']';
+  }
+
+  /**
+   * Diffs of one item's preferences against those for other items: count, sum and sum of squares of the
+   * differences, by other item ID. Also count and sum of the item's own preferences.
+   */
+  private static final class Row {
+
+    private long[] itemIDs;
+    private int[] counts;
+    private double[] sums;
+    private double[] sumsOfSquares;
+    private int size;
+    private int itemCount;
+    private double itemSum;
+
+    private Row(int capacity, boolean withSumsOfSquares) {
+      itemIDs = new long[capacity];
+      counts = new int[capacity];
+      sums = new double[capacity];
+      sumsOfSquares = withSumsOfSquares ? new double[capacity] : null;
+    }
+
+    private RunningAverage getDiff(long otherItemID, boolean withStdDev) {
+      int index = Arrays.binarySearch(itemIDs, 0, size, otherItemID);
+      if (index < 0) {
+        return null;
+      }
+      int count = counts[index];
+      double average = sums[index] / count;
+      if (!withStdDev) {
+        return new FixedRunningAverage(average, count);
+      }
+      double stdDev = Double.NaN;
+      if (count > 1 && sumsOfSquares != null) {
+        double variance = (sumsOfSquares[index] - sums[index] * average) / (count - 1);
+        stdDev = Math.sqrt(Math.max(0.0, variance));
+      }
+      return new FixedRunningAverageAndStdDev(average, stdDev, count);
+    }
+
+    private void addDiff(long otherItemID, double diff, int maxSize) {
+      int index = Arrays.binarySearch(itemIDs, 0, size, otherItemID);
+      if (index < 0) {
+        if (size >= maxSize) {
+          return;
+        }
+        index = -index - 1;
+        insert(index, otherItemID);
+      }
+      counts[index]++;
+      sums[index] += diff;
+      if (sumsOfSquares != null) {
+        sumsOfSquares[index] += diff * diff;
+      }
+    }
+
+    private void removeDiff(long otherItemID, double diff) {
+      int index = Arrays.binarySearch(itemIDs, 0, size, otherItemID);
+      if (index < 0) {
+        return;
+      }
+      if (counts[index] <= 1) {
+        delete(index);
+      } else {
+        counts[index]--;
+        sums[index] -= diff;
+        if (sumsOfSquares != null) {
+          sumsOfSquares[index] -= diff * diff;
+        }
+      }
+    }
+
+    /** changes one of the differences from the other item by {@code delta} */
+    private void changeDiff(long otherItemID, double delta) {
+      int index = Arrays.binarySearch(itemIDs, 0, size, otherItemID);
+      if (index >= 0) {
+        sums[index] += delta;
+      }
+    }
+
+    private void insert(int index, long otherItemID) {
+      if (size == itemIDs.length) {
+        int newLength = Math.max(4, size + (size >> 1));
+        itemIDs = Arrays.copyOf(itemIDs, newLength);
+        counts = Arrays.copyOf(counts, newLength);
+        sums = Arrays.copyOf(sums, newLength);
+        if (sumsOfSquares != null) {
+          sumsOfSquares = Arrays.copyOf(sumsOfSquares, newLength);
+        }
+      }
+      int numMoved = size - index;
+      System.arraycopy(itemIDs, index, itemIDs, index + 1, numMoved);
+      System.arraycopy(counts, index, counts, index + 1, numMoved);
+      System.arraycopy(sums, index, sums, index + 1, numMoved);
+      if (sumsOfSquares != null) {
+        System.arraycopy(sumsOfSquares, index, sumsOfSquares, index + 1, numMoved);
+        sumsOfSquares[index] = 0.0;
+      }
+      itemIDs[index] = otherItemID;
+      counts[index] = 0;
+      sums[index] = 0.0;
+      size++;
+    }
+
+    private void delete(int index) {
+      int numMoved = size - index - 1;
+      System.arraycopy(itemIDs, index + 1, itemIDs, index, numMoved);
+      System.arraycopy(counts, index + 1, counts, index, numMoved);
+      System.arraycopy(sums, index + 1, sums, index, numMoved);
+      if (sumsOfSquares != null) {
+        System.arraycopy(sumsOfSquares, index + 1, sumsOfSquares, index, numMoved);
+      }
+      size--;
+    }
+
+  }
+
+}
@@ -17,7 +17,6 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
-import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
@@ -28,11 +27,10 @@ import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
-import org.apache.mahout.math.als.AlternatingLeastSquaresSolver;
+import org.apache.mahout.math.als.DenseAlternatingLeastSquaresSolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,7 +40,12 @@ import java.util.concurrent.TimeUnit;
  * factorizes the rating matrix using "Alternating-Least-Squares with Weighted-λ-Regularization" as described in
  * the paper
  * <a href="http://www.hpl.hp.com/personal/Robert_Schreiber/papers/2008%20AAIM%20Netflix/netflix_aaim08(submitted).pdf">
- * "Large-scale Collaborative Filtering for the Netflix Prize"</a>
+ * "Large-scale Collaborative Filtering for the Netflix Prize"</a>, or, for implicit feedback, as described in
+ * <a href="http://research.yahoo.com/pub/2433">"Collaborative Filtering for Implicit Feedback Datasets"</a>
+ *
+ * The least squares problems are solved on the feature arrays by a {@link DenseAlternatingLeastSquaresSolver} per
+ * thread. In the implicit feedback case, the Gramian of the fixed features is computed once per half-iteration and
+ * shared by all solves.
  */
 public class ALSWRFactorizer extends AbstractFactorizer {
 
@@ -54,15 +57,26 @@ public class ALSWRFactorizer extends AbstractFactorizer {
   private final double lambda;
   /** number of iterations */
   private final int numIterations;
+  /** whether the preferences are implicit feedback, weighted by confidence */
+  private final boolean usesImplicitFeedback;
+  /** confidence weighting parameter, only necessary when working with implicit feedback */
+  private final double alpha;
 
   private static final Logger log = LoggerFactory.getLogger(ALSWRFactorizer.class);
 
   public ALSWRFactorizer(DataModel dataModel, int numFeatures, double lambda, int numIterations) throws TasteException {
+    this(dataModel, numFeatures, lambda, numIterations, false, 40);
+  }
+
+  public ALSWRFactorizer(DataModel dataModel, int numFeatures, double lambda, int numIterations,
+      boolean usesImplicitFeedback, double alpha) throws TasteException {
     super(dataModel);
     this.dataModel = dataModel;
     this.numFeatures = numFeatures;
     this.lambda = lambda;
     this.numIterations = numIterations;
+    this.usesImplicitFeedback = usesImplicitFeedback;
+    this.alpha = alpha;
   }
 
   static class Features {
@@ -133,30 +147,35 @@ public class ALSWRFactorizer extends AbstractFactorizer {
   @Override
   public Factorization factorize() throws TasteException {
     log.info("starting to compute the factorization...");
-    final AlternatingLeastSquaresSolver solver = new AlternatingLeastSquaresSolver();
+    final ThreadLocal<DenseAlternatingLeastSquaresSolver> solvers = new ThreadLocal<DenseAlternatingLeastSquaresSolver>() {
+      @Override
+      protected DenseAlternatingLeastSquaresSolver initialValue() {
+        return new DenseAlternatingLeastSquaresSolver(numFeatures);
+      }
+    };
     final Features features = new Features(this);
 
     for (int iteration = 0; iteration < numIterations; iteration++) {
       log.info("iteration {}", iteration);
 
       /* fix M - compute U */
+      final double[][] M = features.getM();
+      final double[][] U = features.getU();
+      final double[][] gramianOfM = usesImplicitFeedback ? DenseAlternatingLeastSquaresSolver.gramian(M) : null;
       ExecutorService queue = createQueue();
       LongPrimitiveIterator userIDsIterator = dataModel.getUserIDs();
       try {
         while (userIDsIterator.hasNext()) {
           final long userID = userIDsIterator.nextLong();
-          final LongPrimitiveIterator itemIDsFromUser = dataModel.getItemIDsFromUser(userID).iterator();
           final PreferenceArray userPrefs = dataModel.getPreferencesFromUser(userID);
           queue.execute(new Runnable() {
             @Override
             public void run() {
-              List<Vector> featureVectors = Lists.newArrayList();
-              while (itemIDsFromUser.hasNext()) {
-                long itemID = itemIDsFromUser.nextLong();
-                featureVectors.add(features.getItemFeatureColumn(itemIndex(itemID)));
+              int[] itemIndexes = new int[userPrefs.length()];
+              for (int n = 0; n < itemIndexes.length; n++) {
+                itemIndexes[n] = itemIndex(userPrefs.getItemID(n));
               }
-              Vector userFeatures = solver.solve(featureVectors, ratingVector(userPrefs), lambda, numFeatures);
-              features.setFeatureColumnInU(userIndex(userID), userFeatures);
+              solve(solvers.get(), gramianOfM, M, itemIndexes, userPrefs, U[userIndex(userID)]);
             }
           });
         }
@@ -170,6 +189,7 @@ public class ALSWRFactorizer extends AbstractFactorizer {
       }
 
       /* fix U - compute M */
+      final double[][] gramianOfU = usesImplicitFeedback ? DenseAlternatingLeastSquaresSolver.gramian(U) : null;
       queue = createQueue();
       LongPrimitiveIterator itemIDsIterator = dataModel.getItemIDs();
       try {
@@ -179,13 +199,11 @@ public class ALSWRFactorizer extends AbstractFactorizer {
           queue.execute(new Runnable() {
             @Override
             public void run() {
-              List<Vector> featureVectors = Lists.newArrayList();
-              for (Preference pref : itemPrefs) {
-                long userID = pref.getUserID();
-                featureVectors.add(features.getUserFeatureColumn(userIndex(userID)));
+              int[] userIndexes = new int[itemPrefs.length()];
+              for (int n = 0; n < userIndexes.length; n++) {
+                userIndexes[n] = userIndex(itemPrefs.getUserID(n));
               }
-              Vector itemFeatures = solver.solve(featureVectors, ratingVector(itemPrefs), lambda, numFeatures);
-              features.setFeatureColumnInM(itemIndex(itemID), itemFeatures);
+              solve(solvers.get(), gramianOfU, U, userIndexes, itemPrefs, M[itemIndex(itemID)]);
             }
           });
         }
@@ -203,15 +221,29 @@ public class ALSWRFactorizer extends AbstractFactorizer {
     return createFactorization(features.getU(), features.getM());
   }
 
+  private void solve(DenseAlternatingLeastSquaresSolver solver, double[][] gramian, double[][] fixedFeatures,
+      int[] indexes, PreferenceArray prefs, double[] result) {
+    double[] ratings = ratings(prefs);
+    if (usesImplicitFeedback) {
+      solver.solveImplicit(gramian, fixedFeatures, indexes, ratings, ratings.length, lambda, alpha, result);
+    } else {
+      solver.solveExplicit(fixedFeatures, indexes, ratings, ratings.length, lambda, result);
+    }
+  }
+
   protected ExecutorService createQueue() {
     return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
   }
 
   protected Vector ratingVector(PreferenceArray prefs) {
+    return new DenseVector(ratings(prefs), true);
+  }
+
+  private static double[] ratings(PreferenceArray prefs) {
     double[] ratings = new double[prefs.length()];
-    for (int n = 0; n < prefs.length(); n++) {
-      ratings[n] = prefs.get(n).getValue();
+    for (int n = 0; n < ratings.length; n++) {
+      ratings[n] = prefs.getValue(n);
     }
-    return new DenseVector(ratings);
+    return ratings;
   }
 }
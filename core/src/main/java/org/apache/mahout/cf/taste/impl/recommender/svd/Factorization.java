@@ -18,62 +18,166 @@
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.math.list.LongArrayList;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
 
 /**
- * a factorization of the rating matrix
+ * <p>a factorization of the rating matrix</p>
+ *
+ * <p>The features of all users are packed into a single array, row after row, and so are the features of all items.
+ * IDs are mapped to rows by primitive hash maps, so {@link #estimate(long, long)} neither boxes IDs nor touches more
+ * than the two rows involved. {@link #getUserFeatures(long)} and {@link #getItemFeatures(long)} return copies of the
+ * rows, since a row is not an array of its own; changing a returned array does not change the factorization, and each
+ * call allocates one. Callers which only need estimates should use {@link #estimate(long, long)} instead.</p>
  */
 public class Factorization {
 
+  private final int numFeatures;
+
   /** used to find the rows in the user features matrix by userID */
-  private final FastByIDMap<Integer> userIDMapping;
+  private final OpenLongIntHashMap userIDMapping;
   /** used to find the rows in the item features matrix by itemID */
-  private final FastByIDMap<Integer> itemIDMapping;
+  private final OpenLongIntHashMap itemIDMapping;
 
-  /** user features matrix */
-  private final double[][] userFeatures;
-  /** item features matrix */
-  private final double[][] itemFeatures;
+  /** user features matrix, numFeatures values per row */
+  private final double[] userFeatures;
+  /** item features matrix, numFeatures values per row */
+  private final double[] itemFeatures;
 
   public Factorization(FastByIDMap<Integer> userIDMapping, FastByIDMap<Integer> itemIDMapping, double[][] userFeatures,
       double[][] itemFeatures) {
-    this.userIDMapping = Preconditions.checkNotNull(userIDMapping);
-    this.itemIDMapping = Preconditions.checkNotNull(itemIDMapping);
+    Preconditions.checkNotNull(userIDMapping);
+    Preconditions.checkNotNull(itemIDMapping);
+    Preconditions.checkArgument(userFeatures.length > 0 || itemFeatures.length > 0,
+        "need the features of at least one user or item to know the number of features");
+    this.numFeatures = userFeatures.length > 0 ? userFeatures[0].length : itemFeatures[0].length;
+    this.userIDMapping = toPrimitiveMapping(userIDMapping);
+    this.itemIDMapping = toPrimitiveMapping(itemIDMapping);
+    this.userFeatures = pack(userFeatures, numFeatures);
+    this.itemFeatures = pack(itemFeatures, numFeatures);
+  }
+
+  /**
+   * Creates a factorization from packed features: the features of the user {@code userIDs[n]} are the
+   * {@code numFeatures} values starting at {@code userFeatures[n * numFeatures]}, and likewise for items. The arrays
+   * are used, not copied.
+   */
+  public Factorization(long[] userIDs, long[] itemIDs, int numFeatures, double[] userFeatures,
+      double[] itemFeatures) {
+    Preconditions.checkArgument(numFeatures > 0, "numFeatures must be positive");
+    Preconditions.checkArgument(userFeatures.length == userIDs.length * numFeatures, "wrong number of user features");
+    Preconditions.checkArgument(itemFeatures.length == itemIDs.length * numFeatures, "wrong number of item features");
+    this.numFeatures = numFeatures;
+    this.userIDMapping = toPrimitiveMapping(userIDs);
+    this.itemIDMapping = toPrimitiveMapping(itemIDs);
     this.userFeatures = userFeatures;
     this.itemFeatures = itemFeatures;
   }
 
+  private static OpenLongIntHashMap toPrimitiveMapping(FastByIDMap<Integer> mapping) {
+    OpenLongIntHashMap primitiveMapping = new OpenLongIntHashMap(mapping.size());
+    for (Map.Entry<Long,Integer> entry : mapping.entrySet()) {
+      primitiveMapping.put(entry.getKey(), entry.getValue());
+    }
+    return primitiveMapping;
+  }
+
+  private static OpenLongIntHashMap toPrimitiveMapping(long[] ids) {
+    OpenLongIntHashMap mapping = new OpenLongIntHashMap(ids.length);
+    for (int index = 0; index < ids.length; index++) {
+      Preconditions.checkArgument(mapping.put(ids[index], index), "duplicate ID %s", ids[index]);
+    }
+    return mapping;
+  }
+
+  private static double[] pack(double[][] rows, int numFeatures) {
+    double[] packed = new double[rows.length * numFeatures];
+    for (int row = 0; row < rows.length; row++) {
+      Preconditions.checkArgument(rows[row].length == numFeatures, "expected %s features in every row", numFeatures);
+      System.arraycopy(rows[row], 0, packed, row * numFeatures, numFeatures);
+    }
+    return packed;
+  }
+
+  /** @return the offset of the row of the ID in the features, or -1 if there is none */
+  private static int offset(OpenLongIntHashMap mapping, long id, int numFeatures) {
+    int index = mapping.get(id);
+    if (index == 0 && !mapping.containsKey(id)) {
+      return -1;
+    }
+    return index * numFeatures;
+  }
+
+  /**
+   * @return a copy of the features of the user
+   */
   public double[] getUserFeatures(long userID) throws NoSuchUserException {
-    Integer index = userIDMapping.get(userID);
-    if (index == null) {
+    int offset = offset(userIDMapping, userID, numFeatures);
+    if (offset < 0) {
       throw new NoSuchUserException(userID);
     }
-    return userFeatures[index];
+    return Arrays.copyOfRange(userFeatures, offset, offset + numFeatures);
   }
 
+  /**
+   * @return a copy of the features of the item
+   */
   public double[] getItemFeatures(long itemID) throws NoSuchItemException {
-    Integer index = itemIDMapping.get(itemID);
-    if (index == null) {
+    int offset = offset(itemIDMapping, itemID, numFeatures);
+    if (offset < 0) {
       throw new NoSuchItemException(itemID);
     }
-    return itemFeatures[index];
+    return Arrays.copyOfRange(itemFeatures, offset, offset + numFeatures);
+  }
+
+  /**
+   * @return the dot product of the features of the user and the item
+   */
+  public double estimate(long userID, long itemID) throws NoSuchUserException, NoSuchItemException {
+    int userOffset = offset(userIDMapping, userID, numFeatures);
+    if (userOffset < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    int itemOffset = offset(itemIDMapping, itemID, numFeatures);
+    if (itemOffset < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    double estimate = 0;
+    for (int feature = 0; feature < numFeatures; feature++) {
+      estimate += userFeatures[userOffset + feature] * itemFeatures[itemOffset + feature];
+    }
+    return estimate;
   }
 
   public Iterable<Map.Entry<Long,Integer>> getUserIDMappings() {
-    return userIDMapping.entrySet();
+    return entries(userIDMapping);
   }
 
   public Iterable<Map.Entry<Long,Integer>> getItemIDMappings() {
-    return itemIDMapping.entrySet();
+    return entries(itemIDMapping);
+  }
+
+  private static Iterable<Map.Entry<Long,Integer>> entries(OpenLongIntHashMap mapping) {
+    LongArrayList ids = mapping.keys();
+    List<Map.Entry<Long,Integer>> entries = Lists.newArrayListWithCapacity(ids.size());
+    for (int n = 0; n < ids.size(); n++) {
+      long id = ids.getQuick(n);
+      entries.add(Maps.immutableEntry(id, mapping.get(id)));
+    }
+    return entries;
   }
 
   public int numFeatures() {
-    return userFeatures[0].length;
+    return numFeatures;
   }
 
   public int numUsers() {
@@ -88,17 +192,56 @@ public class Factorization {
   public boolean equals(Object o) {
     if (o instanceof Factorization) {
       Factorization other = (Factorization) o;
-      return userIDMapping.equals(other.userIDMapping) && itemIDMapping.equals(other.itemIDMapping) &&
-          Arrays.deepEquals(userFeatures, other.userFeatures) && Arrays.deepEquals(itemFeatures, other.itemFeatures);
+      return numFeatures == other.numFeatures
+          && sameRows(userIDMapping, userFeatures, other.userIDMapping, other.userFeatures, numFeatures)
+          && sameRows(itemIDMapping, itemFeatures, other.itemIDMapping, other.itemFeatures, numFeatures);
     }
     return false;
   }
 
+  private static boolean sameRows(OpenLongIntHashMap mapping, double[] features, OpenLongIntHashMap otherMapping,
+      double[] otherFeatures, int numFeatures) {
+    if (mapping.size() != otherMapping.size()) {
+      return false;
+    }
+    LongArrayList ids = mapping.keys();
+    for (int n = 0; n < ids.size(); n++) {
+      long id = ids.getQuick(n);
+      int offset = offset(mapping, id, numFeatures);
+      int otherOffset = offset(otherMapping, id, numFeatures);
+      if (otherOffset < 0) {
+        return false;
+      }
+      for (int feature = 0; feature < numFeatures; feature++) {
+        if (Double.doubleToLongBits(features[offset + feature])
+            != Double.doubleToLongBits(otherFeatures[otherOffset + feature])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   @Override
   public int hashCode() {
-    int hashCode = 31 * userIDMapping.hashCode() + itemIDMapping.hashCode();
-    hashCode = 31 * hashCode + Arrays.deepHashCode(userFeatures);
-    hashCode = 31 * hashCode + Arrays.deepHashCode(itemFeatures);
+    return 31 * (31 * numFeatures + rowsHashCode(userIDMapping, userFeatures, numFeatures))
+        + rowsHashCode(itemIDMapping, itemFeatures, numFeatures);
+  }
+
+  private static int rowsHashCode(OpenLongIntHashMap mapping, double[] features, int numFeatures) {
+    // independent of the order of the rows
+    int hashCode = 0;
+    LongArrayList ids = mapping.keys();
+    for (int n = 0; n < ids.size(); n++) {
+      long id = ids.getQuick(n);
+      int rowHashCode = (int) (id ^ (id >>> 32));
+      int offset = offset(mapping, id, numFeatures);
+      for (int feature = 0; feature < numFeatures; feature++) {
+        long bits = Double.doubleToLongBits(features[offset + feature]);
+        rowHashCode = 31 * rowHashCode + (int) (bits ^ (bits >>> 32));
+      }
+      hashCode += rowHashCode;
+    }
     return hashCode;
   }
 }
@@ -35,11 +35,28 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 
-/** Provides a file-based persistent store. */
+/**
+ * <p>Provides a file-based persistent store.</p>
+ *
+ * <p>The factorization is written as a header of four ints (a magic number, the number of features, users and items),
+ * followed by all user IDs, all item IDs, the features of all users and the features of all items, each in the order
+ * of the IDs. This layout matches the packed arrays of {@link Factorization}, so loading memory-maps the file and
+ * copies each section in bulk. Files in the older format, written by {@link #writeBinary(Factorization, DataOutput)},
+ * can still be loaded.</p>
+ */
 public class FilePersistenceStrategy implements PersistenceStrategy {
 
+  /** negative, so that it cannot be mistaken for the number of features at the start of the older format */
+  private static final int MAGIC = 0xFAC70001;
+  private static final int HEADER_BYTES = 4 * 4;
+  /** number of longs or doubles mapped at once */
+  private static final int MAX_VALUES_PER_MAPPING = 1 << 27;
+
   private final File file;
 
   private static final Logger log = LoggerFactory.getLogger(FilePersistenceStrategy.class);
@@ -57,9 +74,19 @@ public class FilePersistenceStrategy implements PersistenceStrategy {
       log.info("{} does not yet exist, no factorization found", file.getAbsolutePath());
       return null;
     }
+    log.info("Reading factorization from {}...", file.getAbsolutePath());
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      if (channel.size() >= HEADER_BYTES
+          && channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).getInt() == MAGIC) {
+        return readMapped(channel);
+      }
+    } finally {
+      Closeables.closeQuietly(randomAccessFile);
+    }
     DataInputStream in = null;
     try {
-      log.info("Reading factorization from {}...", file.getAbsolutePath());
       in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
       return readBinary(in);
     } finally {
@@ -73,12 +100,88 @@ public class FilePersistenceStrategy implements PersistenceStrategy {
     try {
       log.info("Writing factorization to {}...", file.getAbsolutePath());
       out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
-      writeBinary(factorization, out);
+      writePacked(factorization, out);
     } finally {
       Closeables.closeQuietly(out);
     }
   }
 
+  private static void writePacked(Factorization factorization, DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(factorization.numFeatures());
+    out.writeInt(factorization.numUsers());
+    out.writeInt(factorization.numItems());
+
+    Iterable<Map.Entry<Long,Integer>> userIDMappings = factorization.getUserIDMappings();
+    Iterable<Map.Entry<Long,Integer>> itemIDMappings = factorization.getItemIDMappings();
+    for (Map.Entry<Long,Integer> mappingEntry : userIDMappings) {
+      out.writeLong(mappingEntry.getKey());
+    }
+    for (Map.Entry<Long,Integer> mappingEntry : itemIDMappings) {
+      out.writeLong(mappingEntry.getKey());
+    }
+    try {
+      for (Map.Entry<Long,Integer> mappingEntry : userIDMappings) {
+        for (double value : factorization.getUserFeatures(mappingEntry.getKey())) {
+          out.writeDouble(value);
+        }
+      }
+      for (Map.Entry<Long,Integer> mappingEntry : itemIDMappings) {
+        for (double value : factorization.getItemFeatures(mappingEntry.getKey())) {
+          out.writeDouble(value);
+        }
+      }
+    } catch (NoSuchUserException e) {
+      throw new IOException("Unable to persist factorization", e);
+    } catch (NoSuchItemException e) {
+      throw new IOException("Unable to persist factorization", e);
+    }
+  }
+
+  private static Factorization readMapped(FileChannel channel) throws IOException {
+    ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+    header.getInt();
+    int numFeatures = header.getInt();
+    int numUsers = header.getInt();
+    int numItems = header.getInt();
+    long numUserValues = (long) numUsers * numFeatures;
+    long numItemValues = (long) numItems * numFeatures;
+    if (numUserValues > Integer.MAX_VALUE || numItemValues > Integer.MAX_VALUE) {
+      throw new IOException("Factorization too large to load: " + numUsers + " users, " + numItems + " items, "
+          + numFeatures + " features");
+    }
+
+    long[] userIDs = new long[numUsers];
+    long[] itemIDs = new long[numItems];
+    double[] userFeatures = new double[(int) numUserValues];
+    double[] itemFeatures = new double[(int) numItemValues];
+    long position = HEADER_BYTES;
+    position = readLongs(channel, position, userIDs);
+    position = readLongs(channel, position, itemIDs);
+    position = readDoubles(channel, position, userFeatures);
+    readDoubles(channel, position, itemFeatures);
+
+    return new Factorization(userIDs, itemIDs, numFeatures, userFeatures, itemFeatures);
+  }
+
+  private static long readLongs(FileChannel channel, long position, long[] values) throws IOException {
+    for (int offset = 0; offset < values.length; offset += MAX_VALUES_PER_MAPPING) {
+      int length = Math.min(MAX_VALUES_PER_MAPPING, values.length - offset);
+      channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * length).asLongBuffer().get(values, offset, length);
+      position += 8L * length;
+    }
+    return position;
+  }
+
+  private static long readDoubles(FileChannel channel, long position, double[] values) throws IOException {
+    for (int offset = 0; offset < values.length; offset += MAX_VALUES_PER_MAPPING) {
+      int length = Math.min(MAX_VALUES_PER_MAPPING, values.length - offset);
+      channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * length).asDoubleBuffer().get(values, offset, length);
+      position += 8L * length;
+    }
+    return position;
+  }
+
   protected static void writeBinary(Factorization factorization, DataOutput out) throws IOException {
     out.writeInt(factorization.numFeatures());
     out.writeInt(factorization.numUsers());
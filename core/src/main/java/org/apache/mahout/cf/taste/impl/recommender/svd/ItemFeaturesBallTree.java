@@ -0,0 +1,334 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+/**
+ * <p>A ball tree over the item features of a {@link Factorization}, answering "which items have the largest dot
+ * product with these user features" without scoring every item, as described in
+ * <a href="http://dl.acm.org/citation.cfm?id=2339690">"Maximum Inner-Product Search using Tree Data-structures"</a>
+ * (Ram and Gray, KDD 2012).</p>
+ *
+ * <p>Each node stores the center and radius of a ball containing the features of its items. No item below a node
+ * can score more than {@code q . center + radius * |q|} for user features q, so the search skips every node whose
+ * bound is not larger than the lowest of the best items found so far. The search visits the child with the larger
+ * bound first, to find good items early.</p>
+ *
+ * <p>Nodes are split along the line between two far apart items. On skewed features this can split off few items
+ * at a time, so below a depth of twice the logarithm of the number of items, nodes are split at the median along
+ * that line instead, which bounds the depth of the tree.</p>
+ *
+ * <p>The {@code exactness} of a search, between 0 and 1, scales the radius in the bound. At 1 the result is
+ * exactly the top items; smaller values prune more aggressively and may miss some of them, in exchange for scoring
+ * fewer items.</p>
+ *
+ * <p>The tree copies the item features when it is built and is immutable afterwards; it can be searched by
+ * several threads at once.</p>
+ */
+public final class ItemFeaturesBallTree {
+
+  private static final int DEFAULT_LEAF_SIZE = 32;
+
+  private final int numFeatures;
+  /** item IDs, ordered so that the items of each node are contiguous */
+  private final long[] itemIDs;
+  /** item features, in the same order as itemIDs */
+  private final double[][] features;
+  /** nodes this deep or deeper are split at the median, so that the depth of the tree stays logarithmic */
+  private final int maxPivotSplitDepth;
+  private final Node root;
+
+  public ItemFeaturesBallTree(Factorization factorization) {
+    this(factorization, DEFAULT_LEAF_SIZE);
+  }
+
+  public ItemFeaturesBallTree(Factorization factorization, int leafSize) {
+    Preconditions.checkArgument(leafSize > 0, "leafSize must be positive");
+    int numItems = factorization.numItems();
+    numFeatures = factorization.numFeatures();
+    itemIDs = new long[numItems];
+    features = new double[numItems][];
+    int position = 0;
+    for (Map.Entry<Long,Integer> mapping : factorization.getItemIDMappings()) {
+      itemIDs[position] = mapping.getKey();
+      try {
+        features[position] = factorization.getItemFeatures(itemIDs[position]);
+      } catch (NoSuchItemException nsie) {
+        throw new IllegalStateException(nsie);
+      }
+      position++;
+    }
+    maxPivotSplitDepth = 2 * (Integer.SIZE - Integer.numberOfLeadingZeros(numItems));
+    root = numItems == 0 ? null : build(0, numItems, leafSize, 0);
+  }
+
+  public int numItems() {
+    return itemIDs.length;
+  }
+
+  /** @return the number of levels of the tree */
+  int depth() {
+    return root == null ? 0 : root.depth();
+  }
+
+  /**
+   * @param userFeatures the features of the user
+   * @param howMany maximum number of items to return
+   * @param exactness between 0 and 1; 1 returns the exact top items
+   * @param candidates if not null, only these items are considered
+   * @param excluded if not null, these items are never returned
+   * @return the items with the highest estimated preference, best first
+   */
+  public List<RecommendedItem> getTopItems(double[] userFeatures, int howMany, double exactness,
+      FastIDSet candidates, FastIDSet excluded) {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    Preconditions.checkArgument(exactness >= 0.0 && exactness <= 1.0, "exactness must be between 0 and 1");
+    Preconditions.checkArgument(userFeatures.length == numFeatures, "expected %s features", numFeatures);
+    if (root == null) {
+      return Collections.emptyList();
+    }
+    Search search = new Search(userFeatures, howMany, exactness, candidates, excluded);
+    search.visit(root, root.bound(userFeatures, search.queryNorm, exactness));
+    return search.result();
+  }
+
+  private Node build(int start, int end, int leafSize, int depth) {
+    double[] center = new double[numFeatures];
+    for (int item = start; item < end; item++) {
+      double[] itemFeatures = features[item];
+      for (int feature = 0; feature < numFeatures; feature++) {
+        center[feature] += itemFeatures[feature];
+      }
+    }
+    for (int feature = 0; feature < numFeatures; feature++) {
+      center[feature] /= end - start;
+    }
+    int farthestFromCenter = farthest(center, start, end);
+    double radius = Math.sqrt(distanceSquared(center, features[farthestFromCenter]));
+    Node node = new Node(center, radius, start, end);
+    if (end - start <= leafSize || radius == 0.0) {
+      return node;
+    }
+
+    // split along the line between two far apart items, each item goes to the side of the one it is closer to
+    double[] pivotA = features[farthestFromCenter];
+    double[] pivotB = features[farthest(pivotA, start, end)];
+    int low;
+    if (depth >= maxPivotSplitDepth) {
+      low = medianSplit(start, end, pivotA, pivotB);
+    } else {
+      low = start;
+      int high = end - 1;
+      while (low <= high) {
+        if (distanceSquared(features[low], pivotA) <= distanceSquared(features[low], pivotB)) {
+          low++;
+        } else {
+          swap(low, high);
+          high--;
+        }
+      }
+      if (low == start || low == end) {
+        return node;
+      }
+    }
+    node.left = build(start, low, leafSize, depth + 1);
+    node.right = build(low, end, leafSize, depth + 1);
+    return node;
+  }
+
+  /**
+   * Reorders the items from start to end so that those in the first half lie no farther towards pivotB, along
+   * the line from pivotA, than those in the second half.
+   *
+   * @return the start of the second half
+   */
+  private int medianSplit(int start, int end, double[] pivotA, double[] pivotB) {
+    double[] direction = new double[numFeatures];
+    for (int feature = 0; feature < numFeatures; feature++) {
+      direction[feature] = pivotB[feature] - pivotA[feature];
+    }
+    double[] projections = new double[end - start];
+    for (int item = start; item < end; item++) {
+      projections[item - start] = dot(features[item], direction);
+    }
+    // quickselect of the median, in positions relative to start
+    int middle = (end - start) >>> 1;
+    int low = 0;
+    int high = projections.length - 1;
+    while (low < high) {
+      double pivot = projections[(low + high) >>> 1];
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (projections[i] < pivot) {
+          i++;
+        }
+        while (projections[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          double projection = projections[i];
+          projections[i] = projections[j];
+          projections[j] = projection;
+          swap(start + i, start + j);
+          i++;
+          j--;
+        }
+      }
+      if (middle <= j) {
+        high = j;
+      } else if (middle >= i) {
+        low = i;
+      } else {
+        break;
+      }
+    }
+    return start + middle;
+  }
+
+  private int farthest(double[] from, int start, int end) {
+    int farthest = start;
+    double maxDistance = -1.0;
+    for (int item = start; item < end; item++) {
+      double distance = distanceSquared(from, features[item]);
+      if (distance > maxDistance) {
+        maxDistance = distance;
+        farthest = item;
+      }
+    }
+    return farthest;
+  }
+
+  private void swap(int i, int j) {
+    long itemID = itemIDs[i];
+    itemIDs[i] = itemIDs[j];
+    itemIDs[j] = itemID;
+    double[] itemFeatures = features[i];
+    features[i] = features[j];
+    features[j] = itemFeatures;
+  }
+
+  private static double distanceSquared(double[] a, double[] b) {
+    double sum = 0.0;
+    for (int feature = 0; feature < a.length; feature++) {
+      double diff = a[feature] - b[feature];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double sum = 0.0;
+    for (int feature = 0; feature < a.length; feature++) {
+      sum += a[feature] * b[feature];
+    }
+    return sum;
+  }
+
+  private static final class Node {
+    private final double[] center;
+    private final double radius;
+    private final int start;
+    private final int end;
+    private Node left;
+    private Node right;
+
+    Node(double[] center, double radius, int start, int end) {
+      this.center = center;
+      this.radius = radius;
+      this.start = start;
+      this.end = end;
+    }
+
+    boolean isLeaf() {
+      return left == null;
+    }
+
+    int depth() {
+      return isLeaf() ? 1 : 1 + Math.max(left.depth(), right.depth());
+    }
+
+    double bound(double[] query, double queryNorm, double exactness) {
+      return dot(query, center) + exactness * radius * queryNorm;
+    }
+  }
+
+  /** the state of one search, with the best items found so far */
+  private final class Search {
+    private final double[] query;
+    private final double queryNorm;
+    private final double exactness;
+    private final FastIDSet candidates;
+    private final FastIDSet excluded;
+    private final TopItems.TopIDs topItems;
+
+    Search(double[] query, int howMany, double exactness, FastIDSet candidates, FastIDSet excluded) {
+      this.query = query;
+      this.queryNorm = Math.sqrt(dot(query, query));
+      this.exactness = exactness;
+      this.candidates = candidates;
+      this.excluded = excluded;
+      topItems = new TopItems.TopIDs(Math.min(howMany, itemIDs.length));
+    }
+
+    boolean isPruned(double bound) {
+      return topItems.isFull() && bound <= topItems.lowestValue();
+    }
+
+    void visit(Node node, double bound) {
+      if (isPruned(bound)) {
+        return;
+      }
+      if (node.isLeaf()) {
+        for (int item = node.start; item < node.end; item++) {
+          long itemID = itemIDs[item];
+          if ((candidates == null || candidates.contains(itemID)) && (excluded == null || !excluded.contains(itemID))) {
+            double score = dot(query, features[item]);
+            if (!Double.isNaN(score)) {
+              topItems.offer(itemID, score);
+            }
+          }
+        }
+        return;
+      }
+      double leftBound = node.left.bound(query, queryNorm, exactness);
+      double rightBound = node.right.bound(query, queryNorm, exactness);
+      if (leftBound >= rightBound) {
+        visit(node.left, leftBound);
+        visit(node.right, rightBound);
+      } else {
+        visit(node.right, rightBound);
+        visit(node.left, leftBound);
+      }
+    }
+
+    List<RecommendedItem> result() {
+      return topItems.toRecommendedItems();
+    }
+  }
+
+}
@@ -28,6 +28,7 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
@@ -38,15 +39,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A {@link org.apache.mahout.cf.taste.recommender.Recommender} that uses matrix factorization (a projection of users
- * and items onto a feature space)
+ * <p>A {@link org.apache.mahout.cf.taste.recommender.Recommender} that uses matrix factorization (a projection of users
+ * and items onto a feature space)</p>
+ *
+ * <p>By default, {@link #recommend(long, int, IDRescorer)} scores every candidate item. When created with an item
+ * index exactness, it also builds an {@link ItemFeaturesBallTree} over the item features after every factorization,
+ * and answers recommendations without a rescorer from the tree, scoring only a fraction of the items.</p>
  */
 public final class SVDRecommender extends AbstractRecommender {
 
-  private Factorization factorization;
+  /** use as item index exactness to score every candidate item, without building an index */
+  public static final double NO_ITEM_INDEX = Double.NaN;
+
+  /** replaced as a whole on refresh, so that readers never see an item index of another factorization */
+  private volatile Model model;
   private final Factorizer factorizer;
   private final PersistenceStrategy persistenceStrategy;
   private final RefreshHelper refreshHelper;
+  private final double itemIndexExactness;
+  private final boolean allUnknownItemsAreCandidates;
 
   private static final Logger log = LoggerFactory.getLogger(SVDRecommender.class);
 
@@ -91,9 +102,32 @@ public final class SVDRecommender extends AbstractRecommender {
    */
   public SVDRecommender(DataModel dataModel, Factorizer factorizer, CandidateItemsStrategy candidateItemsStrategy,
       PersistenceStrategy persistenceStrategy) throws TasteException {
+    this(dataModel, factorizer, candidateItemsStrategy, persistenceStrategy, NO_ITEM_INDEX);
+  }
+
+  /**
+   * Create an SVDRecommender which answers recommendations from an {@link ItemFeaturesBallTree} over the item
+   * features, unless a rescorer is given.
+   *
+   * @param dataModel
+   * @param factorizer
+   * @param candidateItemsStrategy
+   * @param persistenceStrategy
+   * @param itemIndexExactness between 0 and 1, where 1 returns exactly the items a full scan would return and
+   *   smaller values trade accuracy for speed; {@link #NO_ITEM_INDEX} to always score every candidate item
+   *
+   * @throws TasteException
+   */
+  public SVDRecommender(DataModel dataModel, Factorizer factorizer, CandidateItemsStrategy candidateItemsStrategy,
+      PersistenceStrategy persistenceStrategy, double itemIndexExactness) throws TasteException {
     super(dataModel, candidateItemsStrategy);
     this.factorizer = Preconditions.checkNotNull(factorizer);
     this.persistenceStrategy = Preconditions.checkNotNull(persistenceStrategy);
+    Preconditions.checkArgument(Double.isNaN(itemIndexExactness) || (itemIndexExactness >= 0.0
+        && itemIndexExactness <= 1.0), "itemIndexExactness must be between 0 and 1");
+    this.itemIndexExactness = itemIndexExactness;
+    this.allUnknownItemsAreCandidates = candidateItemsStrategy instanceof AllUnknownItemsCandidateItemsStrategy;
+    Factorization factorization;
     try {
       factorization = persistenceStrategy.load();
     } catch (IOException e) {
@@ -102,6 +136,8 @@ public final class SVDRecommender extends AbstractRecommender {
     
     if (factorization == null) {
       train();
+    } else {
+      model = buildModel(factorization);
     }
     
     refreshHelper = new RefreshHelper(new Callable<Object>() {
@@ -120,12 +156,18 @@ public final class SVDRecommender extends AbstractRecommender {
   }
 
   private void train() throws TasteException {
-    factorization = factorizer.factorize();
+    Factorization factorization = factorizer.factorize();
     try {
       persistenceStrategy.maybePersist(factorization);
     } catch (IOException e) {
       throw new TasteException("Error persisting factorization", e);
     }
+    model = buildModel(factorization);
+  }
+
+  private Model buildModel(Factorization factorization) {
+    return new Model(factorization,
+        Double.isNaN(itemIndexExactness) ? null : new ItemFeaturesBallTree(factorization));
   }
   
   @Override
@@ -134,10 +176,27 @@ public final class SVDRecommender extends AbstractRecommender {
     log.debug("Recommending items for user ID '{}'", userID);
 
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
-    FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
 
+    Model currentModel = model;
+    ItemFeaturesBallTree itemIndex = currentModel.itemIndex;
+    if (itemIndex != null && rescorer == null) {
+      double[] userFeatures = currentModel.factorization.getUserFeatures(userID);
+      List<RecommendedItem> topItems;
+      if (allUnknownItemsAreCandidates) {
+        // avoid listing all items, only the user's own need to be excluded
+        topItems = itemIndex.getTopItems(userFeatures, howMany, itemIndexExactness, null,
+            new FastIDSet(preferencesFromUser.getIDs()));
+      } else {
+        topItems = itemIndex.getTopItems(userFeatures, howMany, itemIndexExactness,
+            getAllOtherItems(userID, preferencesFromUser), null);
+      }
+      log.debug("Recommendations are: {}", topItems);
+      return topItems;
+    }
+
+    FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
     List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
-        new Estimator(userID));
+        new Estimator(currentModel.factorization, userID));
     log.debug("Recommendations are: {}", topItems);
 
     return topItems;
@@ -148,26 +207,36 @@ public final class SVDRecommender extends AbstractRecommender {
    */
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
-    double[] userFeatures = factorization.getUserFeatures(userID);
-    double[] itemFeatures = factorization.getItemFeatures(itemID);
-    double estimate = 0;
-    for (int feature = 0; feature < userFeatures.length; feature++) {
-      estimate += userFeatures[feature] * itemFeatures[feature];
+    return (float) model.factorization.estimate(userID, itemID);
+  }
+
+  /**
+   * a factorization together with the item index built from it
+   */
+  private static final class Model {
+
+    private final Factorization factorization;
+    private final ItemFeaturesBallTree itemIndex;
+
+    private Model(Factorization factorization, ItemFeaturesBallTree itemIndex) {
+      this.factorization = factorization;
+      this.itemIndex = itemIndex;
     }
-    return (float) estimate;
   }
 
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private static final class Estimator implements TopItems.LongEstimator {
 
+    private final Factorization factorization;
     private final long theUserID;
 
-    private Estimator(long theUserID) {
+    private Estimator(Factorization factorization, long theUserID) {
+      this.factorization = factorization;
       this.theUserID = theUserID;
     }
 
     @Override
-    public double estimate(Long itemID) throws TasteException {
-      return estimatePreference(theUserID, itemID);
+    public double estimate(long itemID) throws TasteException {
+      return (float) factorization.estimate(theUserID, itemID);
     }
   }
 
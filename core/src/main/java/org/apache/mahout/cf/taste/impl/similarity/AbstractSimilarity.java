@@ -261,9 +261,11 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
   
   @Override
   public final double itemSimilarity(long itemID1, long itemID2) throws TasteException {
-    DataModel dataModel = getDataModel();
-    PreferenceArray xPrefs = dataModel.getPreferencesForItem(itemID1);
-    PreferenceArray yPrefs = dataModel.getPreferencesForItem(itemID2);
+    return itemSimilarity(itemID1, getDataModel().getPreferencesForItem(itemID1), itemID2);
+  }
+
+  private double itemSimilarity(long itemID1, PreferenceArray xPrefs, long itemID2) throws TasteException {
+    PreferenceArray yPrefs = getDataModel().getPreferencesForItem(itemID2);
     int xLength = xPrefs.length();
     int yLength = yPrefs.length();
     
@@ -344,10 +346,12 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
 
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    // fetch the first item's preferences once for all the others
+    PreferenceArray xPrefs = getDataModel().getPreferencesForItem(itemID1);
     int length = itemID2s.length;
     double[] result = new double[length];
     for (int i = 0; i < length; i++) {
-      result[i] = itemSimilarity(itemID1, itemID2s[i]);
+      result[i] = itemSimilarity(itemID1, xPrefs, itemID2s[i]);
     }
     return result;
   }
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.math.Sorting;
+import org.apache.mahout.math.Swapper;
+import org.apache.mahout.math.function.IntComparator;
+
+/**
+ * <p>
+ * An immutable {@link ItemSimilarity} over precomputed similarities, like {@link GenericItemSimilarity}, but kept in
+ * far less memory: each item has a sorted array of the IDs of the items similar to it and a parallel array of
+ * {@code float} similarities, 12 bytes per item and similar item, rather than a map of boxed {@link Double}s.
+ * Looking up a pair is a binary search in the neighbors of one item.
+ * </p>
+ *
+ * <p>
+ * Similarities are symmetric, so each pair needs to be given once, in either order; of a pair given more than once,
+ * one similarity is kept, but which one is undefined. The {@link Iterable} is read
+ * twice, once to count the neighbors of each item and once to store them, so that no more memory is needed than
+ * the arrays themselves; it must return the same similarities both times.
+ * </p>
+ */
+public final class CompactItemSimilarity implements ItemSimilarity {
+
+  private static final long[] NO_IDS = new long[0];
+
+  private final FastByIDMap<Neighbors> neighborsByItem;
+
+  public CompactItemSimilarity(Iterable<GenericItemSimilarity.ItemItemSimilarity> similarities) {
+    FastByIDMap<int[]> counts = new FastByIDMap<int[]>();
+    for (GenericItemSimilarity.ItemItemSimilarity similarity : similarities) {
+      long itemID1 = similarity.getItemID1();
+      long itemID2 = similarity.getItemID2();
+      if (itemID1 != itemID2) {
+        increment(counts, itemID1);
+        increment(counts, itemID2);
+      }
+    }
+
+    neighborsByItem = new FastByIDMap<Neighbors>(counts.size());
+    for (Map.Entry<Long,int[]> entry : counts.entrySet()) {
+      neighborsByItem.put(entry.getKey(), new Neighbors(entry.getValue()[0]));
+    }
+    counts = null;
+
+    for (GenericItemSimilarity.ItemItemSimilarity similarity : similarities) {
+      long itemID1 = similarity.getItemID1();
+      long itemID2 = similarity.getItemID2();
+      if (itemID1 != itemID2) {
+        float value = (float) similarity.getValue();
+        neighborOf(itemID1).add(itemID2, value);
+        neighborOf(itemID2).add(itemID1, value);
+      }
+    }
+
+    for (Map.Entry<Long,Neighbors> entry : neighborsByItem.entrySet()) {
+      entry.getValue().sort();
+    }
+  }
+
+  private static void increment(FastByIDMap<int[]> counts, long itemID) {
+    int[] count = counts.get(itemID);
+    if (count == null) {
+      counts.put(itemID, new int[] {1});
+    } else {
+      count[0]++;
+    }
+  }
+
+  private Neighbors neighborOf(long itemID) {
+    Neighbors neighbors = neighborsByItem.get(itemID);
+    if (neighbors == null) {
+      throw new IllegalStateException("Similarities changed while being read; unexpected item " + itemID);
+    }
+    return neighbors;
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) {
+    if (itemID1 == itemID2) {
+      return 1.0;
+    }
+    Neighbors neighbors = neighborsByItem.get(itemID1);
+    return neighbors == null ? Double.NaN : neighbors.similarity(itemID2);
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) {
+    int length = itemID2s.length;
+    double[] result = new double[length];
+    Neighbors neighbors = neighborsByItem.get(itemID1);
+    for (int i = 0; i < length; i++) {
+      long itemID2 = itemID2s[i];
+      if (itemID1 == itemID2) {
+        result[i] = 1.0;
+      } else {
+        result[i] = neighbors == null ? Double.NaN : neighbors.similarity(itemID2);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the IDs of the items similar to the given one, in ascending order. This is the array held internally,
+   *  which must not be modified.
+   */
+  @Override
+  public long[] allSimilarItemIDs(long itemID) {
+    Neighbors neighbors = neighborsByItem.get(itemID);
+    return neighbors == null ? NO_IDS : neighbors.itemIDs;
+  }
+
+  /**
+   * @return number of items with at least one similar item
+   */
+  public int getNumItems() {
+    return neighborsByItem.size();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Do nothing
+  }
+
+  @Override
+  public String toString() {
+    return "CompactItemSimilarity[items:" + neighborsByItem.size() + ']';
+  }
+
+  private static final class Neighbors {
+
+    private long[] itemIDs;
+    private float[] similarities;
+    private int size;
+
+    private Neighbors(int capacity) {
+      itemIDs = new long[capacity];
+      similarities = new float[capacity];
+    }
+
+    private void add(long itemID, float similarity) {
+      if (size == itemIDs.length) {
+        throw new IllegalStateException("Similarities changed while being read; unexpected pair with " + itemID);
+      }
+      itemIDs[size] = itemID;
+      similarities[size] = similarity;
+      size++;
+    }
+
+    /** sorts by item ID, keeping one similarity for an item given twice */
+    private void sort() {
+      if (size < itemIDs.length) {
+        throw new IllegalStateException("Similarities changed while being read; missing pairs");
+      }
+      final long[] ids = itemIDs;
+      final float[] values = similarities;
+      Sorting.quickSort(0, size, new IntComparator() {
+        @Override
+        public int compare(int i, int j) {
+          return ids[i] < ids[j] ? -1 : ids[i] > ids[j] ? 1 : 0;
+        }
+      }, new Swapper() {
+        @Override
+        public void swap(int i, int j) {
+          long id = ids[i];
+          ids[i] = ids[j];
+          ids[j] = id;
+          float value = values[i];
+          values[i] = values[j];
+          values[j] = value;
+        }
+      });
+      int distinct = 0;
+      for (int i = 0; i < size; i++) {
+        if (distinct > 0 && itemIDs[distinct - 1] == itemIDs[i]) {
+          similarities[distinct - 1] = similarities[i];
+        } else {
+          itemIDs[distinct] = itemIDs[i];
+          similarities[distinct] = similarities[i];
+          distinct++;
+        }
+      }
+      if (distinct < size) {
+        itemIDs = Arrays.copyOf(itemIDs, distinct);
+        similarities = Arrays.copyOf(similarities, distinct);
+        size = distinct;
+      }
+    }
+
+    private double similarity(long itemID) {
+      int index = Arrays.binarySearch(itemIDs, itemID);
+      return index < 0 ? Double.NaN : similarities[index];
+    }
+
+  }
+
+}
@@ -19,10 +19,12 @@ package org.apache.mahout.cf.taste.impl.similarity;
 
 import java.util.Collection;
 
+import com.google.common.base.Preconditions;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.model.ItemUserBitmapIndex;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
@@ -36,9 +38,21 @@ import org.apache.mahout.math.stats.LogLikelihood;
  */
 public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implements UserSimilarity {
 
+  private volatile ItemUserBitmapIndex bitmapIndex;
+
   public LogLikelihoodSimilarity(DataModel dataModel) {
     super(dataModel);
   }
+
+  /**
+   * @param bitmapIndex index built from {@code dataModel}, which item similarities take their co-occurrence counts
+   *  from. It is replaced when this similarity is refreshed, by the model's own index if it keeps one.
+   */
+  public LogLikelihoodSimilarity(DataModel dataModel, ItemUserBitmapIndex bitmapIndex) {
+    super(dataModel);
+    Preconditions.checkArgument(bitmapIndex != null, "bitmapIndex is null");
+    this.bitmapIndex = bitmapIndex;
+  }
   
   /**
    * @throws UnsupportedOperationException
@@ -73,6 +87,10 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
   
   @Override
   public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+    ItemUserBitmapIndex index = bitmapIndex;
+    if (index != null && index.containsItem(itemID1)) {
+      return doItemSimilarity(index, itemID1, itemID2, index.getNumUsersWithPreferenceFor(itemID1));
+    }
     DataModel dataModel = getDataModel();
     long preferring1 = dataModel.getNumUsersWithPreferenceFor(itemID1);
     long numUsers = dataModel.getNumUsers();
@@ -81,11 +99,19 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
 
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    int length = itemID2s.length;
+    double[] result = new double[length];
+    ItemUserBitmapIndex index = bitmapIndex;
+    if (index != null && index.containsItem(itemID1)) {
+      long preferring1 = index.getNumUsersWithPreferenceFor(itemID1);
+      for (int i = 0; i < length; i++) {
+        result[i] = doItemSimilarity(index, itemID1, itemID2s[i], preferring1);
+      }
+      return result;
+    }
     DataModel dataModel = getDataModel();
     long preferring1 = dataModel.getNumUsersWithPreferenceFor(itemID1);
     long numUsers = dataModel.getNumUsers();
-    int length = itemID2s.length;
-    double[] result = new double[length];
     for (int i = 0; i < length; i++) {
       result[i] = doItemSimilarity(itemID1, itemID2s[i], preferring1, numUsers);
     }
@@ -99,6 +125,24 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
       return Double.NaN;
     }
     long preferring2 = dataModel.getNumUsersWithPreferenceFor(itemID2);
+    return similarity(preferring1and2, preferring1, preferring2, numUsers);
+  }
+
+  /** falls back to the data model for items missing from the index, so that it decides how to treat them */
+  private double doItemSimilarity(ItemUserBitmapIndex index, long itemID1, long itemID2, long preferring1)
+    throws TasteException {
+    if (!index.containsItem(itemID2)) {
+      return doItemSimilarity(itemID1, itemID2, preferring1, getDataModel().getNumUsers());
+    }
+    long preferring1and2 = index.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    if (preferring1and2 == 0) {
+      return Double.NaN;
+    }
+    long preferring2 = index.getNumUsersWithPreferenceFor(itemID2);
+    return similarity(preferring1and2, preferring1, preferring2, index.getNumUsers());
+  }
+
+  private static double similarity(long preferring1and2, long preferring1, long preferring2, long numUsers) {
     double logLikelihood =
         LogLikelihood.logLikelihoodRatio(preferring1and2,
                                          preferring2 - preferring1and2,
@@ -111,6 +155,13 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     alreadyRefreshed = RefreshHelper.buildRefreshed(alreadyRefreshed);
     RefreshHelper.maybeRefresh(alreadyRefreshed, getDataModel());
+    if (bitmapIndex != null) {
+      try {
+        bitmapIndex = ItemUserBitmapIndex.forDataModel(getDataModel());
+      } catch (TasteException te) {
+        throw new IllegalStateException(te);
+      }
+    }
   }
   
   @Override
@@ -19,10 +19,12 @@ package org.apache.mahout.cf.taste.impl.similarity;
 
 import java.util.Collection;
 
+import com.google.common.base.Preconditions;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.model.ItemUserBitmapIndex;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
@@ -46,9 +48,21 @@ import org.apache.mahout.cf.taste.similarity.UserSimilarity;
  */
 public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity implements UserSimilarity {
 
+  private volatile ItemUserBitmapIndex bitmapIndex;
+
   public TanimotoCoefficientSimilarity(DataModel dataModel) {
     super(dataModel);
   }
+
+  /**
+   * @param bitmapIndex index built from {@code dataModel}, which item similarities take their co-occurrence counts
+   *  from. It is replaced when this similarity is refreshed, by the model's own index if it keeps one.
+   */
+  public TanimotoCoefficientSimilarity(DataModel dataModel, ItemUserBitmapIndex bitmapIndex) {
+    super(dataModel);
+    Preconditions.checkArgument(bitmapIndex != null, "bitmapIndex is null");
+    this.bitmapIndex = bitmapIndex;
+  }
   
   /**
    * @throws UnsupportedOperationException
@@ -87,15 +101,27 @@ public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity
   
   @Override
   public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+    ItemUserBitmapIndex index = bitmapIndex;
+    if (index != null && index.containsItem(itemID1)) {
+      return doItemSimilarity(index, itemID1, itemID2, index.getNumUsersWithPreferenceFor(itemID1));
+    }
     int preferring1 = getDataModel().getNumUsersWithPreferenceFor(itemID1);
     return doItemSimilarity(itemID1, itemID2, preferring1);
   }
 
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
-    int preferring1 = getDataModel().getNumUsersWithPreferenceFor(itemID1);
     int length = itemID2s.length;
     double[] result = new double[length];
+    ItemUserBitmapIndex index = bitmapIndex;
+    if (index != null && index.containsItem(itemID1)) {
+      int preferring1 = index.getNumUsersWithPreferenceFor(itemID1);
+      for (int i = 0; i < length; i++) {
+        result[i] = doItemSimilarity(index, itemID1, itemID2s[i], preferring1);
+      }
+      return result;
+    }
+    int preferring1 = getDataModel().getNumUsersWithPreferenceFor(itemID1);
     for (int i = 0; i < length; i++) {
       result[i] = doItemSimilarity(itemID1, itemID2s[i], preferring1);
     }
@@ -111,11 +137,32 @@ public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity
     int preferring2 = dataModel.getNumUsersWithPreferenceFor(itemID2);
     return (double) preferring1and2 / (double) (preferring1 + preferring2 - preferring1and2);
   }
+
+  /** falls back to the data model for items missing from the index, so that it decides how to treat them */
+  private double doItemSimilarity(ItemUserBitmapIndex index, long itemID1, long itemID2, int preferring1)
+    throws TasteException {
+    if (!index.containsItem(itemID2)) {
+      return doItemSimilarity(itemID1, itemID2, preferring1);
+    }
+    int preferring1and2 = index.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    if (preferring1and2 == 0) {
+      return Double.NaN;
+    }
+    int preferring2 = index.getNumUsersWithPreferenceFor(itemID2);
+    return (double) preferring1and2 / (double) (preferring1 + preferring2 - preferring1and2);
+  }
   
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     alreadyRefreshed = RefreshHelper.buildRefreshed(alreadyRefreshed);
     RefreshHelper.maybeRefresh(alreadyRefreshed, getDataModel());
+    if (bitmapIndex != null) {
+      try {
+        bitmapIndex = ItemUserBitmapIndex.forDataModel(getDataModel());
+      } catch (TasteException te) {
+        throw new IllegalStateException(te);
+      }
+    }
   }
   
   @Override
@@ -17,17 +17,42 @@
 
 package org.apache.mahout.cf.taste.impl.similarity.file;
 
-import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
-
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Iterator;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.mahout.cf.taste.hadoop.EntityEntityWritable;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.common.Pair;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileIterator;
+
 /**
- * {@link Iterable} to be able to read a file linewise into a {@link GenericItemSimilarity}
+ * {@link Iterable} to be able to read a file linewise into a {@link GenericItemSimilarity}. The file may also be
+ * a directory of files, like the output of
+ * {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}, and each file may be text or a
+ * {@link org.apache.hadoop.io.SequenceFile} of {@link EntityEntityWritable} item pairs and {@link DoubleWritable}
+ * similarities.
  */
 final class FileItemItemSimilarityIterable implements Iterable<GenericItemSimilarity.ItemItemSimilarity> {
 
+  private static final FileFilter PART_FILES = new FileFilter() {
+    @Override
+    public boolean accept(File file) {
+      String name = file.getName();
+      return file.isFile() && !name.startsWith("_") && !name.startsWith(".");
+    }
+  };
+
   private final File similaritiesFile;
 
   FileItemItemSimilarityIterable(File similaritiesFile) {
@@ -36,10 +61,67 @@ final class FileItemItemSimilarityIterable implements Iterable<GenericItemSimila
 
   @Override
   public Iterator<GenericItemSimilarity.ItemItemSimilarity> iterator() {
+    if (!similaritiesFile.isDirectory()) {
+      return open(similaritiesFile);
+    }
+    File[] parts = similaritiesFile.listFiles(PART_FILES);
+    Arrays.sort(parts);
+    return Iterators.concat(Iterators.transform(Arrays.asList(parts).iterator(),
+        new Function<File,Iterator<GenericItemSimilarity.ItemItemSimilarity>>() {
+          @Override
+          public Iterator<GenericItemSimilarity.ItemItemSimilarity> apply(File part) {
+            return open(part);
+          }
+        }));
+  }
+
+  /**
+   * @return the time the file was last modified; for a directory, the newest of the times its part files were
+   *  modified and of the time it was itself modified, which changes when parts are added or removed
+   */
+  static long lastModified(File similaritiesFile) {
+    long lastModified = similaritiesFile.lastModified();
+    if (similaritiesFile.isDirectory()) {
+      File[] parts = similaritiesFile.listFiles(PART_FILES);
+      if (parts != null) {
+        for (File part : parts) {
+          lastModified = Math.max(lastModified, part.lastModified());
+        }
+      }
+    }
+    return lastModified;
+  }
+
+  private static Iterator<GenericItemSimilarity.ItemItemSimilarity> open(File file) {
     try {
-      return new FileItemItemSimilarityIterator(similaritiesFile);
+      if (isSequenceFile(file)) {
+        Iterator<Pair<EntityEntityWritable,DoubleWritable>> pairs =
+            new SequenceFileIterator<EntityEntityWritable,DoubleWritable>(new Path(file.getAbsolutePath()),
+                                                                        true,
+                                                                        new Configuration());
+        return Iterators.transform(pairs,
+            new Function<Pair<EntityEntityWritable,DoubleWritable>,GenericItemSimilarity.ItemItemSimilarity>() {
+              @Override
+              public GenericItemSimilarity.ItemItemSimilarity apply(Pair<EntityEntityWritable,DoubleWritable> from) {
+                return new GenericItemSimilarity.ItemItemSimilarity(from.getFirst().getAID(),
+                                                                    from.getFirst().getBID(),
+                                                                    from.getSecond().get());
+              }
+            });
+      }
+      return new FileItemItemSimilarityIterator(file);
     } catch (IOException ioe) {
-      throw new IllegalStateException("Can't read " + similaritiesFile, ioe);
+      throw new IllegalStateException("Can't read " + file, ioe);
+    }
+  }
+
+  private static boolean isSequenceFile(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] magic = new byte[3];
+      return in.read(magic) == magic.length && magic[0] == 'S' && magic[1] == 'E' && magic[2] == 'Q';
+    } finally {
+      Closeables.closeQuietly(in);
     }
   }
 
@@ -23,7 +23,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.CompactItemSimilarity;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,13 +44,22 @@ import com.google.common.base.Preconditions;
  * </p>
  *
  * <p>
+ * The data file may also be a directory, like the output directory of
+ * {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}, whose files are read in turn; each of
+ * them may be text as above, or a {@link org.apache.hadoop.io.SequenceFile} of
+ * {@link org.apache.mahout.cf.taste.hadoop.EntityEntityWritable} item pairs and
+ * {@link org.apache.hadoop.io.DoubleWritable} similarities.
+ * </p>
+ *
+ * <p>
  * This class will reload data from the data file when {@link #refresh(Collection)} is called, unless the file
  * has been reloaded very recently already.
  * </p>
  *
  * <p>
- * This class is not intended for use with very large amounts of data. For that, a JDBC-backed {@link ItemSimilarity}
- * and a database are more appropriate.
+ * Similarities are held in a {@link CompactItemSimilarity}, which takes about 24 bytes per pair of items, and
+ * the data is read twice on each load so that nothing more needs to be held while loading. For still larger
+ * amounts of data, a JDBC-backed {@link ItemSimilarity} and a database are more appropriate.
  * </p>
  */
 public class FileItemSimilarity implements ItemSimilarity {
@@ -81,13 +90,12 @@ public class FileItemSimilarity implements ItemSimilarity {
    */
   public FileItemSimilarity(File dataFile, long minReloadIntervalMS) {
     Preconditions.checkArgument(dataFile != null, "dataFile is null");
-    Preconditions.checkArgument(dataFile.exists() && !dataFile.isDirectory(),
-      "dataFile is missing or a directory: %s", dataFile);
+    Preconditions.checkArgument(dataFile.exists(), "dataFile is missing: %s", dataFile);
 
     log.info("Creating FileItemSimilarity for file {}", dataFile);
 
     this.dataFile = dataFile.getAbsoluteFile();
-    this.lastModified = dataFile.lastModified();
+    this.lastModified = FileItemItemSimilarityIterable.lastModified(dataFile);
     this.minReloadIntervalMS = minReloadIntervalMS;
     this.reloadLock = new ReentrantLock();
 
@@ -111,7 +119,7 @@ public class FileItemSimilarity implements ItemSimilarity {
 
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    if (dataFile.lastModified() > lastModified + minReloadIntervalMS) {
+    if (FileItemItemSimilarityIterable.lastModified(dataFile) > lastModified + minReloadIntervalMS) {
       log.debug("File has changed; reloading...");
       reload();
     }
@@ -120,8 +128,8 @@ public class FileItemSimilarity implements ItemSimilarity {
   protected void reload() {
     if (reloadLock.tryLock()) {
       try {
-        long newLastModified = dataFile.lastModified();
-        delegate = new GenericItemSimilarity(new FileItemItemSimilarityIterable(dataFile));
+        long newLastModified = FileItemItemSimilarityIterable.lastModified(dataFile);
+        delegate = new CompactItemSimilarity(new FileItemItemSimilarityIterable(dataFile));
         lastModified = newLastModified;
       } finally {
         reloadLock.unlock();
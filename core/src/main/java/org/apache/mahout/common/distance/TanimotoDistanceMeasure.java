@@ -17,9 +17,8 @@
 
 package org.apache.mahout.common.distance;
 
-import java.util.Iterator;
-
 import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 /**
  * Tanimoto coefficient implementation.
@@ -61,18 +60,9 @@ public class TanimotoDistanceMeasure extends WeightedDistanceMeasure {
   }
   
   public double dot(Vector a, Vector b) {
-    boolean sameVector = a == b;
-    Iterator<Vector.Element> it = a.iterateNonZero();
-    Vector.Element el;
-    Vector weights = getWeights();
-    double dot = 0.0;
-    while (it.hasNext() && (el = it.next()) != null) {
-      double elementValue = el.get();
-      double value = elementValue * (sameVector ? elementValue : b.getQuick(el.index()));
-      value *= weights.getQuick(el.index());  
-      dot += value;
-    }
-    return dot;
+    WeightedDotProcedure procedure = new WeightedDotProcedure(a == b ? null : b, getWeights());
+    a.forEachNonZero(procedure);
+    return procedure.result;
   }
   
   @Override
@@ -80,4 +70,22 @@ public class TanimotoDistanceMeasure extends WeightedDistanceMeasure {
     return distance(centroid, v); // TODO
   }
   
+  /** Sums the weighted products with the other vector, or the weighted squares if there is no other vector. */
+  private static final class WeightedDotProcedure implements IntDoubleProcedure {
+    private final Vector other;
+    private final Vector weights;
+    private double result;
+
+    WeightedDotProcedure(Vector other, Vector weights) {
+      this.other = other;
+      this.weights = weights;
+    }
+
+    @Override
+    public boolean apply(int index, double value) {
+      result += value * (other == null ? value : other.getQuick(index)) * weights.getQuick(index);
+      return true;
+    }
+  }
+  
 }
@@ -17,9 +17,8 @@
 
 package org.apache.mahout.common.distance;
 
-import java.util.Iterator;
-
 import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 /**
  * This class implements a Euclidean distance metric by summing the square root of the squared differences
@@ -29,23 +28,14 @@ public class WeightedEuclideanDistanceMeasure extends WeightedDistanceMeasure {
   
   @Override
   public double distance(Vector p1, Vector p2) {
-    double result = 0;
     Vector res = p2.minus(p1);
     Vector theWeights = getWeights();
     if (theWeights == null) {
-      Iterator<Vector.Element> iter = res.iterateNonZero();
-      while (iter.hasNext()) {
-        Vector.Element elt = iter.next();
-        result += elt.get() * elt.get();
-      }
-    } else {
-      Iterator<Vector.Element> iter = res.iterateNonZero();
-      while (iter.hasNext()) {
-        Vector.Element elt = iter.next();
-        result += elt.get() * elt.get() * theWeights.get(elt.index());
-      }
+      return Math.sqrt(res.getLengthSquared());
     }
-    return Math.sqrt(result);
+    WeightedSquaresProcedure procedure = new WeightedSquaresProcedure(theWeights);
+    res.forEachNonZero(procedure);
+    return Math.sqrt(procedure.result);
   }
   
   @Override
@@ -53,4 +43,19 @@ public class WeightedEuclideanDistanceMeasure extends WeightedDistanceMeasure {
     return distance(centroid, v); // TODO
   }
   
+  private static final class WeightedSquaresProcedure implements IntDoubleProcedure {
+    private final Vector weights;
+    private double result;
+
+    WeightedSquaresProcedure(Vector weights) {
+      this.weights = weights;
+    }
+
+    @Override
+    public boolean apply(int index, double value) {
+      result += value * value * weights.get(index);
+      return true;
+    }
+  }
+  
 }
@@ -17,9 +17,9 @@
 
 package org.apache.mahout.common.distance;
 
-import java.util.Iterator;
-
 import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 /**
  * This class implements a "Manhattan distance" metric by summing the absolute values of the difference
@@ -29,25 +29,13 @@ public class WeightedManhattanDistanceMeasure extends WeightedDistanceMeasure {
   
   @Override
   public double distance(Vector p1, Vector p2) {
-    double result = 0;
-    
     Vector res = p2.minus(p1);
     if (getWeights() == null) {
-      Iterator<Vector.Element> iter = res.iterateNonZero();
-      while (iter.hasNext()) {
-        Vector.Element elt = iter.next();
-        result += Math.abs(elt.get());
-      }
-      
-    } else {
-      Iterator<Vector.Element> iter = res.iterateNonZero();
-      while (iter.hasNext()) {
-        Vector.Element elt = iter.next();
-        result += Math.abs(elt.get() * getWeights().get(elt.index()));
-      }
+      return res.size() == 0 ? 0.0 : res.aggregate(Functions.PLUS, Functions.ABS);
     }
-    
-    return result;
+    WeightedAbsoluteProcedure procedure = new WeightedAbsoluteProcedure(getWeights());
+    res.forEachNonZero(procedure);
+    return procedure.result;
   }
   
   @Override
@@ -55,4 +43,19 @@ public class WeightedManhattanDistanceMeasure extends WeightedDistanceMeasure {
     return distance(centroid, v); // TODO
   }
   
+  private static final class WeightedAbsoluteProcedure implements IntDoubleProcedure {
+    private final Vector weights;
+    private double result;
+
+    WeightedAbsoluteProcedure(Vector weights) {
+      this.weights = weights;
+    }
+
+    @Override
+    public boolean apply(int index, double value) {
+      result += Math.abs(value * weights.get(index));
+      return true;
+    }
+  }
+  
 }
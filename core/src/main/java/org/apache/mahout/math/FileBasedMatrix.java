@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>A read-only dense matrix whose values stay in a file instead of on the Java heap. The file is mapped into
+ * memory with {@link FileChannel.MapMode#READ_ONLY}, so several JVMs serving the same matrix share a single copy
+ * in the operating system's page cache, and the garbage collector never has to look at the values.</p>
+ *
+ * <p>The file format is exactly what {@link MatrixWritable#writeMatrix(java.io.DataOutput, Matrix)} produces for a
+ * matrix with dense rows (see {@link #writeMatrix(File, Matrix)}): a header of flags, number of rows and number of
+ * columns, then every row as a dense {@link VectorWritable}. Since each dense row has the same encoded length, any
+ * element can be addressed directly. Files larger than 2GB are mapped as several buffers, each holding a whole
+ * number of rows.</p>
+ *
+ * <p>Rows and columns returned by {@link #viewRow(int)} and {@link #viewColumn(int)} are views reading straight
+ * from the mapped file; nothing is copied. Operations producing a new matrix, like {@link #times(Matrix)}, return
+ * an ordinary {@link DenseMatrix}.</p>
+ */
+public class FileBasedMatrix extends AbstractMatrix {
+
+  private static final int HEADER_LENGTH = 12;
+  private static final int DOUBLE_BYTES = 8;
+
+  private final File file;
+  private final ByteBuffer[] blocks;
+  private final int rowsPerBlock;
+  private final int rowLength;
+  private final int rowHeaderLength;
+
+  /**
+   * Maps the given file, which must contain a matrix with dense rows written in the {@link MatrixWritable} layout.
+   */
+  public FileBasedMatrix(File file) throws IOException {
+    this(file, Integer.MAX_VALUE);
+  }
+
+  FileBasedMatrix(File file, int maxBlockLength) throws IOException {
+    super(0, 0);
+    this.file = file;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      int flags = raf.readInt();
+      Preconditions.checkArgument((flags & MatrixWritable.FLAG_DENSE) != 0, "Matrix in %s is not dense", file);
+      rows = raf.readInt();
+      columns = raf.readInt();
+
+      if (rows > 0) {
+        int vectorFlags = raf.readByte();
+        Preconditions.checkArgument((vectorFlags & VectorWritable.FLAG_DENSE) != 0
+            && (vectorFlags & (VectorWritable.FLAG_NAMED | VectorWritable.FLAG_LAX_PRECISION)) == 0,
+            "Rows in %s must be dense, unnamed and stored with full precision", file);
+        int size = Varint.readUnsignedVarInt(raf);
+        Preconditions.checkArgument(size == columns, "Row size %s does not match column count %s", size, columns);
+      }
+      rowHeaderLength = 1 + unsignedVarIntLength(columns);
+      long rowLengthAsLong = rowHeaderLength + (long) DOUBLE_BYTES * columns;
+      Preconditions.checkArgument(rowLengthAsLong <= maxBlockLength, "Rows too long to be mapped: %s", rowLengthAsLong);
+      rowLength = (int) rowLengthAsLong;
+      rowsPerBlock = Math.max(1, maxBlockLength / rowLength);
+
+      long dataLength = (long) rows * rowLength;
+      Preconditions.checkArgument(raf.length() >= HEADER_LENGTH + dataLength,
+          "%s is truncated: expected at least %s bytes", file, HEADER_LENGTH + dataLength);
+
+      if ((flags & MatrixWritable.FLAG_LABELS) != 0) {
+        raf.seek(HEADER_LENGTH + dataLength);
+        Map<String,Integer> columnLabels = Maps.newHashMap();
+        Map<String,Integer> rowLabels = Maps.newHashMap();
+        MatrixWritable.readLabels(raf, columnLabels, rowLabels);
+        if (!columnLabels.isEmpty()) {
+          columnLabelBindings = columnLabels;
+        }
+        if (!rowLabels.isEmpty()) {
+          rowLabelBindings = rowLabels;
+        }
+      }
+
+      FileChannel channel = raf.getChannel();
+      int numBlocks = (rows + rowsPerBlock - 1) / rowsPerBlock;
+      blocks = new ByteBuffer[numBlocks];
+      for (int block = 0; block < numBlocks; block++) {
+        long firstRow = (long) block * rowsPerBlock;
+        long blockRows = Math.min(rowsPerBlock, rows - firstRow);
+        blocks[block] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                    HEADER_LENGTH + firstRow * rowLength,
+                                    blockRows * rowLength);
+      }
+    } finally {
+      // the mappings remain valid after the channel is closed
+      Closeables.closeQuietly(raf);
+    }
+  }
+
+  /**
+   * Writes the matrix to the file in the layout read by {@link #FileBasedMatrix(File)}. Rows which are not dense are
+   * converted one at a time, so the whole matrix is never copied.
+   */
+  public static void writeMatrix(File file, Matrix matrix) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      boolean hasLabels = matrix.getRowLabelBindings() != null || matrix.getColumnLabelBindings() != null;
+      out.writeInt(MatrixWritable.FLAG_DENSE | MatrixWritable.FLAG_SEQUENTIAL
+          | (hasLabels ? MatrixWritable.FLAG_LABELS : 0));
+      out.writeInt(matrix.rowSize());
+      out.writeInt(matrix.columnSize());
+      for (int row = 0; row < matrix.rowSize(); row++) {
+        Vector vector = matrix.viewRow(row);
+        if (!vector.isDense() || vector instanceof NamedVector) {
+          vector = new DenseVector(vector);
+        }
+        VectorWritable.writeVector(out, vector, false);
+      }
+      if (hasLabels) {
+        MatrixWritable.writeLabelBindings(out, matrix.getColumnLabelBindings(), matrix.getRowLabelBindings());
+      }
+    } finally {
+      Closeables.closeQuietly(out);
+    }
+  }
+
+  private static int unsignedVarIntLength(int value) {
+    int length = 1;
+    while ((value & 0xFFFFFF80) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  private ByteBuffer block(int row) {
+    return blocks[row / rowsPerBlock];
+  }
+
+  private int rowOffset(int row) {
+    return (row % rowsPerBlock) * rowLength + rowHeaderLength;
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return block(row).getDouble(rowOffset(row) + column * DOUBLE_BYTES);
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    throw new UnsupportedOperationException("File based matrices are read-only");
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    throw new UnsupportedOperationException("File based matrices are read-only");
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    throw new UnsupportedOperationException("File based matrices are read-only");
+  }
+
+  @Override
+  public Matrix like() {
+    return new DenseMatrix(rowSize(), columnSize());
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new DenseMatrix(rows, columns);
+  }
+
+  @Override
+  public Matrix viewPart(int[] offset, int[] size) {
+    if (offset[ROW] < 0) {
+      throw new IndexException(offset[ROW], rowSize());
+    }
+    if (offset[ROW] + size[ROW] > rowSize()) {
+      throw new IndexException(offset[ROW] + size[ROW], rowSize());
+    }
+    if (offset[COL] < 0) {
+      throw new IndexException(offset[COL], columnSize());
+    }
+    if (offset[COL] + size[COL] > columnSize()) {
+      throw new IndexException(offset[COL] + size[COL], columnSize());
+    }
+    return new MatrixView(this, offset, size);
+  }
+
+  @Override
+  public Vector viewRow(int row) {
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    return super.viewRow(row);
+  }
+
+  @Override
+  public Vector viewColumn(int column) {
+    if (column < 0 || column >= columnSize()) {
+      throw new IndexException(column, columnSize());
+    }
+    return super.viewColumn(column);
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    int columns = columnSize();
+    if (columns != v.size()) {
+      throw new CardinalityException(columns, v.size());
+    }
+    int rows = rowSize();
+    Vector w = new DenseVector(rows);
+    for (int row = 0; row < rows; row++) {
+      ByteBuffer block = block(row);
+      int offset = rowOffset(row);
+      double sum = 0.0;
+      if (v.isDense()) {
+        for (int col = 0; col < columns; col++) {
+          sum += block.getDouble(offset + col * DOUBLE_BYTES) * v.getQuick(col);
+        }
+      } else {
+        Iterator<Vector.Element> nonZeros = v.iterateNonZero();
+        while (nonZeros.hasNext()) {
+          Vector.Element element = nonZeros.next();
+          sum += block.getDouble(offset + element.index() * DOUBLE_BYTES) * element.get();
+        }
+      }
+      w.setQuick(row, sum);
+    }
+    return w;
+  }
+
+  /**
+   * Streams over the rows of this matrix once, accumulating scaled rows of the other matrix, so that the mapped file
+   * is read sequentially.
+   */
+  @Override
+  public Matrix times(Matrix other) {
+    int columns = columnSize();
+    if (columns != other.rowSize()) {
+      throw new CardinalityException(columns, other.rowSize());
+    }
+    int rows = rowSize();
+    Matrix result = new DenseMatrix(rows, other.columnSize());
+    for (int row = 0; row < rows; row++) {
+      ByteBuffer block = block(row);
+      int offset = rowOffset(row);
+      Vector resultRow = result.viewRow(row);
+      for (int k = 0; k < columns; k++) {
+        double value = block.getDouble(offset + k * DOUBLE_BYTES);
+        if (value != 0.0) {
+          Iterator<Vector.Element> nonZeros = other.viewRow(k).iterateNonZero();
+          while (nonZeros.hasNext()) {
+            Vector.Element element = nonZeros.next();
+            int index = element.index();
+            resultRow.setQuick(index, resultRow.getQuick(index) + value * element.get());
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+}
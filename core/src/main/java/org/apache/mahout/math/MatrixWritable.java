@@ -28,9 +28,9 @@ import java.util.Map;
 
 public class MatrixWritable implements Writable {
 
-  private static final int FLAG_DENSE = 0x01;
-  private static final int FLAG_SEQUENTIAL = 0x02;
-  private static final int FLAG_LABELS = 0x04;
+  static final int FLAG_DENSE = 0x01;
+  static final int FLAG_SEQUENTIAL = 0x02;
+  static final int FLAG_LABELS = 0x04;
   private static final int NUM_FLAGS = 3;
 
   private Matrix matrix;
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math.hadoop.similarity.cooccurrence;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.apache.mahout.math.function.IntDoubleProcedure;
+import org.apache.mahout.math.function.IntIntProcedure;
+import org.apache.mahout.math.list.IntArrayList;
+import org.apache.mahout.math.map.OpenIntDoubleHashMap;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.apache.mahout.math.map.OpenIntObjectHashMap;
+
+import java.io.IOException;
+
+/**
+ * In-mapper combiner for the partial dot products of {@link RowSimilarityJob.CooccurrencesMapper}: sums them per
+ * pair of rows across all columns a mapper sees, and writes one vector per row when it holds too many pairs or the
+ * mapper is done. Integral values, as the co-occurrence counts of count based measures, are kept in
+ * {@link OpenIntIntHashMap}s, anything else in {@link OpenIntDoubleHashMap}s.
+ */
+final class CooccurrenceBuffer {
+
+  private final boolean counts;
+  private final int maxSize;
+  private final OpenIntObjectHashMap<OpenIntIntHashMap> countsByRow;
+  private final OpenIntObjectHashMap<OpenIntDoubleHashMap> sumsByRow;
+  private int size;
+
+  /**
+   * @param counts whether all values added are integral
+   * @param maxSize number of pairs to buffer before {@link #isFull()}
+   */
+  CooccurrenceBuffer(boolean counts, int maxSize) {
+    this.counts = counts;
+    this.maxSize = maxSize;
+    countsByRow = counts ? new OpenIntObjectHashMap<OpenIntIntHashMap>() : null;
+    sumsByRow = counts ? null : new OpenIntObjectHashMap<OpenIntDoubleHashMap>();
+  }
+
+  void add(int rowA, int rowB, double value) {
+    if (counts) {
+      OpenIntIntHashMap rowCounts = countsByRow.get(rowA);
+      if (rowCounts == null) {
+        rowCounts = new OpenIntIntHashMap();
+        countsByRow.put(rowA, rowCounts);
+      }
+      int count = rowCounts.get(rowB);
+      if (count == 0) {
+        size++;
+      }
+      rowCounts.put(rowB, count + (int) value);
+    } else {
+      OpenIntDoubleHashMap rowSums = sumsByRow.get(rowA);
+      if (rowSums == null) {
+        rowSums = new OpenIntDoubleHashMap();
+        sumsByRow.put(rowA, rowSums);
+      }
+      if (!rowSums.containsKey(rowB)) {
+        size++;
+      }
+      rowSums.put(rowB, rowSums.get(rowB) + value);
+    }
+  }
+
+  boolean isFull() {
+    return size >= maxSize;
+  }
+
+  /**
+   * Writes the sums of each row as one vector, and empties the buffer.
+   */
+  void flush(Mapper<?,?,IntWritable,VectorWritable>.Context ctx) throws IOException, InterruptedException {
+    IntArrayList rows = counts ? countsByRow.keys() : sumsByRow.keys();
+    for (int i = 0; i < rows.size(); i++) {
+      int row = rows.getQuick(i);
+      final Vector dots;
+      if (counts) {
+        OpenIntIntHashMap rowCounts = countsByRow.get(row);
+        dots = new RandomAccessSparseVector(Integer.MAX_VALUE, rowCounts.size());
+        rowCounts.forEachPair(new IntIntProcedure() {
+          @Override
+          public boolean apply(int column, int count) {
+            dots.setQuick(column, count);
+            return true;
+          }
+        });
+      } else {
+        OpenIntDoubleHashMap rowSums = sumsByRow.get(row);
+        dots = new RandomAccessSparseVector(Integer.MAX_VALUE, rowSums.size());
+        rowSums.forEachPair(new IntDoubleProcedure() {
+          @Override
+          public boolean apply(int column, double sum) {
+            dots.setQuick(column, sum);
+            return true;
+          }
+        });
+      }
+      ctx.write(new IntWritable(row), new VectorWritable(dots));
+    }
+    if (counts) {
+      countsByRow.clear();
+    } else {
+      sumsByRow.clear();
+    }
+    size = 0;
+  }
+
+}
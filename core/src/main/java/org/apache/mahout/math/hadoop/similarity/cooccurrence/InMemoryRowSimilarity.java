@@ -0,0 +1,341 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math.hadoop.similarity.cooccurrence;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.mahout.cf.taste.common.TopK;
+import org.apache.mahout.common.Pair;
+import org.apache.mahout.common.ParallelTasks;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirIterable;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SparseRowMatrix;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.VectorSimilarityMeasure;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Computes the same top-k row similarities as {@link RowSimilarityJob}, with the same
+ * {@link VectorSimilarityMeasure}s, in a single JVM on all of its processors instead of with MapReduce.</p>
+ *
+ * <p>The normalized matrix is kept twice in primitive arrays, once row by row and once column by column. Rows are
+ * then handed out in blocks to a fixed number of threads: for each of its rows, a thread sums the aggregated
+ * co-occurrences with all other rows by walking the columns of the row, and keeps only the top-k similarities. Apart
+ * from the matrix and the results, memory is bounded by a few arrays with an entry per row for each thread.</p>
+ *
+ * <p>{@link #compute(Path, Path, int, Configuration)} reads and writes {@link SequenceFile}s of {@link IntWritable}s
+ * and {@link VectorWritable}s as {@link RowSimilarityJob} does, so it can stand in for it, e.g. in
+ * {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}.</p>
+ */
+public final class InMemoryRowSimilarity {
+
+  private static final Logger log = LoggerFactory.getLogger(InMemoryRowSimilarity.class);
+
+  /** rows per block handed out to a thread */
+  private static final int BLOCK_SIZE = 64;
+
+  private final VectorSimilarityMeasure similarity;
+  private final int maxSimilaritiesPerRow;
+  private final boolean excludeSelfSimilarity;
+  private final double threshold;
+  private final int numThreads;
+
+  /**
+   * @param threshold discard row pairs with a similarity below this, {@link RowSimilarityJob#NO_THRESHOLD} for none
+   */
+  public InMemoryRowSimilarity(VectorSimilarityMeasure similarity, int maxSimilaritiesPerRow,
+      boolean excludeSelfSimilarity, double threshold, int numThreads) {
+    Preconditions.checkArgument(maxSimilaritiesPerRow > 0, "Incorrect maximum number of similarities per row!");
+    Preconditions.checkArgument(numThreads > 0, "Incorrect number of threads!");
+    this.similarity = similarity;
+    this.maxSimilaritiesPerRow = maxSimilaritiesPerRow;
+    this.excludeSelfSimilarity = excludeSelfSimilarity;
+    this.threshold = threshold;
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * @return a square matrix holding the top-k similarities of each row of the given matrix
+   */
+  public Matrix compute(Matrix matrix) throws InterruptedException {
+    int numRows = matrix.numRows();
+    int[] rowIndices = new int[numRows];
+    Vector[] rows = new Vector[numRows];
+    for (int row = 0; row < numRows; row++) {
+      rowIndices[row] = row;
+      rows[row] = matrix.viewRow(row);
+    }
+    Vector[] similarities = similarities(rowIndices, rows, matrix.numCols(), numRows);
+    return new SparseRowMatrix(numRows, numRows, similarities, true, true);
+  }
+
+  /**
+   * Reads the rows of a matrix from {@link SequenceFile}s, and writes the top-k similarities of each row to a
+   * single {@link SequenceFile} named part-r-00000 in the output directory.
+   *
+   * @param input file or directory
+   * @param numberOfColumns number of columns of the matrix
+   */
+  public void compute(Path input, Path output, int numberOfColumns, Configuration conf)
+      throws IOException, InterruptedException {
+    List<Integer> indices = Lists.newArrayList();
+    List<Vector> rows = Lists.newArrayList();
+    for (Pair<IntWritable,VectorWritable> record : new SequenceFileDirIterable<IntWritable,VectorWritable>(input,
+        PathType.LIST, PathFilters.logsCRCFilter(), conf)) {
+      indices.add(record.getFirst().get());
+      rows.add(record.getSecond().get());
+    }
+    int[] rowIndices = new int[indices.size()];
+    for (int row = 0; row < rowIndices.length; row++) {
+      rowIndices[row] = indices.get(row);
+    }
+    Vector[] similarities = similarities(rowIndices, rows.toArray(new Vector[rows.size()]), numberOfColumns,
+        Integer.MAX_VALUE);
+
+    Path outputFile = new Path(output, "part-r-00000");
+    FileSystem fs = FileSystem.get(outputFile.toUri(), conf);
+    SequenceFile.Writer writer = new SequenceFile.Writer(fs, conf, outputFile, IntWritable.class,
+        VectorWritable.class);
+    try {
+      IntWritable row = new IntWritable();
+      VectorWritable vector = new VectorWritable();
+      for (int i = 0; i < rowIndices.length; i++) {
+        row.set(rowIndices[i]);
+        vector.set(similarities[i]);
+        writer.append(row, vector);
+      }
+    } finally {
+      Closeables.closeQuietly(writer);
+    }
+  }
+
+  /**
+   * @param rowIndices index of each row
+   * @param rows the rows, not changed
+   * @param cardinality cardinality of the resulting similarity vectors
+   * @return the top-k similarities of each row
+   */
+  private Vector[] similarities(int[] rowIndices, Vector[] rows, int numberOfColumns, int cardinality)
+      throws InterruptedException {
+    int numRows = rows.length;
+    double[] norms = new double[numRows];
+    int[] numNonZeroEntries = new int[numRows];
+    double[] maxValues = new double[numRows];
+
+    // normalized rows, in compressed sparse row layout over dense column ids
+    int[] rowOffsets = new int[numRows + 1];
+    int[] rowColumns = new int[16];
+    double[] rowValues = new double[16];
+    OpenIntIntHashMap columnIDs = new OpenIntIntHashMap();
+    int[] columnCounts = new int[16];
+    int numEntries = 0;
+    for (int row = 0; row < numRows; row++) {
+      Vector rowVector = similarity.normalize(rows[row]);
+      norms[row] = similarity.norm(rowVector);
+      double maxValue = Double.MIN_VALUE;
+      Iterator<Vector.Element> nonZeroElements = rowVector.iterateNonZero();
+      while (nonZeroElements.hasNext()) {
+        Vector.Element element = nonZeroElements.next();
+        int column;
+        if (columnIDs.containsKey(element.index())) {
+          column = columnIDs.get(element.index());
+        } else {
+          column = columnIDs.size();
+          columnIDs.put(element.index(), column);
+          if (column == columnCounts.length) {
+            columnCounts = Arrays.copyOf(columnCounts, 2 * column);
+          }
+        }
+        if (numEntries == rowColumns.length) {
+          rowColumns = Arrays.copyOf(rowColumns, 2 * numEntries);
+          rowValues = Arrays.copyOf(rowValues, 2 * numEntries);
+        }
+        rowColumns[numEntries] = column;
+        rowValues[numEntries] = element.get();
+        numEntries++;
+        columnCounts[column]++;
+        numNonZeroEntries[row]++;
+        if (maxValue < element.get()) {
+          maxValue = element.get();
+        }
+      }
+      maxValues[row] = maxValue;
+      rowOffsets[row + 1] = numEntries;
+    }
+
+    // the same, column by column, with the rows of each column in ascending order
+    int numColumns = columnIDs.size();
+    int[] columnOffsets = new int[numColumns + 1];
+    for (int column = 0; column < numColumns; column++) {
+      columnOffsets[column + 1] = columnOffsets[column] + columnCounts[column];
+    }
+    int[] columnRows = new int[numEntries];
+    double[] columnValues = new double[numEntries];
+    int[] columnFill = Arrays.copyOf(columnOffsets, numColumns);
+    for (int row = 0; row < numRows; row++) {
+      for (int i = rowOffsets[row]; i < rowOffsets[row + 1]; i++) {
+        int position = columnFill[rowColumns[i]]++;
+        columnRows[position] = row;
+        columnValues[position] = rowValues[i];
+      }
+    }
+
+    log.info("Computing similarities of {} rows with {} entries in {} columns", new Object[] { numRows, numEntries,
+        numColumns });
+
+    Vector[] similarities = new Vector[numRows];
+    AtomicInteger nextBlock = new AtomicInteger();
+    List<Callable<Void>> workers = Lists.newArrayList();
+    for (int n = 0; n < Math.min(numThreads, (numRows + BLOCK_SIZE - 1) / BLOCK_SIZE); n++) {
+      workers.add(new Worker(rowIndices, norms, numNonZeroEntries, maxValues, rowOffsets, rowColumns, rowValues,
+          columnOffsets, columnRows, columnValues, numberOfColumns, cardinality, nextBlock, similarities));
+    }
+
+    ParallelTasks.invokeAll(workers, workers.size(), RuntimeException.class);
+    return similarities;
+  }
+
+  /**
+   * Takes blocks of rows until there are none left, and computes the top-k similarities of each of their rows.
+   */
+  private final class Worker implements Callable<Void> {
+
+    private final int[] rowIndices;
+    private final double[] norms;
+    private final int[] numNonZeroEntries;
+    private final double[] maxValues;
+    private final int[] rowOffsets;
+    private final int[] rowColumns;
+    private final double[] rowValues;
+    private final int[] columnOffsets;
+    private final int[] columnRows;
+    private final double[] columnValues;
+    private final int numberOfColumns;
+    private final int cardinality;
+    private final AtomicInteger nextBlock;
+    private final Vector[] similarities;
+
+    Worker(int[] rowIndices, double[] norms, int[] numNonZeroEntries, double[] maxValues, int[] rowOffsets,
+        int[] rowColumns, double[] rowValues, int[] columnOffsets, int[] columnRows, double[] columnValues,
+        int numberOfColumns, int cardinality, AtomicInteger nextBlock, Vector[] similarities) {
+      this.rowIndices = rowIndices;
+      this.norms = norms;
+      this.numNonZeroEntries = numNonZeroEntries;
+      this.maxValues = maxValues;
+      this.rowOffsets = rowOffsets;
+      this.rowColumns = rowColumns;
+      this.rowValues = rowValues;
+      this.columnOffsets = columnOffsets;
+      this.columnRows = columnRows;
+      this.columnValues = columnValues;
+      this.numberOfColumns = numberOfColumns;
+      this.cardinality = cardinality;
+      this.nextBlock = nextBlock;
+      this.similarities = similarities;
+    }
+
+    @Override
+    public Void call() {
+      int numRows = rowIndices.length;
+      double[] dots = new double[numRows];
+      // the row whose dots were last summed up for each other row, so that dots need not be cleared
+      int[] summedFor = new int[numRows];
+      Arrays.fill(summedFor, -1);
+      int[] cooccurringRows = new int[numRows];
+
+      int from;
+      while ((from = nextBlock.getAndIncrement() * BLOCK_SIZE) < numRows) {
+        int to = Math.min(from + BLOCK_SIZE, numRows);
+        for (int rowA = from; rowA < to; rowA++) {
+          int numCooccurringRows = 0;
+          for (int i = rowOffsets[rowA]; i < rowOffsets[rowA + 1]; i++) {
+            int column = rowColumns[i];
+            double valueA = rowValues[i];
+            for (int j = columnOffsets[column]; j < columnOffsets[column + 1]; j++) {
+              int rowB = columnRows[j];
+              // RowSimilarityJob always sees the row with the lower index first
+              boolean aFirst = rowIndices[rowA] <= rowIndices[rowB];
+              int lower = aFirst ? rowA : rowB;
+              int higher = aFirst ? rowB : rowA;
+              if (threshold != RowSimilarityJob.NO_THRESHOLD && !similarity.consider(numNonZeroEntries[lower],
+                  numNonZeroEntries[higher], maxValues[lower], maxValues[higher], threshold)) {
+                continue;
+              }
+              double aggregate = aFirst
+                  ? similarity.aggregate(valueA, columnValues[j])
+                  : similarity.aggregate(columnValues[j], valueA);
+              if (summedFor[rowB] == rowA) {
+                dots[rowB] += aggregate;
+              } else {
+                summedFor[rowB] = rowA;
+                dots[rowB] = aggregate;
+                cooccurringRows[numCooccurringRows++] = rowB;
+              }
+            }
+          }
+          similarities[rowA] = topKSimilarities(rowA, dots, cooccurringRows, numCooccurringRows);
+        }
+      }
+      return null;
+    }
+
+    private Vector topKSimilarities(int rowA, double[] dots, int[] cooccurringRows, int numCooccurringRows) {
+      TopK<Vector.Element> topKQueue = new TopK<Vector.Element>(maxSimilaritiesPerRow, Vectors.BY_VALUE);
+      for (int n = 0; n < numCooccurringRows; n++) {
+        int rowB = cooccurringRows[n];
+        if (dots[rowB] == 0.0 || (excludeSelfSimilarity && rowB == rowA)) {
+          continue;
+        }
+        boolean aFirst = rowIndices[rowA] <= rowIndices[rowB];
+        double similarityValue = aFirst
+            ? similarity.similarity(dots[rowB], norms[rowA], norms[rowB], numberOfColumns)
+            : similarity.similarity(dots[rowB], norms[rowB], norms[rowA], numberOfColumns);
+        if (similarityValue >= threshold) {
+          topKQueue.offer(new Vectors.TemporaryElement(rowIndices[rowB], similarityValue));
+        }
+      }
+      List<Vector.Element> topK = topKQueue.retrieve();
+      Vector topKSimilarities = new RandomAccessSparseVector(cardinality, topK.size());
+      for (Vector.Element element : topK) {
+        topKSimilarities.setQuick(element.index(), element.get());
+      }
+      return topKSimilarities;
+    }
+  }
+
+}
@@ -29,10 +29,13 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.mahout.cf.taste.common.TopK;
 import org.apache.mahout.common.AbstractJob;
 import org.apache.mahout.common.ClassUtils;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.common.mapreduce.VectorSumReducer;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.CosineSimilarity;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.CountbasedMeasure;
 import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.VectorSimilarityMeasures;
 import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.VectorSimilarityMeasure;
 import org.apache.mahout.math.map.OpenIntIntHashMap;
@@ -43,8 +46,29 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * <p>Computes the pairwise similarities of the rows of a matrix.</p>
+ *
+ * <p>Optionally, co-occurrences can be sampled in the manner of DIMSUM (Zadeh and Goel, "Dimension Independent
+ * Similarity Computation"), so that rows with a large magnitude no longer dominate the shuffle: given a sampling
+ * threshold {@code s}, the partial dot product of rows {@code a} and {@code b} in a column is emitted only with
+ * probability {@code min(1, gamma / (|a| |b|))}, and then weighted by its inverse, where {@code gamma = 4 log(n) / s}
+ * and {@code n} is the number of rows. The estimates are unbiased, and with high probability all similarities of at
+ * least {@code s} are estimated within a constant relative error, while the expected number of partial dot products
+ * emitted per row no longer depends on the number of columns. A lower {@code s} buys accuracy with shuffle size.
+ * Sampling works with {@link CosineSimilarity}, where {@code |a|} is the euclidean norm of the row divided by its
+ * largest absolute entry, and with the count based measures as
+ * {@link org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.TanimotoCoefficientSimilarity} and
+ * {@link org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.LoglikelihoodSimilarity}, where it is the
+ * square root of the number of non-zero entries, so that the estimated co-occurrence counts carry the guarantee for
+ * all pairs whose binary cosine, which is never smaller than their Tanimoto coefficient, is at least {@code s}.</p>
+ *
+ * <p>Independently of that, the partial dot products can be summed in an in-mapper combiner over all columns a mapper
+ * sees, instead of being emitted as one vector per row and column.</p>
+ */
 public class RowSimilarityJob extends AbstractJob {
 
   public static final double NO_THRESHOLD = Double.MIN_VALUE;
@@ -59,13 +83,21 @@ public class RowSimilarityJob extends AbstractJob {
   static final String MAXVALUES_PATH = RowSimilarityJob.class + ".maxWeightsPath";
 
   static final String NUM_NON_ZERO_ENTRIES_PATH = RowSimilarityJob.class + ".nonZeroEntriesPath";
+
+  static final String SAMPLING_THRESHOLD = RowSimilarityJob.class + ".samplingThreshold";
+  static final String MAGNITUDES_PATH = RowSimilarityJob.class + ".magnitudesPath";
+  static final String IN_MAPPER_COMBINER = RowSimilarityJob.class + ".inMapperCombiner";
+  static final String MAX_BUFFERED_COOCCURRENCES = RowSimilarityJob.class + ".maxBufferedCooccurrences";
+
   private static final int DEFAULT_MAX_SIMILARITIES_PER_ROW = 100;
+  private static final int DEFAULT_MAX_BUFFERED_COOCCURRENCES = 1 << 19;
 
   private static final int NORM_VECTOR_MARKER = Integer.MIN_VALUE;
   private static final int MAXVALUE_VECTOR_MARKER = Integer.MIN_VALUE + 1;
   private static final int NUM_NON_ZERO_ENTRIES_VECTOR_MARKER = Integer.MIN_VALUE + 2;
+  private static final int MAGNITUDE_VECTOR_MARKER = Integer.MIN_VALUE + 3;
 
-  enum Counters { ROWS, COOCCURRENCES, PRUNED_COOCCURRENCES }
+  enum Counters { ROWS, COOCCURRENCES, PRUNED_COOCCURRENCES, SAMPLED_OUT_COOCCURRENCES }
 
   public static void main(String[] args) throws Exception {
     ToolRunner.run(new RowSimilarityJob(), args);
@@ -84,6 +116,9 @@ public class RowSimilarityJob extends AbstractJob {
         + DEFAULT_MAX_SIMILARITIES_PER_ROW + ')', String.valueOf(DEFAULT_MAX_SIMILARITIES_PER_ROW));
     addOption("excludeSelfSimilarity", "ess", "compute similarity of rows to themselves?", String.valueOf(false));
     addOption("threshold", "tr", "discard row pairs with a similarity value below this", false);
+    addOption("samplingThreshold", "st", "sample co-occurrences DIMSUM-style, such that similarities of at least "
+        + "this value are estimated accurately (cosine and count based similarities only)", false);
+    addOption("inMapperCombiner", "imc", "sum up partial dot products in the mappers?", String.valueOf(false));
 
     Map<String,List<String>> parsedArgs = parseArguments(args);
     if (parsedArgs == null) {
@@ -103,11 +138,22 @@ public class RowSimilarityJob extends AbstractJob {
     boolean excludeSelfSimilarity = Boolean.parseBoolean(getOption("excludeSelfSimilarity"));
     double threshold = hasOption("threshold") ?
         Double.parseDouble(getOption("threshold")) : NO_THRESHOLD;
+    boolean inMapperCombiner = Boolean.parseBoolean(getOption("inMapperCombiner"));
+
+    String samplingThreshold = getOption("samplingThreshold");
+    if (samplingThreshold != null) {
+      double samplingThresholdValue = Double.parseDouble(samplingThreshold);
+      Preconditions.checkArgument(samplingThresholdValue > 0.0 && samplingThresholdValue <= 1.0,
+          "Sampling threshold must be in (0,1]!");
+      Preconditions.checkArgument(supportsSampling(ClassUtils.instantiateAs(similarityClassname,
+          VectorSimilarityMeasure.class)), "Sampling is not supported for " + similarityClassname);
+    }
 
     Path weightsPath = getTempPath("weights");
     Path normsPath = getTempPath("norms.bin");
     Path numNonZeroEntriesPath = getTempPath("numNonZeroEntries.bin");
     Path maxValuesPath = getTempPath("maxValues.bin");
+    Path magnitudesPath = getTempPath("magnitudes.bin");
     Path pairwiseSimilarityPath = getTempPath("pairwiseSimilarity");
 
     AtomicInteger currentPhase = new AtomicInteger();
@@ -122,6 +168,10 @@ public class RowSimilarityJob extends AbstractJob {
       normsAndTransposeConf.set(NUM_NON_ZERO_ENTRIES_PATH, numNonZeroEntriesPath.toString());
       normsAndTransposeConf.set(MAXVALUES_PATH, maxValuesPath.toString());
       normsAndTransposeConf.set(SIMILARITY_CLASSNAME, similarityClassname);
+      if (samplingThreshold != null) {
+        normsAndTransposeConf.set(SAMPLING_THRESHOLD, samplingThreshold);
+        normsAndTransposeConf.set(MAGNITUDES_PATH, magnitudesPath.toString());
+      }
       boolean succeeded = normsAndTranspose.waitForCompletion(true);
       if (!succeeded) {
         return -1;
@@ -140,6 +190,11 @@ public class RowSimilarityJob extends AbstractJob {
       pairwiseConf.set(SIMILARITY_CLASSNAME, similarityClassname);
       pairwiseConf.setInt(NUMBER_OF_COLUMNS, numberOfColumns);
       pairwiseConf.setBoolean(EXCLUDE_SELF_SIMILARITY, excludeSelfSimilarity);
+      pairwiseConf.setBoolean(IN_MAPPER_COMBINER, inMapperCombiner);
+      if (samplingThreshold != null) {
+        pairwiseConf.set(SAMPLING_THRESHOLD, samplingThreshold);
+        pairwiseConf.set(MAGNITUDES_PATH, magnitudesPath.toString());
+      }
       boolean succeeded = pairwiseSimilarity.waitForCompletion(true);
       if (!succeeded) {
         return -1;
@@ -161,12 +216,29 @@ public class RowSimilarityJob extends AbstractJob {
     return 0;
   }
 
+  static boolean supportsSampling(VectorSimilarityMeasure similarity) {
+    return similarity instanceof CosineSimilarity || similarity instanceof CountbasedMeasure;
+  }
+
+  /**
+   * @return the magnitude of a row which determines how heavily its co-occurrences are sampled: the euclidean norm
+   *  of the row scaled to entries in [-1,1], as the error bound of DIMSUM presumes, which leaves cosines unchanged
+   */
+  static double samplingMagnitude(VectorSimilarityMeasure similarity, Vector row) {
+    if (similarity instanceof CountbasedMeasure) {
+      return Math.sqrt(row.getNumNondefaultElements());
+    }
+    double maxAbsValue = row.norm(Double.POSITIVE_INFINITY);
+    return maxAbsValue == 0.0 ? 0.0 : row.norm(2) / maxAbsValue;
+  }
+
   public static class VectorNormMapper extends Mapper<IntWritable,VectorWritable,IntWritable,VectorWritable> {
 
     private VectorSimilarityMeasure similarity;
     private Vector norms;
     private Vector nonZeroEntries;
     private Vector maxValues;
+    private Vector magnitudes;
     private double threshold;
 
     @Override
@@ -176,6 +248,9 @@ public class RowSimilarityJob extends AbstractJob {
       norms = new RandomAccessSparseVector(Integer.MAX_VALUE);
       nonZeroEntries = new RandomAccessSparseVector(Integer.MAX_VALUE);
       maxValues = new RandomAccessSparseVector(Integer.MAX_VALUE);
+      if (ctx.getConfiguration().get(SAMPLING_THRESHOLD) != null) {
+        magnitudes = new RandomAccessSparseVector(Integer.MAX_VALUE);
+      }
       threshold = Double.parseDouble(ctx.getConfiguration().get(THRESHOLD));
     }
 
@@ -183,6 +258,9 @@ public class RowSimilarityJob extends AbstractJob {
     protected void map(IntWritable row, VectorWritable vectorWritable, Context ctx)
         throws IOException, InterruptedException {
 
+      if (magnitudes != null) {
+        magnitudes.setQuick(row.get(), samplingMagnitude(similarity, vectorWritable.get()));
+      }
       Vector rowVector = similarity.normalize(vectorWritable.get());
 
       int numNonZeroEntries = 0;
@@ -217,6 +295,9 @@ public class RowSimilarityJob extends AbstractJob {
       ctx.write(new IntWritable(NORM_VECTOR_MARKER), new VectorWritable(norms));
       ctx.write(new IntWritable(NUM_NON_ZERO_ENTRIES_VECTOR_MARKER), new VectorWritable(nonZeroEntries));
       ctx.write(new IntWritable(MAXVALUE_VECTOR_MARKER), new VectorWritable(maxValues));
+      if (magnitudes != null) {
+        ctx.write(new IntWritable(MAGNITUDE_VECTOR_MARKER), new VectorWritable(magnitudes));
+      }
     }
   }
 
@@ -233,12 +314,15 @@ public class RowSimilarityJob extends AbstractJob {
     private Path normsPath;
     private Path numNonZeroEntriesPath;
     private Path maxValuesPath;
+    private Path magnitudesPath;
 
     @Override
     protected void setup(Context ctx) throws IOException, InterruptedException {
       normsPath = new Path(ctx.getConfiguration().get(NORMS_PATH));
       numNonZeroEntriesPath = new Path(ctx.getConfiguration().get(NUM_NON_ZERO_ENTRIES_PATH));
       maxValuesPath = new Path(ctx.getConfiguration().get(MAXVALUES_PATH));
+      String magnitudes = ctx.getConfiguration().get(MAGNITUDES_PATH);
+      magnitudesPath = magnitudes != null ? new Path(magnitudes) : null;
     }
 
     @Override
@@ -252,6 +336,8 @@ public class RowSimilarityJob extends AbstractJob {
         Vectors.write(partialVector, maxValuesPath, ctx.getConfiguration());
       } else if (row.get() == NUM_NON_ZERO_ENTRIES_VECTOR_MARKER) {
         Vectors.write(partialVector, numNonZeroEntriesPath, ctx.getConfiguration(), true);
+      } else if (row.get() == MAGNITUDE_VECTOR_MARKER) {
+        Vectors.write(partialVector, magnitudesPath, ctx.getConfiguration());
       } else {
         ctx.write(row, new VectorWritable(partialVector));
       }
@@ -267,6 +353,12 @@ public class RowSimilarityJob extends AbstractJob {
     private Vector maxValues;
     private double threshold;
 
+    private Vector magnitudes;
+    private double gamma;
+    private Random random;
+
+    private CooccurrenceBuffer buffer;
+
     private static final Comparator<Vector.Element> BY_INDEX = new Comparator<Vector.Element>() {
       @Override
       public int compare(Vector.Element one, Vector.Element two) {
@@ -282,6 +374,29 @@ public class RowSimilarityJob extends AbstractJob {
           ctx.getConfiguration());
       maxValues = Vectors.read(new Path(ctx.getConfiguration().get(MAXVALUES_PATH)), ctx.getConfiguration());
       threshold = Double.parseDouble(ctx.getConfiguration().get(THRESHOLD));
+
+      String samplingThreshold = ctx.getConfiguration().get(SAMPLING_THRESHOLD);
+      if (samplingThreshold != null) {
+        magnitudes = Vectors.read(new Path(ctx.getConfiguration().get(MAGNITUDES_PATH)), ctx.getConfiguration());
+        int numRows = Math.max(2, magnitudes.getNumNondefaultElements());
+        gamma = 4.0 * Math.log(numRows) / Double.parseDouble(samplingThreshold);
+        random = RandomUtils.getRandom();
+      }
+
+      if (ctx.getConfiguration().getBoolean(IN_MAPPER_COMBINER, false)) {
+        // sampled co-occurrences are weighted, so they are only counts without sampling
+        buffer = new CooccurrenceBuffer(similarity instanceof CountbasedMeasure && magnitudes == null,
+            ctx.getConfiguration().getInt(MAX_BUFFERED_COOCCURRENCES, DEFAULT_MAX_BUFFERED_COOCCURRENCES));
+      }
+    }
+
+    /**
+     * @return probability with which a co-occurrence of the two rows is emitted
+     */
+    private double samplingProbability(Vector.Element occurrenceA, Vector.Element occurrenceB) {
+      double magnitudeA = magnitudes.getQuick(occurrenceA.index());
+      double magnitudeB = magnitudes.getQuick(occurrenceB.index());
+      return Math.min(1.0, gamma / (magnitudeA * magnitudeB));
     }
 
     private boolean consider(Vector.Element occurrenceA, Vector.Element occurrenceB) {
@@ -302,22 +417,53 @@ public class RowSimilarityJob extends AbstractJob {
 
       int cooccurrences = 0;
       int prunedCooccurrences = 0;
+      int sampledOutCooccurrences = 0;
       for (int n = 0; n < occurrences.length; n++) {
         Vector.Element occurrenceA = occurrences[n];
-        Vector dots = new RandomAccessSparseVector(Integer.MAX_VALUE);
+        Vector dots = buffer == null ? new RandomAccessSparseVector(Integer.MAX_VALUE) : null;
         for (int m = n; m < occurrences.length; m++) {
           Vector.Element occurrenceB = occurrences[m];
           if (threshold == NO_THRESHOLD || consider(occurrenceA, occurrenceB)) {
-            dots.setQuick(occurrenceB.index(), similarity.aggregate(occurrenceA.get(), occurrenceB.get()));
+            double aggregate = similarity.aggregate(occurrenceA.get(), occurrenceB.get());
+            // a row always co-occurs with itself, there is nothing to gain from sampling that
+            if (magnitudes != null && m != n) {
+              double probability = samplingProbability(occurrenceA, occurrenceB);
+              if (probability < 1.0) {
+                if (random.nextDouble() >= probability) {
+                  sampledOutCooccurrences++;
+                  continue;
+                }
+                aggregate /= probability;
+              }
+            }
+            if (buffer == null) {
+              dots.setQuick(occurrenceB.index(), aggregate);
+            } else {
+              buffer.add(occurrenceA.index(), occurrenceB.index(), aggregate);
+            }
             cooccurrences++;
           } else {
             prunedCooccurrences++;
           }
         }
-        ctx.write(new IntWritable(occurrenceA.index()), new VectorWritable(dots));
+        if (buffer == null) {
+          ctx.write(new IntWritable(occurrenceA.index()), new VectorWritable(dots));
+        }
+      }
+      if (buffer != null && buffer.isFull()) {
+        buffer.flush(ctx);
       }
       ctx.getCounter(Counters.COOCCURRENCES).increment(cooccurrences);
       ctx.getCounter(Counters.PRUNED_COOCCURRENCES).increment(prunedCooccurrences);
+      ctx.getCounter(Counters.SAMPLED_OUT_COOCCURRENCES).increment(sampledOutCooccurrences);
+    }
+
+    @Override
+    protected void cleanup(Context ctx) throws IOException, InterruptedException {
+      if (buffer != null) {
+        buffer.flush(ctx);
+      }
+      super.cleanup(ctx);
     }
   }
 
@@ -330,6 +476,7 @@ public class RowSimilarityJob extends AbstractJob {
     private boolean excludeSelfSimilarity;
     private Vector norms;
     private double treshold;
+    private boolean sampled;
 
     @Override
     protected void setup(Context ctx) throws IOException, InterruptedException {
@@ -340,6 +487,7 @@ public class RowSimilarityJob extends AbstractJob {
       excludeSelfSimilarity = ctx.getConfiguration().getBoolean(EXCLUDE_SELF_SIMILARITY, false);
       norms = Vectors.read(new Path(ctx.getConfiguration().get(NORMS_PATH)), ctx.getConfiguration());
       treshold = Double.parseDouble(ctx.getConfiguration().get(THRESHOLD));
+      sampled = ctx.getConfiguration().get(SAMPLING_THRESHOLD) != null;
     }
 
     @Override
@@ -361,7 +509,9 @@ public class RowSimilarityJob extends AbstractJob {
       Iterator<Vector.Element> dotsWith = dots.iterateNonZero();
       while (dotsWith.hasNext()) {
         Vector.Element b = dotsWith.next();
-        double similarityValue = similarity.similarity(b.get(), normA, norms.getQuick(b.index()), numberOfColumns);
+        double normB = norms.getQuick(b.index());
+        double dot = sampled ? boundEstimate(b.get(), normA, normB) : b.get();
+        double similarityValue = similarity.similarity(dot, normA, normB, numberOfColumns);
         if (similarityValue >= treshold) {
           similarities.set(b.index(), similarityValue);
         }
@@ -371,6 +521,18 @@ public class RowSimilarityJob extends AbstractJob {
       }
       ctx.write(row, new VectorWritable(similarities));
     }
+
+    /**
+     * keeps a sampled estimate within the range of the value it estimates
+     */
+    private double boundEstimate(double dot, double normA, double normB) {
+      if (similarity instanceof CountbasedMeasure) {
+        // norms are the numbers of non-zero entries here
+        return Math.min(Math.round(dot), Math.min(normA, normB));
+      }
+      // dot product of two unit vectors
+      return Math.min(dot, 1.0);
+    }
   }
 
   public static class UnsymmetrifyMapper extends Mapper<IntWritable,VectorWritable,IntWritable,VectorWritable>  {
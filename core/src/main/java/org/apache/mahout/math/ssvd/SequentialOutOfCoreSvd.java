@@ -116,9 +116,9 @@ public class SequentialOutOfCoreSvd {
       Matrix y = aI.times(omega);
 
       if (y2 == null) {
-        y2 = y.transpose().times(y);
+        y2 = y.transposeTimes(y);
       } else {
-        y2.assign(y.transpose().times(y), Functions.PLUS);
+        y2.assign(y.transposeTimes(y), Functions.PLUS);
       }
     }
     r2 = new CholeskyDecomposition(y2);
@@ -140,7 +140,7 @@ public class SequentialOutOfCoreSvd {
       for (int j = 0; j < aI.numCols(); j += columnsPerSlice) {
         Matrix yI = aI.times(omega);
         Matrix aIJ = aI.viewPart(0, aI.rowSize(), j, Math.min(columnsPerSlice, aI.columnSize() - j));
-        Matrix bIJ = r2.solveRight(yI).transpose().times(aIJ);
+        Matrix bIJ = r2.solveRight(yI).transposeTimes(aIJ);
         addToSavedCopy(bFile(tmpDir, j), bIJ);
       }
     }
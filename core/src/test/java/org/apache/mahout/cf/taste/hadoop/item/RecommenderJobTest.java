@@ -881,6 +881,73 @@ public class RecommenderJobTest extends TasteTestCase {
    }
 
 
+  /**
+   * the map-side join must recommend what the reduce-side join does
+   */
+  @Test
+  public void testCompleteJobMapSideJoin() throws Exception {
+    String[] prefs = { "1,1,5", "1,2,5", "1,3,2", "2,1,2", "2,3,3", "2,4,5", "3,2,5", "3,4,3", "4,1,3", "4,4,5" };
+    assertSameWithMapSideJoin("all", prefs, "--similarityClassname", TanimotoCoefficientSimilarity.class.getName(),
+        "--numRecommendations", "4");
+
+    File userFile = getTestTempFile("users.txt");
+    File filterFile = getTestTempFile("filter.txt");
+    writeLines(userFile, "3", "4");
+    writeLines(filterFile, "4,2");
+    assertSameWithMapSideJoin("filtered", prefs, "--similarityClassname",
+        TanimotoCoefficientSimilarity.class.getName(), "--numRecommendations", "1",
+        "--usersFile", userFile.getAbsolutePath(), "--filterFile", filterFile.getAbsolutePath());
+  }
+
+  @Test
+  public void testCompleteJobBooleanMapSideJoin() throws Exception {
+    String[] prefs = { "1,1", "1,2", "1,3", "2,1", "2,3", "2,4", "3,2", "3,4", "4,1", "4,4" };
+    assertSameWithMapSideJoin("boolean", prefs, "--similarityClassname", CooccurrenceCountSimilarity.class.getName(),
+        "--booleanData", "true");
+  }
+
+  private void assertSameWithMapSideJoin(String name, String[] prefs, String... args) throws Exception {
+    File inputFile = getTestTempFile(name + "-prefs.txt");
+    writeLines(inputFile, prefs);
+    Map<Long,List<RecommendedItem>> expected =
+        readRecommendations(new File(runCompleteJob(inputFile, name + "-reduceSide", args), "part-r-00000"));
+    String[] mapSideArgs = Arrays.copyOf(args, args.length + 2);
+    mapSideArgs[args.length] = "--mapSideJoin";
+    mapSideArgs[args.length + 1] = "true";
+    Map<Long,List<RecommendedItem>> actual =
+        readRecommendations(new File(runCompleteJob(inputFile, name + "-mapSide", mapSideArgs), "part-m-00000"));
+
+    assertFalse(expected.isEmpty());
+    assertEquals(expected.keySet(), actual.keySet());
+    for (Entry<Long,List<RecommendedItem>> entry : expected.entrySet()) {
+      List<RecommendedItem> expectedItems = entry.getValue();
+      List<RecommendedItem> actualItems = actual.get(entry.getKey());
+      assertEquals(expectedItems.size(), actualItems.size());
+      for (int i = 0; i < expectedItems.size(); i++) {
+        assertEquals(expectedItems.get(i).getItemID(), actualItems.get(i).getItemID());
+        assertEquals(expectedItems.get(i).getValue(), actualItems.get(i).getValue(), EPSILON);
+      }
+    }
+  }
+
+  private File runCompleteJob(File inputFile, String name, String... args) throws Exception {
+    File outputDir = getTestTempDir(name + "-output");
+    outputDir.delete();
+    File tmpDir = getTestTempDir(name + "-tmp");
+
+    RecommenderJob recommenderJob = new RecommenderJob();
+    Configuration conf = new Configuration();
+    conf.set("mapred.input.dir", inputFile.getAbsolutePath());
+    conf.set("mapred.output.dir", outputDir.getAbsolutePath());
+    conf.setBoolean("mapred.output.compress", false);
+    recommenderJob.setConf(conf);
+
+    String[] allArgs = Arrays.copyOf(new String[] { "--tempDir", tmpDir.getAbsolutePath() }, args.length + 2);
+    System.arraycopy(args, 0, allArgs, 2, args.length);
+    recommenderJob.run(allArgs);
+    return outputDir;
+  }
+
   static Map<Long,List<RecommendedItem>> readRecommendations(File file) throws IOException {
     Map<Long,List<RecommendedItem>> recommendations = Maps.newHashMap();
     Iterable<String> lineIterable = new FileLineIterable(file);
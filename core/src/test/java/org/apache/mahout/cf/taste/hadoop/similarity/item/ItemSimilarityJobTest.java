@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.regex.Pattern;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ObjectArrays;
 import com.google.common.io.Files;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DoubleWritable;
@@ -112,6 +113,18 @@ public final class ItemSimilarityJobTest extends TasteTestCase {
    */
   @Test
   public void testCompleteJob() throws Exception {
+    runCompleteJob();
+  }
+
+  /**
+   * the same, computing the similarities in memory
+   */
+  @Test
+  public void testCompleteJobInMemory() throws Exception {
+    runCompleteJob("--inMemory", String.valueOf(true));
+  }
+
+  private void runCompleteJob(String... args) throws Exception {
 
     File inputFile = getTestTempFile("prefs.txt");
     File outputDir = getTestTempDir("output");
@@ -134,8 +147,8 @@ public final class ItemSimilarityJobTest extends TasteTestCase {
 
     similarityJob.setConf(conf);
 
-    similarityJob.run(new String[] { "--tempDir", tmpDir.getAbsolutePath(), "--similarityClassname",
-       CosineSimilarity.class.getName() });
+    similarityJob.run(ObjectArrays.concat(new String[] { "--tempDir", tmpDir.getAbsolutePath(),
+        "--similarityClassname", CosineSimilarity.class.getName() }, args, String.class));
 
     File outPart = outputDir.listFiles(new FilenameFilter() {
       @Override
@@ -22,7 +22,16 @@ import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
 
 public final class CacheTest extends TasteTestCase {
 
@@ -52,6 +61,158 @@ public final class CacheTest extends TasteTestCase {
     }
   }
   
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws TasteException {
+    CountingRetriever retriever = new CountingRetriever();
+    // 16 segments of 3 entries; all keys collide into one segment
+    Cache<CollidingKey,Object> cache = new Cache<CollidingKey,Object>(retriever, 48);
+    CollidingKey a = new CollidingKey(1);
+    CollidingKey b = new CollidingKey(2);
+    cache.get(a);
+    cache.get(b);
+    cache.get(new CollidingKey(3));
+    cache.get(a);
+    cache.get(new CollidingKey(4));
+    assertEquals(4, retriever.count.get());
+    cache.get(a);
+    assertEquals(4, retriever.count.get());
+    cache.get(b);
+    assertEquals(5, retriever.count.get());
+    assertEquals(3, cache.size());
+    assertEquals(2, cache.getStats().getEvictionCount());
+  }
+
+  @Test
+  public void testNullValuesAreCached() throws TasteException {
+    final AtomicInteger count = new AtomicInteger();
+    Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) {
+        count.incrementAndGet();
+        return null;
+      }
+    });
+    assertNull(cache.get(1));
+    assertNull(cache.get(1));
+    assertEquals(1, count.get());
+  }
+
+  @Test
+  public void testFailedLoadsAreNotCached() throws TasteException {
+    final AtomicInteger count = new AtomicInteger();
+    Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) throws TasteException {
+        if (count.incrementAndGet() == 1) {
+          throw new TasteException("first load fails");
+        }
+        return key;
+      }
+    });
+    try {
+      cache.get(1);
+      fail();
+    } catch (TasteException te) {
+      // expected
+    }
+    assertEquals(1, cache.get(1));
+    Cache.Stats stats = cache.getStats();
+    assertEquals(1, stats.getLoadFailureCount());
+    assertEquals(1, stats.getLoadSuccessCount());
+    assertEquals(0, stats.getHitCount());
+    assertEquals(2, stats.getMissCount());
+  }
+
+  @Test
+  public void testStats() throws TasteException {
+    Cache<Object,Object> cache = new Cache<Object,Object>(new IdentityRetriever(), 1000);
+    for (int i = 0; i < 10; i++) {
+      cache.get(i % 4);
+    }
+    Cache.Stats stats = cache.getStats();
+    assertEquals(6, stats.getHitCount());
+    assertEquals(4, stats.getMissCount());
+    assertEquals(4, stats.getLoadSuccessCount());
+    assertEquals(0.6, stats.getHitRate(), EPSILON);
+    assertEquals(0, stats.getEvictionCount());
+    cache.remove(0);
+    assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void testConcurrentMissesLoadOnce() throws Exception {
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger count = new AtomicInteger();
+    final Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) {
+        count.incrementAndGet();
+        loading.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new IllegalStateException(ie);
+        }
+        return key;
+      }
+    });
+    int numThreads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Object>> results = Lists.newArrayList();
+      for (int i = 0; i < numThreads; i++) {
+        results.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws TasteException {
+            return cache.get(42);
+          }
+        }));
+      }
+      loading.await();
+      // give the other threads time to find the load in progress
+      while (cache.getStats().getMissCount() < numThreads) {
+        Thread.sleep(1L);
+      }
+      release.countDown();
+      for (Future<Object> result : results) {
+        assertEquals(42, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(1, count.get());
+    assertEquals(1, cache.getStats().getLoadSuccessCount());
+  }
+
+  private static final class CollidingKey {
+    private final int id;
+
+    CollidingKey(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+      return 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof CollidingKey && ((CollidingKey) other).id == id;
+    }
+  }
+
+  private static final class CountingRetriever implements Retriever<Object,Object> {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Object get(Object key) {
+      count.incrementAndGet();
+      return key;
+    }
+  }
+
   private static class IdentityRetriever implements Retriever<Object,Object> {
     @Override
     public Object get(Object key) throws TasteException {
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class CompressedBitmapTest extends TasteTestCase {
+
+  /** random sorted distinct values below max, each present with the given probability */
+  private static int[] randomValues(Random random, int max, double density) {
+    int[] values = new int[16];
+    int length = 0;
+    for (int value = 0; value < max; value++) {
+      if (random.nextDouble() < density) {
+        if (length == values.length) {
+          int[] grown = new int[2 * length];
+          System.arraycopy(values, 0, grown, 0, length);
+          values = grown;
+        }
+        values[length++] = value;
+      }
+    }
+    int[] result = new int[length];
+    System.arraycopy(values, 0, result, 0, length);
+    return result;
+  }
+
+  private static FastIDSet toSet(int[] values) {
+    FastIDSet set = new FastIDSet(values.length);
+    for (int value : values) {
+      set.add(value);
+    }
+    return set;
+  }
+
+  @Test
+  public void testEmpty() {
+    CompressedBitmap empty = CompressedBitmap.valueOf(new int[0], 0);
+    assertEquals(0, empty.cardinality());
+    assertFalse(empty.contains(0));
+    assertEquals(0, empty.intersectionSize(CompressedBitmap.valueOf(new int[] {0, 1}, 2)));
+  }
+
+  @Test
+  public void testContains() {
+    int[] values = {0, 3, 65535, 65536, 200000, Integer.MAX_VALUE};
+    CompressedBitmap bitmap = CompressedBitmap.valueOf(values, values.length);
+    assertEquals(values.length, bitmap.cardinality());
+    for (int value : values) {
+      assertTrue(bitmap.contains(value));
+    }
+    assertFalse(bitmap.contains(1));
+    assertFalse(bitmap.contains(65537));
+    assertFalse(bitmap.contains(-1));
+  }
+
+  @Test
+  public void testPrefix() {
+    CompressedBitmap bitmap = CompressedBitmap.valueOf(new int[] {1, 2, 3}, 2);
+    assertEquals(2, bitmap.cardinality());
+    assertFalse(bitmap.contains(3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsorted() {
+    CompressedBitmap.valueOf(new int[] {2, 1}, 2);
+  }
+
+  @Test
+  public void testIntersectionSize() {
+    Random random = RandomUtils.getRandom();
+    // mixes sparse and dense groups, so that every kind of group meets every other kind
+    double[] densities = {0.001, 0.02, 0.2, 0.9};
+    for (double density1 : densities) {
+      for (double density2 : densities) {
+        int[] values1 = randomValues(random, 200000, density1);
+        int[] values2 = randomValues(random, 200000, density2);
+        CompressedBitmap bitmap1 = CompressedBitmap.valueOf(values1, values1.length);
+        CompressedBitmap bitmap2 = CompressedBitmap.valueOf(values2, values2.length);
+        FastIDSet set2 = toSet(values2);
+        int expected = set2.intersectionSize(toSet(values1));
+        assertEquals(expected, bitmap1.intersectionSize(bitmap2));
+        assertEquals(expected, bitmap2.intersectionSize(bitmap1));
+        assertEquals(values1.length, bitmap1.intersectionSize(bitmap1));
+        for (int value : values2) {
+          assertTrue(bitmap2.contains(value));
+        }
+      }
+    }
+  }
+
+}
@@ -18,12 +18,17 @@
 package org.apache.mahout.cf.taste.impl.eval;
 
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.DataModelBuilder;
 import org.apache.mahout.cf.taste.eval.IRStatistics;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
+import org.apache.mahout.cf.taste.eval.RelevantItemsDataSplitter;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.junit.Test;
 
@@ -45,6 +50,51 @@ public final class GenericRecommenderIRStatsEvaluatorImplTest extends TasteTestC
     assertEquals(0.75, stats.getRecall(), EPSILON);
     assertEquals(0.75, stats.getF1Measure(), EPSILON);
     assertEquals(0.75, stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
+    assertEquals(0.75, ((IRStatisticsImpl) stats).getMeanAveragePrecision(), EPSILON);
+  }
+
+  @Test
+  public void testSameInParallelAndWithRebuiltModels() throws Exception {
+    DataModel model = getDataModel(
+        new long[] {1, 2, 3, 4, 5, 6},
+        new Double[][] {
+            {5.0, 4.0, 3.0, 2.0, 1.0, 3.0},
+            {1.0, 5.0, null, 4.0, 2.0, 3.0},
+            {4.0, null, 5.0, 1.0, 3.0, 2.0},
+            {2.0, 3.0, 4.0, null, 5.0, 1.0},
+            {3.0, 1.0, 2.0, 5.0, null, 4.0},
+            {null, 2.0, 1.0, 3.0, 4.0, 5.0},
+        });
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        return new SlopeOneRecommender(dataModel);
+      }
+    };
+    // a DataModelBuilder forces a copy of the training data for each user
+    DataModelBuilder copying = new DataModelBuilder() {
+      @Override
+      public DataModel buildDataModel(FastByIDMap<PreferenceArray> trainingData) {
+        return new GenericDataModel(trainingData);
+      }
+    };
+    RelevantItemsDataSplitter splitter = new GenericRelevantItemsDataSplitter();
+    IRStatistics serial = new GenericRecommenderIRStatsEvaluator(splitter, 1)
+        .evaluate(builder, null, model, null, 2, 3.5, 1.0);
+    IRStatistics parallel = new GenericRecommenderIRStatsEvaluator(splitter, 3)
+        .evaluate(builder, null, model, null, 2, 3.5, 1.0);
+    IRStatistics rebuilt = new GenericRecommenderIRStatsEvaluator(splitter, 1)
+        .evaluate(builder, copying, model, null, 2, 3.5, 1.0);
+    for (IRStatistics stats : new IRStatistics[] {parallel, rebuilt}) {
+      assertEquals(serial.getPrecision(), stats.getPrecision(), EPSILON);
+      assertEquals(serial.getRecall(), stats.getRecall(), EPSILON);
+      assertEquals(serial.getFallOut(), stats.getFallOut(), EPSILON);
+      assertEquals(serial.getNormalizedDiscountedCumulativeGain(),
+                   stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
+      assertEquals(((IRStatisticsImpl) serial).getMeanAveragePrecision(),
+                   ((IRStatisticsImpl) stats).getMeanAveragePrecision(), EPSILON);
+      assertEquals(serial.getReach(), stats.getReach(), EPSILON);
+    }
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public final class MaskedDataModelTest extends TasteTestCase {
+
+  private static DataModel buildModel() {
+    return getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+            {0.1, 0.2, 0.3, 0.4},
+            {0.5, 0.6, null, null},
+            {null, 0.7, null, 0.8},
+        });
+  }
+
+  @Test
+  public void testMaskedPreferences() throws Exception {
+    DataModel masked = new MaskedDataModel(buildModel(), 1, ids(1, 2));
+    PreferenceArray prefs = masked.getPreferencesFromUser(1);
+    assertEquals(2, prefs.length());
+    assertEquals(0, prefs.getItemID(0));
+    assertEquals(0.1f, prefs.getValue(0), EPSILON);
+    assertEquals(3, prefs.getItemID(1));
+    assertEquals(0.4f, prefs.getValue(1), EPSILON);
+    assertEquals(ids(0, 3), masked.getItemIDsFromUser(1));
+    assertNull(masked.getPreferenceValue(1, 1));
+    assertEquals(0.4f, masked.getPreferenceValue(1, 3), EPSILON);
+    assertEquals(0.6f, masked.getPreferenceValue(2, 1), EPSILON);
+
+    PreferenceArray itemPrefs = masked.getPreferencesForItem(1);
+    assertEquals(2, itemPrefs.length());
+    assertEquals(2, itemPrefs.getUserID(0));
+    assertEquals(3, itemPrefs.getUserID(1));
+
+    assertEquals(2, masked.getNumUsersWithPreferenceFor(1));
+    assertEquals(2, masked.getNumUsersWithPreferenceFor(0));
+    // user 1 still has 0 and 3, but no longer 1
+    assertEquals(1, masked.getNumUsersWithPreferenceFor(0, 1));
+    assertEquals(1, masked.getNumUsersWithPreferenceFor(1, 3));
+    assertEquals(1, masked.getNumUsersWithPreferenceFor(0, 3));
+  }
+
+  @Test
+  public void testHiddenItem() throws Exception {
+    DataModel masked = new MaskedDataModel(buildModel(), 1, ids(2));
+    assertEquals(3, masked.getNumItems());
+    assertEquals(ids(0, 1, 3), toSet(masked.getItemIDs()));
+    assertEquals(0, masked.getNumUsersWithPreferenceFor(2));
+    try {
+      masked.getPreferencesForItem(2);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // good
+    }
+  }
+
+  @Test
+  public void testHiddenUser() throws Exception {
+    DataModel masked = new MaskedDataModel(buildModel(), 2, ids(0, 1));
+    assertEquals(2, masked.getNumUsers());
+    assertEquals(ids(1, 3), toSet(masked.getUserIDs()));
+    assertEquals(4, masked.getNumItems());
+    assertEquals(1, masked.getPreferencesForItem(0).length());
+    try {
+      masked.getPreferencesFromUser(2);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+  }
+
+  private static FastIDSet ids(long... ids) {
+    FastIDSet set = new FastIDSet();
+    for (long id : ids) {
+      set.add(id);
+    }
+    return set;
+  }
+
+  private static FastIDSet toSet(LongPrimitiveIterator it) {
+    FastIDSet set = new FastIDSet();
+    while (it.hasNext()) {
+      set.add(it.nextLong());
+    }
+    return set;
+  }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public final class ConcurrentDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testCopy() throws Exception {
+    DataModel original = getDataModel();
+    DataModel copy = new ConcurrentDataModel(original);
+    assertEquals(original.getNumUsers(), copy.getNumUsers());
+    assertEquals(original.getNumItems(), copy.getNumItems());
+    LongPrimitiveIterator userIDs = original.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertEquals(original.getItemIDsFromUser(userID), copy.getItemIDsFromUser(userID));
+      LongPrimitiveIterator itemIDs = original.getItemIDs();
+      while (itemIDs.hasNext()) {
+        long itemID = itemIDs.nextLong();
+        assertEquals(original.getPreferenceValue(userID, itemID), copy.getPreferenceValue(userID, itemID));
+        assertEquals(original.getNumUsersWithPreferenceFor(itemID), copy.getNumUsersWithPreferenceFor(itemID));
+        assertEquals(original.getNumUsersWithPreferenceFor(0L, itemID),
+                     copy.getNumUsersWithPreferenceFor(0L, itemID));
+      }
+    }
+    assertEquals(original.getMinPreference(), copy.getMinPreference(), EPSILON);
+    assertEquals(original.getMaxPreference(), copy.getMaxPreference(), EPSILON);
+  }
+
+  @Test
+  public void testFromColumns() throws Exception {
+    long[] userIDs = {1L, 1L, 1L, 2L, 2L, 5L};
+    long[] itemIDs = {30L, 10L, 30L, 20L, 10L, 30L};
+    float[] values = {1.0f, 2.0f, 3.0f, 4.0f, 5.0f, -1.0f};
+    long[] timestamps = {100L, 200L, 300L, 400L, 500L, 600L};
+    ConcurrentDataModel dataModel = new ConcurrentDataModel(userIDs, itemIDs, values, timestamps, 5);
+    assertEquals(2, dataModel.getNumUsers());
+    assertEquals(3, dataModel.getNumItems());
+    assertEquals(3.0f, dataModel.getPreferenceValue(1L, 30L), EPSILON);
+    assertEquals(300L, dataModel.getPreferenceTime(1L, 30L).longValue());
+    assertEquals(5.0f, dataModel.getPreferenceValue(2L, 10L), EPSILON);
+    assertTrue(Arrays.equals(new long[] {10L, 30L}, dataModel.getPreferencesFromUser(1L).getIDs()));
+    assertTrue(Arrays.equals(new long[] {1L, 2L}, dataModel.getPreferencesForItem(10L).getIDs()));
+    assertEquals(2.0f, dataModel.getMinPreference(), EPSILON);
+    assertEquals(5.0f, dataModel.getMaxPreference(), EPSILON);
+
+    ConcurrentDataModel booleanModel = new ConcurrentDataModel(userIDs, itemIDs, null, null, userIDs.length);
+    assertEquals(3, booleanModel.getNumUsers());
+    assertEquals(1.0f, booleanModel.getPreferenceValue(5L, 30L), EPSILON);
+    assertNull(booleanModel.getPreferenceTime(5L, 30L));
+    assertEquals(2, booleanModel.getNumUsersWithPreferenceFor(30L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFromUnorderedColumns() {
+    new ConcurrentDataModel(new long[] {2L, 1L}, new long[] {10L, 10L}, null, null, 2);
+  }
+
+  @Test
+  public void testSetAndRemove() throws Exception {
+    ConcurrentDataModel dataModel = new ConcurrentDataModel();
+    dataModel.setPreference(1L, 30L, 3.0f);
+    dataModel.setPreference(1L, 10L, 1.0f);
+    dataModel.setPreference(2L, 10L, 2.0f);
+    dataModel.setPreference(1L, 10L, 4.0f);
+    assertEquals(2, dataModel.getNumUsers());
+    assertEquals(2, dataModel.getNumItems());
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(1L);
+    assertArrayEquals(new long[] {10L, 30L}, prefs.getIDs());
+    assertEquals(4.0f, prefs.getValue(0), EPSILON);
+    assertArrayEquals(new long[] {1L, 2L}, dataModel.getPreferencesForItem(10L).getIDs());
+    assertEquals(1, dataModel.getNumUsersWithPreferenceFor(10L, 30L));
+    assertEquals(1.0f, dataModel.getMinPreference(), EPSILON);
+    assertEquals(4.0f, dataModel.getMaxPreference(), EPSILON);
+
+    dataModel.removePreference(1L, 30L);
+    assertEquals(1, dataModel.getNumItems());
+    assertNull(dataModel.getPreferenceValue(1L, 30L));
+    dataModel.removePreference(2L, 10L);
+    assertEquals(1, dataModel.getNumUsers());
+    try {
+      dataModel.getPreferencesFromUser(2L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+    try {
+      dataModel.getPreferencesForItem(30L);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // good
+    }
+  }
+
+  @Test
+  public void testBatchLastChangeWins() throws Exception {
+    ConcurrentDataModel dataModel = new ConcurrentDataModel();
+    dataModel.apply(Arrays.asList(
+        ConcurrentDataModel.Delta.set(1L, 5L, 1.0f, 1000L),
+        ConcurrentDataModel.Delta.set(1L, 6L, 2.0f),
+        ConcurrentDataModel.Delta.remove(1L, 6L),
+        ConcurrentDataModel.Delta.set(2L, 5L, 3.0f),
+        ConcurrentDataModel.Delta.set(2L, 5L, 5.0f)));
+    assertArrayEquals(new long[] {5L}, dataModel.getPreferencesFromUser(1L).getIDs());
+    assertEquals(1000L, dataModel.getPreferenceTime(1L, 5L).longValue());
+    assertNull(dataModel.getPreferenceTime(2L, 5L));
+    assertEquals(5.0f, dataModel.getPreferenceValue(2L, 5L), EPSILON);
+    assertEquals(1, dataModel.getNumItems());
+  }
+
+  @Test
+  public void testReadersSeeWholeArrays() throws Exception {
+    final ConcurrentDataModel dataModel = new ConcurrentDataModel();
+    dataModel.setPreference(1L, 0L, 1.0f);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int n = 0; n < 2000; n++) {
+            PreferenceArray prefs = dataModel.getPreferencesFromUser(1L);
+            long[] itemIDs = prefs.getIDs();
+            for (int i = 1; i < itemIDs.length; i++) {
+              assertTrue(itemIDs[i - 1] < itemIDs[i]);
+            }
+          }
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    reader.start();
+    for (long itemID = 1L; itemID < 500L; itemID++) {
+      List<ConcurrentDataModel.Delta> deltas = Lists.newArrayList();
+      deltas.add(ConcurrentDataModel.Delta.set(1L, 1000L - itemID, 1.0f));
+      deltas.add(ConcurrentDataModel.Delta.set(1L, itemID, 2.0f));
+      dataModel.apply(deltas);
+    }
+    reader.join();
+    assertNull(failure.get());
+    assertEquals(999, dataModel.getPreferencesFromUser(1L).length());
+  }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class ItemUserBitmapIndexTest extends TasteTestCase {
+
+  private static DataModel randomDataModel() {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<FastIDSet> userData = new FastByIDMap<FastIDSet>();
+    for (int user = 0; user < 3000; user++) {
+      FastIDSet itemIDs = new FastIDSet();
+      for (int item = 0; item < 1000; item++) {
+        // a few popular items, most of them rare
+        if (random.nextDouble() < (item < 10 ? 0.8 : 0.01)) {
+          itemIDs.add(3L * item + 1L);
+        }
+      }
+      if (!itemIDs.isEmpty()) {
+        userData.put(7L * user - 5000L, itemIDs);
+      }
+    }
+    return new GenericBooleanPrefDataModel(userData);
+  }
+
+  private static FastIDSet usersOf(DataModel dataModel, long itemID) throws Exception {
+    return new FastIDSet(dataModel.getPreferencesForItem(itemID).getIDs());
+  }
+
+  @Test
+  public void testCounts() throws Exception {
+    DataModel dataModel = randomDataModel();
+    ItemUserBitmapIndex index = ItemUserBitmapIndex.build(dataModel, 4);
+    assertEquals(dataModel.getNumUsers(), index.getNumUsers());
+    assertEquals(dataModel.getNumItems(), index.getNumItems());
+    long[] itemIDs = new long[dataModel.getNumItems()];
+    int i = 0;
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    while (it.hasNext()) {
+      itemIDs[i++] = it.nextLong();
+    }
+    for (long itemID1 : itemIDs) {
+      assertEquals(dataModel.getNumUsersWithPreferenceFor(itemID1), index.getNumUsersWithPreferenceFor(itemID1));
+      for (int j = 0; j < 30; j++) {
+        long itemID2 = itemIDs[j];
+        assertEquals(usersOf(dataModel, itemID1).intersectionSize(usersOf(dataModel, itemID2)),
+                     index.getNumUsersWithPreferenceFor(itemID1, itemID2));
+      }
+    }
+  }
+
+  @Test
+  public void testUnknownItems() throws Exception {
+    ItemUserBitmapIndex index = ItemUserBitmapIndex.build(getDataModel(), 1);
+    assertEquals(0, index.getNumUsersWithPreferenceFor(100L));
+    assertEquals(0, index.getNumUsersWithPreferenceFor(0L, 100L));
+    assertEquals(0, index.getNumUsersWithPreferenceFor(100L, 0L));
+  }
+
+  @Test
+  public void testSameWithOneThread() throws Exception {
+    DataModel dataModel = randomDataModel();
+    ItemUserBitmapIndex sequential = ItemUserBitmapIndex.build(dataModel, 1);
+    ItemUserBitmapIndex parallel = ItemUserBitmapIndex.build(dataModel, 3);
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      assertEquals(sequential.getNumUsersWithPreferenceFor(itemID, 1L),
+                   parallel.getNumUsersWithPreferenceFor(itemID, 1L));
+    }
+  }
+
+  @Test
+  public void testSharedWithGenericBooleanPrefDataModel() throws Exception {
+    GenericBooleanPrefDataModel dataModel = (GenericBooleanPrefDataModel) randomDataModel();
+    ItemUserBitmapIndex index = dataModel.getBitmapIndex();
+    assertSame(index, dataModel.getBitmapIndex());
+    assertSame(index, ItemUserBitmapIndex.forDataModel(dataModel));
+    assertNotSame(index, ItemUserBitmapIndex.forDataModel(getDataModel()));
+  }
+
+}
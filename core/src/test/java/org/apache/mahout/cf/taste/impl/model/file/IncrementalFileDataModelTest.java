@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.junit.Test;
+
+public final class IncrementalFileDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testReadsNewUpdateFiles() throws Exception {
+    File dataFile = getTestTempFile("incremental.txt");
+    writeLines(dataFile, "1,10,1.0", "1,11,2.0", "2,10,3.0");
+    File firstUpdate = getTestTempFile("incremental.1.txt");
+    writeLines(firstUpdate, "2,12,4.0");
+
+    IncrementalFileDataModel dataModel = new IncrementalFileDataModel(dataFile);
+    assertEquals(2, dataModel.getNumUsers());
+    assertEquals(3, dataModel.getNumItems());
+    assertEquals(4.0f, dataModel.getPreferenceValue(2L, 12L), EPSILON);
+
+    File secondUpdate = getTestTempFile("incremental.2.txt");
+    writeLines(secondUpdate, "1,11,", "3,13,5.0,1300000000000", "1,10,1.5");
+    assertTrue(secondUpdate.setLastModified(firstUpdate.lastModified() + 2000L));
+    dataModel.refresh(null);
+
+    assertEquals(3, dataModel.getNumUsers());
+    assertNull(dataModel.getPreferenceValue(1L, 11L));
+    assertEquals(1.5f, dataModel.getPreferenceValue(1L, 10L), EPSILON);
+    assertEquals(1300000000000L, dataModel.getPreferenceTime(3L, 13L).longValue());
+    assertEquals(2, dataModel.getNumUsersWithPreferenceFor(10L));
+    try {
+      dataModel.getPreferencesForItem(11L);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // good
+    }
+
+    // an update file read already is not read again
+    dataModel.setPreference(1L, 10L, 2.5f);
+    dataModel.refresh(null);
+    assertEquals(2.5f, dataModel.getPreferenceValue(1L, 10L), EPSILON);
+  }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+import java.io.File;
+
+/** <p>Tests {@link SnapshotDataModel}.</p> */
+public final class SnapshotDataModelTest extends TasteTestCase {
+
+  private static final String[] DATA = {
+      "123,456,0.1,1000",
+      "123,789,0.6,1001",
+      "123,654,0.7,1002",
+      "234,123,0.5,1003",
+      "234,234,1.0,1004",
+      "234,999,0.9,1005",
+      "345,789,0.6,1006",
+      "345,654,0.7,1007",
+      "345,123,1.0,1008",
+      "345,234,0.5,1009",
+      "345,999,0.5,1010",
+      "456,456,0.1,1011",
+      "456,789,0.5,1012",
+      "456,654,0.0,1013",
+      "456,999,0.2,1014",};
+
+  private static final String[] BOOLEAN_DATA = {
+      "123,456",
+      "123,789",
+      "234,123",
+      "345,789",
+      "345,123",};
+
+  private DataModel snapshotOf(String[] data) throws Exception {
+    File dataFile = getTestTempFile("test.txt");
+    writeLines(dataFile, data);
+    File snapshotFile = getTestTempFile("test.snapshot");
+    SnapshotDataModel.writeSnapshot(new FileDataModel(dataFile), snapshotFile);
+    return new SnapshotDataModel(snapshotFile);
+  }
+
+  @Test
+  public void sameAsFileDataModel() throws Exception {
+    File dataFile = getTestTempFile("test.txt");
+    writeLines(dataFile, DATA);
+    DataModel fileModel = new FileDataModel(dataFile);
+    File snapshotFile = getTestTempFile("test.snapshot");
+    SnapshotDataModel.writeSnapshot(fileModel, snapshotFile);
+    DataModel snapshotModel = new SnapshotDataModel(snapshotFile);
+
+    assertEquals(fileModel.getNumUsers(), snapshotModel.getNumUsers());
+    assertEquals(fileModel.getNumItems(), snapshotModel.getNumItems());
+    assertTrue(snapshotModel.hasPreferenceValues());
+    assertEquals(fileModel.getMinPreference(), snapshotModel.getMinPreference(), EPSILON);
+    assertEquals(fileModel.getMaxPreference(), snapshotModel.getMaxPreference(), EPSILON);
+
+    LongPrimitiveIterator userIDs = snapshotModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertEquals(fileModel.getItemIDsFromUser(userID), snapshotModel.getItemIDsFromUser(userID));
+      PreferenceArray prefs = snapshotModel.getPreferencesFromUser(userID);
+      assertEquals(fileModel.getPreferencesFromUser(userID).length(), prefs.length());
+      for (int i = 0; i < prefs.length(); i++) {
+        assertEquals(userID, prefs.getUserID(i));
+        long itemID = prefs.getItemID(i);
+        assertEquals(fileModel.getPreferenceValue(userID, itemID), prefs.getValue(i), EPSILON);
+        assertEquals(fileModel.getPreferenceValue(userID, itemID), snapshotModel.getPreferenceValue(userID, itemID));
+        assertEquals(fileModel.getPreferenceTime(userID, itemID), snapshotModel.getPreferenceTime(userID, itemID));
+      }
+    }
+
+    LongPrimitiveIterator itemIDs = snapshotModel.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      PreferenceArray prefs = snapshotModel.getPreferencesForItem(itemID);
+      assertEquals(fileModel.getNumUsersWithPreferenceFor(itemID), prefs.length());
+      assertEquals(fileModel.getNumUsersWithPreferenceFor(itemID), snapshotModel.getNumUsersWithPreferenceFor(itemID));
+      for (int i = 0; i < prefs.length(); i++) {
+        assertEquals(itemID, prefs.getItemID(i));
+        assertEquals(fileModel.getPreferenceValue(prefs.getUserID(i), itemID), prefs.getValue(i), EPSILON);
+      }
+      LongPrimitiveIterator otherItemIDs = snapshotModel.getItemIDs();
+      while (otherItemIDs.hasNext()) {
+        long otherItemID = otherItemIDs.nextLong();
+        assertEquals(fileModel.getNumUsersWithPreferenceFor(itemID, otherItemID),
+                     snapshotModel.getNumUsersWithPreferenceFor(itemID, otherItemID));
+      }
+    }
+  }
+
+  @Test
+  public void missingPreferences() throws Exception {
+    DataModel model = snapshotOf(DATA);
+    assertNull(model.getPreferenceValue(123, 123));
+    assertNull(model.getPreferenceTime(123, 123));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(111));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(111, 123));
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void unknownUser() throws Exception {
+    snapshotOf(DATA).getPreferencesFromUser(111);
+  }
+
+  @Test
+  public void booleanPreferences() throws Exception {
+    DataModel model = snapshotOf(BOOLEAN_DATA);
+    assertFalse(model.hasPreferenceValues());
+    assertEquals(1.0f, model.getPreferenceValue(123, 789), EPSILON);
+    assertNull(model.getPreferenceValue(123, 123));
+    assertNull(model.getPreferenceTime(123, 789));
+    FastIDSet expected = new FastIDSet();
+    expected.add(123L);
+    expected.add(789L);
+    assertEquals(expected, model.getItemIDsFromUser(345));
+    assertEquals(2, model.getNumUsersWithPreferenceFor(789));
+    assertEquals(1, model.getNumUsersWithPreferenceFor(789, 123));
+  }
+
+  @Test
+  public void rewriteWhileOpen() throws Exception {
+    File dataFile = getTestTempFile("test.txt");
+    writeLines(dataFile, DATA);
+    File booleanDataFile = getTestTempFile("boolean.txt");
+    writeLines(booleanDataFile, BOOLEAN_DATA);
+    File snapshotFile = getTestTempFile("rewritten.snapshot");
+    SnapshotDataModel.writeSnapshot(new FileDataModel(dataFile), snapshotFile);
+    SnapshotDataModel snapshotModel = new SnapshotDataModel(snapshotFile);
+    assertEquals(0.6f, snapshotModel.getPreferenceValue(123, 789), EPSILON);
+
+    SnapshotDataModel.writeSnapshot(new FileDataModel(booleanDataFile), snapshotFile);
+    // the open model keeps reading the snapshot it mapped
+    assertEquals(4, snapshotModel.getNumUsers());
+    assertEquals(0.6f, snapshotModel.getPreferenceValue(123, 789), EPSILON);
+    PreferenceArray prefs = snapshotModel.getPreferencesFromUser(456);
+    assertEquals(4, prefs.length());
+    assertEquals(0.1f, prefs.getValue(0), EPSILON);
+    for (File file : snapshotFile.getParentFile().listFiles()) {
+      assertFalse(file.toString(), file.getName().endsWith(".tmp"));
+    }
+
+    assertTrue(snapshotFile.setLastModified(System.currentTimeMillis() + 10000L));
+    snapshotModel.refresh(null);
+    assertEquals(3, snapshotModel.getNumUsers());
+    assertFalse(snapshotModel.hasPreferenceValues());
+  }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.eval.NeighborhoodRecallEvaluator;
+import org.apache.mahout.cf.taste.impl.model.ConcurrentDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Test;
+
+/** <p>Tests {@link LocalitySensitiveHashUserNeighborhood}.</p> */
+public final class LocalitySensitiveHashUserNeighborhoodTest extends TasteTestCase {
+
+  @Test
+  public void testSameAsNearestNWhenAllCollide() throws Exception {
+    // all users share two of at most three items, so with this many tables all are candidates
+    DataModel dataModel = getDataModel();
+    UserSimilarity similarity = new DummySimilarity(dataModel);
+    UserNeighborhood exact = new NearestNUserNeighborhood(2, similarity, dataModel);
+    UserNeighborhood approximate = new LocalitySensitiveHashUserNeighborhood(
+        2, Double.NEGATIVE_INFINITY, similarity, dataModel,
+        LocalitySensitiveHashUserNeighborhood.HashFamily.MIN_HASH, 20, 1);
+    for (long userID = 1; userID <= 4; userID++) {
+      assertArrayEquals(exact.getUserNeighborhood(userID), approximate.getUserNeighborhood(userID));
+    }
+    assertEquals(1.0, NeighborhoodRecallEvaluator.evaluate(approximate, exact, dataModel, 1.0), EPSILON);
+  }
+
+  @Test
+  public void testSimHashFindsIdenticalUsers() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3, 4},
+        new Double[][] {
+            {1.0, 5.0, 2.0, 4.0},
+            {5.0, 1.0, 4.0, 2.0},
+            {1.0, 5.0, 2.0, 4.0},
+            {5.0, 1.0, 4.0, 2.0},
+        });
+    UserNeighborhood neighborhood = new LocalitySensitiveHashUserNeighborhood(
+        1, Double.NEGATIVE_INFINITY, new PearsonCorrelationSimilarity(dataModel), dataModel,
+        LocalitySensitiveHashUserNeighborhood.HashFamily.CENTERED_SIM_HASH, 4, 16);
+    assertArrayEquals(new long[] {3}, neighborhood.getUserNeighborhood(1));
+    assertArrayEquals(new long[] {4}, neighborhood.getUserNeighborhood(2));
+  }
+
+  @Test
+  public void testRefresh() throws Exception {
+    ConcurrentDataModel dataModel = new ConcurrentDataModel(getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+            {1.0, 1.0, null, null, null, null},
+            {null, null, 1.0, 1.0, null, null},
+            {null, null, null, null, 1.0, 1.0},
+        }));
+    UserNeighborhood neighborhood = new LocalitySensitiveHashUserNeighborhood(
+        2, 0.0, new TanimotoCoefficientSimilarity(dataModel), dataModel,
+        LocalitySensitiveHashUserNeighborhood.HashFamily.MIN_HASH, 4, 2);
+    assertEquals(0, neighborhood.getUserNeighborhood(1).length);
+
+    // a new user with the same items as user 1 lands in all of user 1's buckets
+    dataModel.apply(Arrays.asList(ConcurrentDataModel.Delta.set(4, 0, 1.0f),
+                                  ConcurrentDataModel.Delta.set(4, 1, 1.0f)));
+    neighborhood.refresh(null);
+    assertArrayEquals(new long[] {4}, neighborhood.getUserNeighborhood(1));
+
+    // and leaves them when its items change
+    dataModel.apply(Arrays.asList(ConcurrentDataModel.Delta.remove(4, 0),
+                                  ConcurrentDataModel.Delta.remove(4, 1),
+                                  ConcurrentDataModel.Delta.set(4, 4, 1.0f),
+                                  ConcurrentDataModel.Delta.set(4, 5, 1.0f)));
+    neighborhood.refresh(null);
+    assertEquals(0, neighborhood.getUserNeighborhood(1).length);
+    assertArrayEquals(new long[] {4}, neighborhood.getUserNeighborhood(3));
+  }
+
+}
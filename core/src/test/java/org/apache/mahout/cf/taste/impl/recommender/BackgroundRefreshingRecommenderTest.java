@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang.mutable.MutableInt;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+/** <p>Tests {@link BackgroundRefreshingRecommender}.</p> */
+public final class BackgroundRefreshingRecommenderTest extends TasteTestCase {
+
+  private static final RecommenderBuilder ITEM_AVERAGE = new RecommenderBuilder() {
+    @Override
+    public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+      return new ItemAverageRecommender(dataModel);
+    }
+  };
+
+  @Test
+  public void testSwapsInNewGeneration() throws Exception {
+    final DataModel first = getDataModel();
+    final DataModel second = getDataModel(new long[] {5}, new Double[][] {{0.5, 0.5}});
+    final AtomicInteger generation = new AtomicInteger();
+    BackgroundRefreshingRecommender recommender = new BackgroundRefreshingRecommender(
+        new Callable<DataModel>() {
+          @Override
+          public DataModel call() {
+            return generation.getAndIncrement() == 0 ? first : second;
+          }
+        }, ITEM_AVERAGE);
+    try {
+      assertSame(first, recommender.getDataModel());
+      recommender.rebuildInBackground().get();
+      assertSame(second, recommender.getDataModel());
+      assertEquals(0.5f, recommender.estimatePreference(5, 0), EPSILON);
+    } finally {
+      recommender.close();
+    }
+  }
+
+  @Test
+  public void testServesDuringRebuild() throws Exception {
+    final DataModel first = getDataModel();
+    final DataModel second = getDataModel(new long[] {5}, new Double[][] {{0.5, 0.5}});
+    final AtomicInteger generation = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    BackgroundRefreshingRecommender recommender = new BackgroundRefreshingRecommender(
+        new Callable<DataModel>() {
+          @Override
+          public DataModel call() throws InterruptedException {
+            if (generation.getAndIncrement() == 0) {
+              return first;
+            }
+            release.await();
+            return second;
+          }
+        }, ITEM_AVERAGE);
+    try {
+      Future<?> rebuild = recommender.rebuildInBackground();
+      recommender.refresh(null);
+      assertSame(rebuild, recommender.rebuildInBackground());
+      assertFalse(rebuild.isDone());
+      assertSame(first, recommender.getDataModel());
+      assertEquals(1, recommender.recommend(1, 1).size());
+      release.countDown();
+      rebuild.get();
+      assertSame(second, recommender.getDataModel());
+      assertEquals(2, generation.get());
+    } finally {
+      recommender.close();
+    }
+  }
+
+  @Test
+  public void testWarmsUpWithRecentUsers() throws Exception {
+    final List<MutableInt> recommendCounts = Lists.newArrayList();
+    BackgroundRefreshingRecommender recommender = new BackgroundRefreshingRecommender(
+        new Callable<DataModel>() {
+          @Override
+          public DataModel call() {
+            return getDataModel();
+          }
+        },
+        new RecommenderBuilder() {
+          @Override
+          public Recommender buildRecommender(DataModel dataModel) {
+            MutableInt recommendCount = new MutableInt();
+            recommendCounts.add(recommendCount);
+            return new MockRecommender(recommendCount);
+          }
+        }, 2);
+    try {
+      recommender.recommend(1, 1);
+      recommender.recommend(2, 1);
+      recommender.recommend(3, 1);
+      recommender.recommend(3, 1);
+      assertEquals(4, recommendCounts.get(0).intValue());
+      recommender.rebuildInBackground().get();
+      assertEquals(2, recommendCounts.size());
+      // only the last 2 requests, for the same user, are remembered
+      assertEquals(1, recommendCounts.get(1).intValue());
+    } finally {
+      recommender.close();
+    }
+  }
+
+  @Test
+  public void testKeepsGenerationWhenRebuildFails() throws Exception {
+    final DataModel first = getDataModel();
+    final AtomicInteger generation = new AtomicInteger();
+    BackgroundRefreshingRecommender recommender = new BackgroundRefreshingRecommender(
+        new Callable<DataModel>() {
+          @Override
+          public DataModel call() throws TasteException {
+            if (generation.getAndIncrement() == 0) {
+              return first;
+            }
+            throw new TasteException("unavailable");
+          }
+        }, ITEM_AVERAGE);
+    try {
+      try {
+        recommender.rebuildInBackground().get();
+        fail();
+      } catch (ExecutionException ee) {
+        assertTrue(ee.getCause() instanceof TasteException);
+      }
+      assertSame(first, recommender.getDataModel());
+      assertEquals(1, recommender.recommend(1, 1).size());
+    } finally {
+      recommender.close();
+    }
+  }
+
+  @Test
+  public void testReleasesReplacedGenerations() throws Exception {
+    final List<GenerationRecommender> generations = Lists.newArrayList();
+    BackgroundRefreshingRecommender recommender = new BackgroundRefreshingRecommender(
+        new Callable<DataModel>() {
+          @Override
+          public DataModel call() {
+            return getDataModel();
+          }
+        },
+        new RecommenderBuilder() {
+          @Override
+          public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+            GenerationRecommender generation = new GenerationRecommender(dataModel);
+            generations.add(generation);
+            return generation;
+          }
+        });
+    try {
+      recommender.rebuildInBackground().get();
+      // still serving requests started before the swap
+      assertFalse(generations.get(0).closed);
+      recommender.rebuildInBackground().get();
+      assertTrue(generations.get(0).closed);
+      assertFalse(generations.get(1).closed);
+      assertFalse(generations.get(2).closed);
+    } finally {
+      recommender.close();
+    }
+    assertTrue(generations.get(1).closed);
+    assertTrue(generations.get(2).closed);
+  }
+
+  @Test
+  public void testCapsAndResetsWarmUpHowMany() throws Exception {
+    final List<GenerationRecommender> generations = Lists.newArrayList();
+    BackgroundRefreshingRecommender recommender = new BackgroundRefreshingRecommender(
+        new Callable<DataModel>() {
+          @Override
+          public DataModel call() {
+            return getDataModel();
+          }
+        },
+        new RecommenderBuilder() {
+          @Override
+          public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+            GenerationRecommender generation = new GenerationRecommender(dataModel);
+            generations.add(generation);
+            return generation;
+          }
+        });
+    try {
+      recommender.recommend(1, 5);
+      recommender.recommend(1, 10 * BackgroundRefreshingRecommender.MAX_WARM_UP_HOW_MANY);
+      recommender.rebuildInBackground().get();
+      assertEquals(BackgroundRefreshingRecommender.MAX_WARM_UP_HOW_MANY, generations.get(1).maxHowMany);
+      recommender.recommend(1, 5);
+      recommender.rebuildInBackground().get();
+      assertEquals(10, generations.get(2).maxHowMany);
+    } finally {
+      recommender.close();
+    }
+  }
+
+  private static final class GenerationRecommender implements Recommender, Closeable {
+
+    private final Recommender delegate;
+    private int maxHowMany;
+    private boolean closed;
+
+    private GenerationRecommender(DataModel dataModel) throws TasteException {
+      delegate = new ItemAverageRecommender(dataModel);
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+      return recommend(userID, howMany, null);
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+      maxHowMany = Math.max(maxHowMany, howMany);
+      return delegate.recommend(userID, howMany, rescorer);
+    }
+
+    @Override
+    public float estimatePreference(long userID, long itemID) throws TasteException {
+      return delegate.estimatePreference(userID, itemID);
+    }
+
+    @Override
+    public void setPreference(long userID, long itemID, float value) throws TasteException {
+      delegate.setPreference(userID, itemID, value);
+    }
+
+    @Override
+    public void removePreference(long userID, long itemID) throws TasteException {
+      delegate.removePreference(userID, itemID);
+    }
+
+    @Override
+    public DataModel getDataModel() {
+      return delegate.getDataModel();
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      delegate.refresh(alreadyRefreshed);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+}
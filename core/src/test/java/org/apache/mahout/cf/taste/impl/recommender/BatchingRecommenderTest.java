@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+/** <p>Tests {@link BatchingRecommender}.</p> */
+public final class BatchingRecommenderTest extends TasteTestCase {
+
+  private static Recommender buildDelegate() throws TasteException {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3, 4, 5},
+        new Double[][] {
+            {0.1, 0.3, null, 0.7},
+            {0.2, 0.3, 0.3, null, 0.1},
+            {0.4, 0.3, 0.5, 0.9},
+            {0.7, null, 0.8, 0.2, 0.6},
+            {null, 0.1, 0.2, 0.3, 0.4},
+        });
+    return new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    final Recommender delegate = buildDelegate();
+    final BatchingRecommender recommender = new BatchingRecommender(delegate, 8, 20L, 2);
+    ExecutorService callers = Executors.newFixedThreadPool(6);
+    try {
+      List<Callable<Void>> calls = Lists.newArrayList();
+      for (int n = 0; n < 60; n++) {
+        final long userID = 1L + n % 5;
+        final int howMany = 1 + n % 3;
+        calls.add(new Callable<Void>() {
+          @Override
+          public Void call() throws TasteException {
+            assertEquals(delegate.recommend(userID, howMany), recommender.recommend(userID, howMany));
+            return null;
+          }
+        });
+      }
+      for (Future<Void> future : callers.invokeAll(calls)) {
+        future.get();
+      }
+    } finally {
+      callers.shutdown();
+      recommender.close();
+    }
+  }
+
+  @Test
+  public void testFailureDoesNotFailOthers() throws Exception {
+    final BatchingRecommender recommender = new BatchingRecommender(buildDelegate(), 8, 50L, 1);
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try {
+      Future<List<RecommendedItem>> unknown = callers.submit(new Callable<List<RecommendedItem>>() {
+        @Override
+        public List<RecommendedItem> call() throws TasteException {
+          return recommender.recommend(100L, 2);
+        }
+      });
+      Future<List<RecommendedItem>> known = callers.submit(new Callable<List<RecommendedItem>>() {
+        @Override
+        public List<RecommendedItem> call() throws TasteException {
+          return recommender.recommend(1L, 2);
+        }
+      });
+      assertNotNull(known.get());
+      try {
+        unknown.get();
+        fail();
+      } catch (ExecutionException ee) {
+        assertTrue(ee.getCause() instanceof NoSuchUserException);
+      }
+    } finally {
+      callers.shutdown();
+      recommender.close();
+    }
+  }
+
+  @Test
+  public void testErrorFailsWholeBatch() throws Exception {
+    Error error = new Error("recommender broke");
+    Recommender delegate = EasyMock.createNiceMock(Recommender.class);
+    EasyMock.expect(delegate.recommend(EasyMock.anyLong(), EasyMock.anyInt(), EasyMock.<IDRescorer>isNull()))
+        .andThrow(error).anyTimes();
+    EasyMock.replay(delegate);
+    final BatchingRecommender recommender = new BatchingRecommender(delegate, 8, 50L, 1);
+    ExecutorService callers = Executors.newFixedThreadPool(3);
+    try {
+      List<Callable<List<RecommendedItem>>> calls = Lists.newArrayList();
+      for (int n = 0; n < 3; n++) {
+        final long userID = n;
+        calls.add(new Callable<List<RecommendedItem>>() {
+          @Override
+          public List<RecommendedItem> call() throws TasteException {
+            return recommender.recommend(userID, 2);
+          }
+        });
+      }
+      for (Future<List<RecommendedItem>> future : callers.invokeAll(calls, 10L, TimeUnit.SECONDS)) {
+        try {
+          future.get();
+          fail();
+        } catch (ExecutionException ee) {
+          assertSame(error, ee.getCause());
+        }
+      }
+    } finally {
+      callers.shutdown();
+      recommender.close();
+    }
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    Recommender delegate = buildDelegate();
+    BatchingRecommender recommender = new BatchingRecommender(delegate);
+    try {
+      List<List<RecommendedItem>> recommended = recommender.recommend(new long[] {2L, 5L}, 3);
+      assertEquals(delegate.recommend(2L, 3), recommended.get(0));
+      assertEquals(delegate.recommend(5L, 3), recommended.get(1));
+    } finally {
+      recommender.close();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosed() throws Exception {
+    BatchingRecommender recommender = new BatchingRecommender(buildDelegate());
+    recommender.close();
+    recommender.recommend(1L, 1);
+  }
+
+}
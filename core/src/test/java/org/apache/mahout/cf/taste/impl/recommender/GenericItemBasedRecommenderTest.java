@@ -18,25 +18,31 @@
 package org.apache.mahout.cf.taste.impl.recommender;
 
 import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
 import org.apache.mahout.cf.taste.recommender.MostSimilarItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.RandomUtils;
 import org.easymock.EasyMock;
 import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 
 /** <p>Tests {@link GenericItemBasedRecommender}.</p> */
 public final class GenericItemBasedRecommenderTest extends TasteTestCase {
@@ -121,6 +127,33 @@ public final class GenericItemBasedRecommenderTest extends TasteTestCase {
     assertEquals(originalRecommended.get(1).getItemID(), rescoredRecommended.get(0).getItemID());
   }
 
+  @Test
+  public void rescorerFiltersEachCandidateOnce() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3},
+            new Double[][] {
+                    {0.1, 0.2},
+                    {0.2, 0.3, 0.3, 0.6},
+                    {0.4, 0.4, 0.5, 0.9},
+            });
+    Recommender recommender = new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+    final FastIDSet filteredOnce = new FastIDSet();
+    List<RecommendedItem> recommended = recommender.recommend(1, 2, new IDRescorer() {
+      @Override
+      public double rescore(long id, double originalScore) {
+        return originalScore;
+      }
+      @Override
+      public boolean isFiltered(long id) {
+        assertTrue("item " + id + " filtered twice", filteredOnce.add(id));
+        return id == 2L;
+      }
+    });
+    assertEquals(2, filteredOnce.size());
+    assertEquals(1, recommended.size());
+    assertEquals(3L, recommended.get(0).getItemID());
+  }
+
   @Test
   public void testEstimatePref() throws Exception {
     Recommender recommender = buildRecommender();
@@ -291,4 +324,100 @@ public final class GenericItemBasedRecommenderTest extends TasteTestCase {
 
     EasyMock.verify(dataModel, itemSimilarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy);
   }
+
+  @Test
+  public void manyCandidatesSameAsOneAtATime() throws Exception {
+    Random random = RandomUtils.getRandom();
+    int numUsers = 20;
+    int numItems = 3 * CandidateEstimator.BLOCK_SIZE;
+    long[] userIDs = new long[numUsers];
+    Double[][] prefs = new Double[numUsers][numItems];
+    for (int user = 0; user < numUsers; user++) {
+      userIDs[user] = user;
+      for (int item = 0; item < numItems; item++) {
+        if (random.nextInt(4) == 0) {
+          prefs[user][item] = (double) (1 + random.nextInt(5));
+        }
+      }
+    }
+    final DataModel dataModel = getDataModel(userIDs, prefs);
+    final Recommender recommender = new GenericItemBasedRecommender(dataModel,
+        new PearsonCorrelationSimilarity(dataModel), new AllUnknownItemsCandidateItemsStrategy(),
+        GenericItemBasedRecommender.getDefaultMostSimilarItemsCandidateItemsStrategy(), true);
+
+    final long userID = 3L;
+    FastIDSet candidates = new FastIDSet();
+    LongPrimitiveIterator itemIDs = dataModel.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      if (dataModel.getPreferenceValue(userID, itemID) == null) {
+        candidates.add(itemID);
+      }
+    }
+    List<RecommendedItem> expected = TopItems.getTopItems(20, candidates.iterator(), null,
+        new TopItems.LongEstimator() {
+          @Override
+          public double estimate(long itemID) throws TasteException {
+            return recommender.estimatePreference(userID, itemID);
+          }
+        });
+    assertEquals(expected, recommender.recommend(userID, 20));
+    Recommender sequential = new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel),
+        new AllUnknownItemsCandidateItemsStrategy(),
+        GenericItemBasedRecommender.getDefaultMostSimilarItemsCandidateItemsStrategy());
+    assertEquals(expected, sequential.recommend(userID, 20));
+  }
+
+  @Test
+  public void batchSameAsOneAtATime() throws Exception {
+    Random random = RandomUtils.getRandom();
+    int numUsers = 30;
+    int numItems = 200;
+    long[] userIDs = new long[numUsers];
+    Double[][] prefs = new Double[numUsers][numItems];
+    for (int user = 0; user < numUsers; user++) {
+      userIDs[user] = user;
+      for (int item = 0; item < numItems; item++) {
+        if (random.nextInt(5) == 0) {
+          prefs[user][item] = (double) (1 + random.nextInt(5));
+        }
+      }
+    }
+    DataModel dataModel = getDataModel(userIDs, prefs);
+    ItemSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    long[] batch = {4L, 0L, 17L, 4L, 29L, 8L};
+    GenericItemBasedRecommender[] recommenders = {
+        new GenericItemBasedRecommender(dataModel, similarity),
+        new GenericBooleanPrefItemBasedRecommender(dataModel, similarity),
+    };
+    for (GenericItemBasedRecommender recommender : recommenders) {
+      List<List<RecommendedItem>> recommended = recommender.recommend(batch, 10);
+      assertEquals(batch.length, recommended.size());
+      for (int n = 0; n < batch.length; n++) {
+        assertEquals(recommender.recommend(batch[n], 10), recommended.get(n));
+      }
+    }
+  }
+
+  @Test
+  public void batchUsesOverriddenEstimate() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3},
+            new Double[][] {
+                    {0.1, 0.2},
+                    {0.2, 0.3, 0.3, 0.6},
+                    {0.4, 0.4, 0.5, 0.9},
+            });
+    GenericItemBasedRecommender recommender =
+        new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel)) {
+          @Override
+          protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID) {
+            return itemID;
+          }
+        };
+    List<List<RecommendedItem>> recommended = recommender.recommend(new long[] {1L}, 2);
+    assertEquals(recommender.recommend(1L, 2), recommended.get(0));
+    assertEquals(3L, recommended.get(0).get(0).getItemID());
+    assertEquals(3.0f, recommended.get(0).get(0).getValue(), EPSILON);
+  }
 }
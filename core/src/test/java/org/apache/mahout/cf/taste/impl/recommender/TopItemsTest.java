@@ -27,6 +27,7 @@ import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -99,6 +100,70 @@ public final class TopItemsTest extends TasteTestCase {
     }
   }
 
+  @Test
+  public void testTopItemsPrimitive() throws Exception {
+    long[] ids = new long[1000];
+    final float[] values = new float[1000];
+    Random random = RandomUtils.getRandom();
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = i;
+      values[i] = random.nextFloat();
+    }
+    TopItems.LongEstimator estimator = new TopItems.LongEstimator() {
+      @Override
+      public double estimate(long id) {
+        return id % 7 == 0 ? Double.NaN : values[(int) id];
+      }
+    };
+    List<RecommendedItem> topItems = TopItems.getTopItems(25, new LongPrimitiveArrayIterator(ids), null, estimator);
+    assertEquals(25, topItems.size());
+
+    List<RecommendedItem> expected = new ArrayList<RecommendedItem>();
+    for (long id : ids) {
+      if (id % 7 != 0) {
+        expected.add(new GenericRecommendedItem(id, values[(int) id]));
+      }
+    }
+    Collections.sort(expected, ByValueRecommendedItemComparator.getInstance());
+    for (int i = 0; i < topItems.size(); i++) {
+      assertEquals(expected.get(i).getItemID(), topItems.get(i).getItemID());
+      assertEquals(expected.get(i).getValue(), topItems.get(i).getValue(), EPSILON);
+    }
+  }
+
+  @Test
+  public void testTopItemsFewerThanRequested() throws Exception {
+    LongPrimitiveIterator possibleItemIds = new LongPrimitiveArrayIterator(new long[] {3, 1, 2});
+    TopItems.LongEstimator estimator = new TopItems.LongEstimator() {
+      @Override
+      public double estimate(long id) {
+        return id == 2 ? 0.5 : 1.0;
+      }
+    };
+    List<RecommendedItem> topItems = TopItems.getTopItems(Integer.MAX_VALUE, possibleItemIds, null, estimator);
+    // equal values are ordered by ID
+    assertEquals(3, topItems.size());
+    assertEquals(1, topItems.get(0).getItemID());
+    assertEquals(3, topItems.get(1).getItemID());
+    assertEquals(2, topItems.get(2).getItemID());
+  }
+
+  @Test
+  public void testTopUsersPrimitive() throws Exception {
+    long[] ids = new long[100];
+    for (int i = 0; i < 100; i++) {
+      ids[i] = i;
+    }
+    TopItems.LongEstimator estimator = new TopItems.LongEstimator() {
+      @Override
+      public double estimate(long id) {
+        return -Math.abs(id - 50);
+      }
+    };
+    long[] topUsers = TopItems.getTopUsers(3, new LongPrimitiveArrayIterator(ids), null, estimator);
+    assertArrayEquals(new long[] {50, 49, 51}, topUsers);
+  }
+
   @Test
   public void testTopItemItem() throws Exception {
     List<GenericItemSimilarity.ItemItemSimilarity> sims = new ArrayList<GenericItemSimilarity.ItemItemSimilarity>();
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.junit.Test;
+
+/** Tests {@link ConcurrentDiffStorage}. */
+public final class ConcurrentDiffStorageTest extends TasteTestCase {
+
+  @Test
+  public void testSameAsMemoryDiffStorage() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelLarge();
+    DiffStorage memory = new MemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+    DiffStorage concurrent = new ConcurrentDiffStorage(model, Weighting.WEIGHTED, Integer.MAX_VALUE, 3);
+    for (long itemID1 = 0; itemID1 < 7; itemID1++) {
+      for (long itemID2 = 0; itemID2 < 7; itemID2++) {
+        if (itemID1 != itemID2) {
+          RunningAverageAndStdDev expected = (RunningAverageAndStdDev) memory.getDiff(itemID1, itemID2);
+          RunningAverageAndStdDev actual = (RunningAverageAndStdDev) concurrent.getDiff(itemID1, itemID2);
+          assertEquals(expected.getCount(), actual.getCount());
+          assertEquals(expected.getAverage(), actual.getAverage(), EPSILON);
+          assertEquals(expected.getStandardDeviation(), actual.getStandardDeviation(), EPSILON);
+        }
+      }
+    }
+    for (long userID = 1; userID <= 7; userID++) {
+      assertEquals(memory.getRecommendableItemIDs(userID), concurrent.getRecommendableItemIDs(userID));
+    }
+  }
+
+  @Test
+  public void testRecommendableIDsVariedWeighted() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelVaried();
+    DiffStorage storage = new ConcurrentDiffStorage(model, Weighting.WEIGHTED, Integer.MAX_VALUE);
+    FastIDSet recommendableItemIDs = storage.getRecommendableItemIDs(2);
+    assertEquals(2, recommendableItemIDs.size());
+    assertTrue(recommendableItemIDs.contains(2));
+    assertTrue(recommendableItemIDs.contains(3));
+    assertEquals(0, storage.getRecommendableItemIDs(5).size());
+  }
+
+  @Test
+  public void testAdd() throws Exception {
+    DataModel model = getDataModel();
+    DiffStorage storage = new ConcurrentDiffStorage(model, Weighting.UNWEIGHTED, Integer.MAX_VALUE);
+
+    RunningAverage average1 = storage.getDiff(0, 2);
+    assertEquals(0.1, average1.getAverage(), EPSILON);
+    assertEquals(3, average1.getCount());
+
+    storage.addItemPref(1, 2, 0.8f);
+
+    average1 = storage.getDiff(0, 2);
+    assertEquals(0.25, average1.getAverage(), EPSILON);
+    assertEquals(4, average1.getCount());
+
+    RunningAverage average2 = storage.getDiff(2, 1);
+    assertEquals(-0.3, average2.getAverage(), EPSILON);
+    assertEquals(4, average2.getCount());
+  }
+
+  @Test
+  public void testAddNewItem() throws Exception {
+    DataModel model = getDataModel();
+    DiffStorage storage = new ConcurrentDiffStorage(model, Weighting.UNWEIGHTED, Integer.MAX_VALUE);
+    assertNull(storage.getAverageItemPref(99));
+
+    storage.addItemPref(1, 99, 0.5f);
+
+    assertEquals(0.5, storage.getAverageItemPref(99).getAverage(), EPSILON);
+    PreferenceArray prefs = model.getPreferencesFromUser(1);
+    for (int i = 0; i < prefs.length(); i++) {
+      RunningAverage diff = storage.getDiff(prefs.getItemID(i), 99);
+      assertEquals(0.5 - prefs.getValue(i), diff.getAverage(), EPSILON);
+      assertEquals(1, diff.getCount());
+      assertEquals(prefs.getValue(i) - 0.5, storage.getDiff(99, prefs.getItemID(i)).getAverage(), EPSILON);
+    }
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+    DataModel model = getDataModel();
+    DiffStorage storage = new ConcurrentDiffStorage(model, Weighting.UNWEIGHTED, Integer.MAX_VALUE);
+
+    storage.updateItemPref(1, 0.5f);
+
+    RunningAverage average = storage.getDiff(1, 2);
+    assertEquals(0.06666666666666668, average.getAverage(), EPSILON);
+    assertEquals(3, average.getCount());
+    average = storage.getDiff(2, 1);
+    assertEquals(-0.06666666666666668, average.getAverage(), EPSILON);
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    DataModel model = getDataModel();
+    DiffStorage storage = new ConcurrentDiffStorage(model, Weighting.UNWEIGHTED, Integer.MAX_VALUE);
+
+    storage.removeItemPref(4, 2, 0.8f);
+
+    RunningAverage average1 = storage.getDiff(0, 2);
+    assertEquals(0.1, average1.getAverage(), EPSILON);
+    assertEquals(2, average1.getCount());
+
+    RunningAverage average2 = storage.getDiff(1, 2);
+    assertEquals(0.1, average2.getAverage(), EPSILON);
+    assertEquals(2, average2.getCount());
+  }
+
+  @Test
+  public void testRemovePrefWeighted() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelPocked();
+    DiffStorage storage = new ConcurrentDiffStorage(model, Weighting.WEIGHTED, Integer.MAX_VALUE);
+
+    RunningAverageAndStdDev average = (RunningAverageAndStdDev) storage.getDiff(0, 1);
+    assertEquals(-0.033333, average.getAverage(), EPSILON);
+    assertEquals(0.32145, average.getStandardDeviation(), 0.0001);
+    assertEquals(3, average.getCount());
+
+    storage.removeItemPref(2, 1, 0.1f);
+    average = (RunningAverageAndStdDev) storage.getDiff(0, 1);
+    assertEquals(0.0, average.getAverage(), EPSILON);
+    assertEquals(0.44721, average.getStandardDeviation(), 0.0001);
+    assertEquals(2, average.getCount());
+  }
+
+  @Test
+  public void testMaxDiffsPerItem() throws Exception {
+    DataModel model = getDataModel(
+        new long[] {1, 2, 3, 4},
+        new Double[][] {
+            {1.0, 2.0, 3.0, 4.0},
+            {1.0, 2.0, 3.0, null},
+            {1.0, 2.0, null, null},
+            {1.0, 2.0, 3.0, 4.0},
+        });
+    DiffStorage storage = new ConcurrentDiffStorage(model, Weighting.UNWEIGHTED, 1);
+    // item 0 is co-rated 4 times with item 1, 3 times with item 2 and twice with item 3
+    assertEquals(4, storage.getDiff(1, 0).getCount());
+    assertNull(storage.getDiff(2, 0));
+    assertNull(storage.getDiff(3, 0));
+    // but item 3 keeps its diff from item 0, as no item is co-rated with it more often
+    assertEquals(2, storage.getDiff(0, 3).getCount());
+  }
+
+}
@@ -145,4 +145,31 @@ public class ALSWRFactorizerTest extends TasteTestCase {
     double rmse = Math.sqrt(avg.getAverage());
     assertTrue(rmse < 0.2);
   }
+
+  @Test
+  public void toyExampleImplicit() throws Exception {
+
+    SVDRecommender svdRecommender =
+        new SVDRecommender(dataModel, new ALSWRFactorizer(dataModel, 3, 0.065, 5, true, 1));
+
+    /* the preferences of a user should be estimated higher than the items they did not interact with */
+    RunningAverage rated = new FullRunningAverage();
+    RunningAverage unrated = new FullRunningAverage();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      LongPrimitiveIterator itemIDs = dataModel.getItemIDs();
+      while (itemIDs.hasNext()) {
+        long itemID = itemIDs.nextLong();
+        double estimate = svdRecommender.estimatePreference(userID, itemID);
+        if (dataModel.getPreferenceValue(userID, itemID) != null) {
+          rated.addDatum(estimate);
+        } else {
+          unrated.addDatum(estimate);
+        }
+      }
+    }
+
+    assertTrue(rated.getAverage() > unrated.getAverage());
+  }
 }
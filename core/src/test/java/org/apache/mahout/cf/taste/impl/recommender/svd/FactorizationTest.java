@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.junit.Test;
+
+public class FactorizationTest extends TasteTestCase {
+
+  private static Factorization mappedFactorization() {
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(123, 1);
+    userIDMapping.put(456, 0);
+    itemIDMapping.put(12, 0);
+    itemIDMapping.put(34, 1);
+    double[][] userFeatures = { { 0.4, 0.5, 0.6 }, { 0.1, 0.2, 0.3 } };
+    double[][] itemFeatures = { { 0.7, 0.8, 0.9 }, { 1.0, 1.1, 1.2 } };
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+
+  @Test
+  public void estimate() throws Exception {
+    Factorization factorization = mappedFactorization();
+    assertEquals(3, factorization.numFeatures());
+    assertEquals(2, factorization.numUsers());
+    assertEquals(2, factorization.numItems());
+    assertEquals(0.1 * 0.7 + 0.2 * 0.8 + 0.3 * 0.9, factorization.estimate(123, 12), EPSILON);
+    assertEquals(0.4 * 1.0 + 0.5 * 1.1 + 0.6 * 1.2, factorization.estimate(456, 34), EPSILON);
+  }
+
+  @Test
+  public void packedEqualsMapped() throws Exception {
+    Factorization packed = new Factorization(new long[] { 123, 456 }, new long[] { 34, 12 }, 3,
+        new double[] { 0.1, 0.2, 0.3, 0.4, 0.5, 0.6 }, new double[] { 1.0, 1.1, 1.2, 0.7, 0.8, 0.9 });
+    Factorization mapped = mappedFactorization();
+    assertEquals(mapped, packed);
+    assertEquals(mapped.hashCode(), packed.hashCode());
+    assertEquals(mapped.estimate(456, 12), packed.estimate(456, 12), EPSILON);
+  }
+
+  @Test
+  public void featuresAreCopies() throws Exception {
+    Factorization factorization = mappedFactorization();
+    double[] userFeatures = factorization.getUserFeatures(123);
+    assertArrayEquals(new double[] { 0.1, 0.2, 0.3 }, userFeatures, EPSILON);
+    userFeatures[0] = 100.0;
+    assertEquals(0.1, factorization.getUserFeatures(123)[0], EPSILON);
+    assertArrayEquals(new double[] { 1.0, 1.1, 1.2 }, factorization.getItemFeatures(34), EPSILON);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void noFeatures() {
+    new Factorization(new FastByIDMap<Integer>(), new FastByIDMap<Integer>(), new double[0][], new double[0][]);
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void unknownUser() throws Exception {
+    mappedFactorization().estimate(789, 12);
+  }
+
+  @Test(expected = NoSuchItemException.class)
+  public void unknownItem() throws Exception {
+    mappedFactorization().getItemFeatures(56);
+  }
+
+}
@@ -21,7 +21,9 @@ import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.junit.Test;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 
 public class FilePersistenceStrategyTest extends TasteTestCase {
 
@@ -50,4 +52,32 @@ public class FilePersistenceStrategyTest extends TasteTestCase {
 
     assertEquals(original, clone);
   }
+
+  @Test
+  public void loadOlderFormat() throws Exception {
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+
+    userIDMapping.put(123, 1);
+    userIDMapping.put(456, 0);
+
+    itemIDMapping.put(12, 0);
+
+    double[][] userFeatures = { { 0.1, 0.2 }, { 0.3, 0.4 } };
+    double[][] itemFeatures = { { 0.5, 0.6 } };
+
+    Factorization original = new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+    File storage = getTestTempFile("storage.bin");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(storage));
+    try {
+      FilePersistenceStrategy.writeBinary(original, out);
+    } finally {
+      out.close();
+    }
+
+    Factorization clone = new FilePersistenceStrategy(storage).load();
+    assertEquals(original, clone);
+    assertEquals(0.3 * 0.5 + 0.4 * 0.6, clone.estimate(123, 12), EPSILON);
+  }
+
 }
@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ItemFeaturesBallTreeTest extends TasteTestCase {
+
+  private static final int NUM_ITEMS = 3000;
+  private static final int NUM_FEATURES = 8;
+
+  private Random random;
+  private Factorization factorization;
+  private long[] itemIDs;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    random = RandomUtils.getRandom();
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[NUM_ITEMS][];
+    itemIDs = new long[NUM_ITEMS];
+    for (int item = 0; item < NUM_ITEMS; item++) {
+      itemIDs[item] = 10L * item + 7L;
+      itemIDMapping.put(itemIDs[item], item);
+      itemFeatures[item] = randomFeatures();
+    }
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    factorization = new Factorization(userIDMapping, itemIDMapping, new double[][] { randomFeatures() },
+        itemFeatures);
+  }
+
+  private double[] randomFeatures() {
+    double[] features = new double[NUM_FEATURES];
+    for (int feature = 0; feature < NUM_FEATURES; feature++) {
+      features[feature] = random.nextGaussian();
+    }
+    return features;
+  }
+
+  private List<RecommendedItem> scanTopItems(final double[] userFeatures, int howMany, final FastIDSet candidates,
+      final FastIDSet excluded) throws Exception {
+    return TopItems.getTopItems(howMany, new LongPrimitiveArrayIterator(itemIDs), null,
+        new TopItems.Estimator<Long>() {
+          @Override
+          public double estimate(Long itemID) throws TasteException {
+            boolean isCandidate = candidates == null || candidates.contains(itemID);
+            if (!isCandidate || (excluded != null && excluded.contains(itemID))) {
+              return Double.NaN;
+            }
+            double[] itemFeatures = factorization.getItemFeatures(itemID);
+            double estimate = 0.0;
+            for (int feature = 0; feature < NUM_FEATURES; feature++) {
+              estimate += userFeatures[feature] * itemFeatures[feature];
+            }
+            return estimate;
+          }
+        });
+  }
+
+  private static void assertSameItems(List<RecommendedItem> expected, List<RecommendedItem> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int n = 0; n < expected.size(); n++) {
+      assertEquals(expected.get(n).getItemID(), actual.get(n).getItemID());
+      assertEquals(expected.get(n).getValue(), actual.get(n).getValue(), EPSILON);
+    }
+  }
+
+  @Test
+  public void exactTopItems() throws Exception {
+    ItemFeaturesBallTree tree = new ItemFeaturesBallTree(factorization, 16);
+    assertEquals(NUM_ITEMS, tree.numItems());
+    for (int query = 0; query < 20; query++) {
+      double[] userFeatures = randomFeatures();
+      assertSameItems(scanTopItems(userFeatures, 10, null, null),
+                      tree.getTopItems(userFeatures, 10, 1.0, null, null));
+    }
+  }
+
+  @Test
+  public void candidatesAndExclusions() throws Exception {
+    ItemFeaturesBallTree tree = new ItemFeaturesBallTree(factorization);
+    FastIDSet candidates = new FastIDSet();
+    FastIDSet excluded = new FastIDSet();
+    for (long itemID : itemIDs) {
+      if (random.nextBoolean()) {
+        candidates.add(itemID);
+      }
+      if (random.nextInt(10) == 0) {
+        excluded.add(itemID);
+      }
+    }
+    double[] userFeatures = randomFeatures();
+    assertSameItems(scanTopItems(userFeatures, 25, candidates, null),
+                    tree.getTopItems(userFeatures, 25, 1.0, candidates, null));
+    assertSameItems(scanTopItems(userFeatures, 25, null, excluded),
+                    tree.getTopItems(userFeatures, 25, 1.0, null, excluded));
+  }
+
+  @Test
+  public void approximateTopItems() throws Exception {
+    ItemFeaturesBallTree tree = new ItemFeaturesBallTree(factorization);
+    double[] userFeatures = randomFeatures();
+    List<RecommendedItem> approximate = tree.getTopItems(userFeatures, 10, 0.5, null, null);
+    assertEquals(10, approximate.size());
+    List<RecommendedItem> exact = scanTopItems(userFeatures, 10, null, null);
+    // the best item found can only be as good as the best one
+    assertTrue(approximate.get(0).getValue() <= exact.get(0).getValue() + EPSILON);
+    for (int n = 1; n < approximate.size(); n++) {
+      assertTrue(approximate.get(n).getValue() <= approximate.get(n - 1).getValue());
+    }
+  }
+
+  @Test
+  public void skewedFeaturesKeepTreeShallow() throws Exception {
+    // each pivot split would only split off the largest item
+    int numItems = 100;
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[numItems][NUM_FEATURES];
+    itemIDs = new long[numItems];
+    for (int item = 0; item < numItems; item++) {
+      itemIDs[item] = item;
+      itemIDMapping.put(itemIDs[item], item);
+      itemFeatures[item][0] = Math.scalb(1.0, item);
+    }
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    factorization = new Factorization(userIDMapping, itemIDMapping, new double[][] { randomFeatures() },
+        itemFeatures);
+    ItemFeaturesBallTree tree = new ItemFeaturesBallTree(factorization, 1);
+    assertTrue(tree.depth() <= 3 * 7 + 1);
+    for (int query = 0; query < 10; query++) {
+      double[] userFeatures = randomFeatures();
+      assertSameItems(scanTopItems(userFeatures, 10, null, null),
+                      tree.getTopItems(userFeatures, 10, 1.0, null, null));
+    }
+  }
+
+  @Test
+  public void moreItemsRequestedThanExist() throws Exception {
+    ItemFeaturesBallTree tree = new ItemFeaturesBallTree(factorization);
+    double[] userFeatures = randomFeatures();
+    assertSameItems(scanTopItems(userFeatures, NUM_ITEMS + 5, null, null),
+                    tree.getTopItems(userFeatures, NUM_ITEMS + 5, 1.0, null, null));
+  }
+
+}
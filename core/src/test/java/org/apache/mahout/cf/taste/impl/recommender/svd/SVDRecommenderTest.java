@@ -18,7 +18,9 @@
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
@@ -37,8 +39,7 @@ public class SVDRecommenderTest extends TasteTestCase {
     Factorization factorization = EasyMock.createMock(Factorization.class);
 
     EasyMock.expect(factorizer.factorize()).andReturn(factorization);
-    EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
-    EasyMock.expect(factorization.getItemFeatures(5L)).andReturn(new double[] { 1, 0.3 });
+    EasyMock.expect(factorization.estimate(1L, 5L)).andReturn(1.0);
     EasyMock.replay(dataModel, factorizer, factorization);
 
     SVDRecommender svdRecommender = new SVDRecommender(dataModel, factorizer);
@@ -65,10 +66,8 @@ public class SVDRecommenderTest extends TasteTestCase {
     EasyMock.expect(dataModel.getPreferencesFromUser(1L)).andReturn(preferencesFromUser);
     EasyMock.expect(candidateItemsStrategy.getCandidateItems(1L, preferencesFromUser, dataModel))
         .andReturn(candidateItems);
-    EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
-    EasyMock.expect(factorization.getItemFeatures(5L)).andReturn(new double[] { 1, 0.3 });
-    EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
-    EasyMock.expect(factorization.getItemFeatures(3L)).andReturn(new double[] { 2, 0.6 });
+    EasyMock.expect(factorization.estimate(1L, 5L)).andReturn(1.0);
+    EasyMock.expect(factorization.estimate(1L, 3L)).andReturn(2.0);
 
     EasyMock.replay(dataModel, candidateItemsStrategy, factorizer, factorization);
 
@@ -83,4 +82,35 @@ public class SVDRecommenderTest extends TasteTestCase {
 
     EasyMock.verify(dataModel, candidateItemsStrategy, factorizer, factorization);
   }
+
+  @Test
+  public void recommendWithItemIndex() throws Exception {
+    DataModel dataModel = getDataModel(new long[] {1L, 2L}, new Double[][] {{1.0, null, null, 1.0}, {1.0, 1.0, 1.0}});
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    userIDMapping.put(2L, 1);
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    for (int item = 0; item < 4; item++) {
+      itemIDMapping.put(item, item);
+    }
+    final Factorization factorization = new Factorization(userIDMapping, itemIDMapping,
+        new double[][] {{0.4, 2.0}, {1.0, 1.0}}, new double[][] {{1.0, 0.3}, {2.0, 0.6}, {-1.0, 0.1}, {0.0, 5.0}});
+    Factorizer factorizer = EasyMock.createMock(Factorizer.class);
+    EasyMock.expect(factorizer.factorize()).andReturn(factorization).times(2);
+    EasyMock.replay(factorizer);
+
+    SVDRecommender scanning = new SVDRecommender(dataModel, factorizer, new AllUnknownItemsCandidateItemsStrategy(),
+        SVDRecommender.getDefaultPersistenceStrategy());
+    SVDRecommender indexed = new SVDRecommender(dataModel, factorizer, new AllUnknownItemsCandidateItemsStrategy(),
+        SVDRecommender.getDefaultPersistenceStrategy(), 1.0);
+
+    List<RecommendedItem> expected = scanning.recommend(1L, 5);
+    List<RecommendedItem> recommendedItems = indexed.recommend(1L, 5);
+    assertEquals(2, recommendedItems.size());
+    assertEquals(expected, recommendedItems);
+    assertEquals(1L, recommendedItems.get(0).getItemID());
+    assertEquals(2.0f, recommendedItems.get(0).getValue(), EPSILON);
+
+    EasyMock.verify(factorizer);
+  }
 }
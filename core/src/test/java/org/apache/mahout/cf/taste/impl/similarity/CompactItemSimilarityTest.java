@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link CompactItemSimilarity}.</p> */
+public final class CompactItemSimilarityTest extends TasteTestCase {
+
+  @Test
+  public void testLookups() {
+    List<GenericItemSimilarity.ItemItemSimilarity> similarities = Lists.newArrayList();
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(1, 2, 0.5));
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(3, 1, -0.25));
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(2, 3, 0.75));
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(4, 4, 0.1));
+    CompactItemSimilarity similarity = new CompactItemSimilarity(similarities);
+
+    assertEquals(3, similarity.getNumItems());
+    assertEquals(0.5, similarity.itemSimilarity(1, 2), EPSILON);
+    assertEquals(0.5, similarity.itemSimilarity(2, 1), EPSILON);
+    assertEquals(-0.25, similarity.itemSimilarity(1, 3), EPSILON);
+    assertEquals(1.0, similarity.itemSimilarity(4, 4), EPSILON);
+    assertTrue(Double.isNaN(similarity.itemSimilarity(1, 4)));
+    assertTrue(Double.isNaN(similarity.itemSimilarity(5, 1)));
+
+    double[] values = similarity.itemSimilarities(3, new long[] {1, 2, 3, 4});
+    assertEquals(-0.25, values[0], EPSILON);
+    assertEquals(0.75, values[1], EPSILON);
+    assertEquals(1.0, values[2], EPSILON);
+    assertTrue(Double.isNaN(values[3]));
+
+    assertArrayEquals(new long[] {2, 3}, similarity.allSimilarItemIDs(1));
+    assertEquals(0, similarity.allSimilarItemIDs(4).length);
+  }
+
+  @Test
+  public void testSameAsGenericItemSimilarity() {
+    Random random = RandomUtils.getRandom();
+    List<GenericItemSimilarity.ItemItemSimilarity> similarities = Lists.newArrayList();
+    FastIDSet pairs = new FastIDSet();
+    for (int i = 0; i < 2000; i++) {
+      long itemID1 = random.nextInt(100);
+      long itemID2 = random.nextInt(100);
+      if (itemID1 != itemID2 && pairs.add(Math.min(itemID1, itemID2) * 100 + Math.max(itemID1, itemID2))) {
+        similarities.add(new GenericItemSimilarity.ItemItemSimilarity(itemID1, itemID2, random.nextFloat()));
+      }
+    }
+    GenericItemSimilarity expected = new GenericItemSimilarity(similarities);
+    CompactItemSimilarity actual = new CompactItemSimilarity(similarities);
+    for (long itemID1 = 0; itemID1 < 100; itemID1++) {
+      long[] expectedIDs = expected.allSimilarItemIDs(itemID1);
+      Arrays.sort(expectedIDs);
+      assertArrayEquals(expectedIDs, actual.allSimilarItemIDs(itemID1));
+      for (long itemID2 = 0; itemID2 < 100; itemID2++) {
+        assertEquals(expected.itemSimilarity(itemID1, itemID2), actual.itemSimilarity(itemID1, itemID2), EPSILON);
+      }
+    }
+  }
+
+}
@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.impl.similarity;
 
+import org.apache.mahout.cf.taste.impl.model.ItemUserBitmapIndex;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.junit.Test;
 
@@ -50,6 +51,61 @@ public final class LogLikelihoodSimilarityTest extends SimilarityTestCase {
     assertCorrelationEquals(0.8706358464330881, similarity.itemSimilarity(4, 3));
   }
 
+  @Test
+  public void testBitmapIndex() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {1.0, 1.0},
+                    {1.0, null, 1.0},
+                    {null, null, 1.0, 1.0, 1.0},
+                    {1.0, 1.0, 1.0, 1.0, 1.0},
+                    {null, 1.0, 1.0, 1.0, 1.0},
+            });
+
+    LogLikelihoodSimilarity similarity = new LogLikelihoodSimilarity(dataModel);
+    LogLikelihoodSimilarity indexed =
+        new LogLikelihoodSimilarity(dataModel, ItemUserBitmapIndex.build(dataModel));
+
+    long[] itemIDs = {0, 1, 2, 3, 4};
+    for (long itemID : itemIDs) {
+      assertArrayEquals(similarity.itemSimilarities(itemID, itemIDs), indexed.itemSimilarities(itemID, itemIDs),
+                        EPSILON);
+      assertCorrelationEquals(similarity.itemSimilarity(itemID, 3), indexed.itemSimilarity(itemID, 3));
+    }
+    indexed.refresh(null);
+    assertCorrelationEquals(0.8706358464330881, indexed.itemSimilarity(3, 4));
+  }
+
+  @Test
+  public void testItemMissingFromBitmapIndex() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {1.0, 1.0},
+                    {1.0, null, 1.0},
+                    {null, null, 1.0, 1.0, 1.0},
+                    {1.0, 1.0, 1.0, 1.0, 1.0},
+                    {null, 1.0, 1.0, 1.0, 1.0},
+            });
+    DataModel withoutItem4 = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {1.0, 1.0},
+                    {1.0, null, 1.0},
+                    {null, null, 1.0, 1.0},
+                    {1.0, 1.0, 1.0, 1.0},
+                    {null, 1.0, 1.0, 1.0},
+            });
+
+    LogLikelihoodSimilarity indexed =
+        new LogLikelihoodSimilarity(dataModel, ItemUserBitmapIndex.build(withoutItem4));
+
+    assertCorrelationEquals(0.8706358464330881, indexed.itemSimilarity(3, 4));
+    assertCorrelationEquals(0.8706358464330881, indexed.itemSimilarity(4, 3));
+    assertCorrelationEquals(0.8706358464330881, indexed.itemSimilarities(3, new long[] {4})[0]);
+  }
+
   @Test
   public void testNoSimilarity() throws Exception {
 
@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.impl.similarity;
 
+import org.apache.mahout.cf.taste.impl.model.ItemUserBitmapIndex;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.junit.Test;
 
@@ -118,4 +119,46 @@ public final class TanimotoCoefficientSimilarityTest extends SimilarityTestCase
 	  assertEquals(1, similarities[1], EPSILON);
   }
   
-}
\ No newline at end of file
+  @Test
+  public void testBitmapIndex() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+            {2.0, null, 2.0},
+            {1.0, 1.0, 1.0},
+            {null, 1.0, null, 3.0},
+        });
+    TanimotoCoefficientSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    TanimotoCoefficientSimilarity indexed =
+        new TanimotoCoefficientSimilarity(dataModel, ItemUserBitmapIndex.build(dataModel));
+    long[] itemIDs = {0, 1, 2, 3};
+    for (long itemID : itemIDs) {
+      assertArrayEquals(similarity.itemSimilarities(itemID, itemIDs), indexed.itemSimilarities(itemID, itemIDs),
+                        EPSILON);
+    }
+    assertEquals(1.0 / 3.0, indexed.itemSimilarity(0, 1), EPSILON);
+  }
+
+  @Test
+  public void testItemMissingFromBitmapIndex() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+            {2.0, null, 2.0},
+            {1.0, 1.0, 1.0},
+            {null, 1.0, null, 3.0},
+        });
+    DataModel withoutItem1 = getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+            {2.0, null, 2.0},
+            {1.0, null, 1.0},
+            {null, null, null, 3.0},
+        });
+    TanimotoCoefficientSimilarity indexed =
+        new TanimotoCoefficientSimilarity(dataModel, ItemUserBitmapIndex.build(withoutItem1));
+    assertEquals(1.0 / 3.0, indexed.itemSimilarity(0, 1), EPSILON);
+    assertEquals(1.0 / 3.0, indexed.itemSimilarity(1, 0), EPSILON);
+  }
+
+}
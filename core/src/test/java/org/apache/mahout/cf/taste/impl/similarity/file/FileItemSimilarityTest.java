@@ -19,6 +19,13 @@ package org.apache.mahout.cf.taste.impl.similarity.file;
 
 import java.io.File;
 
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.mahout.cf.taste.hadoop.EntityEntityWritable;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity.ItemItemSimilarity;
@@ -133,6 +140,45 @@ public final class FileItemSimilarityTest extends TasteTestCase {
     assertEquals(0.5, valuesForOne[1], EPSILON);
   }
 
+  @Test
+  public void testLoadFromItemSimilarityJobOutput() throws Exception {
+    File outputDir = getTestTempDir("similarities");
+    writeLines(new File(outputDir, "part-r-00000"), "1\t5\t0.125");
+    writeLines(new File(outputDir, "_SUCCESS"));
+    Configuration conf = new Configuration();
+    SequenceFile.Writer writer = SequenceFile.createWriter(FileSystem.getLocal(conf), conf,
+        new Path(new File(outputDir, "part-r-00001").getAbsolutePath()), EntityEntityWritable.class,
+        DoubleWritable.class);
+    try {
+      writer.append(new EntityEntityWritable(1L, 7L), new DoubleWritable(0.5));
+    } finally {
+      Closeables.closeQuietly(writer);
+    }
+
+    ItemSimilarity similarity = new FileItemSimilarity(outputDir);
+    assertEquals(0.125, similarity.itemSimilarity(5L, 1L), EPSILON);
+    assertEquals(0.5, similarity.itemSimilarity(7L, 1L), EPSILON);
+    assertArrayEquals(new long[] {5L, 7L}, similarity.allSimilarItemIDs(1L));
+  }
+
+  @Test
+  public void testRefreshAfterPartFileUpdate() throws Exception {
+    File outputDir = getTestTempDir("similarities");
+    File part = new File(outputDir, "part-r-00000");
+    writeLines(part, data);
+    ItemSimilarity similarity = new FileItemSimilarity(outputDir, 0L);
+    assertEquals(0.5, similarity.itemSimilarity(1L, 7L), EPSILON);
+
+    /* rewriting a part in place does not touch the directory */
+    long directoryLastModified = outputDir.lastModified();
+    writeLines(part, changedData);
+    assertTrue(part.setLastModified(directoryLastModified + 2000L));
+    assertTrue(outputDir.setLastModified(directoryLastModified));
+
+    similarity.refresh(null);
+    assertEquals(0.9, similarity.itemSimilarity(1L, 7L), EPSILON);
+  }
+
   @Test
   public void testToString() throws Exception {
     ItemSimilarity similarity = new FileItemSimilarity(testFile);
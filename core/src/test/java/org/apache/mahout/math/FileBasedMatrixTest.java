@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class FileBasedMatrixTest extends MahoutTestCase {
+
+  private static Matrix randomMatrix(int rows, int columns) {
+    Random random = RandomUtils.getRandom();
+    Matrix m = new DenseMatrix(rows, columns);
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        m.setQuick(row, column, random.nextGaussian());
+      }
+    }
+    return m;
+  }
+
+  private static void assertEquals(Matrix expected, Matrix actual) {
+    assertEquals(expected.numRows(), actual.numRows());
+    assertEquals(expected.numCols(), actual.numCols());
+    for (int row = 0; row < expected.numRows(); row++) {
+      for (int column = 0; column < expected.numCols(); column++) {
+        assertEquals(expected.get(row, column), actual.get(row, column), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  public void testReadMatrixWritable() throws Exception {
+    Matrix m = randomMatrix(7, 5);
+    Map<String,Integer> bindings = Maps.newHashMap();
+    bindings.put("A", 0);
+    bindings.put("B", 3);
+    m.setRowLabelBindings(bindings);
+
+    File file = getTestTempFile("matrix");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      MatrixWritable.writeMatrix(out, m);
+    } finally {
+      Closeables.closeQuietly(out);
+    }
+
+    Matrix mapped = new FileBasedMatrix(file);
+    assertEquals(m, mapped);
+    assertEquals(bindings, mapped.getRowLabelBindings());
+    assertNull(mapped.getColumnLabelBindings());
+  }
+
+  @Test
+  public void testWriteSparseRows() throws Exception {
+    Matrix m = new SparseRowMatrix(4, 6);
+    m.set(0, 1, 1.5);
+    m.set(2, 5, -2.0);
+    m.set(3, 0, 4.0);
+    File file = getTestTempFile("matrix");
+    FileBasedMatrix.writeMatrix(file, m);
+    assertEquals(m, new FileBasedMatrix(file));
+  }
+
+  @Test
+  public void testMultipleBlocks() throws Exception {
+    Matrix m = randomMatrix(11, 3);
+    File file = getTestTempFile("matrix");
+    FileBasedMatrix.writeMatrix(file, m);
+    // two rows per mapped block
+    Matrix mapped = new FileBasedMatrix(file, 60);
+    assertEquals(m, mapped);
+    assertEquals(m.viewRow(10), mapped.viewRow(10));
+  }
+
+  @Test
+  public void testViews() throws Exception {
+    Matrix m = randomMatrix(6, 4);
+    File file = getTestTempFile("matrix");
+    FileBasedMatrix.writeMatrix(file, m);
+    Matrix mapped = new FileBasedMatrix(file, 100);
+    for (int row = 0; row < m.numRows(); row++) {
+      assertEquals(m.viewRow(row), mapped.viewRow(row));
+    }
+    for (int column = 0; column < m.numCols(); column++) {
+      assertEquals(m.viewColumn(column), mapped.viewColumn(column));
+    }
+    assertEquals(m.viewPart(1, 3, 2, 2), mapped.viewPart(1, 3, 2, 2));
+  }
+
+  @Test
+  public void testTimes() throws Exception {
+    Matrix m = randomMatrix(9, 5);
+    File file = getTestTempFile("matrix");
+    FileBasedMatrix.writeMatrix(file, m);
+    Matrix mapped = new FileBasedMatrix(file, 100);
+
+    Matrix other = randomMatrix(5, 3);
+    assertEquals(m.times(other), mapped.times(other));
+
+    Vector dense = new DenseVector(new double[] {1.0, -2.0, 0.0, 3.0, 0.5});
+    assertEquals(0.0, m.times(dense).minus(mapped.times(dense)).norm(1.0), EPSILON);
+    Vector sparse = new RandomAccessSparseVector(5);
+    sparse.set(3, 2.0);
+    assertEquals(0.0, m.times(sparse).minus(mapped.times(sparse)).norm(1.0), EPSILON);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReadOnly() throws Exception {
+    File file = getTestTempFile("matrix");
+    FileBasedMatrix.writeMatrix(file, randomMatrix(2, 2));
+    new FileBasedMatrix(file).set(0, 0, 1.0);
+  }
+
+}
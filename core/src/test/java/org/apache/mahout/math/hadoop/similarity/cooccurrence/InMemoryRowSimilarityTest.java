@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math.hadoop.similarity.cooccurrence;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.common.ClassUtils;
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.hadoop.MathHelper;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.CosineSimilarity;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.LoglikelihoodSimilarity;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.TanimotoCoefficientSimilarity;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.VectorSimilarityMeasure;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+public class InMemoryRowSimilarityTest extends MahoutTestCase {
+
+  /**
+   * the toy data of {@link RowSimilarityJobTest#toyIntegration()}
+   */
+  @Test
+  public void toyMatrix() throws Exception {
+    Matrix matrix = new DenseMatrix(new double[][] {
+        new double[] { 1, 0, 1, 1, 0 },
+        new double[] { 0, 0, 1, 1, 0 },
+        new double[] { 0, 0, 0, 0, 1 } });
+
+    Matrix similarityMatrix = new InMemoryRowSimilarity(new TanimotoCoefficientSimilarity(), 100, false,
+        RowSimilarityJob.NO_THRESHOLD, 2).compute(matrix);
+
+    assertEquals(3, similarityMatrix.numCols());
+    assertEquals(3, similarityMatrix.numRows());
+
+    assertEquals(1.0, similarityMatrix.get(0, 0), EPSILON);
+    assertEquals(1.0, similarityMatrix.get(1, 1), EPSILON);
+    assertEquals(1.0, similarityMatrix.get(2, 2), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(2, 0), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(2, 1), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(0, 2), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(1, 2), EPSILON);
+    assertEquals(0.666666, similarityMatrix.get(0, 1), EPSILON);
+    assertEquals(0.666666, similarityMatrix.get(1, 0), EPSILON);
+  }
+
+  /**
+   * the toy data of {@link RowSimilarityJobTest#toyIntegrationMaxSimilaritiesPerRow()}
+   */
+  @Test
+  public void toyMatrixMaxSimilaritiesPerRow() throws Exception {
+    Matrix matrix = new DenseMatrix(new double[][] {
+        new double[] { 1, 0, 1, 1, 0, 1 },
+        new double[] { 0, 1, 1, 1, 1, 1 },
+        new double[] { 1, 1, 0, 1, 0, 0 } });
+
+    Matrix similarityMatrix = new InMemoryRowSimilarity(new TanimotoCoefficientSimilarity(), 1, true,
+        RowSimilarityJob.NO_THRESHOLD, 1).compute(matrix);
+
+    assertEquals(0.0, similarityMatrix.get(0, 0), EPSILON);
+    assertEquals(0.5, similarityMatrix.get(0, 1), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(0, 2), EPSILON);
+
+    assertEquals(0.5, similarityMatrix.get(1, 0), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(1, 1), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(1, 2), EPSILON);
+
+    assertEquals(0.4, similarityMatrix.get(2, 0), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(2, 1), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(2, 2), EPSILON);
+  }
+
+  @Test
+  public void sameAsRowSimilarityJob() throws Exception {
+    int numRows = 300;
+    int numColumns = 50;
+    Random random = RandomUtils.getRandom();
+    double[][] rows = new double[numRows][numColumns];
+    for (int row = 0; row < numRows; row++) {
+      for (int column = 0; column < numColumns; column++) {
+        if (random.nextDouble() < 0.1) {
+          rows[row][column] = 1 + random.nextInt(5);
+        }
+      }
+    }
+
+    Configuration conf = new Configuration();
+    File inputFile = getTestTempFile("rows");
+    Path inputPath = new Path(inputFile.getAbsolutePath());
+    MathHelper.writeDistributedRowMatrix(rows, FileSystem.get(inputPath.toUri(), conf), conf, inputPath);
+
+    for (String similarityClassname : new String[] { CosineSimilarity.class.getName(),
+        LoglikelihoodSimilarity.class.getName() }) {
+      String name = similarityClassname.substring(similarityClassname.lastIndexOf('.') + 1);
+      File outputDir = getTestTempDir(name + "-output");
+      outputDir.delete();
+      File inMemoryOutputDir = getTestTempDir(name + "-inMemoryOutput");
+
+      RowSimilarityJob rowSimilarityJob = new RowSimilarityJob();
+      rowSimilarityJob.setConf(conf);
+      rowSimilarityJob.run(new String[] { "--input", inputFile.getAbsolutePath(),
+          "--output", outputDir.getAbsolutePath(), "--numberOfColumns", String.valueOf(numColumns),
+          "--similarityClassname", similarityClassname, "--maxSimilaritiesPerRow", String.valueOf(numRows),
+          "--excludeSelfSimilarity", String.valueOf(true),
+          "--tempDir", getTestTempDir(name + "-tmp").getAbsolutePath() });
+
+      VectorSimilarityMeasure similarity = ClassUtils.instantiateAs(similarityClassname,
+          VectorSimilarityMeasure.class);
+      new InMemoryRowSimilarity(similarity, numRows, true, RowSimilarityJob.NO_THRESHOLD, 4)
+          .compute(inputPath, new Path(inMemoryOutputDir.getAbsolutePath()), numColumns, conf);
+
+      Matrix expected = MathHelper.readMatrix(conf, new Path(outputDir.getAbsolutePath(), "part-r-00000"),
+          numRows, numRows);
+      Matrix actual = MathHelper.readMatrix(conf, new Path(inMemoryOutputDir.getAbsolutePath(), "part-r-00000"),
+          numRows, numRows);
+      for (int row = 0; row < numRows; row++) {
+        for (int column = 0; column < numRows; column++) {
+          assertEquals(expected.get(row, column), actual.get(row, column), EPSILON);
+        }
+      }
+    }
+  }
+
+}
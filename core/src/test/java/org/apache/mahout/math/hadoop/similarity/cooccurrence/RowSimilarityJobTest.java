@@ -21,12 +21,16 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.hadoop.MathHelper;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.CosineSimilarity;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.EuclideanDistanceSimilarity;
 import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.TanimotoCoefficientSimilarity;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.Random;
 
 public class RowSimilarityJobTest extends MahoutTestCase {
 
@@ -178,4 +182,125 @@ public class RowSimilarityJobTest extends MahoutTestCase {
     assertEquals(0.0, similarityMatrix.get(2, 2), EPSILON);
   }
 
+  @Test
+  public void toyIntegrationInMapperCombiner() throws Exception {
+
+    File inputFile = getTestTempFile("rows");
+    File outputDir = getTestTempDir("output");
+    outputDir.delete();
+    File tmpDir = getTestTempDir("tmp");
+
+    Configuration conf = new Configuration();
+    Path inputPath = new Path(inputFile.getAbsolutePath());
+    FileSystem fs = FileSystem.get(inputPath.toUri(), conf);
+
+    MathHelper.writeDistributedRowMatrix(new double[][] {
+        new double[] { 1, 0, 1, 1, 0 },
+        new double[] { 0, 0, 1, 1, 0 },
+        new double[] { 0, 0, 0, 0, 1 } },
+        fs, conf, inputPath);
+
+    RowSimilarityJob rowSimilarityJob = new RowSimilarityJob();
+    rowSimilarityJob.setConf(conf);
+    rowSimilarityJob.run(new String[] { "--input", inputFile.getAbsolutePath(), "--output", outputDir.getAbsolutePath(),
+        "--numberOfColumns", String.valueOf(5), "--similarityClassname", TanimotoCoefficientSimilarity.class.getName(),
+        "--inMapperCombiner", String.valueOf(true), "--tempDir", tmpDir.getAbsolutePath() });
+
+    Matrix similarityMatrix = MathHelper.readMatrix(conf, new Path(outputDir.getAbsolutePath(), "part-r-00000"), 3, 3);
+
+    assertEquals(1.0, similarityMatrix.get(0, 0), EPSILON);
+    assertEquals(1.0, similarityMatrix.get(1, 1), EPSILON);
+    assertEquals(1.0, similarityMatrix.get(2, 2), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(2, 0), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(2, 1), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(0, 2), EPSILON);
+    assertEquals(0.0, similarityMatrix.get(1, 2), EPSILON);
+    assertEquals(0.666666, similarityMatrix.get(0, 1), EPSILON);
+    assertEquals(0.666666, similarityMatrix.get(1, 0), EPSILON);
+  }
+
+  /**
+   * rows 0 to 4 are noisy copies of the same dense row, rows 5 to 9 are unrelated, so there are both large and
+   * small similarities, and the magnitudes of all rows are large enough for most co-occurrences to be sampled out
+   */
+  @Test
+  public void sampledCosineSimilarities() throws Exception {
+
+    File inputFile = getTestTempFile("rows");
+    File outputDir = getTestTempDir("output");
+    outputDir.delete();
+    File tmpDir = getTestTempDir("tmp");
+
+    Configuration conf = new Configuration();
+    Path inputPath = new Path(inputFile.getAbsolutePath());
+    FileSystem fs = FileSystem.get(inputPath.toUri(), conf);
+
+    int numRows = 10;
+    int numColumns = 2000;
+    Random random = RandomUtils.getRandom();
+    double[] base = new double[numColumns];
+    for (int column = 0; column < numColumns; column++) {
+      base[column] = random.nextDouble() < 0.5 ? 1 + random.nextInt(5) : 0;
+    }
+    double[][] rows = new double[numRows][numColumns];
+    for (int row = 0; row < numRows; row++) {
+      for (int column = 0; column < numColumns; column++) {
+        if (row < numRows / 2) {
+          rows[row][column] = random.nextDouble() < 0.9 ? base[column] : 1 + random.nextInt(5);
+        } else {
+          rows[row][column] = random.nextDouble() < 0.5 ? 1 + random.nextInt(5) : 0;
+        }
+      }
+    }
+    MathHelper.writeDistributedRowMatrix(rows, fs, conf, inputPath);
+
+    RowSimilarityJob rowSimilarityJob = new RowSimilarityJob();
+    rowSimilarityJob.setConf(conf);
+    rowSimilarityJob.run(new String[] { "--input", inputFile.getAbsolutePath(), "--output", outputDir.getAbsolutePath(),
+        "--numberOfColumns", String.valueOf(numColumns), "--similarityClassname", CosineSimilarity.class.getName(),
+        "--samplingThreshold", String.valueOf(0.1), "--inMapperCombiner", String.valueOf(true),
+        "--tempDir", tmpDir.getAbsolutePath() });
+
+    Matrix similarityMatrix = MathHelper.readMatrix(conf, new Path(outputDir.getAbsolutePath(), "part-r-00000"),
+        numRows, numRows);
+
+    // single estimates may be off by a constant factor, but they must not be biased
+    double sumOfErrors = 0.0;
+    for (int rowA = 0; rowA < numRows; rowA++) {
+      for (int rowB = 0; rowB < numRows; rowB++) {
+        double error = similarityMatrix.get(rowA, rowB) - cosine(rows[rowA], rows[rowB]);
+        assertEquals(0.0, error, 0.25);
+        sumOfErrors += error;
+      }
+    }
+    assertEquals(0.0, sumOfErrors / (numRows * numRows), 0.03);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void samplingNeedsSupportedSimilarity() throws Exception {
+
+    File inputFile = getTestTempFile("rows");
+    File outputDir = getTestTempDir("output");
+    outputDir.delete();
+    File tmpDir = getTestTempDir("tmp");
+
+    RowSimilarityJob rowSimilarityJob = new RowSimilarityJob();
+    rowSimilarityJob.setConf(new Configuration());
+    rowSimilarityJob.run(new String[] { "--input", inputFile.getAbsolutePath(), "--output", outputDir.getAbsolutePath(),
+        "--numberOfColumns", String.valueOf(5), "--similarityClassname", EuclideanDistanceSimilarity.class.getName(),
+        "--samplingThreshold", String.valueOf(0.5), "--tempDir", tmpDir.getAbsolutePath() });
+  }
+
+  private static double cosine(double[] a, double[] b) {
+    double dot = 0;
+    double normA = 0;
+    double normB = 0;
+    for (int i = 0; i < a.length; i++) {
+      dot += a[i] * b[i];
+      normA += a[i] * a[i];
+      normB += b[i] * b[i];
+    }
+    return dot / Math.sqrt(normA * normB);
+  }
+
 }
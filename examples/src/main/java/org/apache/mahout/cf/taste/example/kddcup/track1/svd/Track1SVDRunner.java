@@ -124,12 +124,7 @@ public class Track1SVDRunner {
 
   static double estimatePreference(Factorization factorization, long userID, long itemID, float minPreference,
       float maxPreference) throws NoSuchUserException, NoSuchItemException {
-    double[] userFeatures = factorization.getUserFeatures(userID);
-    double[] itemFeatures = factorization.getItemFeatures(itemID);
-    double estimate = 0;
-    for (int feature = 0; feature < userFeatures.length; feature++) {
-      estimate += userFeatures[feature] * itemFeatures[feature];
-    }
+    double estimate = factorization.estimate(userID, itemID);
     if (estimate < minPreference) {
       estimate = minPreference;
     } else if (estimate > maxPreference) {
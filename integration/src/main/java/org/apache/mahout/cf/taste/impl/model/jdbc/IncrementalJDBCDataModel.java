@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.ConcurrentDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link DataModel} holding a preference table in memory, which is read once in full by a
+ * {@link ParallelJDBCLoader} and from then on, at each {@link #refresh(Collection)}, only for the rows whose
+ * timestamp column shows they were set since the last read. These are applied as changes to a
+ * {@link ConcurrentDataModel}, so readers are never blocked while this happens.
+ * </p>
+ *
+ * <p>
+ * Rows deleted from the table are not noticed; to remove a preference, use
+ * {@link #removePreference(long, long)} as well, or rebuild the model now and then.
+ * {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)} change the data in memory
+ * only.
+ * </p>
+ */
+public final class IncrementalJDBCDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(IncrementalJDBCDataModel.class);
+
+  private final ParallelJDBCLoader loader;
+  private final ConcurrentDataModel delegate;
+  private final ReentrantLock refreshLock;
+  /** greatest timestamp in the table when it was last read */
+  private long lastTimestamp;
+
+  /**
+   * @param loader a loader of a table with a timestamp column
+   */
+  public IncrementalJDBCDataModel(ParallelJDBCLoader loader) throws TasteException {
+    this.loader = Preconditions.checkNotNull(loader);
+    this.refreshLock = new ReentrantLock();
+    // noted before reading, so that rows set meanwhile are read again on refresh
+    this.lastTimestamp = loader.getMaxTimestamp();
+    this.delegate = loader.loadConcurrent();
+  }
+
+  public ParallelJDBCLoader getLoader() {
+    return loader;
+  }
+
+  private void readChanges() throws TasteException {
+    long maxTimestamp = loader.getMaxTimestamp();
+    if (maxTimestamp == Long.MIN_VALUE) {
+      return;
+    }
+    List<ConcurrentDataModel.Delta> deltas = loader.loadChangesSince(lastTimestamp);
+    log.info("Applying {} preferences set since {}", deltas.size(), lastTimestamp);
+    delegate.apply(deltas);
+    lastTimestamp = maxTimestamp;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    return delegate.getUserIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    return delegate.getPreferencesFromUser(userID);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    return delegate.getItemIDsFromUser(userID);
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return delegate.getItemIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    return delegate.getPreferencesForItem(itemID);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    return delegate.getPreferenceValue(userID, itemID);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    return delegate.getPreferenceTime(userID, itemID);
+  }
+
+  @Override
+  public int getNumItems() {
+    return delegate.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return delegate.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    return delegate.getNumUsersWithPreferenceFor(itemID);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    return delegate.getNumUsersWithPreferenceFor(itemID1, itemID2);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    delegate.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    delegate.removePreference(userID, itemID);
+  }
+
+  /**
+   * Reads the rows set since the table was last read. Does nothing if another thread is doing so already.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (refreshLock.tryLock()) {
+      try {
+        readChanges();
+      } catch (TasteException te) {
+        log.warn("Exception while reading changed preferences", te);
+      } finally {
+        refreshLock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return loader.hasPreferenceValues();
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return delegate.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return delegate.getMinPreference();
+  }
+
+  @Override
+  public String toString() {
+    return "IncrementalJDBCDataModel[lastTimestamp:" + lastTimestamp + ']';
+  }
+
+}
@@ -0,0 +1,507 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.sql.DataSource;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.jdbc.AbstractJDBCComponent;
+import org.apache.mahout.cf.taste.impl.model.ConcurrentDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.IOUtils;
+import org.apache.mahout.common.ParallelTasks;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Bulk-loads a preference table into memory over several connections at once. The table is split into ranges of
+ * user IDs of equal width, one per partition, and each range is read by its own thread through one streaming,
+ * forward-only cursor, straight into primitive arrays; the rows of each user are then copied into one
+ * {@link PreferenceArray}. Nothing is queried per user, and nothing is boxed per row but timestamps, which the
+ * generic in-memory models keep boxed; {@link #loadConcurrent()} builds a {@link ConcurrentDataModel} from the
+ * arrays without boxing them.
+ * </p>
+ *
+ * <p>
+ * With a timestamp column, {@link #loadChangesSince(long)} reads only the rows set since some time, as
+ * {@link ConcurrentDataModel.Delta}s; see {@link IncrementalJDBCDataModel}. Rows deleted from the table cannot be
+ * found this way.
+ * </p>
+ *
+ * <p>
+ * Cursors are opened with auto-commit off and a fetch size, which is what PostgreSQL and Derby need to stream
+ * rather than buffer a whole result. MySQL Connector/J streams only with {@code useCursorFetch=true} in the JDBC
+ * URL. The user ID column should be indexed. Partitions are of equal width, not of equal size, so very skewed user
+ * IDs call for more partitions than threads would suggest.
+ * </p>
+ */
+public final class ParallelJDBCLoader extends AbstractJDBCComponent {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelJDBCLoader.class);
+
+  private final DataSource dataSource;
+  private final int numPartitions;
+  private final boolean hasPreferenceValues;
+  private final boolean hasTimestamps;
+  private final String getUserIDRangeSQL;
+  private final String getMaxTimestampSQL;
+  private final String getPartitionSQL;
+  private final String getPartitionChangesSQL;
+
+  /**
+   * Reads the default table and columns of {@link AbstractJDBCDataModel}, with one partition per processor.
+   */
+  public ParallelJDBCLoader(DataSource dataSource) {
+    this(dataSource,
+         AbstractJDBCDataModel.DEFAULT_PREFERENCE_TABLE,
+         AbstractJDBCDataModel.DEFAULT_USER_ID_COLUMN,
+         AbstractJDBCDataModel.DEFAULT_ITEM_ID_COLUMN,
+         AbstractJDBCDataModel.DEFAULT_PREFERENCE_COLUMN,
+         AbstractJDBCDataModel.DEFAULT_PREFERENCE_TIME_COLUMN,
+         Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param preferenceColumn column of preference values, or null to load only which items each user has
+   * @param timestampColumn numeric column of the time each preference was last set, or null if there is none
+   * @param numPartitions number of user ID ranges read at once, each over its own connection
+   */
+  public ParallelJDBCLoader(DataSource dataSource,
+                            String preferenceTable,
+                            String userIDColumn,
+                            String itemIDColumn,
+                            String preferenceColumn,
+                            String timestampColumn,
+                            int numPartitions) {
+    AbstractJDBCComponent.checkNotNullAndLog("dataSource", dataSource);
+    AbstractJDBCComponent.checkNotNullAndLog("preferenceTable", preferenceTable);
+    AbstractJDBCComponent.checkNotNullAndLog("userIDColumn", userIDColumn);
+    AbstractJDBCComponent.checkNotNullAndLog("itemIDColumn", itemIDColumn);
+    Preconditions.checkArgument(numPartitions >= 1, "numPartitions must be at least 1");
+    this.dataSource = dataSource;
+    this.numPartitions = numPartitions;
+    this.hasPreferenceValues = preferenceColumn != null;
+    this.hasTimestamps = timestampColumn != null;
+
+    StringBuilder columns = new StringBuilder();
+    columns.append(userIDColumn).append(", ").append(itemIDColumn);
+    if (hasPreferenceValues) {
+      columns.append(", ").append(preferenceColumn);
+    }
+    if (hasTimestamps) {
+      columns.append(", ").append(timestampColumn);
+    }
+    String getPartition = "SELECT " + columns + " FROM " + preferenceTable
+        + " WHERE " + userIDColumn + " >= ? AND " + userIDColumn + " <= ?";
+    String orderBy = " ORDER BY " + userIDColumn;
+    this.getUserIDRangeSQL = "SELECT MIN(" + userIDColumn + "), MAX(" + userIDColumn + ") FROM " + preferenceTable;
+    this.getPartitionSQL = getPartition + orderBy;
+    if (hasTimestamps) {
+      this.getMaxTimestampSQL = "SELECT MAX(" + timestampColumn + ") FROM " + preferenceTable;
+      this.getPartitionChangesSQL = getPartition + " AND " + timestampColumn + " >= ?" + orderBy;
+    } else {
+      this.getMaxTimestampSQL = null;
+      this.getPartitionChangesSQL = null;
+    }
+  }
+
+  public boolean hasPreferenceValues() {
+    return hasPreferenceValues;
+  }
+
+  /**
+   * @return a {@link GenericDataModel} of the whole table, or a {@link GenericBooleanPrefDataModel} if there is
+   *  no preference column, with the timestamp of each preference if there is a timestamp column
+   */
+  public DataModel load() throws TasteException {
+    long start = System.currentTimeMillis();
+    List<Rows> partitions = readPartitions(getPartitionSQL, null);
+    int numRows = 0;
+    int numUsers = 0;
+    for (Rows rows : partitions) {
+      numRows += rows.size;
+      numUsers += rows.countUsers();
+    }
+    FastByIDMap<FastByIDMap<Long>> timestamps = null;
+    if (hasTimestamps) {
+      timestamps = new FastByIDMap<FastByIDMap<Long>>(numUsers);
+      for (Rows rows : partitions) {
+        rows.addTimestampsTo(timestamps);
+      }
+    }
+    DataModel dataModel;
+    if (hasPreferenceValues) {
+      FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(numUsers);
+      for (Rows rows : partitions) {
+        rows.addPreferenceArraysTo(userData);
+      }
+      dataModel = new GenericDataModel(userData, timestamps);
+    } else {
+      FastByIDMap<FastIDSet> userData = new FastByIDMap<FastIDSet>(numUsers);
+      for (Rows rows : partitions) {
+        rows.addItemIDSetsTo(userData);
+      }
+      dataModel = new GenericBooleanPrefDataModel(userData, timestamps);
+    }
+    log.info("Loaded {} preferences of {} users in {}ms",
+             new Object[] {numRows, numUsers, System.currentTimeMillis() - start});
+    return dataModel;
+  }
+
+  /**
+   * @return a {@link ConcurrentDataModel} of the whole table, built straight from the columns read, with the
+   *  timestamp of each preference if there is a timestamp column
+   */
+  public ConcurrentDataModel loadConcurrent() throws TasteException {
+    long start = System.currentTimeMillis();
+    // partitions are in order of user ID, and so are the rows in each
+    Rows rows = Rows.concat(readPartitions(getPartitionSQL, null), hasPreferenceValues, hasTimestamps);
+    ConcurrentDataModel dataModel =
+        new ConcurrentDataModel(rows.userIDs, rows.itemIDs, rows.values, rows.timestamps, rows.size);
+    log.info("Loaded {} preferences of {} users in {}ms",
+             new Object[] {rows.size, dataModel.getNumUsers(), System.currentTimeMillis() - start});
+    return dataModel;
+  }
+
+  /**
+   * @return the greatest timestamp in the table, or {@link Long#MIN_VALUE} if it is empty
+   */
+  public long getMaxTimestamp() throws TasteException {
+    Preconditions.checkState(hasTimestamps, "No timestamp column");
+    Connection conn = null;
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      conn = dataSource.getConnection();
+      stmt = conn.createStatement();
+      log.debug("Executing SQL query: {}", getMaxTimestampSQL);
+      rs = stmt.executeQuery(getMaxTimestampSQL);
+      rs.next();
+      long maxTimestamp = rs.getLong(1);
+      return rs.wasNull() ? Long.MIN_VALUE : maxTimestamp;
+    } catch (SQLException sqle) {
+      log.warn("Exception while retrieving max timestamp", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+    }
+  }
+
+  /**
+   * @param since the earliest timestamp to read, inclusive, so that rows set at the very time of an earlier
+   *  {@link #getMaxTimestamp()} are not missed
+   * @return the rows set since then, as changes to apply to a {@link ConcurrentDataModel}, with their timestamps
+   */
+  public List<ConcurrentDataModel.Delta> loadChangesSince(long since) throws TasteException {
+    Preconditions.checkState(hasTimestamps, "No timestamp column");
+    List<Rows> partitions = readPartitions(getPartitionChangesSQL, since);
+    int numRows = 0;
+    for (Rows rows : partitions) {
+      numRows += rows.size;
+    }
+    List<ConcurrentDataModel.Delta> deltas = Lists.newArrayListWithCapacity(numRows);
+    for (Rows rows : partitions) {
+      for (int i = 0; i < rows.size; i++) {
+        deltas.add(ConcurrentDataModel.Delta.set(rows.userIDs[i],
+                                                 rows.itemIDs[i],
+                                                 hasPreferenceValues ? rows.values[i] : 1.0f,
+                                                 rows.timestamps[i]));
+      }
+    }
+    log.debug("Loaded {} preferences set since {}", numRows, since);
+    return deltas;
+  }
+
+  private List<Rows> readPartitions(final String sql, final Long since) throws TasteException {
+    long[][] bounds = partitionBounds();
+    List<Callable<Rows>> partitions = Lists.newArrayListWithCapacity(bounds.length);
+    for (final long[] range : bounds) {
+      partitions.add(new Callable<Rows>() {
+        @Override
+        public Rows call() throws TasteException {
+          return readPartition(sql, range[0], range[1], since);
+        }
+      });
+    }
+
+    try {
+      return ParallelTasks.invokeAll(partitions, partitions.size(), TasteException.class);
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    }
+  }
+
+  /**
+   * @return inclusive lower and upper bounds of each partition's user IDs; none if the table is empty
+   */
+  private long[][] partitionBounds() throws TasteException {
+    long min;
+    long max;
+    Connection conn = null;
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      conn = dataSource.getConnection();
+      stmt = conn.createStatement();
+      log.debug("Executing SQL query: {}", getUserIDRangeSQL);
+      rs = stmt.executeQuery(getUserIDRangeSQL);
+      rs.next();
+      min = rs.getLong(1);
+      if (rs.wasNull()) {
+        return new long[0][];
+      }
+      max = rs.getLong(2);
+    } catch (SQLException sqle) {
+      log.warn("Exception while retrieving user ID range", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+    }
+    return partitionBounds(min, max, numPartitions);
+  }
+
+  static long[][] partitionBounds(long min, long max, int numPartitions) {
+    long span = max - min;
+    if (span < 0L) {
+      // IDs spread over more than the range of a long
+      return new long[][] {{min, max}};
+    }
+    long step = span / numPartitions + 1L;
+    List<long[]> bounds = Lists.newArrayListWithCapacity(numPartitions);
+    long lower = min;
+    while (true) {
+      long upper = max - lower < step ? max : lower + step - 1L;
+      bounds.add(new long[] {lower, upper});
+      if (upper == max) {
+        break;
+      }
+      lower = upper + 1L;
+    }
+    return bounds.toArray(new long[bounds.size()][]);
+  }
+
+  private Rows readPartition(String sql, long fromUserID, long toUserID, Long since) throws TasteException {
+    Connection conn = null;
+    Boolean autoCommit = null;
+    boolean committed = false;
+    try {
+      conn = dataSource.getConnection();
+      autoCommit = conn.getAutoCommit();
+      // needed by several drivers to fetch through a server-side cursor
+      conn.setAutoCommit(false);
+      Rows rows = new Rows(hasPreferenceValues, hasTimestamps);
+      PreparedStatement stmt = null;
+      ResultSet rs = null;
+      try {
+        stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+        stmt.setFetchSize(getFetchSize());
+        stmt.setLong(1, fromUserID);
+        stmt.setLong(2, toUserID);
+        if (since != null) {
+          stmt.setLong(3, since);
+        }
+        log.debug("Executing SQL query: {} for user IDs {} to {}", new Object[] {sql, fromUserID, toUserID});
+        rs = stmt.executeQuery();
+        int timestampColumn = hasPreferenceValues ? 4 : 3;
+        while (rs.next()) {
+          rows.add(rs.getLong(1),
+                   rs.getLong(2),
+                   hasPreferenceValues ? rs.getFloat(3) : 1.0f,
+                   hasTimestamps ? rs.getLong(timestampColumn) : 0L);
+        }
+      } finally {
+        IOUtils.quietClose(rs);
+        IOUtils.quietClose(stmt);
+      }
+      conn.commit();
+      committed = true;
+      return rows;
+    } catch (SQLException sqle) {
+      log.warn("Exception while reading user IDs " + fromUserID + " to " + toUserID, sqle);
+      throw new TasteException(sqle);
+    } finally {
+      if (autoCommit != null) {
+        endTransactionQuietly(conn, committed, autoCommit);
+      }
+      IOUtils.quietClose(conn);
+    }
+  }
+
+  /**
+   * Rolls back a read which failed, and restores auto-commit, without masking the failure of the read.
+   */
+  private static void endTransactionQuietly(Connection conn, boolean committed, boolean autoCommit) {
+    try {
+      if (!committed) {
+        conn.rollback();
+      }
+      conn.setAutoCommit(autoCommit);
+    } catch (SQLException sqle) {
+      log.warn("Exception while ending read-only transaction", sqle);
+    }
+  }
+
+  /**
+   * The rows of one partition, in columns, grouped by user.
+   */
+  private static final class Rows {
+
+    private long[] userIDs;
+    private long[] itemIDs;
+    private float[] values;
+    private long[] timestamps;
+    private int size;
+
+    Rows(boolean hasPreferenceValues, boolean hasTimestamps) {
+      this(16, hasPreferenceValues, hasTimestamps);
+    }
+
+    private Rows(int capacity, boolean hasPreferenceValues, boolean hasTimestamps) {
+      userIDs = new long[capacity];
+      itemIDs = new long[capacity];
+      values = hasPreferenceValues ? new float[capacity] : null;
+      timestamps = hasTimestamps ? new long[capacity] : null;
+    }
+
+    /** @return the rows of all partitions, one after the other */
+    static Rows concat(List<Rows> partitions, boolean hasPreferenceValues, boolean hasTimestamps) {
+      if (partitions.size() == 1) {
+        return partitions.get(0);
+      }
+      int numRows = 0;
+      for (Rows rows : partitions) {
+        numRows += rows.size;
+      }
+      Rows all = new Rows(numRows, hasPreferenceValues, hasTimestamps);
+      for (Rows rows : partitions) {
+        System.arraycopy(rows.userIDs, 0, all.userIDs, all.size, rows.size);
+        System.arraycopy(rows.itemIDs, 0, all.itemIDs, all.size, rows.size);
+        if (hasPreferenceValues) {
+          System.arraycopy(rows.values, 0, all.values, all.size, rows.size);
+        }
+        if (hasTimestamps) {
+          System.arraycopy(rows.timestamps, 0, all.timestamps, all.size, rows.size);
+        }
+        all.size += rows.size;
+      }
+      return all;
+    }
+
+    void add(long userID, long itemID, float value, long timestamp) {
+      if (size == userIDs.length) {
+        int capacity = 2 * size;
+        userIDs = Arrays.copyOf(userIDs, capacity);
+        itemIDs = Arrays.copyOf(itemIDs, capacity);
+        if (values != null) {
+          values = Arrays.copyOf(values, capacity);
+        }
+        if (timestamps != null) {
+          timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+      }
+      userIDs[size] = userID;
+      itemIDs[size] = itemID;
+      if (values != null) {
+        values[size] = value;
+      }
+      if (timestamps != null) {
+        timestamps[size] = timestamp;
+      }
+      size++;
+    }
+
+    /** @return index just past the rows of the user whose rows start at {@code start} */
+    private int endOfUser(int start) {
+      int end = start + 1;
+      while (end < size && userIDs[end] == userIDs[start]) {
+        end++;
+      }
+      return end;
+    }
+
+    int countUsers() {
+      int numUsers = 0;
+      for (int start = 0; start < size; start = endOfUser(start)) {
+        numUsers++;
+      }
+      return numUsers;
+    }
+
+    void addPreferenceArraysTo(FastByIDMap<PreferenceArray> userData) {
+      int start = 0;
+      while (start < size) {
+        int end = endOfUser(start);
+        PreferenceArray prefs = new GenericUserPreferenceArray(end - start);
+        prefs.setUserID(0, userIDs[start]);
+        for (int i = start; i < end; i++) {
+          prefs.setItemID(i - start, itemIDs[i]);
+          prefs.setValue(i - start, values[i]);
+        }
+        userData.put(userIDs[start], prefs);
+        start = end;
+      }
+    }
+
+    void addTimestampsTo(FastByIDMap<FastByIDMap<Long>> userTimestamps) {
+      int start = 0;
+      while (start < size) {
+        int end = endOfUser(start);
+        FastByIDMap<Long> itemTimestamps = new FastByIDMap<Long>(end - start);
+        for (int i = start; i < end; i++) {
+          itemTimestamps.put(itemIDs[i], timestamps[i]);
+        }
+        userTimestamps.put(userIDs[start], itemTimestamps);
+        start = end;
+      }
+    }
+
+    void addItemIDSetsTo(FastByIDMap<FastIDSet> userData) {
+      int start = 0;
+      while (start < size) {
+        int end = endOfUser(start);
+        FastIDSet itemIDSet = new FastIDSet(end - start);
+        for (int i = start; i < end; i++) {
+          itemIDSet.add(itemIDs[i]);
+        }
+        userData.put(userIDs[start], itemIDSet);
+        start = end;
+      }
+    }
+  }
+
+}
@@ -38,6 +38,7 @@ import java.util.concurrent.Callable;
  * A {@link DataModel} which loads, and can re-load, data from a JDBC-backed {@link JDBCDataModel} into memory, as a
  * {@link GenericDataModel} or {@link GenericBooleanPrefDataModel}. It is intended to provide the speed
  * advantage of in-memory representation but be able to update periodically to pull in new data from a database source.
+ * Given a {@link ParallelJDBCLoader}, it reloads through that instead, over several connections at once.
  */
 public final class ReloadFromJDBCDataModel implements DataModel {
 
@@ -45,10 +46,20 @@ public final class ReloadFromJDBCDataModel implements DataModel {
 
   private DataModel delegateInMemory;
   private final JDBCDataModel delegate;
+  private final ParallelJDBCLoader loader;
   private final RefreshHelper refreshHelper;
 
   public ReloadFromJDBCDataModel(JDBCDataModel delegate) throws TasteException {
+    this(delegate, null);
+  }
+
+  /**
+   * @param loader loader of the same table as {@code delegate} to reload with, or null to reload through
+   *  {@code delegate}
+   */
+  public ReloadFromJDBCDataModel(JDBCDataModel delegate, ParallelJDBCLoader loader) throws TasteException {
     this.delegate = Preconditions.checkNotNull(delegate);
+    this.loader = loader;
     refreshHelper = new RefreshHelper(new Callable<Void>() {
       @Override
       public Void call() {
@@ -72,10 +83,15 @@ public final class ReloadFromJDBCDataModel implements DataModel {
     try {
       // Load new in-memory representation,
       log.info("Loading new JDBC delegate data...");
-      DataModel newDelegateInMemory =
-          delegate.hasPreferenceValues()
-          ? new GenericDataModel(delegate.exportWithPrefs())
-          : new GenericBooleanPrefDataModel(delegate.exportWithIDsOnly());
+      DataModel newDelegateInMemory;
+      if (loader != null) {
+        newDelegateInMemory = loader.load();
+      } else {
+        newDelegateInMemory =
+            delegate.hasPreferenceValues()
+            ? new GenericDataModel(delegate.exportWithPrefs())
+            : new GenericBooleanPrefDataModel(delegate.exportWithIDsOnly());
+      }
       // and then swap to it.
       log.info("New data loaded.");
       delegateInMemory = newDelegateInMemory;
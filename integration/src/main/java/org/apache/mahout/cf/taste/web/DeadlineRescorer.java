@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.web;
+
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+
+/**
+ * <p>An {@link IDRescorer} which filters every candidate once a deadline has passed. Recommenders ask
+ * {@link #isFiltered(long)} before they score a candidate and do not ask again afterwards, so candidates admitted
+ * before the deadline are still scored and returned; only those not yet admitted are dropped. A recommender which
+ * checks each candidate just before scoring it, as {@code TopItems} does, therefore stops scoring at the deadline,
+ * while one which filters all candidates first, as {@code GenericItemBasedRecommender} does, only stops admitting
+ * them. Other rescoring and filtering is left to an optional delegate.</p>
+ */
+final class DeadlineRescorer implements IDRescorer {
+
+  private final IDRescorer delegate;
+  private final long deadlineNanos;
+  private volatile boolean expired;
+
+  /**
+   * @param deadlineNanos deadline, as a value of {@link System#nanoTime()}
+   */
+  DeadlineRescorer(IDRescorer delegate, long deadlineNanos) {
+    this.delegate = delegate;
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  boolean isExpired() {
+    if (!expired && System.nanoTime() - deadlineNanos >= 0L) {
+      expired = true;
+    }
+    return expired;
+  }
+
+  @Override
+  public double rescore(long id, double originalScore) {
+    return delegate == null ? originalScore : delegate.rescore(id, originalScore);
+  }
+
+  @Override
+  public boolean isFiltered(long id) {
+    return isExpired() || delegate != null && delegate.isFiltered(id);
+  }
+
+  @Override
+  public String toString() {
+    return "DeadlineRescorer[delegate:" + delegate + ']';
+  }
+
+}
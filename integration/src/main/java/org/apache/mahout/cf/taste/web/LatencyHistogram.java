@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.web;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>A histogram of latencies which many threads may record into at once without locking. Latencies are counted
+ * in buckets whose bounds are powers of two of microseconds, so percentiles are accurate to within a factor of
+ * two, and the histogram takes constant space however many latencies it holds.</p>
+ */
+public final class LatencyHistogram {
+
+  /** bucket i counts latencies of less than 2^i microseconds, and at least 2^(i-1) */
+  private static final int NUM_BUCKETS = 40;
+
+  private final AtomicLongArray counts;
+  private final AtomicLong count;
+  private final AtomicLong totalMicros;
+  private final AtomicLong maxMicros;
+
+  public LatencyHistogram() {
+    counts = new AtomicLongArray(NUM_BUCKETS);
+    count = new AtomicLong();
+    totalMicros = new AtomicLong();
+    maxMicros = new AtomicLong();
+  }
+
+  public void record(long nanos) {
+    long micros = Math.max(0L, nanos / 1000L);
+    int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    counts.incrementAndGet(bucket);
+    count.incrementAndGet();
+    totalMicros.addAndGet(micros);
+    long max = maxMicros.get();
+    while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+      max = maxMicros.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMeanMillis() {
+    long n = count.get();
+    return n == 0L ? Double.NaN : totalMicros.get() / (1000.0 * n);
+  }
+
+  public double getMaxMillis() {
+    return maxMicros.get() / 1000.0;
+  }
+
+  /**
+   * @param percentile in (0,100]
+   * @return upper bound of the bucket holding the given percentile of latencies, or {@link Double#NaN} if none
+   *  were recorded
+   */
+  public double getPercentileMillis(double percentile) {
+    Preconditions.checkArgument(percentile > 0.0 && percentile <= 100.0, "Bad percentile: %s", percentile);
+    long n = count.get();
+    if (n == 0L) {
+      return Double.NaN;
+    }
+    long rank = (long) Math.ceil(n * percentile / 100.0);
+    long seen = 0L;
+    for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+      seen += counts.get(bucket);
+      if (seen >= rank) {
+        return Math.min(1L << bucket, maxMicros.get()) / 1000.0;
+      }
+    }
+    return getMaxMillis();
+  }
+
+  @Override
+  public String toString() {
+    return "count:" + getCount() + ", mean:" + getMeanMillis() + "ms, p50:" + getPercentileMillis(50.0)
+        + "ms, p90:" + getPercentileMillis(90.0) + "ms, p99:" + getPercentileMillis(99.0)
+        + "ms, max:" + getMaxMillis() + "ms";
+  }
+
+}
@@ -0,0 +1,451 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.web;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.recommender.BatchRecommender;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.ClassUtils;
+import org.apache.mahout.common.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An embedded HTTP server which returns recommendations as JSON, standing in for {@link RecommenderServlet}
+ * where no servlet container is wanted. Connections are handled by the JDK's selector-based
+ * {@link HttpServer}; requests are read and recommendations computed by a fixed pool of worker threads.</p>
+ *
+ * <p>Endpoints:</p>
+ *
+ * <ul>
+ * <li>{@code /recommend}: GET or POST, with one or more <em>userID</em> parameters (repeated, or comma-separated),
+ * an optional <em>howMany</em>, and an optional <em>timeoutMillis</em>. Several users are recommended to in
+ * one call if the {@link Recommender} is a {@link BatchRecommender}, or one at a time if that call fails. The
+ * response is written as each user's recommendations are done:
+ * {@code {"recommendations":[{"userID":123,"items":[{"id":456,"value":4.5},...]},...],"deadlineExceeded":false}}.
+ * A user who is not known gets {@code "error":"no such user"} instead of items.</li>
+ * <li>{@code /metrics}: latencies of each endpoint, and how many requests were shed, as text.</li>
+ * </ul>
+ *
+ * <p>Once its deadline has passed, a request admits no more candidates for scoring, as described in
+ * {@link DeadlineRescorer}, and returns the best of those admitted, with {@code "deadlineExceeded":true}. At most a
+ * bounded number of requests wait for a worker; more are answered at once with 503 Service Unavailable, as are
+ * requests whose deadline passed while they waited.</p>
+ *
+ * <p>For example, with {@code java org.apache.mahout.cf.taste.web.RecommenderServer com.example.MyRecommender
+ * 8080}, {@code http://localhost:8080/recommend?userID=123,124&howMany=10&timeoutMillis=50} returns up to 10
+ * recommendations for each of two users within about 50ms.</p>
+ */
+public final class RecommenderServer implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(RecommenderServer.class);
+
+  private static final int DEFAULT_HOW_MANY = 20;
+  private static final long DEFAULT_TIMEOUT_MILLIS = 1000L;
+  private static final int DEFAULT_MAX_QUEUED_REQUESTS = 1000;
+  private static final String RECOMMEND_PATH = "/recommend";
+  private static final String METRICS_PATH = "/metrics";
+
+  private final Recommender recommender;
+  private final long defaultTimeoutMillis;
+  private final HttpServer server;
+  private final ThreadPoolExecutor workers;
+  private final Map<String,LatencyHistogram> latencies;
+  private final AtomicLong numShed;
+
+  /**
+   * Serves with one worker per processor, a queue of up to 1000 requests and a default timeout of 1 second.
+   */
+  public RecommenderServer(Recommender recommender, InetSocketAddress address) throws IOException {
+    this(recommender, address, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_QUEUED_REQUESTS,
+         DEFAULT_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Starts serving at once.
+   *
+   * @param numWorkers number of requests computed at once
+   * @param maxQueuedRequests number of requests which may wait for a worker before more are turned away
+   * @param defaultTimeoutMillis deadline of requests without a <em>timeoutMillis</em> parameter, counted from
+   *  their arrival
+   */
+  public RecommenderServer(Recommender recommender,
+                           InetSocketAddress address,
+                           int numWorkers,
+                           int maxQueuedRequests,
+                           long defaultTimeoutMillis) throws IOException {
+    Preconditions.checkArgument(recommender != null, "recommender is null");
+    Preconditions.checkArgument(numWorkers >= 1, "numWorkers must be at least 1");
+    Preconditions.checkArgument(maxQueuedRequests >= 1, "maxQueuedRequests must be at least 1");
+    Preconditions.checkArgument(defaultTimeoutMillis > 0L, "defaultTimeoutMillis must be positive");
+    this.recommender = recommender;
+    this.defaultTimeoutMillis = defaultTimeoutMillis;
+    this.latencies = Maps.newHashMap();
+    latencies.put(RECOMMEND_PATH, new LatencyHistogram());
+    latencies.put(METRICS_PATH, new LatencyHistogram());
+    this.numShed = new AtomicLong();
+    this.workers = new ThreadPoolExecutor(numWorkers, numWorkers, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(maxQueuedRequests), new DaemonThreadFactory("mahout-recommender-server"));
+    this.server = HttpServer.create(address, 0);
+    // handlers only queue requests, which workers then parse and serve, so run on the dispatcher thread
+    server.setExecutor(null);
+    server.createContext(RECOMMEND_PATH, new RecommendHandler());
+    server.createContext(METRICS_PATH, new MetricsHandler());
+    server.start();
+    log.info("Serving recommendations from {} at {}", recommender, server.getAddress());
+  }
+
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  /**
+   * @return latencies of the given endpoint, such as "/recommend", from arrival to the end of the response
+   */
+  public LatencyHistogram getLatencies(String path) {
+    return latencies.get(path);
+  }
+
+  /**
+   * @return number of requests turned away because too many were waiting, or their deadline passed while waiting
+   */
+  public long getNumShed() {
+    return numShed.get();
+  }
+
+  /**
+   * Stops accepting connections, and waits up to a second for requests in progress.
+   */
+  @Override
+  public void close() {
+    server.stop(1);
+    workers.shutdownNow();
+  }
+
+  private final class RecommendHandler implements HttpHandler {
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+      final long arrival = System.nanoTime();
+      try {
+        // even parsing is left to the workers, since reading a POST body may block on a slow client
+        workers.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              serveRecommend(exchange, arrival);
+            } catch (IOException ioe) {
+              log.warn("Exception while responding", ioe);
+            } catch (RuntimeException re) {
+              log.warn("Exception while recommending", re);
+            } finally {
+              exchange.close();
+            }
+          }
+        });
+      } catch (RejectedExecutionException ree) {
+        numShed.incrementAndGet();
+        respondWithError(exchange, 503, "too many requests", arrival);
+      }
+    }
+  }
+
+  private final class MetricsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      long arrival = System.nanoTime();
+      try {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0L);
+        Writer writer = newWriter(exchange);
+        for (Map.Entry<String,LatencyHistogram> entry : latencies.entrySet()) {
+          writer.write(entry.getKey());
+          writer.write('\t');
+          writer.write(entry.getValue().toString());
+          writer.write('\n');
+        }
+        writer.write("shed\t");
+        writer.write(String.valueOf(numShed.get()));
+        writer.write("\nqueued\t");
+        writer.write(String.valueOf(workers.getQueue().size()));
+        writer.write('\n');
+        writer.flush();
+      } finally {
+        exchange.close();
+        record(METRICS_PATH, arrival);
+      }
+    }
+  }
+
+  private void serveRecommend(HttpExchange exchange, long arrival) throws IOException {
+    long[] userIDs;
+    int howMany;
+    long deadline;
+    try {
+      Map<String,List<String>> parameters = parseParameters(exchange);
+      userIDs = parseUserIDs(parameters.get("userID"));
+      howMany = parseInt(parameters.get("howMany"), DEFAULT_HOW_MANY);
+      Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+      long timeoutMillis = parseLong(parameters.get("timeoutMillis"), defaultTimeoutMillis);
+      deadline = arrival + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    } catch (IllegalArgumentException iae) {
+      respondWithError(exchange, 400, iae.getMessage(), arrival);
+      return;
+    }
+    if (System.nanoTime() - deadline >= 0L) {
+      numShed.incrementAndGet();
+      respondWithError(exchange, 503, "deadline passed while queued", arrival);
+    } else {
+      recommend(exchange, userIDs, howMany, new DeadlineRescorer(null, deadline));
+      record(RECOMMEND_PATH, arrival);
+    }
+  }
+
+  private void recommend(HttpExchange exchange, long[] userIDs, int howMany, DeadlineRescorer rescorer)
+    throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    // chunked, so that each user's recommendations go out as soon as they are done
+    exchange.sendResponseHeaders(200, 0L);
+    Writer writer = newWriter(exchange);
+    writer.write("{\"recommendations\":[");
+    List<List<RecommendedItem>> batch = null;
+    if (userIDs.length > 1 && recommender instanceof BatchRecommender) {
+      try {
+        batch = ((BatchRecommender) recommender).recommend(userIDs, howMany, rescorer);
+      } catch (TasteException te) {
+        // one unknown user fails the whole batch, so find out which users fail by recommending to each alone
+        log.debug("Exception while recommending to a batch of users, recommending to each alone", te);
+      } catch (RuntimeException re) {
+        log.debug("Exception while recommending to a batch of users, recommending to each alone", re);
+      }
+    }
+    for (int i = 0; i < userIDs.length; i++) {
+      if (batch == null) {
+        recommendToUser(writer, i, userIDs[i], howMany, rescorer);
+      } else {
+        writeUser(writer, i, userIDs[i], batch.get(i), null);
+      }
+      writer.flush();
+    }
+    writer.write("],\"deadlineExceeded\":");
+    writer.write(String.valueOf(rescorer.isExpired()));
+    writer.write("}\n");
+    writer.flush();
+  }
+
+  private void recommendToUser(Writer writer, int index, long userID, int howMany, DeadlineRescorer rescorer)
+    throws IOException {
+    List<RecommendedItem> items = null;
+    String error = null;
+    try {
+      items = recommender.recommend(userID, howMany, rescorer);
+    } catch (NoSuchUserException nsue) {
+      error = "no such user";
+    } catch (TasteException te) {
+      log.warn("Exception while recommending", te);
+      error = String.valueOf(te.getMessage());
+    } catch (RuntimeException re) {
+      // the response has begun, so the failure can only be reported as this user's
+      log.warn("Exception while recommending", re);
+      error = re.toString();
+    }
+    writeUser(writer, index, userID, items, error);
+  }
+
+  private static void writeUser(Writer writer, int index, long userID, List<RecommendedItem> items, String error)
+    throws IOException {
+    if (index > 0) {
+      writer.write(',');
+    }
+    writer.write("{\"userID\":");
+    writer.write(String.valueOf(userID));
+    if (items == null) {
+      writer.write(",\"error\":\"");
+      writeEscaped(writer, error);
+      writer.write("\"}");
+      return;
+    }
+    writer.write(",\"items\":[");
+    boolean first = true;
+    for (RecommendedItem item : items) {
+      if (!first) {
+        writer.write(',');
+      }
+      first = false;
+      writer.write("{\"id\":");
+      writer.write(String.valueOf(item.getItemID()));
+      writer.write(",\"value\":");
+      float value = item.getValue();
+      // JSON has no NaN or infinity
+      writer.write(Float.isNaN(value) || Float.isInfinite(value) ? "null" : String.valueOf(value));
+      writer.write('}');
+    }
+    writer.write("]}");
+  }
+
+  private static void writeEscaped(Writer writer, String s) throws IOException {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < ' ') {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+  }
+
+  private void respondWithError(HttpExchange exchange, int status, String message, long arrival) throws IOException {
+    try {
+      StringWriter body = new StringWriter();
+      body.write("{\"error\":\"");
+      writeEscaped(body, String.valueOf(message));
+      body.write("\"}\n");
+      byte[] bytes = body.toString().getBytes(Charsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+      if (status == 503) {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+      }
+      exchange.sendResponseHeaders(status, bytes.length);
+      exchange.getResponseBody().write(bytes);
+    } finally {
+      exchange.close();
+      record(RECOMMEND_PATH, arrival);
+    }
+  }
+
+  private void record(String path, long arrival) {
+    latencies.get(path).record(System.nanoTime() - arrival);
+  }
+
+  private static Writer newWriter(HttpExchange exchange) {
+    return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), Charsets.UTF_8));
+  }
+
+  private static Map<String,List<String>> parseParameters(HttpExchange exchange) throws IOException {
+    Map<String,List<String>> parameters = Maps.newHashMap();
+    addParameters(exchange.getRequestURI().getRawQuery(), parameters);
+    if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+      InputStream in = exchange.getRequestBody();
+      try {
+        addParameters(new String(ByteStreams.toByteArray(in), Charsets.UTF_8), parameters);
+      } finally {
+        in.close();
+      }
+    }
+    return parameters;
+  }
+
+  private static void addParameters(String query, Map<String,List<String>> parameters)
+    throws UnsupportedEncodingException {
+    if (query == null || query.isEmpty()) {
+      return;
+    }
+    for (String pair : Splitter.on('&').omitEmptyStrings().split(query)) {
+      int equals = pair.indexOf('=');
+      String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+      String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+      List<String> values = parameters.get(name);
+      if (values == null) {
+        values = Lists.newArrayListWithCapacity(1);
+        parameters.put(name, values);
+      }
+      values.add(value);
+    }
+  }
+
+  private static long[] parseUserIDs(List<String> values) {
+    Preconditions.checkArgument(values != null, "userID was not specified");
+    List<Long> userIDs = Lists.newArrayList();
+    for (String value : values) {
+      for (String userID : Splitter.on(',').trimResults().omitEmptyStrings().split(value)) {
+        userIDs.add(Long.parseLong(userID));
+      }
+    }
+    Preconditions.checkArgument(!userIDs.isEmpty(), "userID was not specified");
+    long[] result = new long[userIDs.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = userIDs.get(i);
+    }
+    return result;
+  }
+
+  private static int parseInt(List<String> values, int defaultValue) {
+    return values == null ? defaultValue : Integer.parseInt(values.get(0));
+  }
+
+  private static long parseLong(List<String> values, long defaultValue) {
+    return values == null ? defaultValue : Long.parseLong(values.get(0));
+  }
+
+  /**
+   * Serves recommendations until killed.
+   *
+   * @param args name of a {@link Recommender} class with a no-arg constructor, and optionally the port to listen
+   *  on, 8080 by default
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: RecommenderServer recommender-class [port]");
+      return;
+    }
+    Recommender recommender = ClassUtils.instantiateAs(args[0], Recommender.class);
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+    new RecommenderServer(recommender, new InetSocketAddress(port));
+  }
+
+  @Override
+  public String toString() {
+    return "RecommenderServer[recommender:" + recommender + ", address:" + server.getAddress() + ']';
+  }
+
+}
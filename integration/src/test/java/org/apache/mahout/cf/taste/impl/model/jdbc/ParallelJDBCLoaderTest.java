@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.model.ConcurrentDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+public final class ParallelJDBCLoaderTest extends TasteTestCase {
+
+  private static final long[][] ROWS = {
+      // user, item, value, timestamp
+      {1L, 10L, 1L, 100L},
+      {1L, 11L, 2L, 200L},
+      {2L, 10L, 3L, 300L},
+  };
+
+  private DataSource dataSource;
+  private Connection connection;
+  private Statement statement;
+  private PreparedStatement preparedStatement;
+  private ResultSet userIDRange;
+  private ResultSet partition;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    dataSource = EasyMock.createMock(DataSource.class);
+    connection = EasyMock.createMock(Connection.class);
+    statement = EasyMock.createMock(Statement.class);
+    preparedStatement = EasyMock.createMock(PreparedStatement.class);
+    userIDRange = EasyMock.createMock(ResultSet.class);
+    partition = EasyMock.createMock(ResultSet.class);
+  }
+
+  private ParallelJDBCLoader newLoader() {
+    return new ParallelJDBCLoader(dataSource,
+                                  AbstractJDBCDataModel.DEFAULT_PREFERENCE_TABLE,
+                                  AbstractJDBCDataModel.DEFAULT_USER_ID_COLUMN,
+                                  AbstractJDBCDataModel.DEFAULT_ITEM_ID_COLUMN,
+                                  AbstractJDBCDataModel.DEFAULT_PREFERENCE_COLUMN,
+                                  AbstractJDBCDataModel.DEFAULT_PREFERENCE_TIME_COLUMN,
+                                  1);
+  }
+
+  private void replay() {
+    EasyMock.replay(dataSource, connection, statement, preparedStatement, userIDRange, partition);
+  }
+
+  private void verify() {
+    EasyMock.verify(dataSource, connection, statement, preparedStatement, userIDRange, partition);
+  }
+
+  private void expectUserIDRange(Long min, Long max) throws SQLException {
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection);
+    EasyMock.expect(connection.createStatement()).andReturn(statement);
+    EasyMock.expect(statement.executeQuery(EasyMock.<String>anyObject())).andReturn(userIDRange);
+    EasyMock.expect(userIDRange.next()).andReturn(true);
+    EasyMock.expect(userIDRange.getLong(1)).andReturn(min == null ? 0L : min);
+    EasyMock.expect(userIDRange.wasNull()).andReturn(min == null);
+    if (min != null) {
+      EasyMock.expect(userIDRange.getLong(2)).andReturn(max);
+    }
+    userIDRange.close();
+    statement.close();
+    connection.close();
+  }
+
+  private void expectPartitionQuery(long fromUserID, long toUserID, Long since) throws SQLException {
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection);
+    EasyMock.expect(connection.getAutoCommit()).andReturn(true);
+    connection.setAutoCommit(false);
+    EasyMock.expect(connection.prepareStatement(EasyMock.<String>anyObject(),
+        EasyMock.eq(ResultSet.TYPE_FORWARD_ONLY), EasyMock.eq(ResultSet.CONCUR_READ_ONLY)))
+        .andReturn(preparedStatement);
+    preparedStatement.setFetchDirection(ResultSet.FETCH_FORWARD);
+    preparedStatement.setFetchSize(EasyMock.anyInt());
+    preparedStatement.setLong(1, fromUserID);
+    preparedStatement.setLong(2, toUserID);
+    if (since != null) {
+      preparedStatement.setLong(3, since);
+    }
+    EasyMock.expect(preparedStatement.executeQuery()).andReturn(partition);
+  }
+
+  private void expectRows(long[]... rows) throws SQLException {
+    for (long[] row : rows) {
+      EasyMock.expect(partition.next()).andReturn(true);
+      EasyMock.expect(partition.getLong(1)).andReturn(row[0]);
+      EasyMock.expect(partition.getLong(2)).andReturn(row[1]);
+      EasyMock.expect(partition.getFloat(3)).andReturn((float) row[2]);
+      EasyMock.expect(partition.getLong(4)).andReturn(row[3]);
+    }
+    EasyMock.expect(partition.next()).andReturn(false);
+  }
+
+  private void expectPartitionCommitted() throws SQLException {
+    partition.close();
+    preparedStatement.close();
+    connection.commit();
+    connection.setAutoCommit(true);
+    connection.close();
+  }
+
+  @Test
+  public void testLoad() throws Exception {
+    expectUserIDRange(1L, 2L);
+    expectPartitionQuery(1L, 2L, null);
+    expectRows(ROWS);
+    expectPartitionCommitted();
+    replay();
+
+    DataModel dataModel = newLoader().load();
+    assertEquals(2, dataModel.getNumUsers());
+    assertEquals(2, dataModel.getNumItems());
+    assertEquals(2.0f, dataModel.getPreferenceValue(1L, 11L), EPSILON);
+    assertEquals(3.0f, dataModel.getPreferenceValue(2L, 10L), EPSILON);
+    assertNull(dataModel.getPreferenceValue(2L, 11L));
+    assertEquals(200L, dataModel.getPreferenceTime(1L, 11L).longValue());
+    assertEquals(300L, dataModel.getPreferenceTime(2L, 10L).longValue());
+    verify();
+  }
+
+  @Test
+  public void testLoadConcurrent() throws Exception {
+    expectUserIDRange(1L, 2L);
+    expectPartitionQuery(1L, 2L, null);
+    expectRows(ROWS);
+    expectPartitionCommitted();
+    replay();
+
+    ConcurrentDataModel dataModel = newLoader().loadConcurrent();
+    assertEquals(2, dataModel.getNumUsers());
+    assertEquals(2, dataModel.getNumItems());
+    assertEquals(2.0f, dataModel.getPreferenceValue(1L, 11L), EPSILON);
+    assertEquals(3.0f, dataModel.getPreferenceValue(2L, 10L), EPSILON);
+    assertNull(dataModel.getPreferenceValue(2L, 11L));
+    assertEquals(200L, dataModel.getPreferenceTime(1L, 11L).longValue());
+    assertEquals(300L, dataModel.getPreferenceTime(2L, 10L).longValue());
+    assertEquals(2, dataModel.getNumUsersWithPreferenceFor(10L));
+    verify();
+  }
+
+  @Test
+  public void testLoadEmptyTable() throws Exception {
+    expectUserIDRange(null, null);
+    replay();
+
+    DataModel dataModel = newLoader().load();
+    assertEquals(0, dataModel.getNumUsers());
+    assertEquals(0, dataModel.getNumItems());
+    verify();
+  }
+
+  @Test
+  public void testLoadChangesSince() throws Exception {
+    expectUserIDRange(1L, 2L);
+    expectPartitionQuery(1L, 2L, 200L);
+    expectRows(ROWS[1], ROWS[2]);
+    expectPartitionCommitted();
+    replay();
+
+    List<ConcurrentDataModel.Delta> deltas = newLoader().loadChangesSince(200L);
+    assertEquals(2, deltas.size());
+    ConcurrentDataModel dataModel = new ConcurrentDataModel(getDataModel(new long[0], new Double[0][]));
+    dataModel.apply(deltas);
+    assertEquals(2.0f, dataModel.getPreferenceValue(1L, 11L), EPSILON);
+    assertEquals(200L, dataModel.getPreferenceTime(1L, 11L).longValue());
+    assertEquals(3.0f, dataModel.getPreferenceValue(2L, 10L), EPSILON);
+    assertEquals(300L, dataModel.getPreferenceTime(2L, 10L).longValue());
+    assertNull(dataModel.getPreferenceValue(1L, 10L));
+    verify();
+  }
+
+  @Test
+  public void testFailedReadRollsBack() throws Exception {
+    SQLException failure = new SQLException("connection lost");
+    expectUserIDRange(1L, 2L);
+    expectPartitionQuery(1L, 2L, null);
+    EasyMock.expect(partition.next()).andThrow(failure);
+    partition.close();
+    preparedStatement.close();
+    connection.rollback();
+    EasyMock.expectLastCall().andThrow(new SQLException("also broken"));
+    connection.close();
+    replay();
+
+    try {
+      newLoader().load();
+      fail();
+    } catch (TasteException te) {
+      assertSame(failure, te.getCause());
+    }
+    verify();
+  }
+
+  @Test
+  public void testPartitionBounds() {
+    assertBounds(ParallelJDBCLoader.partitionBounds(5L, 5L, 4), 5L, 5L);
+    // fewer IDs than partitions
+    assertBounds(ParallelJDBCLoader.partitionBounds(1L, 3L, 8), 1L, 1L, 2L, 2L, 3L, 3L);
+    // uneven split, the last partition is the shortest
+    assertBounds(ParallelJDBCLoader.partitionBounds(0L, 9L, 3), 0L, 3L, 4L, 7L, 8L, 9L);
+    assertBounds(ParallelJDBCLoader.partitionBounds(-10L, 10L, 1), -10L, 10L);
+    // IDs spread over more than the range of a long
+    assertBounds(ParallelJDBCLoader.partitionBounds(Long.MIN_VALUE, Long.MAX_VALUE, 4),
+                 Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testPartitionBoundsCoverRange() {
+    for (int numPartitions = 1; numPartitions <= 20; numPartitions++) {
+      long[][] bounds = ParallelJDBCLoader.partitionBounds(-7L, 93L, numPartitions);
+      assertTrue(bounds.length <= numPartitions);
+      assertEquals(-7L, bounds[0][0]);
+      assertEquals(93L, bounds[bounds.length - 1][1]);
+      for (int i = 0; i < bounds.length; i++) {
+        assertTrue(bounds[i][0] <= bounds[i][1]);
+        if (i > 0) {
+          assertEquals(bounds[i - 1][1] + 1L, bounds[i][0]);
+        }
+      }
+    }
+  }
+
+  private static void assertBounds(long[][] bounds, long... expected) {
+    assertEquals(expected.length / 2, bounds.length);
+    for (int i = 0; i < bounds.length; i++) {
+      assertEquals(expected[2 * i], bounds[i][0]);
+      assertEquals(expected[2 * i + 1], bounds[i][1]);
+    }
+  }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public final class DeadlineRescorerTest extends TasteTestCase {
+
+  private static final long DEADLINE_MILLIS = 50L;
+
+  @Test
+  public void testBeforeDeadline() {
+    DeadlineRescorer rescorer = new DeadlineRescorer(new OddFilteringRescorer(0L), inMillis(10000L));
+    assertFalse(rescorer.isFiltered(2L));
+    assertTrue(rescorer.isFiltered(3L));
+    assertEquals(4.0, rescorer.rescore(2L, 2.0), EPSILON);
+    assertFalse(rescorer.isExpired());
+  }
+
+  @Test
+  public void testAfterDeadline() {
+    DeadlineRescorer rescorer = new DeadlineRescorer(null, System.nanoTime() - 1L);
+    assertTrue(rescorer.isExpired());
+    assertTrue(rescorer.isFiltered(2L));
+    assertEquals(2.0, rescorer.rescore(2L, 2.0), EPSILON);
+  }
+
+  @Test
+  public void testKeepsCandidatesAdmittedBeforeDeadline() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2},
+            new Double[][] {
+                    {0.5, 0.5},
+                    {0.5, 0.5, 0.5, 0.5},
+            });
+    List<GenericItemSimilarity.ItemItemSimilarity> similarities = Lists.newArrayList();
+    for (long candidate = 2L; candidate <= 3L; candidate++) {
+      similarities.add(new GenericItemSimilarity.ItemItemSimilarity(0L, candidate, 0.5));
+      similarities.add(new GenericItemSimilarity.ItemItemSimilarity(1L, candidate, 0.5));
+    }
+    Recommender recommender = new GenericItemBasedRecommender(dataModel, new GenericItemSimilarity(similarities));
+    // the first candidate is admitted, but the deadline has passed by the time the second is checked
+    DeadlineRescorer rescorer =
+        new DeadlineRescorer(new OddFilteringRescorer(2 * DEADLINE_MILLIS), inMillis(DEADLINE_MILLIS));
+    List<RecommendedItem> recommended = recommender.recommend(1L, 2, rescorer);
+    assertTrue(rescorer.isExpired());
+    assertEquals(1, recommended.size());
+  }
+
+  private static long inMillis(long millis) {
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /** Filters odd IDs and doubles scores, and takes a while to check the first candidate. */
+  private static final class OddFilteringRescorer implements IDRescorer {
+
+    private long firstCheckMillis;
+
+    private OddFilteringRescorer(long firstCheckMillis) {
+      this.firstCheckMillis = firstCheckMillis;
+    }
+
+    @Override
+    public double rescore(long id, double originalScore) {
+      return 2.0 * originalScore;
+    }
+
+    @Override
+    public boolean isFiltered(long id) {
+      if (firstCheckMillis > 0L) {
+        try {
+          Thread.sleep(firstCheckMillis);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        firstCheckMillis = 0L;
+        return false;
+      }
+      return id % 2L == 1L;
+    }
+  }
+
+}
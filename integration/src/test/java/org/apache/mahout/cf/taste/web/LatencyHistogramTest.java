@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.ParallelTasks;
+import org.junit.Test;
+
+public final class LatencyHistogramTest extends TasteTestCase {
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0L, histogram.getCount());
+    assertTrue(Double.isNaN(histogram.getMeanMillis()));
+    assertTrue(Double.isNaN(histogram.getPercentileMillis(50.0)));
+    assertEquals(0.0, histogram.getMaxMillis(), EPSILON);
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(1000000L);
+    }
+    histogram.record(100000000L);
+    assertEquals(100L, histogram.getCount());
+    assertEquals(1.99, histogram.getMeanMillis(), EPSILON);
+    assertEquals(100.0, histogram.getMaxMillis(), EPSILON);
+    // 1000 microseconds fall in the bucket bounded by 1024
+    assertEquals(1.024, histogram.getPercentileMillis(50.0), EPSILON);
+    assertEquals(1.024, histogram.getPercentileMillis(99.0), EPSILON);
+    // the last bucket's bound is capped by the largest latency
+    assertEquals(100.0, histogram.getPercentileMillis(100.0), EPSILON);
+  }
+
+  @Test
+  public void testNegativeAndHugeLatencies() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5L);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(2L, histogram.getCount());
+    // negative latencies count as zero, in the bucket bounded by one microsecond
+    assertEquals(0.001, histogram.getPercentileMillis(50.0), EPSILON);
+    // latencies beyond the last bucket are counted in it
+    assertEquals((1L << 39) / 1000.0, histogram.getPercentileMillis(100.0), EPSILON);
+    assertEquals(Long.MAX_VALUE / 1000L / 1000.0, histogram.getMaxMillis(), EPSILON);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadPercentile() {
+    new LatencyHistogram().getPercentileMillis(0.0);
+  }
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int t = 0; t < 4; t++) {
+      final long nanos = (t + 1) * 1000000L;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int i = 0; i < 10000; i++) {
+            histogram.record(nanos);
+          }
+          return null;
+        }
+      });
+    }
+    ParallelTasks.invokeAll(tasks, 4, RuntimeException.class);
+    assertEquals(40000L, histogram.getCount());
+    assertEquals(2.5, histogram.getMeanMillis(), EPSILON);
+    assertEquals(4.0, histogram.getMaxMillis(), EPSILON);
+  }
+
+}
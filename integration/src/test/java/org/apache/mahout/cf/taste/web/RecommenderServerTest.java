@@ -0,0 +1,251 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.BatchRecommender;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class RecommenderServerTest extends TasteTestCase {
+
+  private FixedRecommender recommender;
+  private RecommenderServer server;
+  private int status;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    recommender = new FixedRecommender();
+    server = new RecommenderServer(recommender, new InetSocketAddress("localhost", 0), 1, 10, 10000L);
+  }
+
+  @Override
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+    super.tearDown();
+  }
+
+  @Test
+  public void testRecommend() throws Exception {
+    assertEquals("{\"recommendations\":[{\"userID\":1,\"items\":[{\"id\":11,\"value\":1.0}]}],"
+                 + "\"deadlineExceeded\":false}\n", get("/recommend?userID=1&howMany=1"));
+    assertEquals(200, status);
+    assertEquals(1L, server.getLatencies("/recommend").getCount());
+  }
+
+  @Test
+  public void testRecommendToBatch() throws Exception {
+    assertEquals("{\"recommendations\":[{\"userID\":1,\"items\":[{\"id\":11,\"value\":1.0},{\"id\":12,\"value\":2.0}]},"
+                 + "{\"userID\":2,\"items\":[{\"id\":12,\"value\":1.0},{\"id\":13,\"value\":2.0}]}],"
+                 + "\"deadlineExceeded\":false}\n", get("/recommend?userID=1&userID=2&howMany=2"));
+    assertEquals(200, status);
+    assertEquals(1, recommender.batchCalls);
+    assertEquals(0, recommender.userCalls);
+  }
+
+  @Test
+  public void testUnknownUserInBatch() throws Exception {
+    assertEquals("{\"recommendations\":[{\"userID\":1,\"items\":[{\"id\":11,\"value\":1.0}]},"
+                 + "{\"userID\":-1,\"error\":\"no such user\"},"
+                 + "{\"userID\":2,\"items\":[{\"id\":12,\"value\":1.0}]}],"
+                 + "\"deadlineExceeded\":false}\n", get("/recommend?userID=1,-1,2&howMany=1"));
+    assertEquals(200, status);
+    assertEquals(1, recommender.batchCalls);
+    assertEquals(3, recommender.userCalls);
+  }
+
+  @Test
+  public void testBadRequests() throws Exception {
+    get("/recommend?howMany=1");
+    assertEquals(400, status);
+    get("/recommend?userID=1&howMany=0");
+    assertEquals(400, status);
+    get("/recommend?userID=x");
+    assertEquals(400, status);
+    assertEquals(0, recommender.userCalls);
+  }
+
+  @Test
+  public void testErrorMessageEscaped() throws Exception {
+    assertEquals("{\"error\":\"For input string: \\\"abc\\\"\"}\n", get("/recommend?userID=abc"));
+    assertEquals(400, status);
+  }
+
+  @Test
+  public void testRuntimeExceptionFailsOneUser() throws Exception {
+    assertEquals("{\"recommendations\":[{\"userID\":1,\"items\":[{\"id\":11,\"value\":1.0}]},"
+                 + "{\"userID\":99,\"error\":\"java.lang.IllegalStateException: broken\"}],"
+                 + "\"deadlineExceeded\":false}\n", get("/recommend?userID=1,99&howMany=1"));
+    assertEquals(200, status);
+    assertEquals(1, recommender.batchCalls);
+    assertEquals(2, recommender.userCalls);
+  }
+
+  @Test
+  public void testSlowPostDoesNotBlockOthers() throws Exception {
+    InetSocketAddress address = server.getAddress();
+    Socket slowClient = new Socket(address.getAddress(), address.getPort());
+    try {
+      // promise a body which never comes
+      OutputStream out = slowClient.getOutputStream();
+      out.write(("POST /recommend HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100\r\n\r\nuserID=1")
+          .getBytes(Charsets.US_ASCII));
+      out.flush();
+      Thread.sleep(100L);
+      get("/metrics");
+      assertEquals(200, status);
+    } finally {
+      slowClient.close();
+    }
+  }
+
+  @Test
+  public void testDeadlinePassedWhileQueued() throws Exception {
+    get("/recommend?userID=1&timeoutMillis=0");
+    assertEquals(503, status);
+    assertEquals(1L, server.getNumShed());
+    assertEquals(0, recommender.userCalls);
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    get("/recommend?userID=1");
+    String metrics = get("/metrics");
+    assertEquals(200, status);
+    assertTrue(metrics, metrics.contains("/recommend\tcount:1,"));
+    assertTrue(metrics, metrics.contains("shed\t0\n"));
+  }
+
+  private String get(String pathAndQuery) throws IOException {
+    InetSocketAddress address = server.getAddress();
+    URL url = new URL("http", address.getHostName(), address.getPort(), pathAndQuery);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setReadTimeout(10000);
+    try {
+      status = connection.getResponseCode();
+      InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+      try {
+        return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+      } finally {
+        in.close();
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Recommends items userID+10, userID+11, ... with values 1.0, 2.0, ... to users with positive IDs but 99, and
+   * fails whole batches which hold any other user.
+   */
+  private static final class FixedRecommender implements BatchRecommender {
+
+    private volatile int batchCalls;
+    private volatile int userCalls;
+
+    @Override
+    public List<List<RecommendedItem>> recommend(long[] userIDs, int howMany) throws TasteException {
+      return recommend(userIDs, howMany, null);
+    }
+
+    @Override
+    public List<List<RecommendedItem>> recommend(long[] userIDs, int howMany, IDRescorer rescorer)
+      throws TasteException {
+      batchCalls++;
+      List<List<RecommendedItem>> recommendations = Lists.newArrayList();
+      for (long userID : userIDs) {
+        recommendations.add(recommendTo(userID, howMany));
+      }
+      return recommendations;
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+      return recommend(userID, howMany, null);
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+      userCalls++;
+      return recommendTo(userID, howMany);
+    }
+
+    private static List<RecommendedItem> recommendTo(long userID, int howMany) throws NoSuchUserException {
+      if (userID <= 0L) {
+        throw new NoSuchUserException(userID);
+      }
+      if (userID == 99L) {
+        throw new IllegalStateException("broken");
+      }
+      List<RecommendedItem> items = Lists.newArrayList();
+      for (int i = 0; i < howMany; i++) {
+        items.add(new GenericRecommendedItem(userID + 10L + i, i + 1.0f));
+      }
+      return items;
+    }
+
+    @Override
+    public float estimatePreference(long userID, long itemID) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPreference(long userID, long itemID, float value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removePreference(long userID, long itemID) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DataModel getDataModel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    }
+  }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Creates daemon threads named after a common prefix and a sequence number, so that pools of worker threads
+ * never keep the JVM alive and are easy to recognize in thread dumps. The factory can also tell whether the calling
+ * thread is one of its own, which lets code that submits work to a pool run nested work inline rather than
+ * waiting on the same pool.
+ * </p>
+ */
+public final class DaemonThreadFactory implements ThreadFactory {
+
+  private final String namePrefix;
+  private final AtomicInteger count;
+
+  public DaemonThreadFactory(String namePrefix) {
+    this.namePrefix = namePrefix;
+    this.count = new AtomicInteger();
+  }
+
+  /**
+   * @return a fixed size pool of {@code numThreads} daemon threads named after {@code namePrefix}
+   */
+  public static ExecutorService newFixedThreadPool(int numThreads, String namePrefix) {
+    return Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory(namePrefix));
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new WorkerThread(this, runnable, namePrefix + '-' + count.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * @return true if the current thread was created by this factory
+   */
+  public boolean createdCurrentThread() {
+    Thread current = Thread.currentThread();
+    return current instanceof WorkerThread && ((WorkerThread) current).factory == this;
+  }
+
+  private static final class WorkerThread extends Thread {
+
+    private final DaemonThreadFactory factory;
+
+    WorkerThread(DaemonThreadFactory factory, Runnable runnable, String name) {
+      super(runnable, name);
+      this.factory = factory;
+    }
+  }
+
+}
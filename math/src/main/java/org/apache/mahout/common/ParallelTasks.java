@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.common;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Runs a list of independent tasks to completion, either on a pool of daemon threads which lives only as long as
+ * the call, or on a shared pool of one daemon thread per processor which lives as long as the JVM and suits work
+ * that is split up many times a second. Tasks run on the calling thread when there is only one thread or one task,
+ * and tasks submitted from one of the shared pool's own threads run on that thread rather than waiting on the pool
+ * they occupy. Whichever way the tasks ran, a task's failure surfaces as the exception it threw rather than wrapped
+ * in an {@link ExecutionException}.
+ * </p>
+ */
+public final class ParallelTasks {
+
+  /** Number of threads of the shared pool. */
+  public static final int NUM_SHARED_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static final DaemonThreadFactory SHARED_THREAD_FACTORY = new DaemonThreadFactory("mahout-parallel-tasks");
+
+  private static ExecutorService sharedExecutor;
+
+  private ParallelTasks() {
+  }
+
+  /**
+   * @param tasks tasks to run
+   * @param numThreads largest number of threads to run the tasks on
+   * @param exceptionClass checked exception the tasks may throw, which is rethrown as it is
+   * @return the result of each task, in the order of the tasks
+   * @throws E if a task threw it
+   * @throws InterruptedException if interrupted while waiting for the tasks
+   * @throws IllegalStateException if a task threw a checked exception other than {@code E}
+   */
+  public static <T, E extends Exception> List<T> invokeAll(List<? extends Callable<T>> tasks,
+                                                         int numThreads,
+                                                         Class<E> exceptionClass) throws E, InterruptedException {
+    if (numThreads <= 1 || tasks.size() <= 1) {
+      return callAll(tasks, exceptionClass);
+    }
+    ExecutorService executor =
+        DaemonThreadFactory.newFixedThreadPool(Math.min(numThreads, tasks.size()), "mahout-parallel-tasks-call");
+    try {
+      return invokeAll(executor, tasks, exceptionClass);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Like {@link #invokeAll(List, int, Class)}, on the shared pool.
+   */
+  public static <T, E extends Exception> List<T> invokeAllShared(List<? extends Callable<T>> tasks,
+                                                               Class<E> exceptionClass)
+    throws E, InterruptedException {
+    if (tasks.size() <= 1 || isSharedThread()) {
+      return callAll(tasks, exceptionClass);
+    }
+    return invokeAll(sharedExecutor(), tasks, exceptionClass);
+  }
+
+  /**
+   * @return true if the current thread belongs to the shared pool, so that work split up on it runs inline
+   */
+  public static boolean isSharedThread() {
+    return SHARED_THREAD_FACTORY.createdCurrentThread();
+  }
+
+  private static <T, E extends Exception> List<T> callAll(List<? extends Callable<T>> tasks,
+                                                        Class<E> exceptionClass) throws E {
+    List<T> results = Lists.newArrayListWithCapacity(tasks.size());
+    for (Callable<T> task : tasks) {
+      try {
+        results.add(task.call());
+      } catch (Exception e) {
+        throw rethrow(e, exceptionClass);
+      }
+    }
+    return results;
+  }
+
+  private static <T, E extends Exception> List<T> invokeAll(ExecutorService executor,
+                                                          List<? extends Callable<T>> tasks,
+                                                          Class<E> exceptionClass) throws E, InterruptedException {
+    List<T> results = Lists.newArrayListWithCapacity(tasks.size());
+    try {
+      for (Future<T> future : executor.invokeAll(tasks)) {
+        results.add(future.get());
+      }
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw rethrow((Exception) cause, exceptionClass);
+    }
+    return results;
+  }
+
+  private static <E extends Exception> RuntimeException rethrow(Exception e, Class<E> exceptionClass) throws E {
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    if (exceptionClass.isInstance(e)) {
+      throw exceptionClass.cast(e);
+    }
+    return new IllegalStateException(e);
+  }
+
+  private static synchronized ExecutorService sharedExecutor() {
+    if (sharedExecutor == null) {
+      sharedExecutor = Executors.newFixedThreadPool(NUM_SHARED_THREADS, SHARED_THREAD_FACTORY);
+    }
+    return sharedExecutor;
+  }
+
+}
@@ -530,6 +530,14 @@ public abstract class AbstractMatrix implements Matrix {
     return result;
   }
 
+  @Override
+  public Matrix transposeTimes(Matrix other) {
+    if (rowSize() != other.rowSize()) {
+      throw new CardinalityException(rowSize(), other.rowSize());
+    }
+    return transpose().times(other);
+  }
+
   @Override
   public Vector times(Vector v) {
     int columns = columnSize();
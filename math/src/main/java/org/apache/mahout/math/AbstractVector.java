@@ -21,6 +21,7 @@ import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.function.DoubleDoubleFunction;
 import org.apache.mahout.math.function.DoubleFunction;
 import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 import java.util.Iterator;
 
@@ -41,9 +42,30 @@ public abstract class AbstractVector implements Vector {
     if (size < 1) {
       throw new IllegalArgumentException("Cannot aggregate empty vector");
     }
-    double result = map.apply(getQuick(0));
-    for (int i = 1; i < size; i++) {
-      result = aggregator.apply(result, map.apply(getQuick(i)));
+    if (isDense()) {
+      double result = map.apply(getQuick(0));
+      for (int i = 1; i < size; i++) {
+        result = aggregator.apply(result, map.apply(getQuick(i)));
+      }
+      return result;
+    }
+
+    AggregateProcedure procedure = new AggregateProcedure(aggregator, map);
+    forEachNonZero(procedure);
+    // all elements which were not visited are zero; stop folding them in once that no longer changes the result
+    double mappedZero = map.apply(0.0);
+    int numZeros = size - procedure.count;
+    double result = procedure.result;
+    if (procedure.count == 0) {
+      result = mappedZero;
+      numZeros--;
+    }
+    for (int i = 0; i < numZeros; i++) {
+      double next = aggregator.apply(result, mappedZero);
+      if (next == result) {
+        break;
+      }
+      result = next;
     }
     return result;
   }
@@ -147,23 +169,30 @@ public abstract class AbstractVector implements Vector {
       return x.dot(this);
     }
 
-    double result = 0.0;
-    Iterator<Element> iter = iterateNonZero();
-    while (iter.hasNext()) {
-      Element element = iter.next();
-      result += element.get() * x.getQuick(element.index());
-    }
-    return result;
+    DotProcedure procedure = new DotProcedure(x);
+    forEachNonZero(procedure);
+    return procedure.result;
   }
   
   public double dotSelf() {
-    double result = 0.0;
+    DotProcedure procedure = new DotProcedure(null);
+    forEachNonZero(procedure);
+    return procedure.result;
+  }
+
+  /**
+   * Traverses {@link #iterateNonZero()}; subclasses should override this with a direct walk over their storage.
+   */
+  @Override
+  public boolean forEachNonZero(IntDoubleProcedure procedure) {
     Iterator<Element> iter = iterateNonZero();
     while (iter.hasNext()) {
-      double value = iter.next().get();
-      result += value * value;
+      Element element = iter.next();
+      if (!procedure.apply(element.index(), element.get())) {
+        return false;
+      }
     }
-    return result;
+    return true;
   }
 
   @Override
@@ -290,25 +319,16 @@ public abstract class AbstractVector implements Vector {
     if (lengthSquared >= 0 && v instanceof AbstractVector && ((AbstractVector)v).lengthSquared >= 0) {
       return lengthSquared + v.getLengthSquared() - 2 * this.dot(v);
     }
-    Vector randomlyAccessed;
-    Iterator<Element> it;
-    double d = 0.0;
+    DistanceSquaredProcedure procedure;
     if (lengthSquared >= 0.0) {
-      it = v.iterateNonZero();
-      randomlyAccessed = this;
-      d += lengthSquared;
+      procedure = new DistanceSquaredProcedure(this, lengthSquared);
+      v.forEachNonZero(procedure);
     } else { // TODO: could be further optimized, figure out which one is smaller, etc
-      it = iterateNonZero();
-      randomlyAccessed = v;
-      d += v.getLengthSquared();
-    }
-    while (it.hasNext()) {
-      Element e = it.next();
-      double value = e.get();
-      d += value * (value - 2.0 * randomlyAccessed.getQuick(e.index()));
+      procedure = new DistanceSquaredProcedure(v, v.getLengthSquared());
+      forEachNonZero(procedure);
     }
     //assert d > -1.0e-9; // round-off errors should never be too far off!
-    return Math.abs(d);
+    return Math.abs(procedure.result);
   }
 
   @Override
@@ -670,4 +690,57 @@ public abstract class AbstractVector implements Vector {
       setQuick(index, value);
     }
   }
+
+  /** Sums the products with the other vector's values, or the squares of the values if there is no other vector. */
+  private static final class DotProcedure implements IntDoubleProcedure {
+    private final Vector other;
+    private double result;
+
+    DotProcedure(Vector other) {
+      this.other = other;
+    }
+
+    @Override
+    public boolean apply(int index, double value) {
+      result += value * (other == null ? value : other.getQuick(index));
+      return true;
+    }
+  }
+
+  /** Adds value * (value - 2 * other) for each element to the length squared of the other vector. */
+  private static final class DistanceSquaredProcedure implements IntDoubleProcedure {
+    private final Vector randomlyAccessed;
+    private double result;
+
+    DistanceSquaredProcedure(Vector randomlyAccessed, double randomlyAccessedLengthSquared) {
+      this.randomlyAccessed = randomlyAccessed;
+      this.result = randomlyAccessedLengthSquared;
+    }
+
+    @Override
+    public boolean apply(int index, double value) {
+      result += value * (value - 2.0 * randomlyAccessed.getQuick(index));
+      return true;
+    }
+  }
+
+  private static final class AggregateProcedure implements IntDoubleProcedure {
+    private final DoubleDoubleFunction aggregator;
+    private final DoubleFunction map;
+    private double result;
+    private int count;
+
+    AggregateProcedure(DoubleDoubleFunction aggregator, DoubleFunction map) {
+      this.aggregator = aggregator;
+      this.map = map;
+    }
+
+    @Override
+    public boolean apply(int index, double value) {
+      double mapped = map.apply(value);
+      result = count == 0 ? mapped : aggregator.apply(result, mapped);
+      count++;
+      return true;
+    }
+  }
 }
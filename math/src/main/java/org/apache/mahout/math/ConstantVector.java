@@ -18,6 +18,7 @@
 package org.apache.mahout.math;
 
 import com.google.common.collect.AbstractIterator;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 import java.util.Iterator;
 
@@ -98,6 +99,19 @@ public class ConstantVector extends AbstractVector {
     return iterator();
   }
 
+  @Override
+  public boolean forEachNonZero(IntDoubleProcedure procedure) {
+    if (value != 0.0) {
+      int size = size();
+      for (int i = 0; i < size; i++) {
+        if (!procedure.apply(i, value)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   /**
    * Return the value at the given index, without checking bounds
    *
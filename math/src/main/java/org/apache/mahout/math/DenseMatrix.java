@@ -31,12 +31,28 @@ public class DenseMatrix extends AbstractMatrix {
    *          a double[][]
    */
   public DenseMatrix(double[][] values) {
+    this(values, false);
+  }
+
+  /**
+   * Construct a matrix from the given values
+   *
+   * @param values
+   *          a double[][] whose rows all have the same length
+   * @param shallowCopy
+   *          if true, the matrix is backed by the given array and its rows instead of copies of them
+   */
+  public DenseMatrix(double[][] values, boolean shallowCopy) {
     super(values.length, values[0].length);
-    // clone the rows
-    this.values = new double[values.length][];
-    // be careful, need to clone the columns too
-    for (int i = 0; i < values.length; i++) {
-      this.values[i] = values[i].clone();
+    if (shallowCopy) {
+      this.values = values;
+    } else {
+      // clone the rows
+      this.values = new double[values.length][];
+      // be careful, need to clone the columns too
+      for (int i = 0; i < values.length; i++) {
+        this.values[i] = values[i].clone();
+      }
     }
   }
   
@@ -155,6 +171,40 @@ public class DenseMatrix extends AbstractMatrix {
     return this;
   }
   
+  /**
+   * Multiplies by another {@link DenseMatrix} with a cache-blocked kernel, in parallel for large products. Other
+   * matrices are multiplied by the generic implementation.
+   */
+  @Override
+  public Matrix times(Matrix other) {
+    if (!(other instanceof DenseMatrix)) {
+      return super.times(other);
+    }
+    if (columnSize() != other.rowSize()) {
+      throw new CardinalityException(columnSize(), other.rowSize());
+    }
+    DenseMatrix result = new DenseMatrix(rowSize(), other.columnSize());
+    DenseMatrixMultiplier.times(values, ((DenseMatrix) other).values, result.values);
+    return result;
+  }
+
+  /**
+   * Multiplies the transpose of this matrix by another {@link DenseMatrix} without forming the transpose, in parallel
+   * for large products. Other matrices are multiplied by the generic implementation.
+   */
+  @Override
+  public Matrix transposeTimes(Matrix other) {
+    if (!(other instanceof DenseMatrix)) {
+      return super.transposeTimes(other);
+    }
+    if (rowSize() != other.rowSize()) {
+      throw new CardinalityException(rowSize(), other.rowSize());
+    }
+    DenseMatrix result = new DenseMatrix(columnSize(), other.columnSize());
+    DenseMatrixMultiplier.transposeTimes(values, ((DenseMatrix) other).values, result.values);
+    return result;
+  }
+
   @Override
   public Vector viewRow(int row) {
     if (row < 0 || row >= rowSize()) {
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.common.ParallelTasks;
+
+/**
+ * <p>Cache-blocked multiplication of dense row-major arrays, used by {@link DenseMatrix#times(Matrix)} and
+ * {@link DenseMatrix#transposeTimes(Matrix)}.</p>
+ *
+ * <p>The result is cut into tiles of rows and columns which are computed independently on the shared pool of
+ * {@link ParallelTasks}, one thread per processor. Within a tile, the inner dimension and the columns are walked in blocks of
+ * {@link #BLOCK_SIZE} so that the block of the right hand side being read stays in cache while all rows of the tile
+ * are updated. Products needing fewer than {@link #PARALLEL_THRESHOLD} multiply-adds are computed on the calling
+ * thread, as are products requested from one of the pool's own threads.</p>
+ */
+final class DenseMatrixMultiplier {
+
+  /** Products with fewer multiply-adds than this are computed on the calling thread. */
+  static final long PARALLEL_THRESHOLD = 1L << 18;
+
+  static final int BLOCK_SIZE = 64;
+
+  private static final int NUM_THREADS = ParallelTasks.NUM_SHARED_THREADS;
+  private static final int TASKS_PER_THREAD = 4;
+  private static final int MIN_TILE_SIZE = 16;
+
+  private DenseMatrixMultiplier() {
+  }
+
+  /**
+   * Computes c = a * b, where a is m x n, b is n x p and c is a zeroed m x p array.
+   */
+  static void times(double[][] a, double[][] b, double[][] c) {
+    times(a, b, c, NUM_THREADS);
+  }
+
+  /**
+   * @param numThreads number of threads to cut the work up for
+   */
+  static void times(final double[][] a, final double[][] b, final double[][] c, int numThreads) {
+    final int rows = c.length;
+    final int columns = rows == 0 ? 0 : c[0].length;
+    final int inner = b.length;
+    if (!isParallel(rows, columns, inner, numThreads)) {
+      times(a, b, c, 0, rows, 0, columns);
+      return;
+    }
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    int rowTile = tileSize(rows, numThreads * TASKS_PER_THREAD);
+    int columnTile = tileSize(columns, numThreads * TASKS_PER_THREAD / numTiles(rows, rowTile));
+    for (int row = 0; row < rows; row += rowTile) {
+      final int rowStart = row;
+      final int rowEnd = Math.min(rows, row + rowTile);
+      for (int column = 0; column < columns; column += columnTile) {
+        final int columnStart = column;
+        final int columnEnd = Math.min(columns, column + columnTile);
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            times(a, b, c, rowStart, rowEnd, columnStart, columnEnd);
+            return null;
+          }
+        });
+      }
+    }
+    invokeAll(tasks);
+  }
+
+  /**
+   * Computes c = a' * b, where a is m x n, b is m x p and c is a zeroed n x p array, without forming a'.
+   */
+  static void transposeTimes(double[][] a, double[][] b, double[][] c) {
+    transposeTimes(a, b, c, NUM_THREADS);
+  }
+
+  /**
+   * @param numThreads number of threads to cut the work up for
+   */
+  static void transposeTimes(final double[][] a, final double[][] b, final double[][] c, int numThreads) {
+    final int rows = c.length;
+    final int columns = rows == 0 ? 0 : c[0].length;
+    final int inner = b.length;
+    if (!isParallel(rows, columns, inner, numThreads)) {
+      transposeTimes(a, b, c, 0, inner, 0, rows, 0, columns);
+      return;
+    }
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    int rowTile = tileSize(rows, numThreads * TASKS_PER_THREAD);
+    int columnTile = tileSize(columns, numThreads * TASKS_PER_THREAD / numTiles(rows, rowTile));
+    if (numTiles(rows, rowTile) * numTiles(columns, columnTile) >= numThreads) {
+      for (int row = 0; row < rows; row += rowTile) {
+        final int rowStart = row;
+        final int rowEnd = Math.min(rows, row + rowTile);
+        for (int column = 0; column < columns; column += columnTile) {
+          final int columnStart = column;
+          final int columnEnd = Math.min(columns, column + columnTile);
+          tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+              transposeTimes(a, b, c, 0, inner, rowStart, rowEnd, columnStart, columnEnd);
+              return null;
+            }
+          });
+        }
+      }
+      invokeAll(tasks);
+      return;
+    }
+
+    // the result is too small to keep every thread busy, typically a Gramian a' * a of a tall matrix:
+    // split the inner dimension instead and add up the partial products
+    int innerTile = tileSize(inner, numThreads);
+    final List<double[][]> partials = Lists.newArrayList();
+    for (int k = 0; k < inner; k += innerTile) {
+      final int innerStart = k;
+      final int innerEnd = Math.min(inner, k + innerTile);
+      final double[][] partial = new double[rows][columns];
+      partials.add(partial);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          transposeTimes(a, b, partial, innerStart, innerEnd, 0, rows, 0, columns);
+          return null;
+        }
+      });
+    }
+    invokeAll(tasks);
+    for (double[][] partial : partials) {
+      for (int row = 0; row < rows; row++) {
+        double[] resultRow = c[row];
+        double[] partialRow = partial[row];
+        for (int column = 0; column < columns; column++) {
+          resultRow[column] += partialRow[column];
+        }
+      }
+    }
+  }
+
+  private static void times(double[][] a, double[][] b, double[][] c,
+                            int rowStart, int rowEnd, int columnStart, int columnEnd) {
+    int inner = b.length;
+    for (int k0 = 0; k0 < inner; k0 += BLOCK_SIZE) {
+      int k1 = Math.min(inner, k0 + BLOCK_SIZE);
+      for (int j0 = columnStart; j0 < columnEnd; j0 += BLOCK_SIZE) {
+        int j1 = Math.min(columnEnd, j0 + BLOCK_SIZE);
+        for (int i = rowStart; i < rowEnd; i++) {
+          double[] aRow = a[i];
+          double[] cRow = c[i];
+          for (int k = k0; k < k1; k++) {
+            double aik = aRow[k];
+            double[] bRow = b[k];
+            for (int j = j0; j < j1; j++) {
+              cRow[j] += aik * bRow[j];
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static void transposeTimes(double[][] a, double[][] b, double[][] c, int innerStart, int innerEnd,
+                                     int rowStart, int rowEnd, int columnStart, int columnEnd) {
+    for (int k0 = innerStart; k0 < innerEnd; k0 += BLOCK_SIZE) {
+      int k1 = Math.min(innerEnd, k0 + BLOCK_SIZE);
+      for (int j0 = columnStart; j0 < columnEnd; j0 += BLOCK_SIZE) {
+        int j1 = Math.min(columnEnd, j0 + BLOCK_SIZE);
+        for (int i = rowStart; i < rowEnd; i++) {
+          double[] cRow = c[i];
+          for (int k = k0; k < k1; k++) {
+            double aki = a[k][i];
+            double[] bRow = b[k];
+            for (int j = j0; j < j1; j++) {
+              cRow[j] += aki * bRow[j];
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static boolean isParallel(int rows, int columns, int inner, int numThreads) {
+    return numThreads > 1
+        && (long) rows * columns * inner >= PARALLEL_THRESHOLD
+        && !ParallelTasks.isSharedThread();
+  }
+
+  /** @return the length of pieces which cut {@code length} into about {@code numPieces} pieces */
+  private static int tileSize(int length, int numPieces) {
+    int size = (length + Math.max(1, numPieces) - 1) / Math.max(1, numPieces);
+    return Math.min(Math.max(1, length), Math.max(MIN_TILE_SIZE, size));
+  }
+
+  private static int numTiles(int length, int tileSize) {
+    return (length + tileSize - 1) / tileSize;
+  }
+
+  private static void invokeAll(List<Callable<Void>> tasks) {
+    try {
+      ParallelTasks.invokeAllShared(tasks, RuntimeException.class);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ie);
+    }
+  }
+
+}
@@ -22,6 +22,7 @@ import java.util.Iterator;
 
 import com.google.common.collect.AbstractIterator;
 import org.apache.mahout.math.function.DoubleDoubleFunction;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 import org.apache.mahout.math.function.PlusMult;
 
 /** Implements vector as an array of doubles */
@@ -188,6 +189,17 @@ public class DenseVector extends AbstractVector {
     return new AllIterator();
   }
 
+  @Override
+  public boolean forEachNonZero(IntDoubleProcedure procedure) {
+    for (int i = 0; i < values.length; i++) {
+      double value = values[i];
+      if (value != 0.0 && !procedure.apply(i, value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (o instanceof DenseVector) {
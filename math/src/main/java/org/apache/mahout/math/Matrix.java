@@ -253,6 +253,16 @@ public interface Matrix extends Cloneable, VectorIterable {
    */
   Matrix times(Matrix x);
 
+  /**
+   * Return a new matrix containing the product of the transpose of the recipient and the argument, that is
+   * {@code this.transpose().times(x)}, computed without necessarily forming the transpose
+   *
+   * @param x a Matrix argument with as many rows as the recipient
+   * @return a new Matrix
+   * @throws CardinalityException if the cardinalities are incompatible
+   */
+  Matrix transposeTimes(Matrix x);
+
   /**
    * Return a new matrix that is the transpose of the receiver
    *
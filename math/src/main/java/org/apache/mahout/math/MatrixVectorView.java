@@ -17,6 +17,8 @@
 
 package org.apache.mahout.math;
 
+import org.apache.mahout.math.function.IntDoubleProcedure;
+
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -123,6 +125,18 @@ public class MatrixVectorView extends AbstractVector {
     return iterator();
   }
 
+  @Override
+  public boolean forEachNonZero(IntDoubleProcedure procedure) {
+    int size = size();
+    for (int i = 0; i < size; i++) {
+      double value = getQuick(i);
+      if (value != 0.0 && !procedure.apply(i, value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Return the value at the given index, without checking bounds
    *
@@ -18,6 +18,7 @@
 package org.apache.mahout.math;
 
 import com.google.common.collect.AbstractIterator;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 import java.util.Iterator;
 
@@ -165,6 +166,16 @@ public class PermutedVectorView extends AbstractVector {
     };
   }
 
+  @Override
+  public boolean forEachNonZero(final IntDoubleProcedure procedure) {
+    return vector.forEachNonZero(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        return procedure.apply(unpivot[index], value);
+      }
+    });
+  }
+
   /**
    * Return the value at the given index, without checking bounds
    *
@@ -20,6 +20,7 @@ package org.apache.mahout.math;
 import java.util.Iterator;
 
 import com.google.common.collect.AbstractIterator;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 import org.apache.mahout.math.list.IntArrayList;
 import org.apache.mahout.math.map.OpenIntDoubleHashMap;
 
@@ -167,6 +168,14 @@ public class RandomAccessSparseVector extends AbstractVector {
     return new AllIterator();
   }
 
+  /**
+   * Walks the hash table directly, without copying the keys as {@link #iterateNonZero()} has to.
+   */
+  @Override
+  public boolean forEachNonZero(IntDoubleProcedure procedure) {
+    return values.forEachPair(procedure);
+  }
+
   private final class NonDefaultIterator extends AbstractIterator<Element> {
 
     private final RandomAccessElement element = new RandomAccessElement();
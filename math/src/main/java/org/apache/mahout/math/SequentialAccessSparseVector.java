@@ -18,8 +18,8 @@
 package org.apache.mahout.math;
 
 import com.google.common.collect.AbstractIterator;
-import com.google.common.primitives.Doubles;
 import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 import java.util.Arrays;
 import java.util.Iterator;
@@ -38,9 +38,13 @@ import java.util.Iterator;
  *   <li>addTo(Vector)</li>
  * </ul>
  * <p>
- * Note that the Vector passed to these above methods may (and currently, are) be used in a random access fashion,
- * so for example, calling SequentialAccessSparseVector.dot(SequentialAccessSparseVector) is slow.
- * TODO: this need not be the case - both are ordered, so this should be very fast if implmented in this class
+ * Note that the Vector passed to these above methods may (and currently, are) be used in a random access fashion.
+ * The exceptions are dot(Vector), plus(Vector), minus(Vector) and getDistanceSquared(Vector) with another
+ * SequentialAccessSparseVector, which are computed by merging the two ordered arrays in a single pass.
+ * </p>
+ * <p>
+ * To build a vector from elements which are not in index order, use a {@link Builder} rather than setting them
+ * one at a time.
  * </p>
  *
  * See {@link OrderedIntDoubleMapping}
@@ -95,20 +99,60 @@ public class SequentialAccessSparseVector extends AbstractVector {
   // Sorts a RandomAccessSparseVectors Elements before adding them to this
   private int copySortedRandomAccessSparseVector(Vector other) {
     int elementCount = other.getNumNondefaultElements();
-    OrderedElement[] sortableElements = new OrderedElement[elementCount];
+    int[] indices = new int[elementCount];
+    double[] elementValues = new double[elementCount];
     Iterator<Element> it = other.iterateNonZero();
     Element e;
-    int s=0;
+    int s = 0;
     while (it.hasNext() && (e = it.next()) != null) {
-      sortableElements[s++] = new OrderedElement(e.index(), e.get());
+      indices[s] = e.index();
+      elementValues[s] = e.get();
+      s++;
     }
-    Arrays.sort(sortableElements);
-    for (int i = 0; i < sortableElements.length; i++) {
-      values.getIndices()[i] = sortableElements[i].index;
-      values.getValues()[i] = sortableElements[i].value;
+    values = sortedMapping(indices, elementValues, s);
+    return values.getNumMappings();
+  }
+
+  /**
+   * Sorts the first numElements of the parallel arrays by index into a new mapping. Indices which occur more than
+   * once keep the value which was added last, and zero values are dropped.
+   */
+  private static OrderedIntDoubleMapping sortedMapping(int[] indices, double[] values, int numElements) {
+    boolean sorted = true;
+    for (int i = 1; i < numElements && sorted; i++) {
+      sorted = indices[i - 1] < indices[i];
+    }
+    // sort (index, position) pairs packed into longs, which keeps equal indices in insertion order
+    long[] order = null;
+    if (!sorted) {
+      order = new long[numElements];
+      for (int i = 0; i < numElements; i++) {
+        order[i] = ((long) indices[i] << 32) | i;
+      }
+      Arrays.sort(order);
     }
-    values = new OrderedIntDoubleMapping(values.getIndices(), values.getValues(), elementCount);
-    return elementCount;
+    int[] sortedIndices = new int[numElements];
+    double[] sortedValues = new double[numElements];
+    int numMappings = 0;
+    for (int i = 0; i < numElements; i++) {
+      int position = order == null ? i : (int) order[i];
+      int index = indices[position];
+      if (numMappings > 0 && sortedIndices[numMappings - 1] == index) {
+        numMappings--;
+      }
+      sortedIndices[numMappings] = index;
+      sortedValues[numMappings] = values[position];
+      numMappings++;
+    }
+    int numNonZero = 0;
+    for (int i = 0; i < numMappings; i++) {
+      if (sortedValues[i] != OrderedIntDoubleMapping.DEFAULT_VALUE) {
+        sortedIndices[numNonZero] = sortedIndices[i];
+        sortedValues[numNonZero] = sortedValues[i];
+        numNonZero++;
+      }
+    }
+    return new OrderedIntDoubleMapping(sortedIndices, sortedValues, numNonZero);
   }
 
   public SequentialAccessSparseVector(SequentialAccessSparseVector other, boolean shallowCopy) {
@@ -145,12 +189,8 @@ public class SequentialAccessSparseVector extends AbstractVector {
     if (other instanceof SequentialAccessSparseVector) {
       values = ((SequentialAccessSparseVector)other).values.clone();
     } else {
-      values = new OrderedIntDoubleMapping();
-      Iterator<Element> othersElems = other.iterateNonZero();
-      while (othersElems.hasNext()) {
-        Element elem = othersElems.next();
-        setQuick(elem.index(), elem.get());
-      }
+      lengthSquared = -1;
+      copySortedRandomAccessSparseVector(other);
     }
     return this;
   }
@@ -220,11 +260,144 @@ public class SequentialAccessSparseVector extends AbstractVector {
     return new AllIterator();
   }
 
+  @Override
+  public boolean forEachNonZero(IntDoubleProcedure procedure) {
+    int[] indices = values.getIndices();
+    double[] elementValues = values.getValues();
+    int numMappings = values.getNumMappings();
+    for (int i = 0; i < numMappings; i++) {
+      if (!procedure.apply(indices[i], elementValues[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public double dot(Vector x) {
+    if (!(x instanceof SequentialAccessSparseVector)) {
+      return super.dot(x);
+    }
+    if (size() != x.size()) {
+      throw new CardinalityException(size(), x.size());
+    }
+    OrderedIntDoubleMapping that = ((SequentialAccessSparseVector) x).values;
+    int[] thisIndices = values.getIndices();
+    double[] thisValues = values.getValues();
+    int thisNumMappings = values.getNumMappings();
+    int[] thatIndices = that.getIndices();
+    double[] thatValues = that.getValues();
+    int thatNumMappings = that.getNumMappings();
+
+    double result = 0.0;
+    int i = 0;
+    int j = 0;
+    while (i < thisNumMappings && j < thatNumMappings) {
+      int thisIndex = thisIndices[i];
+      int thatIndex = thatIndices[j];
+      if (thisIndex == thatIndex) {
+        result += thisValues[i++] * thatValues[j++];
+      } else if (thisIndex < thatIndex) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Vector plus(Vector x) {
+    if (!(x instanceof SequentialAccessSparseVector)) {
+      return super.plus(x);
+    }
+    if (size() != x.size()) {
+      throw new CardinalityException(size(), x.size());
+    }
+    return merge((SequentialAccessSparseVector) x, 1.0);
+  }
+
+  @Override
+  public double getDistanceSquared(Vector v) {
+    if (!(v instanceof SequentialAccessSparseVector)) {
+      return super.getDistanceSquared(v);
+    }
+    if (size() != v.size()) {
+      throw new CardinalityException(size(), v.size());
+    }
+    OrderedIntDoubleMapping that = ((SequentialAccessSparseVector) v).values;
+    int[] thisIndices = values.getIndices();
+    double[] thisValues = values.getValues();
+    int thisNumMappings = values.getNumMappings();
+    int[] thatIndices = that.getIndices();
+    double[] thatValues = that.getValues();
+    int thatNumMappings = that.getNumMappings();
+
+    double result = 0.0;
+    int i = 0;
+    int j = 0;
+    while (i < thisNumMappings || j < thatNumMappings) {
+      double delta;
+      if (j == thatNumMappings || (i < thisNumMappings && thisIndices[i] < thatIndices[j])) {
+        delta = thisValues[i++];
+      } else if (i == thisNumMappings || thisIndices[i] > thatIndices[j]) {
+        delta = thatValues[j++];
+      } else {
+        delta = thisValues[i++] - thatValues[j++];
+      }
+      result += delta * delta;
+    }
+    return result;
+  }
+
+  /**
+   * Merges the two ordered mappings into a new vector holding this + sign * other.
+   */
+  private SequentialAccessSparseVector merge(SequentialAccessSparseVector other, double sign) {
+    OrderedIntDoubleMapping that = other.values;
+    int[] thisIndices = values.getIndices();
+    double[] thisValues = values.getValues();
+    int thisNumMappings = values.getNumMappings();
+    int[] thatIndices = that.getIndices();
+    double[] thatValues = that.getValues();
+    int thatNumMappings = that.getNumMappings();
+
+    int[] resultIndices = new int[thisNumMappings + thatNumMappings];
+    double[] resultValues = new double[thisNumMappings + thatNumMappings];
+    int numMappings = 0;
+    int i = 0;
+    int j = 0;
+    while (i < thisNumMappings || j < thatNumMappings) {
+      int index;
+      double value;
+      if (j == thatNumMappings || (i < thisNumMappings && thisIndices[i] < thatIndices[j])) {
+        index = thisIndices[i];
+        value = thisValues[i++];
+      } else if (i == thisNumMappings || thisIndices[i] > thatIndices[j]) {
+        index = thatIndices[j];
+        value = sign * thatValues[j++];
+      } else {
+        index = thisIndices[i];
+        value = thisValues[i++] + sign * thatValues[j++];
+      }
+      if (value != OrderedIntDoubleMapping.DEFAULT_VALUE) {
+        resultIndices[numMappings] = index;
+        resultValues[numMappings] = value;
+        numMappings++;
+      }
+    }
+    return new SequentialAccessSparseVector(size(),
+        new OrderedIntDoubleMapping(resultIndices, resultValues, numMappings));
+  }
+
   @Override
   public Vector minus(Vector that) {
     if (size() != that.size()) {
       throw new CardinalityException(size(), that.size());
     }
+    if (that instanceof SequentialAccessSparseVector) {
+      return merge((SequentialAccessSparseVector) that, -1.0);
+    }
     // Here we compute "that - this" since it's not fast to randomly access "this"
     // and then invert at the end
     Vector result = that.clone();
@@ -341,37 +514,46 @@ public class SequentialAccessSparseVector extends AbstractVector {
     }
   }
 
-  // Comparable Element for sorting Elements by index
-  private static final class OrderedElement implements Comparable<OrderedElement> {
-    private final int index;
-    private final double value;
-    
-    OrderedElement(int index, double value) {
-      this.index = index;
-      this.value = value;
-    }
+  /**
+   * Collects elements in any order and sorts them once in {@link #build()}, which takes O(n log n) time instead of
+   * the O(n^2) of setting out-of-order elements on a {@link SequentialAccessSparseVector} one at a time. As with
+   * {@link SequentialAccessSparseVector#set(int, double)}, the last value set for an index wins.
+   */
+  public static final class Builder {
 
-    @Override
-    public int compareTo(OrderedElement that) {
-      // both indexes are positive, and neither can be Integer.MAX_VALUE (otherwise there would be
-      // an array somewhere with Integer.MAX_VALUE + 1 elements)
-      return this.index - that.index;
+    private final int cardinality;
+    private int[] indices;
+    private double[] values;
+    private int numElements;
+
+    public Builder(int cardinality) {
+      this(cardinality, 16);
     }
 
-    @Override
-    public int hashCode() {
-      return index ^ Doubles.hashCode(value);
+    public Builder(int cardinality, int initialCapacity) {
+      this.cardinality = cardinality;
+      indices = new int[Math.max(1, initialCapacity)];
+      values = new double[indices.length];
     }
 
-    @Override
-    public boolean equals(Object o) {
-      if (!(o instanceof OrderedElement)) {
-        return false;
+    public Builder set(int index, double value) {
+      if (index < 0 || index >= cardinality) {
+        throw new IndexException(index, cardinality);
+      }
+      if (numElements == indices.length) {
+        int newCapacity = Math.max((int) (1.5 * numElements), numElements + 1);
+        indices = Arrays.copyOf(indices, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
       }
-      OrderedElement other = (OrderedElement) o;
-      return index == other.index && value == other.value;
+      indices[numElements] = index;
+      values[numElements] = value;
+      numElements++;
+      return this;
     }
 
+    public SequentialAccessSparseVector build() {
+      return new SequentialAccessSparseVector(cardinality, sortedMapping(indices, values, numElements));
+    }
   }
-  
+
 }
@@ -20,6 +20,7 @@ package org.apache.mahout.math;
 
 import org.apache.mahout.math.function.DoubleDoubleFunction;
 import org.apache.mahout.math.function.DoubleFunction;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 import java.util.Iterator;
 
@@ -130,6 +131,17 @@ public interface Vector extends Cloneable, Iterable<Vector.Element> {
    */
   Iterator<Element> iterateNonZero();
 
+  /**
+   * Applies the procedure to the index and value of each non-zero element, in ascending index order if
+   * {@link #isSequentialAccess()} and in no particular order otherwise. Unlike {@link #iterateNonZero()}, this
+   * allocates neither an iterator nor an element, so it is the cheapest way to read every non-zero value. As with
+   * {@link #iterateNonZero()}, implementations may also pass some elements whose value is zero.
+   *
+   * @param procedure applied to each (index, value) pair; returning false ends the traversal
+   * @return false if the procedure ended the traversal early, true otherwise
+   */
+  boolean forEachNonZero(IntDoubleProcedure procedure);
+
   /**
    * Return an object of Vector.Element representing an element of this Vector. Useful when designing new iterator
    * types.
@@ -351,7 +363,6 @@ public interface Vector extends Cloneable, Iterable<Vector.Element> {
    * Need stories for these but keeping them here for now.
    */
   // void getNonZeros(IntArrayList jx, DoubleArrayList values);
-  // void foreachNonZero(IntDoubleFunction f);
   // DoubleDoubleFunction map);
   // NewVector assign(Vector y, DoubleDoubleFunction function, IntArrayList
   // nonZeroIndexes);
@@ -359,7 +370,8 @@ public interface Vector extends Cloneable, Iterable<Vector.Element> {
   /**
    * Examples speak louder than words:  aggregate(plus, pow(2)) is another way to say
    * getLengthSquared(), aggregate(max, abs) is norm(Double.POSITIVE_INFINITY).  To sum all of the postive values,
-   * aggregate(plus, max(0)).  
+   * aggregate(plus, max(0)).  The aggregator should be associative and commutative, since sparse implementations
+   * visit the non-zero elements first, in no particular order.
    * @param aggregator used to combine the current value of the aggregation with the result of map.apply(nextValue)
    * @param map a function to apply to each element of the vector in turn before passing to the aggregator
    * @return the final aggregation
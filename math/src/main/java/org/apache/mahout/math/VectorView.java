@@ -20,6 +20,7 @@ package org.apache.mahout.math;
 import java.util.Iterator;
 
 import com.google.common.collect.AbstractIterator;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 /** Implements subset view of a Vector */
 public class VectorView extends AbstractVector {
@@ -109,6 +110,16 @@ public class VectorView extends AbstractVector {
     return new AllIterator();
   }
 
+  @Override
+  public boolean forEachNonZero(final IntDoubleProcedure procedure) {
+    return vector.forEachNonZero(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        return !isInView(index) || value == 0.0 || procedure.apply(index - offset, value);
+      }
+    });
+  }
+
   public final class NonZeroIterator extends AbstractIterator<Element> {
 
     private final Iterator<Element> it;
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.als;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.QRDecomposition;
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+
+/**
+ * <p>Solves the least squares problems of {@link AlternatingLeastSquaresSolver} and
+ * {@link ImplicitFeedbackAlternatingLeastSquaresSolver} directly on the feature arrays of the fixed side.</p>
+ *
+ * <p>The normal equations of a user (or item) are built by rank-one updates of a k x k scratch array, one per rated
+ * item, and are solved by a Cholesky decomposition in place. For implicit feedback, the Gramian Y' Y of all fixed
+ * features is shared by every solve of a sweep: compute it once with {@link #gramian(double[][])} and pass it to
+ * {@link #solveImplicit}, so that each solve only costs time proportional to the number of ratings.</p>
+ *
+ * <p>An instance holds the scratch arrays and is not thread-safe; use one per thread.</p>
+ */
+public final class DenseAlternatingLeastSquaresSolver {
+
+  private final int numFeatures;
+  private final double[][] a;
+  private final double[] b;
+  private final double[] diagonal;
+
+  public DenseAlternatingLeastSquaresSolver(int numFeatures) {
+    Preconditions.checkArgument(numFeatures > 0, "numFeatures must be positive");
+    this.numFeatures = numFeatures;
+    a = new double[numFeatures][numFeatures];
+    b = new double[numFeatures];
+    diagonal = new double[numFeatures];
+  }
+
+  /**
+   * @param features the feature rows of all users or items of the fixed side
+   * @return Y' Y, where the rows of Y are the given features
+   */
+  public static double[][] gramian(double[][] features) {
+    Preconditions.checkArgument(features.length > 0, "no features");
+    Matrix y = new DenseMatrix(features, true);
+    Matrix yTransposeY = y.transposeTimes(y);
+    double[][] gramian = new double[yTransposeY.rowSize()][yTransposeY.columnSize()];
+    for (int row = 0; row < gramian.length; row++) {
+      for (int column = 0; column < gramian[row].length; column++) {
+        gramian[row][column] = yTransposeY.getQuick(row, column);
+      }
+    }
+    return gramian;
+  }
+
+  /**
+   * Computes the features minimizing the ALS-WR objective, for the first {@code length} ratings
+   *
+   * @param features feature rows of the fixed side
+   * @param indexes row in {@code features} of each rating
+   * @param ratings the ratings
+   * @param length number of ratings to use
+   * @param lambda regularization, multiplied by the number of ratings
+   * @param result receives the solution
+   */
+  public void solveExplicit(double[][] features, int[] indexes, double[] ratings, int length, double lambda,
+      double[] result) {
+    Preconditions.checkArgument(length > 0, "Rating vector cannot be empty");
+    clear();
+    for (int n = 0; n < length; n++) {
+      double[] feature = features[indexes[n]];
+      addOuterProduct(feature, 1.0);
+      addScaled(feature, ratings[n]);
+    }
+    addToDiagonal(lambda * length);
+    solve(result);
+  }
+
+  /**
+   * Computes the features of the implicit feedback model, (Y' Y + Y' (Cu - I) Y + lambda I) x = Y' Cu p(u), for the
+   * first {@code length} ratings
+   *
+   * @param gramian Y' Y, as computed by {@link #gramian(double[][])}
+   * @param features feature rows of the fixed side
+   * @param indexes row in {@code features} of each rating
+   * @param ratings the ratings, from which the confidences 1 + alpha * rating are derived
+   * @param length number of ratings to use
+   * @param lambda regularization
+   * @param alpha confidence scaling
+   * @param result receives the solution
+   */
+  public void solveImplicit(double[][] gramian, double[][] features, int[] indexes, double[] ratings, int length,
+      double lambda, double alpha, double[] result) {
+    for (int row = 0; row < numFeatures; row++) {
+      System.arraycopy(gramian[row], row, a[row], row, numFeatures - row);
+    }
+    Arrays.fill(b, 0.0);
+    for (int n = 0; n < length; n++) {
+      double[] feature = features[indexes[n]];
+      double confidence = 1.0 + alpha * ratings[n];
+      addOuterProduct(feature, confidence - 1.0);
+      addScaled(feature, confidence);
+    }
+    addToDiagonal(lambda);
+    solve(result);
+  }
+
+  private void clear() {
+    for (double[] row : a) {
+      Arrays.fill(row, 0.0);
+    }
+    Arrays.fill(b, 0.0);
+  }
+
+  /** adds weight * x x' to the upper triangle of a */
+  private void addOuterProduct(double[] x, double weight) {
+    for (int row = 0; row < numFeatures; row++) {
+      double[] aRow = a[row];
+      double scaled = weight * x[row];
+      for (int column = row; column < numFeatures; column++) {
+        aRow[column] += scaled * x[column];
+      }
+    }
+  }
+
+  private void addScaled(double[] x, double weight) {
+    for (int feature = 0; feature < numFeatures; feature++) {
+      b[feature] += weight * x[feature];
+    }
+  }
+
+  private void addToDiagonal(double value) {
+    for (int feature = 0; feature < numFeatures; feature++) {
+      a[feature][feature] += value;
+    }
+  }
+
+  /** solves a x = b, given the upper triangle of the symmetric matrix a */
+  private void solve(double[] result) {
+    // keep the matrix in the lower triangle and the diagonal, the factorization overwrites the upper triangle
+    for (int row = 0; row < numFeatures; row++) {
+      diagonal[row] = a[row][row];
+      for (int column = row + 1; column < numFeatures; column++) {
+        a[column][row] = a[row][column];
+      }
+    }
+    if (!choleskyInPlace()) {
+      // not positive definite, which can only happen without regularization
+      solveWithQR(result);
+      return;
+    }
+    // R' y = b
+    for (int row = 0; row < numFeatures; row++) {
+      double sum = b[row];
+      for (int k = 0; k < row; k++) {
+        sum -= a[k][row] * result[k];
+      }
+      result[row] = sum / a[row][row];
+    }
+    // R x = y
+    for (int row = numFeatures - 1; row >= 0; row--) {
+      double[] aRow = a[row];
+      double sum = result[row];
+      for (int k = row + 1; k < numFeatures; k++) {
+        sum -= aRow[k] * result[k];
+      }
+      result[row] = sum / aRow[row];
+    }
+  }
+
+  /** overwrites the upper triangle of a with R, where a = R' R */
+  private boolean choleskyInPlace() {
+    for (int row = 0; row < numFeatures; row++) {
+      double[] aRow = a[row];
+      for (int column = row; column < numFeatures; column++) {
+        double sum = row == column ? diagonal[row] : aRow[column];
+        for (int k = 0; k < row; k++) {
+          sum -= a[k][row] * a[k][column];
+        }
+        if (row == column) {
+          if (!(sum > 0.0)) {
+            return false;
+          }
+          aRow[row] = Math.sqrt(sum);
+        } else {
+          aRow[column] = sum / aRow[row];
+        }
+      }
+    }
+    return true;
+  }
+
+  private void solveWithQR(double[] result) {
+    Matrix matrix = new DenseMatrix(numFeatures, numFeatures);
+    Matrix vector = new DenseMatrix(numFeatures, 1);
+    for (int row = 0; row < numFeatures; row++) {
+      for (int column = 0; column < row; column++) {
+        matrix.setQuick(row, column, a[row][column]);
+        matrix.setQuick(column, row, a[row][column]);
+      }
+      matrix.setQuick(row, row, diagonal[row]);
+      vector.setQuick(row, 0, b[row]);
+    }
+    Vector solution = new QRDecomposition(matrix).solve(vector).viewColumn(0);
+    for (int feature = 0; feature < numFeatures; feature++) {
+      result[feature] = solution.getQuick(feature);
+    }
+  }
+
+}
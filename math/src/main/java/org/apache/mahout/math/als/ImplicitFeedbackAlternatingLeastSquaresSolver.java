@@ -72,7 +72,7 @@ public class ImplicitFeedbackAlternatingLeastSquaresSolver {
       compactedY.assignRow(row++, Y.get(index));
     }
 
-    return compactedY.transpose().times(compactedY);
+    return compactedY.transposeTimes(compactedY);
   }
 
   /** Y' (Cu - I) Y + λ I */
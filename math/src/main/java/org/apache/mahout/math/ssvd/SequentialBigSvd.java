@@ -41,10 +41,10 @@ public class SequentialBigSvd {
     y = A.times(new RandomTrinaryMatrix(A.columnSize(), p));
 
     // R'R = Y' Y
-    cd1 = new CholeskyDecomposition(y.transpose().times(y));
+    cd1 = new CholeskyDecomposition(y.transposeTimes(y));
 
     // B = Q" A = (Y R^{-1} )' A
-    b = cd1.solveRight(y).transpose().times(A);
+    b = cd1.solveRight(y).transposeTimes(A);
 
     // L L' = B B'
     cd2 = new CholeskyDecomposition(b.times(b.transpose()));
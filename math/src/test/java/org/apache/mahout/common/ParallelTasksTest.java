@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.common;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.math.MahoutTestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Tests {@link ParallelTasks}.
+ */
+public final class ParallelTasksTest extends MahoutTestCase {
+
+  private static List<Callable<Integer>> squares(int numTasks) {
+    List<Callable<Integer>> tasks = Lists.newArrayList();
+    for (int n = 0; n < numTasks; n++) {
+      final int value = n;
+      tasks.add(new Callable<Integer>() {
+        @Override
+        public Integer call() {
+          return value * value;
+        }
+      });
+    }
+    return tasks;
+  }
+
+  private static List<Callable<Integer>> failing(final Exception exception) {
+    List<Callable<Integer>> tasks = squares(3);
+    tasks.add(new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        throw exception;
+      }
+    });
+    return tasks;
+  }
+
+  @Test
+  public void testResultsInTaskOrder() throws Exception {
+    for (int numThreads : new int[] {1, 3, 10}) {
+      List<Integer> results = ParallelTasks.invokeAll(squares(7), numThreads, RuntimeException.class);
+      assertEquals(7, results.size());
+      for (int n = 0; n < 7; n++) {
+        assertEquals(n * n, results.get(n).intValue());
+      }
+    }
+  }
+
+  @Test
+  public void testRethrowsDeclaredException() throws Exception {
+    for (int numThreads : new int[] {1, 2}) {
+      IOException thrown = new IOException();
+      try {
+        ParallelTasks.invokeAll(failing(thrown), numThreads, IOException.class);
+        fail();
+      } catch (IOException ioe) {
+        assertSame(thrown, ioe);
+      }
+    }
+  }
+
+  @Test
+  public void testRethrowsRuntimeException() throws Exception {
+    for (int numThreads : new int[] {1, 2}) {
+      IllegalArgumentException thrown = new IllegalArgumentException();
+      try {
+        ParallelTasks.invokeAll(failing(thrown), numThreads, IOException.class);
+        fail();
+      } catch (IllegalArgumentException iae) {
+        assertSame(thrown, iae);
+      }
+    }
+  }
+
+  @Test
+  public void testWrapsOtherCheckedException() throws Exception {
+    for (int numThreads : new int[] {1, 2}) {
+      IOException thrown = new IOException();
+      try {
+        ParallelTasks.invokeAll(failing(thrown), numThreads, RuntimeException.class);
+        fail();
+      } catch (IllegalStateException ise) {
+        assertSame(thrown, ise.getCause());
+      }
+    }
+  }
+
+  @Test
+  public void testSharedPool() throws Exception {
+    List<Integer> results = ParallelTasks.invokeAllShared(squares(7), RuntimeException.class);
+    assertEquals(7, results.size());
+    for (int n = 0; n < 7; n++) {
+      assertEquals(n * n, results.get(n).intValue());
+    }
+    IOException thrown = new IOException();
+    try {
+      ParallelTasks.invokeAllShared(failing(thrown), IOException.class);
+      fail();
+    } catch (IOException ioe) {
+      assertSame(thrown, ioe);
+    }
+  }
+
+  @Test
+  public void testDaemonThreads() throws Exception {
+    List<Callable<Boolean>> tasks = Lists.newArrayList();
+    for (int n = 0; n < 2; n++) {
+      tasks.add(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return Thread.currentThread().isDaemon();
+        }
+      });
+    }
+    assertEquals(Lists.newArrayList(true, true), ParallelTasks.invokeAll(tasks, 2, RuntimeException.class));
+    assertEquals(Lists.newArrayList(true, true), ParallelTasks.invokeAllShared(tasks, RuntimeException.class));
+  }
+
+  @Test
+  public void testNestedSharedTasksRunInline() throws Exception {
+    assertFalse(ParallelTasks.isSharedThread());
+    List<Callable<Boolean>> tasks = Lists.newArrayList();
+    for (int n = 0; n < 2; n++) {
+      tasks.add(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          final Thread outer = Thread.currentThread();
+          List<Callable<Boolean>> nested = Lists.newArrayList();
+          for (int m = 0; m < 2; m++) {
+            nested.add(new Callable<Boolean>() {
+              @Override
+              public Boolean call() {
+                return Thread.currentThread() == outer;
+              }
+            });
+          }
+          return ParallelTasks.isSharedThread()
+              && !ParallelTasks.invokeAllShared(nested, RuntimeException.class).contains(false);
+        }
+      });
+    }
+    assertEquals(Lists.newArrayList(true, true), ParallelTasks.invokeAllShared(tasks, RuntimeException.class));
+  }
+
+}
@@ -18,6 +18,7 @@
 package org.apache.mahout.math;
 
 import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -454,4 +455,59 @@ public abstract class AbstractTestVector extends MahoutTestCase {
     }
   }
 
+  @Test
+  public void testForEachNonZero() {
+    final double[] visited = new double[test.size()];
+    assertTrue(test.forEachNonZero(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        visited[index] += value;
+        return true;
+      }
+    }));
+    for (int i = 0; i < gold.length; i++) {
+      assertEquals("visited[" + i + ']', gold[i], visited[i], EPSILON);
+    }
+
+    final int[] count = new int[1];
+    assertFalse(test.forEachNonZero(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        count[0]++;
+        return false;
+      }
+    }));
+    assertEquals("stopped after first element", 1, count[0]);
+  }
+
+  @Test
+  public void testForEachNonZeroViewPart() {
+    Vector part = test.viewPart(2, 4);
+    final double[] visited = new double[part.size()];
+    part.forEachNonZero(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        visited[index] += value;
+        return true;
+      }
+    });
+    for (int i = 0; i < visited.length; i++) {
+      assertEquals("visited[" + i + ']', gold[i + 2], visited[i], EPSILON);
+    }
+  }
+
+  @Test
+  public void testAggregate() {
+    double sum = 0.0;
+    double max = Double.NEGATIVE_INFINITY;
+    for (double value : gold) {
+      sum += value + 1.0;
+      max = Math.max(max, -value);
+    }
+    assertEquals("sum", sum, test.aggregate(Functions.PLUS, Functions.plus(1.0)), EPSILON);
+    assertEquals("max", max, test.aggregate(Functions.MAX, Functions.NEGATE), EPSILON);
+    assertEquals("min", -3.3, test.aggregate(Functions.MIN, Functions.NEGATE), EPSILON);
+    assertEquals("empty", 7.0, test.like().aggregate(Functions.PLUS, Functions.plus(1.0)), EPSILON);
+  }
+
 }
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Products above {@link DenseMatrixMultiplier#PARALLEL_THRESHOLD}, computed for four threads whatever the number of
+ * processors, so that the parallel paths run.
+ */
+public final class DenseMatrixMultiplierTest extends MahoutTestCase {
+
+  private static final int NUM_THREADS = 4;
+
+  @Test
+  public void testTimesTiled() {
+    double[][] a = randomArray(97, 83);
+    double[][] b = randomArray(83, 71);
+    assertTrue((long) 97 * 83 * 71 >= DenseMatrixMultiplier.PARALLEL_THRESHOLD);
+
+    double[][] c = new double[97][71];
+    DenseMatrixMultiplier.times(a, b, c, NUM_THREADS);
+
+    assertArrayEquals(naiveTimes(a, b), c);
+  }
+
+  /** a result of 6 x 2 tiles, which is enough tiles for all threads */
+  @Test
+  public void testTransposeTimesTiled() {
+    double[][] a = randomArray(100, 90);
+    double[][] b = randomArray(100, 80);
+    assertTrue((long) 90 * 80 * 100 >= DenseMatrixMultiplier.PARALLEL_THRESHOLD);
+
+    double[][] c = new double[90][80];
+    DenseMatrixMultiplier.transposeTimes(a, b, c, NUM_THREADS);
+
+    assertArrayEquals(naiveTimes(transpose(a), b), c);
+  }
+
+  /** the Gramian of a tall matrix fits into a single tile, so partial products over the rows are added up */
+  @Test
+  public void testTransposeTimesPartialSums() {
+    double[][] a = randomArray(5003, 8);
+    assertTrue((long) 8 * 8 * 5003 >= DenseMatrixMultiplier.PARALLEL_THRESHOLD);
+
+    double[][] c = new double[8][8];
+    DenseMatrixMultiplier.transposeTimes(a, a, c, NUM_THREADS);
+
+    assertArrayEquals(naiveTimes(transpose(a), a), c);
+  }
+
+  @Test
+  public void testDenseMatrixTimes() {
+    Matrix a = new DenseMatrix(randomArray(70, 65));
+    Matrix b = new DenseMatrix(randomArray(65, 90));
+
+    Matrix expected = new DenseMatrix(naiveTimes(toArray(a), toArray(b)));
+    assertArrayEquals(toArray(expected), toArray(a.times(b)));
+    assertArrayEquals(toArray(a.transpose().times(a)), toArray(a.transposeTimes(a)));
+  }
+
+  private static double[][] randomArray(int rows, int columns) {
+    Random random = RandomUtils.getRandom();
+    double[][] array = new double[rows][columns];
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        array[row][column] = random.nextGaussian();
+      }
+    }
+    return array;
+  }
+
+  private static double[][] naiveTimes(double[][] a, double[][] b) {
+    double[][] c = new double[a.length][b[0].length];
+    for (int row = 0; row < a.length; row++) {
+      for (int column = 0; column < b[0].length; column++) {
+        double sum = 0.0;
+        for (int k = 0; k < b.length; k++) {
+          sum += a[row][k] * b[k][column];
+        }
+        c[row][column] = sum;
+      }
+    }
+    return c;
+  }
+
+  private static double[][] transpose(double[][] a) {
+    double[][] transpose = new double[a[0].length][a.length];
+    for (int row = 0; row < a.length; row++) {
+      for (int column = 0; column < a[0].length; column++) {
+        transpose[column][row] = a[row][column];
+      }
+    }
+    return transpose;
+  }
+
+  private static double[][] toArray(Matrix matrix) {
+    double[][] array = new double[matrix.rowSize()][matrix.columnSize()];
+    for (int row = 0; row < array.length; row++) {
+      for (int column = 0; column < array[row].length; column++) {
+        array[row][column] = matrix.getQuick(row, column);
+      }
+    }
+    return array;
+  }
+
+  private static void assertArrayEquals(double[][] expected, double[][] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int row = 0; row < expected.length; row++) {
+      assertEquals(expected[row].length, actual[row].length);
+      for (int column = 0; column < expected[row].length; column++) {
+        assertEquals(expected[row][column], actual[row][column], 1.0e-9);
+      }
+    }
+  }
+
+}
@@ -466,6 +466,26 @@ public abstract class MatrixTest extends MahoutTestCase {
     test.times(other);
   }
 
+  @Test
+  public void testTransposeTimes() {
+    Matrix other = test.like(3, 4);
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 4; col++) {
+        other.setQuick(row, col, row - 2.0 * col);
+      }
+    }
+    Matrix expected = test.transpose().times(other);
+    Matrix value = test.transposeTimes(other);
+    assertEquals("rows", test.columnSize(), value.rowSize());
+    assertEquals("cols", other.columnSize(), value.columnSize());
+    assertEquals(0.0, expected.minus(value).aggregate(Functions.PLUS, Functions.ABS), EPSILON);
+  }
+
+  @Test(expected = CardinalityException.class)
+  public void testTransposeTimesCardinality() {
+    test.transposeTimes(test.like(2, 3));
+  }
+
   @Test
   public void testTranspose() {
     Matrix transpose = test.transpose();
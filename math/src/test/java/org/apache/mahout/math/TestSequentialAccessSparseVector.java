@@ -17,6 +17,10 @@
 
 package org.apache.mahout.math;
 
+import java.util.Iterator;
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
 public final class TestSequentialAccessSparseVector extends AbstractTestVector {
@@ -39,4 +43,73 @@ public final class TestSequentialAccessSparseVector extends AbstractTestVector {
 
     assertEquals("dot2", -0.666666667, v.dot(w), EPSILON);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testBuilder() {
+    SequentialAccessSparseVector.Builder builder = new SequentialAccessSparseVector.Builder(10, 2);
+    builder.set(7, 1.0).set(2, 2.0).set(9, 3.0).set(2, 4.0).set(5, 5.0).set(5, 0.0).set(0, 6.0);
+    Vector v = builder.build();
+
+    Vector expected = new RandomAccessSparseVector(10);
+    expected.set(7, 1.0);
+    expected.set(2, 4.0);
+    expected.set(9, 3.0);
+    expected.set(0, 6.0);
+    assertEquals(expected, v);
+    assertEquals(4, v.getNumNondefaultElements());
+
+    int lastIndex = -1;
+    Iterator<Vector.Element> iterator = v.iterateNonZero();
+    while (iterator.hasNext()) {
+      int index = iterator.next().index();
+      assertTrue(index > lastIndex);
+      lastIndex = index;
+    }
+  }
+
+  @Test(expected = IndexException.class)
+  public void testBuilderIndexOutOfBounds() {
+    new SequentialAccessSparseVector.Builder(10).set(10, 1.0);
+  }
+
+  @Test
+  public void testMergeOperations() {
+    Random random = RandomUtils.getRandom();
+    for (int round = 0; round < 20; round++) {
+      Vector x = randomSparseVector(random, 100, random.nextInt(30));
+      Vector y = randomSparseVector(random, 100, random.nextInt(30));
+      Vector denseX = new DenseVector(x);
+      Vector denseY = new DenseVector(y);
+
+      assertEquals(denseX.dot(denseY), x.dot(y), EPSILON);
+      assertEquals(denseX.getDistanceSquared(denseY), x.getDistanceSquared(y), EPSILON);
+
+      Vector sum = x.plus(y);
+      assertTrue(sum instanceof SequentialAccessSparseVector);
+      assertEquals(0.0, sum.minus(denseX.plus(denseY)).norm(1), EPSILON);
+
+      Vector difference = x.minus(y);
+      assertTrue(difference instanceof SequentialAccessSparseVector);
+      assertEquals(0.0, difference.minus(denseX.minus(denseY)).norm(1), EPSILON);
+    }
+  }
+
+  @Test
+  public void testMergeCancellation() {
+    Vector x = new SequentialAccessSparseVector(10);
+    x.set(1, 1.0);
+    x.set(4, 2.0);
+    Vector y = x.clone();
+    assertEquals(0, x.minus(y).getNumNondefaultElements());
+    assertEquals(2, x.plus(y).getNumNondefaultElements());
+    assertEquals(0.0, x.getDistanceSquared(y), EPSILON);
+  }
+
+  private static Vector randomSparseVector(Random random, int cardinality, int numNonZeros) {
+    SequentialAccessSparseVector.Builder builder = new SequentialAccessSparseVector.Builder(cardinality);
+    for (int i = 0; i < numNonZeros; i++) {
+      builder.set(random.nextInt(cardinality), random.nextGaussian());
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.als;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.MahoutTestCase;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.map.OpenIntObjectHashMap;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+public class DenseAlternatingLeastSquaresSolverTest extends MahoutTestCase {
+
+  private static final int NUM_FEATURES = 5;
+  private static final int NUM_ROWS = 40;
+
+  private static double[][] randomFeatures(Random random) {
+    double[][] features = new double[NUM_ROWS][NUM_FEATURES];
+    for (double[] row : features) {
+      for (int feature = 0; feature < NUM_FEATURES; feature++) {
+        row[feature] = random.nextGaussian();
+      }
+    }
+    return features;
+  }
+
+  private static void assertEquals(Vector expected, double[] actual) {
+    assertEquals(expected.size(), actual.length);
+    for (int feature = 0; feature < actual.length; feature++) {
+      assertEquals(expected.getQuick(feature), actual[feature], 1.0e-9);
+    }
+  }
+
+  @Test
+  public void sameAsExplicitSolver() {
+    Random random = RandomUtils.getRandom();
+    double[][] features = randomFeatures(random);
+    int[] indexes = {3, 7, 8, 20, 31, 39};
+    double[] ratings = {1.0, 5.0, 3.5, 2.0, 4.0, 4.5};
+
+    List<Vector> featureVectors = Lists.newArrayList();
+    for (int index : indexes) {
+      featureVectors.add(new DenseVector(features[index]));
+    }
+    Vector expected = new AlternatingLeastSquaresSolver().solve(featureVectors, new DenseVector(ratings), 0.065,
+        NUM_FEATURES);
+
+    DenseAlternatingLeastSquaresSolver solver = new DenseAlternatingLeastSquaresSolver(NUM_FEATURES);
+    double[] result = new double[NUM_FEATURES];
+    solver.solveExplicit(features, indexes, ratings, indexes.length, 0.065, result);
+    assertEquals(expected, result);
+
+    // the scratch space is reset between solves
+    solver.solveExplicit(features, indexes, ratings, indexes.length, 0.065, result);
+    assertEquals(expected, result);
+  }
+
+  @Test
+  public void sameAsImplicitSolver() {
+    Random random = RandomUtils.getRandom();
+    double[][] features = randomFeatures(random);
+    OpenIntObjectHashMap<Vector> y = new OpenIntObjectHashMap<Vector>();
+    for (int row = 0; row < NUM_ROWS; row++) {
+      y.put(row, new DenseVector(features[row]));
+    }
+    int[] indexes = {0, 5, 6, 17, 38};
+    double[] ratings = {1.0, 2.0, 1.0, 7.0, 3.0};
+    Vector ratingVector = new SequentialAccessSparseVector(NUM_ROWS);
+    for (int n = 0; n < indexes.length; n++) {
+      ratingVector.setQuick(indexes[n], ratings[n]);
+    }
+    Vector expected =
+        new ImplicitFeedbackAlternatingLeastSquaresSolver(NUM_FEATURES, 0.1, 40.0, y).solve(ratingVector);
+
+    double[][] gramian = DenseAlternatingLeastSquaresSolver.gramian(features);
+    DenseAlternatingLeastSquaresSolver solver = new DenseAlternatingLeastSquaresSolver(NUM_FEATURES);
+    double[] result = new double[NUM_FEATURES];
+    solver.solveImplicit(gramian, features, indexes, ratings, indexes.length, 0.1, 40.0, result);
+    assertEquals(expected, result);
+  }
+
+}